@@ -0,0 +1,68 @@
+package com.danvelazco.wear.displaybrightness.benchmark;
+
+import com.danvelazco.wear.displaybrightness.core.BrightnessContext;
+import com.danvelazco.wear.displaybrightness.core.BrightnessDecision;
+import com.danvelazco.wear.displaybrightness.core.BrightnessDecisionTable;
+import com.danvelazco.wear.displaybrightness.core.BrightnessEngine;
+import com.danvelazco.wear.displaybrightness.core.SolarEventCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Benchmark of a whole decision, from a {@link BrightnessContext} snapshot to a {@link BrightnessDecision}, as done
+ * on every activity detection. Snapshots are recorded around a single location over a day, so the sunrise and sunset
+ * are cached like they are on the phone.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BrightnessEngineBenchmark {
+
+    // Constants
+    private static final int SAMPLES = 1024;
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+    // Members
+    private final BrightnessContext[] mContexts = new BrightnessContext[SAMPLES];
+    private BrightnessEngine mEngine;
+    private int mIndex;
+
+    @Setup
+    public void setUp() {
+        TimeZone timeZone = TimeZone.getTimeZone("America/New_York");
+        mEngine = new BrightnessEngine(new SolarEventCache(SolarEventCache.DEFAULT_CALCULATOR, timeZone, 8));
+        mEngine.setMinConfidence(50);
+
+        BrightnessDecisionTable table = new BrightnessDecisionTable(2, 1)
+                .put(BrightnessDecisionTable.IN_VEHICLE, 4, 2)
+                .put(BrightnessDecisionTable.RUNNING, 4, 2)
+                .put(BrightnessDecisionTable.STILL, 2, 0);
+
+        Random random = new Random(42);
+        long start = System.currentTimeMillis();
+        start -= start % DAY_MILLIS;
+        for (int i = 0; i < SAMPLES; i++) {
+            mContexts[i] = new BrightnessContext(random.nextInt(BrightnessDecisionTable.ACTIVITY_TYPE_COUNT),
+                    random.nextInt(101), 40.7128d + random.nextDouble() * 0.01d, -74.0060d,
+                    start + (long) (random.nextDouble() * DAY_MILLIS / 2), table);
+        }
+    }
+
+    @Benchmark
+    public BrightnessDecision decide() {
+        return mEngine.decide(mContexts[mIndex++ & (SAMPLES - 1)]);
+    }
+
+}
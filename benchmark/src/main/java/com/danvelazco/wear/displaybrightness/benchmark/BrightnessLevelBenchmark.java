@@ -0,0 +1,93 @@
+package com.danvelazco.wear.displaybrightness.benchmark;
+
+import com.danvelazco.wear.displaybrightness.shared.BrightnessLevel;
+import com.danvelazco.wear.displaybrightness.core.BrightnessDecisionTable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Benchmarks for turning a detected activity into the brightness level sent to the watch.
+ * <p/>
+ * {@link #resolveFromStrings()} mimics how the levels used to be resolved, by looking up the preference for the
+ * activity and parsing its string value on every detection, and is kept as a baseline for the compiled {@link
+ * BrightnessDecisionTable}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BrightnessLevelBenchmark {
+
+    // Activity types as reported by the activity recognition API, including one it doesn't know about
+    private static final int[] ACTIVITY_TYPES = {
+            BrightnessDecisionTable.IN_VEHICLE, BrightnessDecisionTable.ON_BICYCLE, BrightnessDecisionTable.ON_FOOT,
+            BrightnessDecisionTable.STILL, BrightnessDecisionTable.UNKNOWN, BrightnessDecisionTable.TILTING,
+            BrightnessDecisionTable.WALKING, BrightnessDecisionTable.RUNNING, 42
+    };
+
+    // Members
+    private BrightnessDecisionTable mDecisionTable;
+    private Map<String, String> mPreferences;
+    private int mIndex;
+
+    @Setup
+    public void setUp() {
+        mDecisionTable = new BrightnessDecisionTable(BrightnessLevel.MEDIUM, BrightnessLevel.MEDIUM_LOW)
+                .put(BrightnessDecisionTable.IN_VEHICLE, BrightnessLevel.HIGHEST, BrightnessLevel.MEDIUM)
+                .put(BrightnessDecisionTable.ON_BICYCLE, BrightnessLevel.HIGHEST, BrightnessLevel.MEDIUM)
+                .put(BrightnessDecisionTable.ON_FOOT, BrightnessLevel.MEDIUM_HIGH, BrightnessLevel.MEDIUM_LOW)
+                .put(BrightnessDecisionTable.TILTING, BrightnessLevel.MEDIUM_HIGH, BrightnessLevel.MEDIUM_LOW)
+                .put(BrightnessDecisionTable.WALKING, BrightnessLevel.MEDIUM_HIGH, BrightnessLevel.MEDIUM_LOW)
+                .put(BrightnessDecisionTable.RUNNING, BrightnessLevel.HIGHEST, BrightnessLevel.MEDIUM)
+                .put(BrightnessDecisionTable.STILL, BrightnessLevel.MEDIUM, BrightnessLevel.LOWEST);
+
+        // Preferences are stored as strings by the ListPreference
+        mPreferences = new HashMap<>();
+        for (int type : ACTIVITY_TYPES) {
+            mPreferences.put(preferenceKey(type, true),
+                    Integer.toString(mDecisionTable.getBrightnessLevel(type, true)));
+            mPreferences.put(preferenceKey(type, false),
+                    Integer.toString(mDecisionTable.getBrightnessLevel(type, false)));
+        }
+    }
+
+    @Benchmark
+    public int getBrightnessLevel() {
+        int value = mIndex++ % (BrightnessLevel.HIGHEST + 2);
+        return BrightnessLevel.getBrightnessLevel(value);
+    }
+
+    @Benchmark
+    public int resolveFromTable() {
+        int index = mIndex++;
+        int activityType = ACTIVITY_TYPES[index % ACTIVITY_TYPES.length];
+        return BrightnessLevel.getBrightnessLevel(mDecisionTable.getBrightnessLevel(activityType, (index & 1) == 0));
+    }
+
+    @Benchmark
+    public int resolveFromStrings() {
+        int index = mIndex++;
+        int activityType = ACTIVITY_TYPES[index % ACTIVITY_TYPES.length];
+        String value = mPreferences.get(preferenceKey(activityType, (index & 1) == 0));
+        return BrightnessLevel.getBrightnessLevel(Integer.parseInt(value));
+    }
+
+    /**
+     * @return {@link String} preference key for the activity, built the same way on every call like the old code
+     */
+    private static String preferenceKey(int activityType, boolean isDaytime) {
+        return (isDaytime ? "level_" : "level_night_") + activityType;
+    }
+
+}
@@ -0,0 +1,59 @@
+package com.danvelazco.wear.displaybrightness.benchmark;
+
+import com.danvelazco.wear.displaybrightness.shared.BrightnessLevel;
+import com.danvelazco.wear.displaybrightness.shared.BrightnessPayload;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for building and reading the {@link BrightnessPayload} sent to the watch.
+ * <p/>
+ * {@link #encode()} and {@link #decode()} reuse their buffers and should report no allocations, {@link
+ * #toByteArray()} is what the sender does for every level since the Wearable APIs need an array of the exact size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BrightnessPayloadBenchmark {
+
+    // Members
+    private final BrightnessPayload mPayload = new BrightnessPayload();
+    private final byte[] mBuffer = new byte[BrightnessPayload.MAX_ENCODED_SIZE];
+    private byte[] mEncoded;
+    private long mSequence;
+
+    @Setup
+    public void setUp() {
+        mSequence = System.currentTimeMillis();
+        mEncoded = mPayload.set(BrightnessLevel.MEDIUM, mSequence, System.currentTimeMillis(),
+                BrightnessPayload.REASON_ACTIVITY).toByteArray();
+    }
+
+    @Benchmark
+    public int encode() {
+        return mPayload.set(BrightnessLevel.MEDIUM, ++mSequence, mSequence, BrightnessPayload.REASON_ACTIVITY)
+                .encode(mBuffer, 0);
+    }
+
+    @Benchmark
+    public byte[] toByteArray() {
+        return mPayload.set(BrightnessLevel.MEDIUM, ++mSequence, mSequence, BrightnessPayload.REASON_ACTIVITY)
+                .toByteArray();
+    }
+
+    @Benchmark
+    public long decode() {
+        mPayload.decode(mEncoded);
+        return mPayload.getSequence();
+    }
+
+}
@@ -0,0 +1,111 @@
+package com.danvelazco.wear.displaybrightness.benchmark;
+
+import com.danvelazco.wear.displaybrightness.core.BrightnessContext;
+import com.danvelazco.wear.displaybrightness.core.BrightnessDecisionTable;
+import com.danvelazco.wear.displaybrightness.core.PolicyInput;
+import com.danvelazco.wear.displaybrightness.core.PolicyRule;
+import com.danvelazco.wear.displaybrightness.core.PolicyRuleSet;
+import com.danvelazco.wear.displaybrightness.core.ScheduleRule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Benchmark of a {@link PolicyRuleSet} evaluation with 1, 10 and 100 rules, against checking the rules one by one.
+ * Rules get a few random conditions each and none of them matches everything, so most evaluations look at the whole
+ * rule set.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PolicyRuleSetBenchmark {
+
+    // Constants
+    private static final int SAMPLES = 1024;
+    private static final long WEEK_MILLIS = 7 * 24 * 60 * 60 * 1000L;
+    private static final int[] ACTIVITY_TYPES = {BrightnessDecisionTable.IN_VEHICLE, BrightnessDecisionTable.ON_BICYCLE,
+            BrightnessDecisionTable.ON_FOOT, BrightnessDecisionTable.STILL, BrightnessDecisionTable.UNKNOWN,
+            BrightnessDecisionTable.TILTING, BrightnessDecisionTable.WALKING, BrightnessDecisionTable.RUNNING};
+
+    @Param({"1", "10", "100"})
+    public int ruleCount;
+
+    // Members
+    private final PolicyInput[] mInputs = new PolicyInput[SAMPLES];
+    private final List<PolicyRule> mRules = new ArrayList<>();
+    private TimeZone mTimeZone;
+    private PolicyRuleSet mRuleSet;
+    private int mIndex;
+
+    @Setup
+    public void setUp() {
+        mTimeZone = TimeZone.getTimeZone("America/New_York");
+        Random random = new Random(42);
+        mRules.clear();
+        for (int i = 0; i < ruleCount; i++) {
+            PolicyRule rule = new PolicyRule(random.nextInt(5))
+                    .setActivities(ACTIVITY_TYPES[random.nextInt(ACTIVITY_TYPES.length)],
+                            ACTIVITY_TYPES[random.nextInt(ACTIVITY_TYPES.length)])
+                    .setMinConfidence(random.nextInt(101));
+            if (random.nextBoolean()) {
+                rule.setPhase(random.nextInt(2));
+            }
+            if (random.nextBoolean()) {
+                rule.setWindow(1 + random.nextInt(ScheduleRule.EVERY_DAY), random.nextInt(ScheduleRule.MINUTES_PER_DAY),
+                        random.nextInt(ScheduleRule.MINUTES_PER_DAY));
+            }
+            if (random.nextBoolean()) {
+                int min = random.nextInt(101);
+                rule.setWatchBattery(min, min + random.nextInt(101 - min));
+            }
+            if (random.nextBoolean()) {
+                rule.setPhoneCharging(random.nextInt(2));
+            }
+            mRules.add(rule);
+        }
+        mRuleSet = new PolicyRuleSet(mRules, mTimeZone);
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < SAMPLES; i++) {
+            mInputs[i] = new PolicyInput()
+                    .setActivity(ACTIVITY_TYPES[random.nextInt(ACTIVITY_TYPES.length)], random.nextInt(101))
+                    .setDaytime(random.nextBoolean())
+                    .setTimeMillis(start + (long) (random.nextDouble() * WEEK_MILLIS))
+                    .setPhoneBattery(random.nextInt(101), random.nextInt(2))
+                    .setWatchBattery(random.nextInt(10) == 0 ? BrightnessContext.UNKNOWN_BATTERY : random.nextInt(101),
+                            PolicyInput.CHARGING_UNKNOWN);
+        }
+    }
+
+    @Benchmark
+    public int evaluate() {
+        return mRuleSet.evaluate(mInputs[mIndex++ & (SAMPLES - 1)]);
+    }
+
+    @Benchmark
+    public int evaluateLinear() {
+        PolicyInput input = mInputs[mIndex++ & (SAMPLES - 1)];
+        for (int i = 0; i < mRules.size(); i++) {
+            PolicyRule rule = mRules.get(i);
+            if (rule.matches(input, mTimeZone)) {
+                return rule.getLevel();
+            }
+        }
+        return PolicyRuleSet.NO_LEVEL;
+    }
+
+}
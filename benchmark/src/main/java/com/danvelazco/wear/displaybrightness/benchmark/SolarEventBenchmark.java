@@ -0,0 +1,88 @@
+package com.danvelazco.wear.displaybrightness.benchmark;
+
+import com.danvelazco.wear.displaybrightness.core.SolarEventCache;
+import com.luckycatlabs.sunrisesunset.SunriseSunsetCalculator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Calendar;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Benchmarks for the day/night check done on every activity detection.
+ * <p/>
+ * The inputs sweep latitudes from pole to pole (including polar day and night) and dates across a whole year, so both
+ * the cheap and the expensive branches of the calculator are exercised. {@link #calculator()} is what the check cost
+ * before {@link SolarEventCache}, {@link #cachedSameLocation()} is the common case of the phone not moving between
+ * detections and {@link #cachedSweep()} is the worst case where every check misses the cache.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SolarEventBenchmark {
+
+    // Constants
+    private static final int SAMPLES = 1024;
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final double SUNRISE_DEGREES = 15;
+    private static final double SUNSET_DEGREES = 5;
+
+    // Members
+    private final TimeZone mTimeZone = TimeZone.getTimeZone("UTC");
+    private final double[] mLatitudes = new double[SAMPLES];
+    private final double[] mLongitudes = new double[SAMPLES];
+    private final long[] mTimes = new long[SAMPLES];
+    private SolarEventCache mCache;
+    private int mIndex;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        Calendar start = Calendar.getInstance(mTimeZone);
+        start.set(2015, Calendar.JANUARY, 1, 0, 0, 0);
+        for (int i = 0; i < SAMPLES; i++) {
+            mLatitudes[i] = -89 + random.nextDouble() * 178;
+            mLongitudes[i] = -180 + random.nextDouble() * 360;
+            mTimes[i] = start.getTimeInMillis() + (long) (random.nextDouble() * 365 * DAY_MILLIS);
+        }
+        mCache = new SolarEventCache(SolarEventCache.DEFAULT_CALCULATOR, mTimeZone, 8);
+    }
+
+    @Benchmark
+    public boolean calculator() {
+        int index = mIndex++ & (SAMPLES - 1);
+        Calendar now = Calendar.getInstance(mTimeZone);
+        now.setTimeInMillis(mTimes[index]);
+        Calendar sunrise = SunriseSunsetCalculator.getSunrise(mLatitudes[index], mLongitudes[index], mTimeZone, now,
+                SUNRISE_DEGREES);
+        Calendar sunset = SunriseSunsetCalculator.getSunset(mLatitudes[index], mLongitudes[index], mTimeZone, now,
+                SUNSET_DEGREES);
+        return sunrise != null && sunset != null && now.after(sunrise) && now.before(sunset);
+    }
+
+    @Benchmark
+    public boolean cachedSameLocation() {
+        int index = mIndex++ & (SAMPLES - 1);
+        // Same place and day, only the time of day changes
+        long time = mTimes[0] + (mTimes[index] % DAY_MILLIS) / 2;
+        return mCache.isDaytime(mLatitudes[0], mLongitudes[0], time, SUNRISE_DEGREES, SUNSET_DEGREES);
+    }
+
+    @Benchmark
+    public boolean cachedSweep() {
+        int index = mIndex++ & (SAMPLES - 1);
+        return mCache.isDaytime(mLatitudes[index], mLongitudes[index], mTimes[index], SUNRISE_DEGREES,
+                SUNSET_DEGREES);
+    }
+
+}
@@ -0,0 +1,239 @@
+package com.danvelazco.wear.displaybrightness.core;
+
+import java.util.Locale;
+
+/**
+ * Smooths the activity detections over time, so a single uncertain detection doesn't flip the brightness profile.
+ * <p/>
+ * Every detection comes with the confidence of each probable activity, not just the most probable one. The smoother
+ * keeps one score per activity type in a primitive array and moves each score towards the new confidence with an
+ * exponential decay, the older a score is the less it weighs. The smoothed activity only changes when another
+ * activity's score is ahead of the current one by {@link #setMargin(float) the margin}, so a 40% in vehicle against a
+ * 38% still reading keeps whatever the user was doing before.
+ * <p/>
+ * The number of times the most probable activity changed and the number of times the smoothed activity changed are
+ * both kept, per day, to measure the effect.
+ * <p/>
+ * Only the smoothed activity and its confidence need to outlive the process, see {@link #restore(int, int, long)}.
+ * <p/>
+ * The smoother is thread safe.
+ */
+public class ActivitySmoother {
+
+    // Constants
+    private static final long HOUR_MILLIS = 60 * 60 * 1000L;
+    private static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+
+    // Defaults
+    public static final long DEFAULT_HALF_LIFE_MILLIS = 3 * 60 * 1000L;
+    public static final float DEFAULT_MARGIN = 15;
+
+    // Configuration
+    private long mHalfLifeMillis = DEFAULT_HALF_LIFE_MILLIS;
+    private float mMargin = DEFAULT_MARGIN;
+
+    // Members
+    private final float[] mScores = new float[BrightnessDecisionTable.ACTIVITY_TYPE_COUNT];
+    private final float[] mConfidences = new float[BrightnessDecisionTable.ACTIVITY_TYPE_COUNT];
+    private boolean mHasActivity = false;
+    private int mActivityType = BrightnessDecisionTable.UNKNOWN;
+    private int mRawActivityType = BrightnessDecisionTable.UNKNOWN;
+    private long mLastDetectionMillis = 0;
+
+    // Statistics
+    private long mFirstDetectionMillis = 0;
+    private int mDetectionCount = 0;
+    private int mRawFlipCount = 0;
+    private int mFlipCount = 0;
+
+    /**
+     * Record a detection and work out the smoothed activity
+     *
+     * @param activityTypes
+     *         {@link int} probable activity types, one of the {@link BrightnessDecisionTable} activity types each
+     * @param confidences
+     *         {@link int} confidence of each activity type, from 0 to 100
+     * @param count
+     *         {@link int} number of probable activities in the arrays
+     * @param nowMillis
+     *         {@link long} monotonic time of the detection, e.g. {@code SystemClock.elapsedRealtime()}
+     * @return {@link int} smoothed activity type
+     */
+    public synchronized int onDetection(int[] activityTypes, int[] confidences, int count, long nowMillis) {
+        // Activities that weren't reported this time have no confidence at all
+        int rawActivityType = BrightnessDecisionTable.UNKNOWN;
+        int rawConfidence = -1;
+        for (int type = 0; type < mConfidences.length; type++) {
+            mConfidences[type] = 0;
+        }
+        for (int i = 0; i < count; i++) {
+            int type = activityTypes[i];
+            if (type < 0 || type >= mConfidences.length) {
+                type = BrightnessDecisionTable.UNKNOWN;
+            }
+            mConfidences[type] = Math.max(mConfidences[type], confidences[i]);
+            if (confidences[i] > rawConfidence) {
+                rawActivityType = type;
+                rawConfidence = confidences[i];
+            }
+        }
+
+        // The first detection is taken as is, afterwards the weight of the new one grows with the time since the last
+        float weight = 1;
+        if (mHasActivity) {
+            long elapsed = Math.max(0, nowMillis - mLastDetectionMillis);
+            weight = (float) (1 - Math.pow(0.5, (double) elapsed / mHalfLifeMillis));
+        }
+        if (mDetectionCount == 0) {
+            mFirstDetectionMillis = nowMillis;
+        }
+        for (int type = 0; type < mScores.length; type++) {
+            mScores[type] += weight * (mConfidences[type] - mScores[type]);
+        }
+
+        if (mDetectionCount > 0 && rawActivityType != mRawActivityType) {
+            mRawFlipCount++;
+        }
+        mRawActivityType = rawActivityType;
+        mLastDetectionMillis = nowMillis;
+        mDetectionCount++;
+
+        int leader = 0;
+        for (int type = 1; type < mScores.length; type++) {
+            if (mScores[type] > mScores[leader]) {
+                leader = type;
+            }
+        }
+        if (!mHasActivity) {
+            mActivityType = leader;
+            mHasActivity = true;
+        } else if (leader != mActivityType && mScores[leader] - mScores[mActivityType] >= mMargin) {
+            mActivityType = leader;
+            mFlipCount++;
+        }
+        return mActivityType;
+    }
+
+    /**
+     * Start from an activity smoothed before, e.g. by an earlier process, as if it had been the only detection. The
+     * next detection weighs against it like against any other, so the older it is the less it counts. Ignored once
+     * there were detections.
+     *
+     * @param activityType
+     *         {@link int} smoothed activity type, one of the {@link BrightnessDecisionTable} activity types
+     * @param confidence
+     *         {@link int} smoothed confidence of the activity type, from 0 to 100
+     * @param detectionMillis
+     *         {@link long} monotonic time of the detection it was smoothed at, same clock as the detections
+     */
+    public synchronized void restore(int activityType, int confidence, long detectionMillis) {
+        if (mHasActivity || activityType < 0 || activityType >= mScores.length) {
+            return;
+        }
+        mScores[activityType] = Math.max(0, Math.min(100, confidence));
+        mActivityType = activityType;
+        mRawActivityType = activityType;
+        mLastDetectionMillis = detectionMillis;
+        mHasActivity = true;
+    }
+
+    /**
+     * @return {@link int} smoothed activity type, {@link BrightnessDecisionTable#UNKNOWN} before the first detection
+     */
+    public synchronized int getActivityType() {
+        return mActivityType;
+    }
+
+    /**
+     * @return {@link int} smoothed confidence of the smoothed activity type, from 0 to 100
+     */
+    public synchronized int getConfidence() {
+        return Math.round(mScores[mActivityType]);
+    }
+
+    /**
+     * @param halfLifeMillis
+     *         {@link long} time after which a detection weighs half as much
+     */
+    public synchronized void setHalfLifeMillis(long halfLifeMillis) {
+        if (halfLifeMillis <= 0) {
+            throw new IllegalArgumentException("Invalid half life: " + halfLifeMillis);
+        }
+        mHalfLifeMillis = halfLifeMillis;
+    }
+
+    /**
+     * @param margin
+     *         {@link float} confidence points another activity must be ahead by before the smoothed activity
+     *         changes, 0 follows the leading score
+     */
+    public synchronized void setMargin(float margin) {
+        mMargin = Math.max(0, margin);
+    }
+
+    /**
+     * @return {@link int} number of detections
+     */
+    public synchronized int getDetectionCount() {
+        return mDetectionCount;
+    }
+
+    /**
+     * @return {@link int} number of times the most probable activity changed
+     */
+    public synchronized int getRawFlipCount() {
+        return mRawFlipCount;
+    }
+
+    /**
+     * @return {@link int} number of times the smoothed activity changed
+     */
+    public synchronized int getFlipCount() {
+        return mFlipCount;
+    }
+
+    /**
+     * @param nowMillis
+     *         {@link long} monotonic time, same clock used for the detections
+     * @return {@link float} number of times the most probable activity changed per day
+     */
+    public synchronized float getRawFlipsPerDay(long nowMillis) {
+        return perDay(mRawFlipCount, mFirstDetectionMillis, nowMillis);
+    }
+
+    /**
+     * @param nowMillis
+     *         {@link long} monotonic time, same clock used for the detections
+     * @return {@link float} number of times the smoothed activity changed per day
+     */
+    public synchronized float getFlipsPerDay(long nowMillis) {
+        return perDay(mFlipCount, mFirstDetectionMillis, nowMillis);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "ActivitySmoother{activity=%d confidence=%d detections=%d flips=%d raw=%d}",
+                mActivityType, getConfidence(), mDetectionCount, mFlipCount, mRawFlipCount);
+    }
+
+    /**
+     * Extrapolate a count to a daily rate. Less than an hour is counted as an hour so a handful of events right after
+     * starting doesn't read as hundreds a day.
+     *
+     * @param count
+     *         {@link int} number of events
+     * @param sinceMillis
+     *         {@link long} time counting started
+     * @param nowMillis
+     *         {@link long} current time, same clock
+     * @return {@link float} events per day
+     */
+    static float perDay(int count, long sinceMillis, long nowMillis) {
+        long elapsed = Math.max(HOUR_MILLIS, nowMillis - sinceMillis);
+        return (float) count * DAY_MILLIS / elapsed;
+    }
+
+}
@@ -0,0 +1,183 @@
+package com.danvelazco.wear.displaybrightness.core;
+
+/**
+ * Immutable snapshot of everything the {@link BrightnessEngine} needs to decide on a brightness level: what the user
+ * is doing, where and when they are, how much battery is left and the levels they picked for each activity.
+ * <p/>
+ * Snapshots have no Android dependencies, so they can be built from a {@code DetectedActivity} and a {@code Location}
+ * on the phone or recorded and replayed on a desktop JVM.
+ */
+public final class BrightnessContext {
+
+    /**
+     * Used for the latitude and longitude when the location of the user is unknown
+     */
+    public static final double UNKNOWN_COORDINATE = Double.NaN;
+
+    /**
+     * Used for the battery level when it's unknown
+     */
+    public static final int UNKNOWN_BATTERY = -1;
+
+    // Members
+    private final int mActivityType;
+    private final int mConfidence;
+    private final double mLatitude;
+    private final double mLongitude;
+    private final long mTimeMillis;
+    private final BrightnessDecisionTable mDecisionTable;
+    private final BrightnessCurve mCurve;
+    private final int mBatteryPercent;
+
+    /**
+     * Constructor
+     *
+     * @param activityType
+     *         {@link int} one of the {@link BrightnessDecisionTable} activity types
+     * @param confidence
+     *         {@link int} confidence of the activity, from 0 to 100
+     * @param latitude
+     *         {@link double} latitude of the user, or {@link #UNKNOWN_COORDINATE}
+     * @param longitude
+     *         {@link double} longitude of the user, or {@link #UNKNOWN_COORDINATE}
+     * @param timeMillis
+     *         {@link long} instant of the snapshot, in epoch millis
+     * @param decisionTable
+     *         {@link BrightnessDecisionTable} levels picked by the user, must not be modified afterwards
+     */
+    public BrightnessContext(int activityType, int confidence, double latitude, double longitude, long timeMillis,
+            BrightnessDecisionTable decisionTable) {
+        this(activityType, confidence, latitude, longitude, timeMillis, decisionTable, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param activityType
+     *         {@link int} one of the {@link BrightnessDecisionTable} activity types
+     * @param confidence
+     *         {@link int} confidence of the activity, from 0 to 100
+     * @param latitude
+     *         {@link double} latitude of the user, or {@link #UNKNOWN_COORDINATE}
+     * @param longitude
+     *         {@link double} longitude of the user, or {@link #UNKNOWN_COORDINATE}
+     * @param timeMillis
+     *         {@link long} instant of the snapshot, in epoch millis
+     * @param decisionTable
+     *         {@link BrightnessDecisionTable} levels picked by the user, must not be modified afterwards
+     * @param curve
+     *         {@link BrightnessCurve} picked by the user for the continuous mode, or null to only use the levels
+     */
+    public BrightnessContext(int activityType, int confidence, double latitude, double longitude, long timeMillis,
+            BrightnessDecisionTable decisionTable, BrightnessCurve curve) {
+        this(activityType, confidence, latitude, longitude, timeMillis, decisionTable, curve, UNKNOWN_BATTERY);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param activityType
+     *         {@link int} one of the {@link BrightnessDecisionTable} activity types
+     * @param confidence
+     *         {@link int} confidence of the activity, from 0 to 100
+     * @param latitude
+     *         {@link double} latitude of the user, or {@link #UNKNOWN_COORDINATE}
+     * @param longitude
+     *         {@link double} longitude of the user, or {@link #UNKNOWN_COORDINATE}
+     * @param timeMillis
+     *         {@link long} instant of the snapshot, in epoch millis
+     * @param decisionTable
+     *         {@link BrightnessDecisionTable} levels picked by the user, must not be modified afterwards
+     * @param curve
+     *         {@link BrightnessCurve} picked by the user for the continuous mode, or null to only use the levels
+     * @param batteryPercent
+     *         {@link int} battery level of the phone from 0 to 100, or {@link #UNKNOWN_BATTERY}
+     */
+    public BrightnessContext(int activityType, int confidence, double latitude, double longitude, long timeMillis,
+            BrightnessDecisionTable decisionTable, BrightnessCurve curve, int batteryPercent) {
+        if (decisionTable == null) {
+            throw new IllegalArgumentException("The decision table can't be null");
+        }
+        mActivityType = activityType;
+        mConfidence = confidence;
+        mLatitude = latitude;
+        mLongitude = longitude;
+        mTimeMillis = timeMillis;
+        mDecisionTable = decisionTable;
+        mCurve = curve;
+        mBatteryPercent = batteryPercent;
+    }
+
+    /**
+     * @return {@link int} one of the {@link BrightnessDecisionTable} activity types
+     */
+    public int getActivityType() {
+        return mActivityType;
+    }
+
+    /**
+     * @return {@link int} confidence of the activity, from 0 to 100
+     */
+    public int getConfidence() {
+        return mConfidence;
+    }
+
+    /**
+     * @return {@link boolean} true if the latitude and longitude are known
+     */
+    public boolean hasLocation() {
+        return !Double.isNaN(mLatitude) && !Double.isNaN(mLongitude);
+    }
+
+    /**
+     * @return {@link double} latitude of the user, or {@link #UNKNOWN_COORDINATE}
+     */
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    /**
+     * @return {@link double} longitude of the user, or {@link #UNKNOWN_COORDINATE}
+     */
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    /**
+     * @return {@link long} instant of the snapshot, in epoch millis
+     */
+    public long getTimeMillis() {
+        return mTimeMillis;
+    }
+
+    /**
+     * @return {@link BrightnessDecisionTable} levels picked by the user
+     */
+    public BrightnessDecisionTable getDecisionTable() {
+        return mDecisionTable;
+    }
+
+    /**
+     * @return {@link BrightnessCurve} for the continuous mode, or null if it's disabled
+     */
+    public BrightnessCurve getCurve() {
+        return mCurve;
+    }
+
+    /**
+     * @return {@link int} battery level of the phone from 0 to 100, or {@link #UNKNOWN_BATTERY}
+     */
+    public int getBatteryPercent() {
+        return mBatteryPercent;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "BrightnessContext{activity=" + mActivityType + " confidence=" + mConfidence + " lat=" + mLatitude
+                + " lon=" + mLongitude + " time=" + mTimeMillis + " battery=" + mBatteryPercent + "}";
+    }
+
+}
@@ -0,0 +1,137 @@
+package com.danvelazco.wear.displaybrightness.core;
+
+import java.util.Arrays;
+
+/**
+ * Maps the elevation of the sun to a display brightness, for the continuous brightness mode.
+ * <p/>
+ * The curve is shaped by control points (elevation, brightness) picked by the user and smoothly interpolated between
+ * them, flat before the first point and after the last one. It's precomputed into a lookup table with a sample every
+ * {@link #STEP_DEGREES}, so evaluating it is two array loads and a linear interpolation.
+ * <p/>
+ * Curves are immutable and thread safe.
+ */
+public final class BrightnessCurve {
+
+    /**
+     * Range and resolution of the lookup table, elevations outside of it are clamped
+     */
+    public static final double MIN_ELEVATION = -18;
+    public static final double MAX_ELEVATION = 90;
+    public static final double STEP_DEGREES = 0.25d;
+
+    /**
+     * Range of the display brightness
+     */
+    public static final int MIN_BRIGHTNESS = 0;
+    public static final int MAX_BRIGHTNESS = 255;
+
+    // Constants
+    private static final int SAMPLES = (int) ((MAX_ELEVATION - MIN_ELEVATION) / STEP_DEGREES) + 1;
+
+    // Members
+    private final float[] mTable = new float[SAMPLES];
+
+    /**
+     * Constructor
+     *
+     * @param elevations
+     *         {@link double[]} elevations of the control points in degrees, in ascending order
+     * @param brightness
+     *         {@link int[]} display brightness of each control point
+     */
+    public BrightnessCurve(double[] elevations, int[] brightness) {
+        if (elevations.length == 0 || elevations.length != brightness.length) {
+            throw new IllegalArgumentException("Every control point needs an elevation and a brightness");
+        }
+        for (int i = 1; i < elevations.length; i++) {
+            if (elevations[i] <= elevations[i - 1]) {
+                throw new IllegalArgumentException("Elevations must be in ascending order");
+            }
+        }
+
+        int segment = 0;
+        int last = elevations.length - 1;
+        for (int i = 0; i < SAMPLES; i++) {
+            double elevation = MIN_ELEVATION + i * STEP_DEGREES;
+            if (elevation <= elevations[0]) {
+                mTable[i] = brightness[0];
+            } else if (elevation >= elevations[last]) {
+                mTable[i] = brightness[last];
+            } else {
+                while (elevation > elevations[segment + 1]) {
+                    segment++;
+                }
+                // Smoothstep between the two control points, so the brightness eases in and out of each of them
+                double t = (elevation - elevations[segment]) / (elevations[segment + 1] - elevations[segment]);
+                t = t * t * (3 - 2 * t);
+                mTable[i] = (float) (brightness[segment] + (brightness[segment + 1] - brightness[segment]) * t);
+            }
+        }
+    }
+
+    /**
+     * Parse control points written as {@code <elevation>:<brightness>}, separated by spaces or commas, for example
+     * {@code -6:10 0:60 10:255}. Points can be given in any order.
+     *
+     * @param value
+     *         {@link String} control points
+     * @return {@link BrightnessCurve}
+     * @throws IllegalArgumentException
+     *         if the points can't be parsed, a brightness is out of range or two points have the same elevation
+     */
+    public static BrightnessCurve parse(String value) {
+        String[] tokens = value.trim().split("[\\s,]+");
+        if (tokens.length == 0 || tokens[0].isEmpty()) {
+            throw new IllegalArgumentException("No control points: " + value);
+        }
+        // Sorted by elevation, each point packed as {elevation, brightness}
+        double[][] points = new double[tokens.length][];
+        for (int i = 0; i < tokens.length; i++) {
+            String[] parts = tokens[i].split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid control point: " + tokens[i]);
+            }
+            double elevation = Double.parseDouble(parts[0]);
+            int brightness = Integer.parseInt(parts[1]);
+            if (Double.isNaN(elevation) || brightness < MIN_BRIGHTNESS || brightness > MAX_BRIGHTNESS) {
+                throw new IllegalArgumentException("Invalid control point: " + tokens[i]);
+            }
+            points[i] = new double[]{elevation, brightness};
+        }
+        Arrays.sort(points, new java.util.Comparator<double[]>() {
+            @Override
+            public int compare(double[] first, double[] second) {
+                return Double.compare(first[0], second[0]);
+            }
+        });
+        double[] elevations = new double[points.length];
+        int[] brightness = new int[points.length];
+        for (int i = 0; i < points.length; i++) {
+            elevations[i] = points[i][0];
+            brightness[i] = (int) points[i][1];
+        }
+        return new BrightnessCurve(elevations, brightness);
+    }
+
+    /**
+     * Get the display brightness for the elevation of the sun
+     *
+     * @param elevation
+     *         {@link double} elevation of the sun in degrees
+     * @return {@link int} display brightness
+     */
+    public int getBrightness(double elevation) {
+        double position = (elevation - MIN_ELEVATION) / STEP_DEGREES;
+        if (!(position > 0)) {
+            return Math.round(mTable[0]);
+        }
+        if (position >= SAMPLES - 1) {
+            return Math.round(mTable[SAMPLES - 1]);
+        }
+        int index = (int) position;
+        float fraction = (float) (position - index);
+        return Math.round(mTable[index] + (mTable[index + 1] - mTable[index]) * fraction);
+    }
+
+}
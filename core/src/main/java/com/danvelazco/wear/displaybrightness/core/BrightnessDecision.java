@@ -0,0 +1,126 @@
+package com.danvelazco.wear.displaybrightness.core;
+
+/**
+ * Immutable result of evaluating a {@link BrightnessContext} with the {@link BrightnessEngine}
+ */
+public final class BrightnessDecision {
+
+    /**
+     * Fine level used when the continuous mode is disabled or the elevation of the sun is unknown
+     */
+    public static final int NO_FINE_LEVEL = 0;
+
+    /**
+     * Range of the {@code BrightnessLevel} values, from the lowest to the highest brightness
+     */
+    public static final int LOWEST_LEVEL = 0;
+    public static final int HIGHEST_LEVEL = 4;
+
+    // Members
+    private final int mLevel;
+    private final int mFineLevel;
+    private final int mActivityType;
+    private final boolean mDaytime;
+
+    /**
+     * Constructor
+     *
+     * @param level
+     *         {@link int} the {@code BrightnessLevel} to be sent to the watch
+     * @param activityType
+     *         {@link int} activity type the level was picked for, after discarding unconfident activities
+     * @param daytime
+     *         {@link boolean} whether it was day time
+     */
+    public BrightnessDecision(int level, int activityType, boolean daytime) {
+        this(level, NO_FINE_LEVEL, activityType, daytime);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param level
+     *         {@link int} the {@code BrightnessLevel} to be sent to the watch
+     * @param fineLevel
+     *         {@link int} display brightness picked by the {@link BrightnessCurve}, or {@link #NO_FINE_LEVEL}
+     * @param activityType
+     *         {@link int} activity type the level was picked for, after discarding unconfident activities
+     * @param daytime
+     *         {@link boolean} whether it was day time
+     */
+    public BrightnessDecision(int level, int fineLevel, int activityType, boolean daytime) {
+        mLevel = level;
+        mFineLevel = fineLevel;
+        mActivityType = activityType;
+        mDaytime = daytime;
+    }
+
+    /**
+     * @return {@link int} the {@code BrightnessLevel} to be sent to the watch
+     */
+    public int getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * @return {@link int} display brightness picked by the {@link BrightnessCurve}, or {@link #NO_FINE_LEVEL}
+     */
+    public int getFineLevel() {
+        return mFineLevel;
+    }
+
+    /**
+     * @return {@link boolean} true if the continuous mode picked a display brightness
+     */
+    public boolean hasFineLevel() {
+        return mFineLevel != NO_FINE_LEVEL;
+    }
+
+    /**
+     * @return {@link int} activity type the level was picked for
+     */
+    public int getActivityType() {
+        return mActivityType;
+    }
+
+    /**
+     * @return {@link boolean} true if it was day time, false if night time
+     */
+    public boolean isDaytime() {
+        return mDaytime;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof BrightnessDecision)) {
+            return false;
+        }
+        BrightnessDecision other = (BrightnessDecision) o;
+        return mLevel == other.mLevel && mFineLevel == other.mFineLevel && mActivityType == other.mActivityType
+                && mDaytime == other.mDaytime;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return ((mLevel * 31 + mFineLevel) * 31 + mActivityType) * 2 + (mDaytime ? 1 : 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "BrightnessDecision{level=" + mLevel + " fine=" + mFineLevel + " activity=" + mActivityType + " "
+                + (mDaytime ? "day" : "night") + "}";
+    }
+
+}
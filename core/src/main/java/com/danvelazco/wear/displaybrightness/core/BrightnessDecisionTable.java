@@ -0,0 +1,134 @@
+package com.danvelazco.wear.displaybrightness.core;
+
+import java.util.Arrays;
+
+/**
+ * Precompiled table of the {@code BrightnessLevel} the user picked for each activity type during the day and during
+ * the night.
+ * <p/>
+ * Levels are stored in a primitive array indexed by the activity type (the values of {@code
+ * com.google.android.gms.location.DetectedActivity#getType()}) and a day/night bit, so resolving a level is a single
+ * array load. The phone app compiles it from the user's preferences and rebuilds it whenever they change.
+ */
+public class BrightnessDecisionTable {
+
+    /**
+     * Activity types, same values as the {@code DetectedActivity} constants
+     */
+    public static final int IN_VEHICLE = 0;
+    public static final int ON_BICYCLE = 1;
+    public static final int ON_FOOT = 2;
+    public static final int STILL = 3;
+    public static final int UNKNOWN = 4;
+    public static final int TILTING = 5;
+    public static final int WALKING = 7;
+    public static final int RUNNING = 8;
+
+    /**
+     * Number of activity types the table has room for, anything else is treated as {@link #UNKNOWN}
+     */
+    public static final int ACTIVITY_TYPE_COUNT = RUNNING + 1;
+
+    // Constants
+    private static final int NIGHT = 0;
+    private static final int DAY = 1;
+
+    // Members
+    private final int[] mTable = new int[ACTIVITY_TYPE_COUNT << 1];
+
+    /**
+     * Constructor, every activity type starts with the given unknown levels
+     *
+     * @param unknownDayLevel
+     *         {@link int} level used during the day for activities without their own level
+     * @param unknownNightLevel
+     *         {@link int} level used during the night for activities without their own level
+     */
+    public BrightnessDecisionTable(int unknownDayLevel, int unknownNightLevel) {
+        for (int type = 0; type < ACTIVITY_TYPE_COUNT; type++) {
+            put(type, unknownDayLevel, unknownNightLevel);
+        }
+    }
+
+    /**
+     * Set the levels for an activity type. Only meant to be used while building the table, tables are treated as
+     * immutable once they are handed out.
+     *
+     * @param activityType
+     *         {@link int} one of the activity types
+     * @param dayLevel
+     *         {@link int} level used during the day
+     * @param nightLevel
+     *         {@link int} level used during the night
+     * @return {@link BrightnessDecisionTable} this table
+     */
+    public BrightnessDecisionTable put(int activityType, int dayLevel, int nightLevel) {
+        mTable[index(activityType, DAY)] = dayLevel;
+        mTable[index(activityType, NIGHT)] = nightLevel;
+        return this;
+    }
+
+    /**
+     * Get the brightness level the user wants for the activity
+     *
+     * @param activityType
+     *         {@link int} one of the activity types
+     * @param isDaytime
+     *         {@link boolean} whether it's currently day time
+     * @return {@link int} the {@code BrightnessLevel} to be sent to the watch
+     */
+    public int getBrightnessLevel(int activityType, boolean isDaytime) {
+        if (activityType < 0 || activityType >= ACTIVITY_TYPE_COUNT) {
+            activityType = UNKNOWN;
+        }
+        return mTable[index(activityType, isDaytime ? DAY : NIGHT)];
+    }
+
+    /**
+     * @return {@link int[]} copy of the whole table, to hand it over to the watch, see {@link #fromArray(int[])}
+     */
+    public int[] toArray() {
+        return mTable.clone();
+    }
+
+    /**
+     * @param table
+     *         {@link int[]} table from {@link #toArray()}
+     * @return {@link BrightnessDecisionTable} with the same levels
+     * @throws IllegalArgumentException
+     *         if the array doesn't have a level for every activity type, day and night
+     */
+    public static BrightnessDecisionTable fromArray(int[] table) {
+        if (table == null || table.length != ACTIVITY_TYPE_COUNT << 1) {
+            throw new IllegalArgumentException("Invalid decision table");
+        }
+        BrightnessDecisionTable decisionTable = new BrightnessDecisionTable(0, 0);
+        System.arraycopy(table, 0, decisionTable.mTable, 0, table.length);
+        return decisionTable;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof BrightnessDecisionTable
+                && Arrays.equals(mTable, ((BrightnessDecisionTable) o).mTable);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(mTable);
+    }
+
+    /**
+     * @return {@link int} position in the table for the activity type and day/night bit
+     */
+    private static int index(int activityType, int dayBit) {
+        return (activityType << 1) | dayBit;
+    }
+
+}
@@ -0,0 +1,196 @@
+package com.danvelazco.wear.displaybrightness.core;
+
+/**
+ * Decides which brightness level the watch should have for a {@link BrightnessContext}.
+ * <p/>
+ * The engine works out whether it's day or night at the user's location using the {@link SolarEventCache}, and picks
+ * the level for the activity from the {@link BrightnessDecisionTable}. Activities detected with a confidence below
+ * {@link #setMinConfidence(int)} are treated as {@link BrightnessDecisionTable#UNKNOWN}. Once the sunrise and sunset of
+ * the day are cached, a decision is a handful of comparisons and a single allocation.
+ * <p/>
+ * If the snapshot carries a {@link BrightnessCurve}, the decision also includes a fine level picked from the elevation
+ * of the sun, see {@link SolarElevation}.
+ * <p/>
+ * The engine is thread safe.
+ */
+public class BrightnessEngine {
+
+    // TODO: make this configurable by user!
+    /**
+     * Sun degrees (zenith offset) used to calculate the sunrise and sunset
+     */
+    public static final double DEFAULT_SUNRISE_DEGREES = 15;
+    public static final double DEFAULT_SUNSET_DEGREES = 5;
+
+    // Constants
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+    // Members
+    private final SolarEventCache mSolarEventCache;
+    private final SolarElevation mSolarElevation = new SolarElevation();
+    private volatile double mSunriseDegrees = DEFAULT_SUNRISE_DEGREES;
+    private volatile double mSunsetDegrees = DEFAULT_SUNSET_DEGREES;
+    private volatile int mMinConfidence = 0;
+
+    /**
+     * Constructor, uses its own {@link SolarEventCache}
+     */
+    public BrightnessEngine() {
+        this(new SolarEventCache());
+    }
+
+    /**
+     * Constructor
+     *
+     * @param solarEventCache
+     *         {@link SolarEventCache} used to find out whether it's day time, only accessed while holding its lock
+     */
+    public BrightnessEngine(SolarEventCache solarEventCache) {
+        mSolarEventCache = solarEventCache;
+    }
+
+    /**
+     * Decide on the brightness level for the snapshot
+     *
+     * @param context
+     *         {@link BrightnessContext}
+     * @return {@link BrightnessDecision}
+     */
+    public BrightnessDecision decide(BrightnessContext context) {
+        boolean isDaytime = isDaytime(context);
+        int activityType = context.getConfidence() >= mMinConfidence ? context.getActivityType()
+                : BrightnessDecisionTable.UNKNOWN;
+        int level = context.getDecisionTable().getBrightnessLevel(activityType, isDaytime);
+
+        int fineLevel = BrightnessDecision.NO_FINE_LEVEL;
+        BrightnessCurve curve = context.getCurve();
+        if (curve != null && context.hasLocation()) {
+            fineLevel = curve.getBrightness(getSolarElevation(context));
+        }
+        return new BrightnessDecision(level, fineLevel, activityType, isDaytime);
+    }
+
+    /**
+     * Elevation of the sun at the location and instant of the snapshot
+     *
+     * @param context
+     *         {@link BrightnessContext} with a known location
+     * @return {@link double} elevation in degrees
+     */
+    public double getSolarElevation(BrightnessContext context) {
+        synchronized (mSolarElevation) {
+            return mSolarElevation.getElevation(context.getLatitude(), context.getLongitude(),
+                    context.getTimeMillis());
+        }
+    }
+
+    /**
+     * Whether it's day or night time at the location and instant of the snapshot
+     *
+     * @param context
+     *         {@link BrightnessContext}
+     * @return {@link boolean} true if it's day time, also when the location is unknown
+     */
+    public boolean isDaytime(BrightnessContext context) {
+        if (!context.hasLocation()) {
+            // If we can't calculate the sunrise/sunset, default to day time
+            return true;
+        }
+        synchronized (mSolarEventCache) {
+            return mSolarEventCache.isDaytime(context.getLatitude(), context.getLongitude(), context.getTimeMillis(),
+                    mSunriseDegrees, mSunsetDegrees);
+        }
+    }
+
+    /**
+     * How far the snapshot is from the closest sunrise or sunset of its day, the moments the level is most likely to
+     * change
+     *
+     * @param context
+     *         {@link BrightnessContext}
+     * @return {@link long} distance in millis, {@link Long#MAX_VALUE} if the location is unknown or there is no
+     * sunrise or sunset
+     */
+    public long getMillisToSolarTransition(BrightnessContext context) {
+        if (!context.hasLocation()) {
+            return Long.MAX_VALUE;
+        }
+        long sunrise;
+        long sunset;
+        synchronized (mSolarEventCache) {
+            sunrise = mSolarEventCache.getSunrise(context.getLatitude(), context.getLongitude(),
+                    context.getTimeMillis(), mSunriseDegrees);
+            sunset = mSolarEventCache.getSunset(context.getLatitude(), context.getLongitude(),
+                    context.getTimeMillis(), mSunsetDegrees);
+        }
+        long distance = Long.MAX_VALUE;
+        if (sunrise != SolarEventCache.NO_EVENT) {
+            distance = Math.abs(context.getTimeMillis() - sunrise);
+        }
+        if (sunset != SolarEventCache.NO_EVENT) {
+            distance = Math.min(distance, Math.abs(context.getTimeMillis() - sunset));
+        }
+        return distance;
+    }
+
+    /**
+     * Find the next moment the day/night state changes, the next sunrise if it's night or the next sunset if it's day
+     *
+     * @param context
+     *         {@link BrightnessContext}
+     * @return {@link long} time of the next sunrise or sunset in epoch millis, or {@link SolarEventCache#NO_EVENT} if
+     * the location is unknown or the sun doesn't rise or set today or tomorrow
+     */
+    public long getNextSolarTransition(BrightnessContext context) {
+        if (!context.hasLocation()) {
+            return SolarEventCache.NO_EVENT;
+        }
+        double latitude = context.getLatitude();
+        double longitude = context.getLongitude();
+        long now = context.getTimeMillis();
+        synchronized (mSolarEventCache) {
+            long sunrise = mSolarEventCache.getSunrise(latitude, longitude, now, mSunriseDegrees);
+            if (sunrise != SolarEventCache.NO_EVENT && now < sunrise) {
+                return sunrise;
+            }
+            long sunset = mSolarEventCache.getSunset(latitude, longitude, now, mSunsetDegrees);
+            if (sunset != SolarEventCache.NO_EVENT && now < sunset) {
+                return sunset;
+            }
+            // Past today's sunset, the next transition is tomorrow's sunrise
+            long tomorrow = now + DAY_MILLIS;
+            sunrise = mSolarEventCache.getSunrise(latitude, longitude, tomorrow, mSunriseDegrees);
+            if (sunrise != SolarEventCache.NO_EVENT) {
+                return sunrise;
+            }
+            return mSolarEventCache.getSunset(latitude, longitude, tomorrow, mSunsetDegrees);
+        }
+    }
+
+    /**
+     * @param sunriseDegrees
+     *         {@link double} sun degrees used to calculate the sunrise
+     * @param sunsetDegrees
+     *         {@link double} sun degrees used to calculate the sunset
+     */
+    public void setSunDegrees(double sunriseDegrees, double sunsetDegrees) {
+        mSunriseDegrees = sunriseDegrees;
+        mSunsetDegrees = sunsetDegrees;
+    }
+
+    /**
+     * @param minConfidence
+     *         {@link int} activities detected with a lower confidence are treated as unknown, 0 trusts every activity
+     */
+    public void setMinConfidence(int minConfidence) {
+        mMinConfidence = minConfidence;
+    }
+
+    /**
+     * @return {@link SolarEventCache} used by this engine
+     */
+    public SolarEventCache getSolarEventCache() {
+        return mSolarEventCache;
+    }
+
+}
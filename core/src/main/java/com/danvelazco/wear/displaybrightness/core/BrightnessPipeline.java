@@ -0,0 +1,101 @@
+package com.danvelazco.wear.displaybrightness.core;
+
+/**
+ * Every stage a {@link BrightnessContext} goes through to become the level sent to the watch: the {@link
+ * BrightnessEngine} picks the level for the activity, the first matching rule of a {@link PolicyRuleSet} may pick
+ * another one, then the time windows of a {@link BrightnessSchedule} override or cap it.
+ * <p/>
+ * The phone app and the simulator both decide through a pipeline, so a policy replayed on a desktop JVM behaves like
+ * it does on the phone. The rule set and the schedule are given with every decision since the phone app recompiles
+ * them whenever the preferences change, either can be null. The pipeline keeps no state of its own and is thread safe.
+ */
+public class BrightnessPipeline {
+
+    // Members
+    private final BrightnessEngine mEngine;
+
+    /**
+     * Constructor
+     *
+     * @param engine
+     *         {@link BrightnessEngine} picking the level for the activity
+     */
+    public BrightnessPipeline(BrightnessEngine engine) {
+        mEngine = engine;
+    }
+
+    /**
+     * Decide on the brightness level for the snapshot
+     *
+     * @param context
+     *         {@link BrightnessContext}
+     * @param policy
+     *         {@link PolicyRuleSet} picked by the user, or null
+     * @param schedule
+     *         {@link BrightnessSchedule} picked by the user, or null
+     * @param input
+     *         {@link PolicyInput} with the charging state of the phone and the battery of the watch, the activity,
+     *         time and phone battery are taken from the snapshot. Only used with a rule set, and not thread safe, so
+     *         every thread needs its own.
+     * @return {@link BrightnessDecision}
+     */
+    public BrightnessDecision decide(BrightnessContext context, PolicyRuleSet policy, BrightnessSchedule schedule,
+            PolicyInput input) {
+        BrightnessDecision decision = mEngine.decide(context);
+        if (policy != null) {
+            int level = policy.evaluate(input.set(context, decision.isDaytime()));
+            if (level != PolicyRuleSet.NO_LEVEL) {
+                decision = new BrightnessDecision(level, decision.getActivityType(), decision.isDaytime());
+            }
+        }
+        if (schedule != null) {
+            decision = schedule.apply(decision, context.getTimeMillis());
+        }
+        return decision;
+    }
+
+    /**
+     * Find the next moment a decision may change without a new detection: the next sunrise or sunset, or the next
+     * boundary of a time window of the schedule or the rule set, whichever comes first
+     *
+     * @param context
+     *         {@link BrightnessContext}
+     * @param policy
+     *         {@link PolicyRuleSet} picked by the user, or null
+     * @param schedule
+     *         {@link BrightnessSchedule} picked by the user, or null
+     * @return {@link long} time in epoch millis, or {@link SolarEventCache#NO_EVENT} if nothing changes on its own
+     */
+    public long getNextTransition(BrightnessContext context, PolicyRuleSet policy, BrightnessSchedule schedule) {
+        long next = mEngine.getNextSolarTransition(context);
+        if (schedule != null) {
+            next = earliest(next, schedule.getNextBoundary(context.getTimeMillis()));
+        }
+        if (policy != null) {
+            next = earliest(next, policy.getNextBoundary(context.getTimeMillis()));
+        }
+        return next;
+    }
+
+    /**
+     * @return {@link BrightnessEngine} picking the level for the activity
+     */
+    public BrightnessEngine getEngine() {
+        return mEngine;
+    }
+
+    /**
+     * @param next
+     *         {@link long} transition found so far, or {@link SolarEventCache#NO_EVENT}
+     * @param boundary
+     *         {@link long} boundary of a time window, or {@link BrightnessSchedule#NO_BOUNDARY}
+     * @return {@link long} the earliest of both
+     */
+    private static long earliest(long next, long boundary) {
+        if (boundary != BrightnessSchedule.NO_BOUNDARY && (next == SolarEventCache.NO_EVENT || boundary < next)) {
+            return boundary;
+        }
+        return next;
+    }
+
+}
@@ -0,0 +1,264 @@
+package com.danvelazco.wear.displaybrightness.core;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Weekly schedule of {@link ScheduleRule} windows, applied on top of the level picked for the activity.
+ * <p/>
+ * The rules are compiled into the sorted boundaries of the week, in minutes since monday 00:00 local time, where a rule
+ * starts or ends. Between two boundaries the same rules apply, so their combined effect is computed once per segment
+ * and segments with the same effect are merged. Finding what applies at an instant is a binary search over the
+ * boundaries, O(log n) without any allocation, and the next boundary is the next instant the effect changes.
+ * <p/>
+ * When several rules are active, the last override in the list wins and the lowest cap applies, caps also apply to
+ * overrides. Schedules are immutable and thread safe.
+ */
+public final class BrightnessSchedule {
+
+    /**
+     * Level of segments without any override or cap
+     */
+    public static final int NO_LEVEL = -1;
+
+    /**
+     * Returned when the effect never changes
+     */
+    public static final long NO_BOUNDARY = Long.MIN_VALUE;
+
+    // Constants
+    private static final int MINUTES_PER_WEEK = 7 * ScheduleRule.MINUTES_PER_DAY;
+    private static final long MINUTE_MILLIS = 60 * 1000L;
+    private static final long DAY_MILLIS = ScheduleRule.MINUTES_PER_DAY * MINUTE_MILLIS;
+    private static final long WEEK_MILLIS = MINUTES_PER_WEEK * MINUTE_MILLIS;
+
+    /**
+     * The epoch was a thursday, 3 days after the start of the week
+     */
+    private static final int EPOCH_DAY_OF_WEEK = 3;
+
+    // Members
+    private final TimeZone mTimeZone;
+    private final int mRuleCount;
+    private final int[] mStarts;
+    private final int[] mOverrides;
+    private final int[] mCaps;
+
+    /**
+     * Constructor
+     *
+     * @param rules
+     *         {@link List} of {@link ScheduleRule}, later overrides win over earlier ones
+     * @param timeZone
+     *         {@link TimeZone} the windows are in
+     */
+    public BrightnessSchedule(List<ScheduleRule> rules, TimeZone timeZone) {
+        mTimeZone = timeZone;
+        mRuleCount = rules.size();
+
+        // Every start and end of every window, split at the end of the week
+        int[] boundaries = new int[rules.size() * 14 + 1];
+        int count = 0;
+        boundaries[count++] = 0;
+        for (ScheduleRule rule : rules) {
+            for (int day = 0; day < 7; day++) {
+                if ((rule.getDays() & (1 << day)) != 0) {
+                    int start = day * ScheduleRule.MINUTES_PER_DAY + rule.getStartMinute();
+                    boundaries[count++] = start;
+                    boundaries[count++] = (start + rule.getDurationMinutes()) % MINUTES_PER_WEEK;
+                }
+            }
+        }
+        Arrays.sort(boundaries, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || boundaries[i] != boundaries[unique - 1]) {
+                boundaries[unique++] = boundaries[i];
+            }
+        }
+
+        // Effect of each segment, starting from no rule at all
+        int[] overrides = new int[unique];
+        int[] caps = new int[unique];
+        Arrays.fill(overrides, NO_LEVEL);
+        Arrays.fill(caps, NO_LEVEL);
+        for (ScheduleRule rule : rules) {
+            for (int day = 0; day < 7; day++) {
+                if ((rule.getDays() & (1 << day)) == 0) {
+                    continue;
+                }
+                int start = day * ScheduleRule.MINUTES_PER_DAY + rule.getStartMinute();
+                int end = start + rule.getDurationMinutes();
+                mark(rule, start, Math.min(end, MINUTES_PER_WEEK), boundaries, unique, overrides, caps);
+                if (end > MINUTES_PER_WEEK) {
+                    // The window runs into the next week
+                    mark(rule, 0, end - MINUTES_PER_WEEK, boundaries, unique, overrides, caps);
+                }
+            }
+        }
+
+        // Merge the segments that look the same
+        int merged = 0;
+        for (int i = 0; i < unique; i++) {
+            if (merged > 0 && overrides[i] == overrides[merged - 1] && caps[i] == caps[merged - 1]) {
+                continue;
+            }
+            boundaries[merged] = boundaries[i];
+            overrides[merged] = overrides[i];
+            caps[merged] = caps[i];
+            merged++;
+        }
+        mStarts = Arrays.copyOf(boundaries, merged);
+        mOverrides = Arrays.copyOf(overrides, merged);
+        mCaps = Arrays.copyOf(caps, merged);
+    }
+
+    /**
+     * Apply the rules active at the time of the decision
+     *
+     * @param decision
+     *         {@link BrightnessDecision} made for the activity
+     * @param timeMillis
+     *         {@link long} instant of the decision, in epoch millis
+     * @return {@link BrightnessDecision} the same decision if no rule changes it, otherwise one with the scheduled
+     * level and without a fine level, the windows take over from the continuous mode while they are active
+     */
+    public BrightnessDecision apply(BrightnessDecision decision, long timeMillis) {
+        int level = getLevel(decision.getLevel(), timeMillis);
+        if (level == decision.getLevel() && (!decision.hasFineLevel() || !isActive(timeMillis))) {
+            return decision;
+        }
+        return new BrightnessDecision(level, decision.getActivityType(), decision.isDaytime());
+    }
+
+    /**
+     * @param level
+     *         {@link int} the {@code BrightnessLevel} picked for the activity
+     * @param timeMillis
+     *         {@link long} instant, in epoch millis
+     * @return {@link int} the {@code BrightnessLevel} once the active rules are applied
+     */
+    public int getLevel(int level, long timeMillis) {
+        int segment = findSegment(timeMillis);
+        if (mOverrides[segment] != NO_LEVEL) {
+            level = mOverrides[segment];
+        }
+        if (mCaps[segment] != NO_LEVEL && mCaps[segment] < level) {
+            level = mCaps[segment];
+        }
+        return level;
+    }
+
+    /**
+     * @param timeMillis
+     *         {@link long} instant, in epoch millis
+     * @return {@link boolean} true if any rule is active
+     */
+    public boolean isActive(long timeMillis) {
+        int segment = findSegment(timeMillis);
+        return mOverrides[segment] != NO_LEVEL || mCaps[segment] != NO_LEVEL;
+    }
+
+    /**
+     * Find the next instant the active rules change, to wake up right there
+     *
+     * @param timeMillis
+     *         {@link long} instant, in epoch millis
+     * @return {@link long} instant of the next boundary in epoch millis, or {@link #NO_BOUNDARY} if the rules never
+     * change
+     */
+    public long getNextBoundary(long timeMillis) {
+        if (mStarts.length == 1) {
+            return NO_BOUNDARY;
+        }
+        long local = timeMillis + mTimeZone.getOffset(timeMillis);
+        long weekStart = local - getMillisOfWeek(local);
+        int next = findSegment(timeMillis) + 1;
+        long boundary;
+        if (next < mStarts.length) {
+            boundary = weekStart + mStarts[next] * MINUTE_MILLIS;
+        } else if (mOverrides[0] == mOverrides[next - 1] && mCaps[0] == mCaps[next - 1]) {
+            // The last segment carries on into the first one of the next week
+            boundary = weekStart + WEEK_MILLIS + mStarts[1] * MINUTE_MILLIS;
+        } else {
+            boundary = weekStart + WEEK_MILLIS;
+        }
+        // Back to UTC with the offset in effect at the boundary, which differs across a daylight saving change
+        return boundary - mTimeZone.getOffset(boundary - mTimeZone.getOffset(timeMillis));
+    }
+
+    /**
+     * @return {@link int} number of rules the schedule was compiled from
+     */
+    public int getRuleCount() {
+        return mRuleCount;
+    }
+
+    /**
+     * @return {@link int} number of segments the week was split into
+     */
+    public int getSegmentCount() {
+        return mStarts.length;
+    }
+
+    /**
+     * @param timeMillis
+     *         {@link long} instant, in epoch millis
+     * @return {@link int} index of the segment the instant falls in
+     */
+    private int findSegment(long timeMillis) {
+        long local = timeMillis + mTimeZone.getOffset(timeMillis);
+        int minute = (int) (getMillisOfWeek(local) / MINUTE_MILLIS);
+        int index = Arrays.binarySearch(mStarts, minute);
+        // Not a boundary, the segment is the one starting before the insertion point
+        return index >= 0 ? index : -index - 2;
+    }
+
+    /**
+     * Apply a rule to the segments of a window
+     *
+     * @param rule
+     *         {@link ScheduleRule}
+     * @param from
+     *         {@link int} start of the window in minutes of the week, one of the boundaries
+     * @param to
+     *         {@link int} end of the window in minutes of the week
+     * @param boundaries
+     *         {@link int[]} sorted start of every segment
+     * @param count
+     *         {@link int} number of segments
+     * @param overrides
+     *         {@link int[]} override of every segment
+     * @param caps
+     *         {@link int[]} cap of every segment
+     */
+    private static void mark(ScheduleRule rule, int from, int to, int[] boundaries, int count, int[] overrides,
+            int[] caps) {
+        for (int segment = Arrays.binarySearch(boundaries, 0, count, from);
+                segment < count && boundaries[segment] < to; segment++) {
+            if (rule.getType() == ScheduleRule.TYPE_OVERRIDE) {
+                overrides[segment] = rule.getLevel();
+            } else if (caps[segment] == NO_LEVEL || rule.getLevel() < caps[segment]) {
+                caps[segment] = rule.getLevel();
+            }
+        }
+    }
+
+    /**
+     * @param localMillis
+     *         {@link long} local time, in millis since the epoch
+     * @return {@link long} millis since monday 00:00
+     */
+    static long getMillisOfWeek(long localMillis) {
+        long day = localMillis / DAY_MILLIS;
+        long millisOfDay = localMillis % DAY_MILLIS;
+        if (millisOfDay < 0) {
+            day--;
+            millisOfDay += DAY_MILLIS;
+        }
+        long dayOfWeek = ((day + EPOCH_DAY_OF_WEEK) % 7 + 7) % 7;
+        return dayOfWeek * DAY_MILLIS + millisOfDay;
+    }
+
+}
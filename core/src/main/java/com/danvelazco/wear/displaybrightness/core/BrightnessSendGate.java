@@ -0,0 +1,263 @@
+package com.danvelazco.wear.displaybrightness.core;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decides whether a brightness level actually needs to be sent to a watch.
+ * <p/>
+ * Every send costs a Bluetooth round trip and wakes the watch up, so the last level delivered to each node is
+ * remembered and duplicates are suppressed. To avoid flipping the brightness back and forth on a single noisy
+ * activity detection, a new level must also be seen a number of consecutive times (hysteresis) and a minimum time must
+ * pass since the last change delivered to the node (dwell time).
+ * <p/>
+ * Fine levels from the continuous mode change a little on every decision as the sun moves, so they are compared with
+ * a tolerance: a fine level close to the delivered one counts as a duplicate, and one close to the candidate confirms
+ * it.
+ */
+public class BrightnessSendGate {
+
+    // Decisions
+    public static final int SEND = 0;
+    public static final int SUPPRESS_DUPLICATE = 1;
+    public static final int SUPPRESS_HYSTERESIS = 2;
+    public static final int SUPPRESS_DWELL = 3;
+
+    // Defaults
+    public static final int DEFAULT_REQUIRED_CONFIRMATIONS = 2;
+    public static final long DEFAULT_MIN_DWELL_MILLIS = 15 * 60 * 1000;
+    public static final int DEFAULT_FINE_TOLERANCE = 8;
+
+    // Members
+    private final Map<String, NodeState> mNodeStates = new HashMap<>();
+    private int mRequiredConfirmations = DEFAULT_REQUIRED_CONFIRMATIONS;
+    private long mMinDwellMillis = DEFAULT_MIN_DWELL_MILLIS;
+    private int mFineTolerance = DEFAULT_FINE_TOLERANCE;
+
+    // Statistics
+    private boolean mHasEvaluated = false;
+    private long mFirstEvaluationMillis = 0;
+    private int mSendCount = 0;
+    private int mSuppressedDuplicateCount = 0;
+    private int mSuppressedHysteresisCount = 0;
+    private int mSuppressedDwellCount = 0;
+
+    /**
+     * Last delivered and candidate levels for a single node
+     */
+    private static class NodeState {
+        boolean mHasLevel = false;
+        int mLastLevel;
+        long mLastChangeTime;
+        int mCandidateLevel;
+        int mCandidateCount;
+    }
+
+    /**
+     * Evaluate whether the level should be sent to the node. Call {@link #markSent()} once the level is handed to the
+     * sender and {@link #markDelivered(String, int, long)} once it actually reached the node.
+     *
+     * @param nodeId
+     *         {@link String} id of the watch
+     * @param level
+     *         {@link int} the {@code BrightnessLevel} we want to send
+     * @param nowMillis
+     *         {@link long} monotonic time, e.g. {@code SystemClock.elapsedRealtime()}
+     * @return {@link int} {@link #SEND} or the reason why it was suppressed
+     */
+    public int evaluate(String nodeId, int level, long nowMillis) {
+        return evaluate(nodeId, level, nowMillis, false);
+    }
+
+    /**
+     * Evaluate whether the level should be sent to the node, see {@link #evaluate(String, int, long)}
+     *
+     * @param nodeId
+     *         {@link String} id of the watch
+     * @param level
+     *         {@link int} the {@code BrightnessLevel} we want to send
+     * @param nowMillis
+     *         {@link long} monotonic time, e.g. {@code SystemClock.elapsedRealtime()}
+     * @param immediate
+     *         {@link boolean} true to skip the hysteresis and dwell time, for changes that are known not to be noise
+     *         like the sun rising or setting. Duplicates are still suppressed.
+     * @return {@link int} {@link #SEND} or the reason why it was suppressed
+     */
+    public int evaluate(String nodeId, int level, long nowMillis, boolean immediate) {
+        return evaluate(nodeId, level, nowMillis, immediate, false);
+    }
+
+    /**
+     * Evaluate whether the level should be sent to the node, see {@link #evaluate(String, int, long, boolean)}
+     *
+     * @param nodeId
+     *         {@link String} id of the watch
+     * @param level
+     *         {@link int} the {@code BrightnessLevel}, or the fine level, we want to send
+     * @param nowMillis
+     *         {@link long} monotonic time, e.g. {@code SystemClock.elapsedRealtime()}
+     * @param immediate
+     *         {@link boolean} true to skip the hysteresis and dwell time
+     * @param fine
+     *         {@link boolean} true if the level is a fine level, compared with the fine tolerance
+     * @return {@link int} {@link #SEND} or the reason why it was suppressed
+     */
+    public synchronized int evaluate(String nodeId, int level, long nowMillis, boolean immediate, boolean fine) {
+        if (!mHasEvaluated) {
+            mHasEvaluated = true;
+            mFirstEvaluationMillis = nowMillis;
+        }
+        NodeState state = mNodeStates.get(nodeId);
+        if (state == null) {
+            state = new NodeState();
+            mNodeStates.put(nodeId, state);
+        }
+
+        // Nothing was delivered to this node yet, there is nothing to compare to
+        if (!state.mHasLevel) {
+            return SEND;
+        }
+
+        int tolerance = fine ? mFineTolerance : 0;
+        if (Math.abs(level - state.mLastLevel) <= tolerance) {
+            state.mCandidateCount = 0;
+            mSuppressedDuplicateCount++;
+            return SUPPRESS_DUPLICATE;
+        }
+
+        if (immediate) {
+            return SEND;
+        }
+
+        if (state.mCandidateCount > 0 && Math.abs(level - state.mCandidateLevel) <= tolerance) {
+            // Fine levels keep moving, the newest one is the candidate
+            state.mCandidateLevel = level;
+            state.mCandidateCount++;
+        } else {
+            state.mCandidateLevel = level;
+            state.mCandidateCount = 1;
+        }
+
+        if (state.mCandidateCount < mRequiredConfirmations) {
+            mSuppressedHysteresisCount++;
+            return SUPPRESS_HYSTERESIS;
+        }
+
+        if (nowMillis - state.mLastChangeTime < mMinDwellMillis) {
+            mSuppressedDwellCount++;
+            return SUPPRESS_DWELL;
+        }
+
+        return SEND;
+    }
+
+    /**
+     * Count a level handed to the sender, once however many nodes it goes to
+     */
+    public synchronized void markSent() {
+        mSendCount++;
+    }
+
+    /**
+     * Remember the level that was delivered to the node
+     *
+     * @param nodeId
+     *         {@link String} id of the watch
+     * @param level
+     *         {@link int} the {@code BrightnessLevel} delivered
+     * @param nowMillis
+     *         {@link long} monotonic time, same clock used for {@link #evaluate(String, int, long)}
+     */
+    public synchronized void markDelivered(String nodeId, int level, long nowMillis) {
+        NodeState state = mNodeStates.get(nodeId);
+        if (state == null) {
+            state = new NodeState();
+            mNodeStates.put(nodeId, state);
+        }
+        if (!state.mHasLevel || state.mLastLevel != level) {
+            state.mLastChangeTime = nowMillis;
+        }
+        state.mHasLevel = true;
+        state.mLastLevel = level;
+        state.mCandidateCount = 0;
+    }
+
+    /**
+     * Forget everything known about a node, e.g. after it was re-paired
+     *
+     * @param nodeId
+     *         {@link String} id of the watch
+     */
+    public synchronized void reset(String nodeId) {
+        mNodeStates.remove(nodeId);
+    }
+
+    /**
+     * @param requiredConfirmations
+     *         {@link int} consecutive times a new level must be seen before it's sent, 1 disables the hysteresis
+     */
+    public synchronized void setRequiredConfirmations(int requiredConfirmations) {
+        mRequiredConfirmations = Math.max(1, requiredConfirmations);
+    }
+
+    /**
+     * @param minDwellMillis
+     *         {@link long} minimum time between two level changes on the same node, 0 disables it
+     */
+    public synchronized void setMinDwellMillis(long minDwellMillis) {
+        mMinDwellMillis = Math.max(0, minDwellMillis);
+    }
+
+    /**
+     * @param fineTolerance
+     *         {@link int} how far apart two fine levels can be and still count as the same, 0 to compare them exactly
+     */
+    public synchronized void setFineTolerance(int fineTolerance) {
+        mFineTolerance = Math.max(0, fineTolerance);
+    }
+
+    /**
+     * @return {@link int} number of levels sent, see {@link #markSent()}
+     */
+    public synchronized int getSendCount() {
+        return mSendCount;
+    }
+
+    /**
+     * @param nowMillis
+     *         {@link long} monotonic time, same clock used for {@link #evaluate(String, int, long)}
+     * @return {@link float} number of levels sent per day
+     */
+    public synchronized float getSendsPerDay(long nowMillis) {
+        return mHasEvaluated ? ActivitySmoother.perDay(mSendCount, mFirstEvaluationMillis, nowMillis) : 0;
+    }
+
+    /**
+     * @return {@link int} total number of suppressed sends
+     */
+    public synchronized int getSuppressedCount() {
+        return mSuppressedDuplicateCount + mSuppressedHysteresisCount + mSuppressedDwellCount;
+    }
+
+    /**
+     * @return {@link int} number of sends suppressed because the node already had the level
+     */
+    public synchronized int getSuppressedDuplicateCount() {
+        return mSuppressedDuplicateCount;
+    }
+
+    /**
+     * @return {@link int} number of sends suppressed because the level wasn't confirmed yet
+     */
+    public synchronized int getSuppressedHysteresisCount() {
+        return mSuppressedHysteresisCount;
+    }
+
+    /**
+     * @return {@link int} number of sends suppressed because the node changed too recently
+     */
+    public synchronized int getSuppressedDwellCount() {
+        return mSuppressedDwellCount;
+    }
+
+}
@@ -0,0 +1,352 @@
+package com.danvelazco.wear.displaybrightness.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Reads every input of a brightness decision (location, battery, ...) concurrently under a hard latency budget.
+ * <p/>
+ * Each input is a {@link Source} registered once with {@link #register(String, Source, Object)}. {@link
+ * #collect(Object)} starts reading all of them at the same time and waits until they are done or the budget runs out,
+ * whichever comes first. Sources that miss the deadline, fail or have nothing to return are replaced by the last
+ * value they returned, or by their default value if they never returned anything, so a {@link Snapshot} is always
+ * produced within the budget. A source that finishes after the deadline still refreshes the cached value for the
+ * next collection.
+ * <p/>
+ * The latency of every read and the number of timeouts, failures and fallbacks are kept per source.
+ *
+ * @param <A>
+ *         argument handed to every source, e.g. a connected client
+ */
+public class ContextCollector<A> {
+
+    // Defaults
+    public static final long DEFAULT_BUDGET_MILLIS = 500;
+
+    /**
+     * One of the inputs of the decision
+     *
+     * @param <A>
+     *         argument handed to the source
+     * @param <T>
+     *         type of the value
+     */
+    public interface Source<A, T> {
+
+        /**
+         * Read the current value, called on one of the collector's threads. Should stop when interrupted.
+         *
+         * @param argument
+         *         {@link A} argument given to {@link ContextCollector#collect(Object)}
+         * @return {@link T} current value, or null if it's unknown
+         * @throws Exception
+         *         if the value can't be read
+         */
+        T read(A argument) throws Exception;
+
+    }
+
+    // Members
+    private final ExecutorService mExecutor;
+    private final List<Slot<A, ?>> mSlots = new ArrayList<>();
+    private volatile long mBudgetMillis = DEFAULT_BUDGET_MILLIS;
+
+    /**
+     * Constructor
+     *
+     * @param executor
+     *         {@link ExecutorService} running the reads, needs as many threads as there are sources so none of them
+     *         waits behind a slow one
+     */
+    public ContextCollector(ExecutorService executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * Add a source, must be done before the first {@link #collect(Object)}
+     *
+     * @param name
+     *         {@link String} used in logs
+     * @param source
+     *         {@link Source}
+     * @param defaultValue
+     *         {@link T} used when the source has never returned a value, may be null
+     * @return {@link Slot} used to get the value out of a {@link Snapshot} and to read the statistics
+     */
+    public synchronized <T> Slot<A, T> register(String name, Source<A, T> source, T defaultValue) {
+        Slot<A, T> slot = new Slot<>(mSlots.size(), name, source, defaultValue);
+        mSlots.add(slot);
+        return slot;
+    }
+
+    /**
+     * @param budgetMillis
+     *         {@link long} maximum time {@link #collect(Object)} waits for the sources
+     */
+    public void setBudgetMillis(long budgetMillis) {
+        mBudgetMillis = Math.max(0, budgetMillis);
+    }
+
+    /**
+     * @return {@link long} maximum time {@link #collect(Object)} waits for the sources
+     */
+    public long getBudgetMillis() {
+        return mBudgetMillis;
+    }
+
+    /**
+     * Read every source concurrently, returning within the budget
+     *
+     * @param argument
+     *         {@link A} handed to every source
+     * @return {@link Snapshot} with a value, or its fallback, for every source
+     */
+    public Snapshot collect(A argument) {
+        List<Slot<A, ?>> slots;
+        synchronized (this) {
+            slots = new ArrayList<>(mSlots);
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(mBudgetMillis);
+        List<Future<?>> futures = new ArrayList<>(slots.size());
+        for (Slot<A, ?> slot : slots) {
+            futures.add(mExecutor.submit(slot.newRead(argument)));
+        }
+
+        Snapshot snapshot = new Snapshot(slots.size());
+        boolean interrupted = false;
+        for (int i = 0; i < slots.size(); i++) {
+            Slot<A, ?> slot = slots.get(i);
+            Future<?> future = futures.get(i);
+            Object value = null;
+            try {
+                if (!interrupted) {
+                    value = future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                }
+            } catch (TimeoutException e) {
+                slot.onTimeout();
+            } catch (ExecutionException e) {
+                // Already counted by the read
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+            if (value != null) {
+                snapshot.mValues[slot.mIndex] = value;
+                snapshot.mFresh[slot.mIndex] = true;
+            } else {
+                future.cancel(true);
+                snapshot.mValues[slot.mIndex] = slot.fallback();
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return snapshot;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("ContextCollector{budget=").append(mBudgetMillis).append("ms");
+        for (Slot<A, ?> slot : mSlots) {
+            builder.append(' ').append(slot);
+        }
+        return builder.append('}').toString();
+    }
+
+    /**
+     * Values read by one {@link #collect(Object)}
+     */
+    public static final class Snapshot {
+
+        // Members
+        private final Object[] mValues;
+        private final boolean[] mFresh;
+
+        /**
+         * Constructor
+         *
+         * @param size
+         *         {@link int} number of sources
+         */
+        private Snapshot(int size) {
+            mValues = new Object[size];
+            mFresh = new boolean[size];
+        }
+
+        /**
+         * @param slot
+         *         {@link Slot} of the source
+         * @return {@link T} value read within the budget, else the cached or default value
+         */
+        @SuppressWarnings("unchecked")
+        public <T> T get(Slot<?, T> slot) {
+            return (T) mValues[slot.mIndex];
+        }
+
+        /**
+         * @param slot
+         *         {@link Slot} of the source
+         * @return {@link boolean} true if the value was read within the budget, false if it's a fallback
+         */
+        public boolean isFresh(Slot<?, ?> slot) {
+            return mFresh[slot.mIndex];
+        }
+
+    }
+
+    /**
+     * A registered {@link Source} with its cached value and statistics
+     *
+     * @param <A>
+     *         argument handed to the source
+     * @param <T>
+     *         type of the value
+     */
+    public static final class Slot<A, T> {
+
+        // Members
+        private final int mIndex;
+        private final String mName;
+        private final Source<A, T> mSource;
+        private final T mDefaultValue;
+        private T mCachedValue;
+
+        // Statistics
+        private int mReadCount;
+        private long mLastLatencyMillis;
+        private long mTotalLatencyMillis;
+        private int mTimeoutCount;
+        private int mFailureCount;
+        private int mFallbackCount;
+
+        /**
+         * Constructor
+         */
+        private Slot(int index, String name, Source<A, T> source, T defaultValue) {
+            mIndex = index;
+            mName = name;
+            mSource = source;
+            mDefaultValue = defaultValue;
+        }
+
+        /**
+         * @param argument
+         *         {@link A} handed to the source
+         * @return {@link Callable} reading the source once and recording how long it took
+         */
+        private Callable<T> newRead(final A argument) {
+            return new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    long start = System.nanoTime();
+                    T value = null;
+                    try {
+                        value = mSource.read(argument);
+                        return value;
+                    } finally {
+                        onRead(value, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    }
+                }
+            };
+        }
+
+        /**
+         * Record a finished read, successful or not
+         */
+        private synchronized void onRead(T value, long latencyMillis) {
+            mReadCount++;
+            mLastLatencyMillis = latencyMillis;
+            mTotalLatencyMillis += latencyMillis;
+            if (value != null) {
+                mCachedValue = value;
+            } else {
+                mFailureCount++;
+            }
+        }
+
+        /**
+         * Record a read that missed the deadline
+         */
+        private synchronized void onTimeout() {
+            mTimeoutCount++;
+        }
+
+        /**
+         * @return {@link T} last value returned by the source, or the default value
+         */
+        private synchronized T fallback() {
+            mFallbackCount++;
+            return mCachedValue != null ? mCachedValue : mDefaultValue;
+        }
+
+        /**
+         * @return {@link String} name of the source
+         */
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * @return {@link int} number of reads that finished, including the ones that missed the deadline
+         */
+        public synchronized int getReadCount() {
+            return mReadCount;
+        }
+
+        /**
+         * @return {@link long} time the last finished read took
+         */
+        public synchronized long getLastLatencyMillis() {
+            return mLastLatencyMillis;
+        }
+
+        /**
+         * @return {@link long} average time a read takes
+         */
+        public synchronized long getAverageLatencyMillis() {
+            return mReadCount > 0 ? mTotalLatencyMillis / mReadCount : 0;
+        }
+
+        /**
+         * @return {@link int} number of reads that missed the deadline
+         */
+        public synchronized int getTimeoutCount() {
+            return mTimeoutCount;
+        }
+
+        /**
+         * @return {@link int} number of reads that threw or had nothing to return
+         */
+        public synchronized int getFailureCount() {
+            return mFailureCount;
+        }
+
+        /**
+         * @return {@link int} number of snapshots that used the cached or default value
+         */
+        public synchronized int getFallbackCount() {
+            return mFallbackCount;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public synchronized String toString() {
+            return mName + "{avg=" + getAverageLatencyMillis() + "ms last=" + mLastLatencyMillis + "ms timeouts="
+                    + mTimeoutCount + " failures=" + mFailureCount + " fallbacks=" + mFallbackCount + "}";
+        }
+
+    }
+
+}
@@ -0,0 +1,398 @@
+package com.danvelazco.wear.displaybrightness.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the brightness decisions, kept in a fixed size memory-mapped ring file so the last few
+ * thousand decisions survive long after the logs have rotated out.
+ * <p/>
+ * Appending is a handful of writes to the mapped memory, nothing waits for the disk; the kernel writes the pages back
+ * on its own and they survive the process being killed. Once the ring is full the oldest records are overwritten.
+ * <p/>
+ * Every record carries a sequence number and a CRC, the file has no write position of its own. When the journal is
+ * opened the slots are scanned and writing resumes after the newest valid record, so a record torn by a crash or a
+ * power loss is simply skipped and overwritten by the next append.
+ * <p/>
+ * The journal is thread safe.
+ */
+public class DecisionJournal implements Closeable {
+
+    // Defaults
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    // File layout
+    private static final int MAGIC = 0x44424a31; // "DBJ1"
+    private static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 32;
+
+    // Record layout
+    private static final int OFFSET_SEQUENCE = 0;
+    private static final int OFFSET_TIME = 8;
+    private static final int OFFSET_ACTIVITY = 16;
+    private static final int OFFSET_CONFIDENCE = 17;
+    private static final int OFFSET_FLAGS = 18;
+    private static final int OFFSET_LEVEL = 19;
+    private static final int OFFSET_FINE_LEVEL = 20;
+    private static final int OFFSET_REASON = 22;
+    private static final int OFFSET_BATTERY = 23;
+    private static final int OFFSET_CRC = 28;
+
+    // Flags
+    private static final int FLAG_DAYTIME = 1;
+    private static final int FLAG_SENT = 1 << 1;
+
+    // Members
+    private final RandomAccessFile mFile;
+    private final MappedByteBuffer mBuffer;
+    private final int mCapacity;
+    private final CRC32 mCrc = new CRC32();
+    private final byte[] mScratch = new byte[OFFSET_CRC];
+    private long mNextSequence;
+
+    /**
+     * One decision read back from the journal
+     */
+    public static final class Entry {
+
+        // Members
+        private final long mSequence;
+        private final long mTimeMillis;
+        private final int mActivityType;
+        private final int mConfidence;
+        private final boolean mDaytime;
+        private final int mLevel;
+        private final int mFineLevel;
+        private final int mReason;
+        private final int mBatteryPercent;
+        private final boolean mSent;
+
+        /**
+         * Constructor
+         */
+        private Entry(long sequence, long timeMillis, int activityType, int confidence, boolean daytime, int level,
+                int fineLevel, int reason, int batteryPercent, boolean sent) {
+            mSequence = sequence;
+            mTimeMillis = timeMillis;
+            mActivityType = activityType;
+            mConfidence = confidence;
+            mDaytime = daytime;
+            mLevel = level;
+            mFineLevel = fineLevel;
+            mReason = reason;
+            mBatteryPercent = batteryPercent;
+            mSent = sent;
+        }
+
+        /**
+         * @return {@link long} position of the record in the journal, starting at 1
+         */
+        public long getSequence() {
+            return mSequence;
+        }
+
+        /**
+         * @return {@link long} time of the decision, in epoch millis
+         */
+        public long getTimeMillis() {
+            return mTimeMillis;
+        }
+
+        /**
+         * @return {@link int} one of the {@link BrightnessDecisionTable} activity types
+         */
+        public int getActivityType() {
+            return mActivityType;
+        }
+
+        /**
+         * @return {@link int} confidence of the activity, from 0 to 100
+         */
+        public int getConfidence() {
+            return mConfidence;
+        }
+
+        /**
+         * @return {@link boolean} true if the sun was up
+         */
+        public boolean isDaytime() {
+            return mDaytime;
+        }
+
+        /**
+         * @return {@link int} level picked
+         */
+        public int getLevel() {
+            return mLevel;
+        }
+
+        /**
+         * @return {@link int} fine level picked by the continuous mode, or {@link BrightnessDecision#NO_FINE_LEVEL}
+         */
+        public int getFineLevel() {
+            return mFineLevel;
+        }
+
+        /**
+         * @return {@link int} why the level was picked, one of the payload reasons
+         */
+        public int getReason() {
+            return mReason;
+        }
+
+        /**
+         * @return {@link int} battery level of the phone, or {@link BrightnessContext#UNKNOWN_BATTERY}
+         */
+        public int getBatteryPercent() {
+            return mBatteryPercent;
+        }
+
+        /**
+         * @return {@link boolean} true if the level was sent, false if it was suppressed
+         */
+        public boolean isSent() {
+            return mSent;
+        }
+
+    }
+
+    /**
+     * Open the journal, creating the file if needed. A file that isn't a journal or has a different capacity is
+     * started over.
+     *
+     * @param file
+     *         {@link File} backing the ring
+     * @param capacity
+     *         {@link int} number of records kept
+     * @return {@link DecisionJournal}
+     * @throws IOException
+     *         if the file can't be opened or mapped
+     */
+    public static DecisionJournal open(File file, int capacity) throws IOException {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be at least 1");
+        }
+        return new DecisionJournal(file, capacity);
+    }
+
+    /**
+     * Constructor
+     */
+    private DecisionJournal(File file, int capacity) throws IOException {
+        mCapacity = capacity;
+        mFile = new RandomAccessFile(file, "rw");
+        long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+        boolean valid = mFile.length() == size;
+        if (!valid) {
+            mFile.setLength(0);
+            mFile.setLength(size);
+        }
+        mBuffer = mFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (!valid || mBuffer.getInt(0) != MAGIC || mBuffer.getInt(4) != VERSION
+                || mBuffer.getInt(8) != RECORD_SIZE || mBuffer.getInt(12) != capacity) {
+            for (int i = 0; i < size; i++) {
+                mBuffer.put(i, (byte) 0);
+            }
+            mBuffer.putInt(0, MAGIC);
+            mBuffer.putInt(4, VERSION);
+            mBuffer.putInt(8, RECORD_SIZE);
+            mBuffer.putInt(12, capacity);
+        }
+
+        // Resume after the newest record that made it to the file in one piece
+        long newest = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            long sequence = readValidSequence(slot);
+            if (sequence > newest) {
+                newest = sequence;
+            }
+        }
+        mNextSequence = newest + 1;
+    }
+
+    /**
+     * Append a decision, overwriting the oldest one if the journal is full
+     *
+     * @param context
+     *         {@link BrightnessContext} the decision was made on
+     * @param decision
+     *         {@link BrightnessDecision}
+     * @param reason
+     *         {@link int} why the level was picked, one of the payload reasons
+     * @param sent
+     *         {@link boolean} true if the level was sent, false if it was suppressed
+     */
+    public synchronized void append(BrightnessContext context, BrightnessDecision decision, int reason,
+            boolean sent) {
+        append(context.getTimeMillis(), context.getActivityType(), context.getConfidence(), decision.isDaytime(),
+                decision.getLevel(), decision.getFineLevel(), reason, context.getBatteryPercent(), sent);
+    }
+
+    /**
+     * Append a decision, overwriting the oldest one if the journal is full
+     *
+     * @param timeMillis
+     *         {@link long} time of the decision, in epoch millis
+     * @param activityType
+     *         {@link int} one of the {@link BrightnessDecisionTable} activity types
+     * @param confidence
+     *         {@link int} confidence of the activity, from 0 to 100
+     * @param daytime
+     *         {@link boolean} true if the sun was up
+     * @param level
+     *         {@link int} level picked
+     * @param fineLevel
+     *         {@link int} fine level picked by the continuous mode, or {@link BrightnessDecision#NO_FINE_LEVEL}
+     * @param reason
+     *         {@link int} why the level was picked, one of the payload reasons
+     * @param batteryPercent
+     *         {@link int} battery level of the phone, or {@link BrightnessContext#UNKNOWN_BATTERY}
+     * @param sent
+     *         {@link boolean} true if the level was sent, false if it was suppressed
+     */
+    public synchronized void append(long timeMillis, int activityType, int confidence, boolean daytime, int level,
+            int fineLevel, int reason, int batteryPercent, boolean sent) {
+        long sequence = mNextSequence++;
+        int base = offsetOf(slotOf(sequence));
+
+        // Invalidate the slot first, a crash half way through leaves a record that fails the CRC either way
+        mBuffer.putInt(base + OFFSET_CRC, 0);
+        mBuffer.putLong(base + OFFSET_SEQUENCE, sequence);
+        mBuffer.putLong(base + OFFSET_TIME, timeMillis);
+        mBuffer.put(base + OFFSET_ACTIVITY, (byte) activityType);
+        mBuffer.put(base + OFFSET_CONFIDENCE, (byte) confidence);
+        mBuffer.put(base + OFFSET_FLAGS, (byte) ((daytime ? FLAG_DAYTIME : 0) | (sent ? FLAG_SENT : 0)));
+        mBuffer.put(base + OFFSET_LEVEL, (byte) level);
+        mBuffer.putShort(base + OFFSET_FINE_LEVEL, (short) fineLevel);
+        mBuffer.put(base + OFFSET_REASON, (byte) reason);
+        mBuffer.put(base + OFFSET_BATTERY, (byte) batteryPercent);
+        mBuffer.putInt(base + OFFSET_CRC, crcOf(base));
+    }
+
+    /**
+     * @return {@link List} of every valid record, oldest first
+     */
+    public synchronized List<Entry> read() {
+        List<Entry> entries = new ArrayList<>(mCapacity);
+        long first = Math.max(1, mNextSequence - mCapacity);
+        for (long sequence = first; sequence < mNextSequence; sequence++) {
+            int slot = slotOf(sequence);
+            if (readValidSequence(slot) != sequence) {
+                // Torn by a crash
+                continue;
+            }
+            int base = offsetOf(slot);
+            int flags = mBuffer.get(base + OFFSET_FLAGS);
+            entries.add(new Entry(sequence, mBuffer.getLong(base + OFFSET_TIME), mBuffer.get(base + OFFSET_ACTIVITY),
+                    mBuffer.get(base + OFFSET_CONFIDENCE), (flags & FLAG_DAYTIME) != 0,
+                    mBuffer.get(base + OFFSET_LEVEL), mBuffer.getShort(base + OFFSET_FINE_LEVEL) & 0xFFFF,
+                    mBuffer.get(base + OFFSET_REASON), mBuffer.get(base + OFFSET_BATTERY),
+                    (flags & FLAG_SENT) != 0));
+        }
+        return entries;
+    }
+
+    /**
+     * Write every valid record as CSV, oldest first, with a header line
+     *
+     * @param writer
+     *         {@link Writer} not closed afterwards
+     * @throws IOException
+     *         if writing fails
+     */
+    public void exportCsv(Writer writer) throws IOException {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        writer.write("sequence,time_millis,time_utc,activity,confidence,daytime,level,fine_level,reason,battery,"
+                + "sent\n");
+        for (Entry entry : read()) {
+            writer.write(entry.getSequence() + "," + entry.getTimeMillis() + ","
+                    + format.format(new Date(entry.getTimeMillis())) + "," + entry.getActivityType() + ","
+                    + entry.getConfidence() + "," + entry.isDaytime() + "," + entry.getLevel() + ","
+                    + entry.getFineLevel() + "," + entry.getReason() + "," + entry.getBatteryPercent() + ","
+                    + entry.isSent() + "\n");
+        }
+        writer.flush();
+    }
+
+    /**
+     * @return {@link int} number of records kept
+     */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Ask the kernel to write the journal to the disk now, e.g. before exporting the file itself. Blocks.
+     */
+    public synchronized void flush() {
+        mBuffer.force();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        mFile.close();
+    }
+
+    /**
+     * @param slot
+     *         {@link int} slot of the ring
+     * @return {@link long} sequence of the record in the slot, 0 if it's empty or fails the CRC
+     */
+    private long readValidSequence(int slot) {
+        int base = offsetOf(slot);
+        long sequence = mBuffer.getLong(base + OFFSET_SEQUENCE);
+        if (sequence <= 0 || slotOf(sequence) != slot || mBuffer.getInt(base + OFFSET_CRC) != crcOf(base)) {
+            return 0;
+        }
+        return sequence;
+    }
+
+    /**
+     * @param base
+     *         {@link int} offset of the record
+     * @return {@link int} CRC of everything in the record before the CRC itself
+     */
+    private int crcOf(int base) {
+        for (int i = 0; i < OFFSET_CRC; i++) {
+            mScratch[i] = mBuffer.get(base + i);
+        }
+        mCrc.reset();
+        mCrc.update(mScratch, 0, OFFSET_CRC);
+        return (int) mCrc.getValue();
+    }
+
+    /**
+     * @return {@link int} slot of the ring holding the sequence
+     */
+    private int slotOf(long sequence) {
+        return (int) ((sequence - 1) % mCapacity);
+    }
+
+    /**
+     * @return {@link int} offset of the slot in the file
+     */
+    private int offsetOf(int slot) {
+        return HEADER_SIZE + slot * RECORD_SIZE;
+    }
+
+}
@@ -0,0 +1,159 @@
+package com.danvelazco.wear.displaybrightness.core;
+
+/**
+ * Picks how often the activity recognition should wake the phone up, based on what the user has been doing.
+ * <p/>
+ * Every detection is a wakeup, so when the user has been sitting still for a while the interval is doubled on every
+ * further still detection, up to {@link #setBounds(long, long) the maximum}. As soon as the user starts moving, or
+ * when the sunrise or sunset is close and the level is about to change anyway, a short interval is used so the new
+ * level doesn't lag behind.
+ * <p/>
+ * Re-requesting activity updates costs a connection to Play Services, so the scheduler also keeps track of the
+ * interval that was last requested and callers should only request updates when it's different. The number of
+ * wakeups in the last hour is kept to measure the effect on the battery.
+ * <p/>
+ * The scheduler is thread safe.
+ */
+public class DetectionIntervalScheduler {
+
+    // Constants
+    private static final long MINUTE_MILLIS = 60 * 1000L;
+    private static final long HOUR_MILLIS = 60 * MINUTE_MILLIS;
+    private static final int WAKEUP_HISTORY_SIZE = 64;
+
+    /**
+     * Returned by {@link #getRequestedIntervalMillis()} when no updates were requested yet
+     */
+    public static final long NOT_REQUESTED = 0;
+
+    // Defaults
+    public static final long DEFAULT_INTERVAL_MILLIS = 10 * MINUTE_MILLIS;
+    public static final long DEFAULT_MOVING_INTERVAL_MILLIS = 2 * MINUTE_MILLIS;
+    public static final long DEFAULT_TRANSITION_INTERVAL_MILLIS = 3 * MINUTE_MILLIS;
+    public static final long DEFAULT_TRANSITION_WINDOW_MILLIS = 30 * MINUTE_MILLIS;
+    public static final long DEFAULT_MIN_INTERVAL_MILLIS = MINUTE_MILLIS;
+    public static final long DEFAULT_MAX_INTERVAL_MILLIS = 40 * MINUTE_MILLIS;
+    public static final int DEFAULT_SUSTAINED_STILL_DETECTIONS = 3;
+
+    // Configuration
+    private long mMinIntervalMillis = DEFAULT_MIN_INTERVAL_MILLIS;
+    private long mMaxIntervalMillis = DEFAULT_MAX_INTERVAL_MILLIS;
+    private int mSustainedStillDetections = DEFAULT_SUSTAINED_STILL_DETECTIONS;
+
+    // State
+    private int mStillStreak = 0;
+    private long mIntervalMillis = DEFAULT_INTERVAL_MILLIS;
+    private long mRequestedIntervalMillis = NOT_REQUESTED;
+
+    // Time of the most recent wakeups, oldest first once the buffer wraps around
+    private final long[] mWakeups = new long[WAKEUP_HISTORY_SIZE];
+    private int mWakeupCount = 0;
+
+    /**
+     * Record a detection and work out the interval to use from now on
+     *
+     * @param activityType
+     *         {@link int} one of the {@link BrightnessDecisionTable} activity types
+     * @param millisToSolarTransition
+     *         {@link long} time to the closest sunrise or sunset, see {@link
+     *         BrightnessEngine#getMillisToSolarTransition(BrightnessContext)}
+     * @param nowMillis
+     *         {@link long} monotonic time of the wakeup, e.g. {@code SystemClock.elapsedRealtime()}
+     * @return {@link long} detection interval in millis
+     */
+    public synchronized long onDetection(int activityType, long millisToSolarTransition, long nowMillis) {
+        mWakeups[mWakeupCount++ % WAKEUP_HISTORY_SIZE] = nowMillis;
+
+        long interval;
+        switch (activityType) {
+            case BrightnessDecisionTable.STILL:
+                mStillStreak++;
+                interval = DEFAULT_INTERVAL_MILLIS;
+                // Back off exponentially once the user has been still for a while
+                for (int i = mSustainedStillDetections; i <= mStillStreak && interval < mMaxIntervalMillis; i++) {
+                    interval <<= 1;
+                }
+                break;
+            case BrightnessDecisionTable.IN_VEHICLE:
+            case BrightnessDecisionTable.ON_BICYCLE:
+            case BrightnessDecisionTable.ON_FOOT:
+            case BrightnessDecisionTable.WALKING:
+            case BrightnessDecisionTable.RUNNING:
+                mStillStreak = 0;
+                interval = DEFAULT_MOVING_INTERVAL_MILLIS;
+                break;
+            default:
+                // Tilting or unknown, usually the phone being picked up, don't break the still streak for it
+                interval = DEFAULT_INTERVAL_MILLIS;
+                break;
+        }
+
+        if (millisToSolarTransition <= DEFAULT_TRANSITION_WINDOW_MILLIS) {
+            interval = Math.min(interval, DEFAULT_TRANSITION_INTERVAL_MILLIS);
+        }
+
+        mIntervalMillis = Math.max(mMinIntervalMillis, Math.min(mMaxIntervalMillis, interval));
+        return mIntervalMillis;
+    }
+
+    /**
+     * @return {@link long} interval picked on the last detection, or the default one
+     */
+    public synchronized long getIntervalMillis() {
+        return mIntervalMillis;
+    }
+
+    /**
+     * @return {@link long} interval activity updates were last requested with, or {@link #NOT_REQUESTED}
+     */
+    public synchronized long getRequestedIntervalMillis() {
+        return mRequestedIntervalMillis;
+    }
+
+    /**
+     * @param intervalMillis
+     *         {@link long} interval activity updates were just requested with
+     */
+    public synchronized void markRequested(long intervalMillis) {
+        mRequestedIntervalMillis = intervalMillis;
+    }
+
+    /**
+     * @param nowMillis
+     *         {@link long} monotonic time, same clock used for {@link #onDetection(int, long, long)}
+     * @return {@link int} number of detections in the last hour
+     */
+    public synchronized int getWakeupsInLastHour(long nowMillis) {
+        int count = 0;
+        int size = Math.min(mWakeupCount, WAKEUP_HISTORY_SIZE);
+        for (int i = 0; i < size; i++) {
+            if (nowMillis - mWakeups[i] <= HOUR_MILLIS) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param minIntervalMillis
+     *         {@link long} shortest interval ever used
+     * @param maxIntervalMillis
+     *         {@link long} longest interval ever used
+     */
+    public synchronized void setBounds(long minIntervalMillis, long maxIntervalMillis) {
+        if (minIntervalMillis <= 0 || maxIntervalMillis < minIntervalMillis) {
+            throw new IllegalArgumentException("Invalid bounds: " + minIntervalMillis + "-" + maxIntervalMillis);
+        }
+        mMinIntervalMillis = minIntervalMillis;
+        mMaxIntervalMillis = maxIntervalMillis;
+    }
+
+    /**
+     * @param sustainedStillDetections
+     *         {@link int} consecutive still detections before the interval starts backing off
+     */
+    public synchronized void setSustainedStillDetections(int sustainedStillDetections) {
+        mSustainedStillDetections = Math.max(1, sustainedStillDetections);
+    }
+
+}
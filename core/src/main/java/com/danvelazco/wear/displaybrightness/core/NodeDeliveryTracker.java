@@ -0,0 +1,196 @@
+package com.danvelazco.wear.displaybrightness.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps what is known about every watch the phone delivers levels to: how the watch maps a decision to the level it
+ * actually shows and how long its deliveries take. The level each watch shows is kept by the
+ * {@link BrightnessSendGate}.
+ * <p/>
+ * Watches running different versions of the app don't show the same thing for the same decision, e.g. a watch that
+ * doesn't know about fine levels shows the closest coarse level. Each node has a {@link LevelMapping} so the decision
+ * is turned into the level that node would actually show, and a node already showing it can be skipped even though
+ * the decision itself changed. Nodes that never said what they support are assumed to only know the coarse levels.
+ * <p/>
+ * The tracker is thread safe.
+ */
+public class NodeDeliveryTracker {
+
+    /**
+     * Turns a decision into the level a watch shows
+     */
+    public interface LevelMapping {
+
+        /**
+         * @param level
+         *         {@link int} coarse level of the decision
+         * @param fineLevel
+         *         {@link int} fine level of the decision, or {@link BrightnessDecision#NO_FINE_LEVEL}
+         * @return {@link int} level the watch shows
+         */
+        int map(int level, int fineLevel);
+
+    }
+
+    /**
+     * Watches that only understand the coarse levels
+     */
+    public static final LevelMapping COARSE = new LevelMapping() {
+        @Override
+        public int map(int level, int fineLevel) {
+            return level;
+        }
+    };
+
+    /**
+     * Watches that show the fine level when there is one
+     */
+    public static final LevelMapping FINE = new LevelMapping() {
+        @Override
+        public int map(int level, int fineLevel) {
+            return fineLevel != BrightnessDecision.NO_FINE_LEVEL ? fineLevel : level;
+        }
+    };
+
+    // Members
+    private final Map<String, NodeState> mNodeStates = new HashMap<>();
+
+    /**
+     * What is known about a single node
+     */
+    private static class NodeState {
+        LevelMapping mMapping;
+        int mDeliveryCount;
+        long mLastLatencyMillis;
+        long mTotalLatencyMillis;
+    }
+
+    /**
+     * @param nodeId
+     *         {@link String} id of the watch
+     * @param mapping
+     *         {@link LevelMapping} of the watch, null to go back to the coarse levels
+     */
+    public synchronized void setMapping(String nodeId, LevelMapping mapping) {
+        getOrCreate(nodeId).mMapping = mapping;
+    }
+
+    /**
+     * @param nodeId
+     *         {@link String} id of the watch
+     * @param level
+     *         {@link int} coarse level of the decision
+     * @param fineLevel
+     *         {@link int} fine level of the decision, or {@link BrightnessDecision#NO_FINE_LEVEL}
+     * @return {@link int} level the watch would show for the decision
+     */
+    public synchronized int getTargetLevel(String nodeId, int level, int fineLevel) {
+        return getMapping(nodeId).map(level, fineLevel);
+    }
+
+    /**
+     * @param nodeId
+     *         {@link String} id of the watch
+     * @return {@link boolean} true if the watch shows fine levels when the decision has one
+     */
+    public synchronized boolean showsFineLevels(String nodeId) {
+        return getMapping(nodeId) == FINE;
+    }
+
+    /**
+     * Record a level the watch acknowledged
+     *
+     * @param nodeId
+     *         {@link String} id of the watch
+     * @param latencyMillis
+     *         {@link long} time from the send until the acknowledgement
+     */
+    public synchronized void markDelivered(String nodeId, long latencyMillis) {
+        NodeState state = getOrCreate(nodeId);
+        state.mDeliveryCount++;
+        state.mLastLatencyMillis = latencyMillis;
+        state.mTotalLatencyMillis += latencyMillis;
+    }
+
+    /**
+     * @param nodeId
+     *         {@link String} id of the watch
+     * @return {@link int} number of levels the watch acknowledged
+     */
+    public synchronized int getDeliveryCount(String nodeId) {
+        NodeState state = mNodeStates.get(nodeId);
+        return state != null ? state.mDeliveryCount : 0;
+    }
+
+    /**
+     * @param nodeId
+     *         {@link String} id of the watch
+     * @return {@link long} latency of the last delivery to the watch, 0 if there was none
+     */
+    public synchronized long getLastLatencyMillis(String nodeId) {
+        NodeState state = mNodeStates.get(nodeId);
+        return state != null ? state.mLastLatencyMillis : 0;
+    }
+
+    /**
+     * @param nodeId
+     *         {@link String} id of the watch
+     * @return {@link long} average latency of the deliveries to the watch, 0 if there was none
+     */
+    public synchronized long getAverageLatencyMillis(String nodeId) {
+        NodeState state = mNodeStates.get(nodeId);
+        return state != null && state.mDeliveryCount > 0 ? state.mTotalLatencyMillis / state.mDeliveryCount : 0;
+    }
+
+    /**
+     * @return {@link List} of the ids of every watch known to the tracker
+     */
+    public synchronized List<String> getNodeIds() {
+        return new ArrayList<>(mNodeStates.keySet());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("NodeDeliveryTracker{");
+        boolean first = true;
+        for (Map.Entry<String, NodeState> entry : mNodeStates.entrySet()) {
+            NodeState state = entry.getValue();
+            if (!first) {
+                builder.append(", ");
+            }
+            first = false;
+            builder.append(entry.getKey()).append("{mapping=").append(state.mMapping == FINE ? "fine" : "coarse")
+                    .append(" deliveries=").append(state.mDeliveryCount)
+                    .append(" last=").append(state.mLastLatencyMillis).append("ms")
+                    .append(" avg=").append(getAverageLatencyMillis(entry.getKey())).append("ms}");
+        }
+        return builder.append('}').toString();
+    }
+
+    /**
+     * @return {@link LevelMapping} of the node, {@link #COARSE} if it never said what it supports
+     */
+    private LevelMapping getMapping(String nodeId) {
+        NodeState state = mNodeStates.get(nodeId);
+        return state != null && state.mMapping != null ? state.mMapping : COARSE;
+    }
+
+    /**
+     * @return {@link NodeState} of the node, created if needed
+     */
+    private NodeState getOrCreate(String nodeId) {
+        NodeState state = mNodeStates.get(nodeId);
+        if (state == null) {
+            state = new NodeState();
+            mNodeStates.put(nodeId, state);
+        }
+        return state;
+    }
+
+}
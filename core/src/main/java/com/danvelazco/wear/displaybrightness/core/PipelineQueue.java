@@ -0,0 +1,257 @@
+package com.danvelazco.wear.displaybrightness.core;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Bounded queue in front of a single worker, for work where only the newest item of a kind matters.
+ * <p/>
+ * Every item is offered with a key. A queued item with the same key is superseded, i.e. removed in favor of the new
+ * one which goes to the back of the queue, and when the queue is full the oldest item is dropped. Either way the
+ * producer never blocks and gets the item that was let go back, so it can release whatever the item holds.
+ * <p/>
+ * The worker can put an item it couldn't finish back at the front with {@link #retry(Object, Object)}, unless a newer
+ * item with the same key came in meanwhile.
+ * <p/>
+ * The depth of the queue, the superseded, dropped and retried items and the time the worker spends on each item are
+ * recorded.
+ * <p/>
+ * The queue is thread safe.
+ *
+ * @param <T>
+ *         type of the items
+ */
+public class PipelineQueue<T> {
+
+    // Defaults
+    public static final int DEFAULT_CAPACITY = 4;
+
+    /**
+     * Item with its key
+     */
+    private static class Entry<T> {
+
+        final T mItem;
+        final Object mKey;
+
+        Entry(T item, Object key) {
+            mItem = item;
+            mKey = key;
+        }
+
+    }
+
+    // Members
+    private final int mCapacity;
+    private final ArrayDeque<Entry<T>> mEntries;
+
+    // Statistics
+    private int mMaxDepth = 0;
+    private int mOfferedCount = 0;
+    private int mSupersededCount = 0;
+    private int mDroppedCount = 0;
+    private int mRetriedCount = 0;
+    private int mProcessedCount = 0;
+    private long mLastProcessingMillis = 0;
+    private long mMaxProcessingMillis = 0;
+    private long mTotalProcessingMillis = 0;
+
+    /**
+     * Constructor
+     *
+     * @param capacity
+     *         {@link int} maximum number of queued items
+     */
+    public PipelineQueue(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be at least 1");
+        }
+        mCapacity = capacity;
+        mEntries = new ArrayDeque<>(capacity);
+    }
+
+    /**
+     * Queue an item, never blocks
+     *
+     * @param item
+     *         {@link T} to queue
+     * @param key
+     *         {@link Object} kind of the item, a queued item with an equal key is superseded
+     * @return {@link T} superseded or dropped item, null if none was
+     */
+    public synchronized T offer(T item, Object key) {
+        mOfferedCount++;
+        T removed = null;
+        Iterator<Entry<T>> iterator = mEntries.iterator();
+        while (iterator.hasNext()) {
+            Entry<T> entry = iterator.next();
+            if (entry.mKey.equals(key)) {
+                iterator.remove();
+                removed = entry.mItem;
+                mSupersededCount++;
+                break;
+            }
+        }
+        if (removed == null && mEntries.size() == mCapacity) {
+            removed = mEntries.removeFirst().mItem;
+            mDroppedCount++;
+        }
+
+        mEntries.addLast(new Entry<>(item, key));
+        mMaxDepth = Math.max(mMaxDepth, mEntries.size());
+        notifyAll();
+        return removed;
+    }
+
+    /**
+     * Put an item taken by the worker back at the front of the queue, to be taken again next. Never blocks and never
+     * replaces a queued item: if a newer item with the same key is queued, or the queue is full, the item is let go.
+     *
+     * @param item
+     *         {@link T} taken from the queue
+     * @param key
+     *         {@link Object} kind of the item, as it was offered
+     * @return {@link boolean} true if the item was queued again, false if it was let go
+     */
+    public synchronized boolean retry(T item, Object key) {
+        if (mEntries.size() == mCapacity) {
+            mDroppedCount++;
+            return false;
+        }
+        for (Entry<T> entry : mEntries) {
+            if (entry.mKey.equals(key)) {
+                mSupersededCount++;
+                return false;
+            }
+        }
+        mEntries.addFirst(new Entry<>(item, key));
+        mMaxDepth = Math.max(mMaxDepth, mEntries.size());
+        mRetriedCount++;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Wait for the next item. An interrupted worker never takes one, even if it was notified and interrupted at once,
+     * so the items are left for the worker replacing it.
+     *
+     * @return {@link T} oldest queued item
+     * @throws InterruptedException
+     *         if the worker is interrupted, before or while waiting
+     */
+    public synchronized T take() throws InterruptedException {
+        while (true) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (!mEntries.isEmpty()) {
+                return mEntries.removeFirst().mItem;
+            }
+            wait();
+        }
+    }
+
+    /**
+     * @return {@link T} oldest queued item, null if the queue is empty
+     */
+    public synchronized T poll() {
+        Entry<T> entry = mEntries.pollFirst();
+        return entry != null ? entry.mItem : null;
+    }
+
+    /**
+     * Record the time the worker spent on an item
+     *
+     * @param processingMillis
+     *         {@link long} from taking the item until it was done
+     */
+    public synchronized void onProcessed(long processingMillis) {
+        mProcessedCount++;
+        mLastProcessingMillis = processingMillis;
+        mMaxProcessingMillis = Math.max(mMaxProcessingMillis, processingMillis);
+        mTotalProcessingMillis += processingMillis;
+    }
+
+    /**
+     * @return {@link int} number of queued items
+     */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * @return {@link boolean} true if nothing is queued
+     */
+    public synchronized boolean isEmpty() {
+        return mEntries.isEmpty();
+    }
+
+    /**
+     * @return {@link int} highest number of items queued at once
+     */
+    public synchronized int getMaxDepth() {
+        return mMaxDepth;
+    }
+
+    /**
+     * @return {@link int} number of items offered
+     */
+    public synchronized int getOfferedCount() {
+        return mOfferedCount;
+    }
+
+    /**
+     * @return {@link int} number of items replaced by a newer one with the same key
+     */
+    public synchronized int getSupersededCount() {
+        return mSupersededCount;
+    }
+
+    /**
+     * @return {@link int} number of items dropped because the queue was full
+     */
+    public synchronized int getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * @return {@link int} number of items the worker put back in the queue
+     */
+    public synchronized int getRetriedCount() {
+        return mRetriedCount;
+    }
+
+    /**
+     * @return {@link int} number of items the worker is done with
+     */
+    public synchronized int getProcessedCount() {
+        return mProcessedCount;
+    }
+
+    /**
+     * @return {@link long} time the worker spent on the last item
+     */
+    public synchronized long getLastProcessingMillis() {
+        return mLastProcessingMillis;
+    }
+
+    /**
+     * @return {@link long} average time the worker spends on an item
+     */
+    public synchronized long getAverageProcessingMillis() {
+        return mProcessedCount > 0 ? mTotalProcessingMillis / mProcessedCount : 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized String toString() {
+        return "PipelineQueue{depth=" + mEntries.size() + "/" + mCapacity + " max=" + mMaxDepth + " offered="
+                + mOfferedCount + " superseded=" + mSupersededCount + " dropped=" + mDroppedCount + " retried="
+                + mRetriedCount + " processed="
+                + mProcessedCount + " last=" + mLastProcessingMillis + "ms avg=" + getAverageProcessingMillis()
+                + "ms max=" + mMaxProcessingMillis + "ms}";
+    }
+
+}
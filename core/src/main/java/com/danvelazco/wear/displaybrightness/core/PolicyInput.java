@@ -0,0 +1,161 @@
+package com.danvelazco.wear.displaybrightness.core;
+
+/**
+ * Everything a {@link PolicyRule} can look at, evaluated by a {@link PolicyRuleSet}.
+ * <p/>
+ * Inputs are mutable so a single instance can be filled in and evaluated again for every decision without allocating.
+ * They are not thread safe.
+ */
+public final class PolicyInput {
+
+    /**
+     * Charging states, the battery level uses {@link BrightnessContext#UNKNOWN_BATTERY} when it's unknown
+     */
+    public static final int CHARGING_UNKNOWN = -1;
+    public static final int CHARGING_NO = 0;
+    public static final int CHARGING_YES = 1;
+
+    // Members
+    private int mActivityType = BrightnessDecisionTable.UNKNOWN;
+    private int mConfidence = 0;
+    private boolean mDaytime = true;
+    private long mTimeMillis = 0;
+    private int mPhoneBatteryPercent = BrightnessContext.UNKNOWN_BATTERY;
+    private int mPhoneCharging = CHARGING_UNKNOWN;
+    private int mWatchBatteryPercent = BrightnessContext.UNKNOWN_BATTERY;
+    private int mWatchCharging = CHARGING_UNKNOWN;
+
+    /**
+     * Take the activity, time and phone battery of a snapshot
+     *
+     * @param context
+     *         {@link BrightnessContext}
+     * @param daytime
+     *         {@link boolean} whether it's day time, see {@link BrightnessEngine#isDaytime(BrightnessContext)}
+     * @return {@link PolicyInput} this input
+     */
+    public PolicyInput set(BrightnessContext context, boolean daytime) {
+        mActivityType = context.getActivityType();
+        mConfidence = context.getConfidence();
+        mDaytime = daytime;
+        mTimeMillis = context.getTimeMillis();
+        mPhoneBatteryPercent = context.getBatteryPercent();
+        return this;
+    }
+
+    /**
+     * @param activityType
+     *         {@link int} one of the {@link BrightnessDecisionTable} activity types
+     * @param confidence
+     *         {@link int} confidence of the activity, from 0 to 100
+     * @return {@link PolicyInput} this input
+     */
+    public PolicyInput setActivity(int activityType, int confidence) {
+        mActivityType = activityType;
+        mConfidence = confidence;
+        return this;
+    }
+
+    /**
+     * @param daytime
+     *         {@link boolean} whether it's day time
+     * @return {@link PolicyInput} this input
+     */
+    public PolicyInput setDaytime(boolean daytime) {
+        mDaytime = daytime;
+        return this;
+    }
+
+    /**
+     * @param timeMillis
+     *         {@link long} instant of the decision, in epoch millis
+     * @return {@link PolicyInput} this input
+     */
+    public PolicyInput setTimeMillis(long timeMillis) {
+        mTimeMillis = timeMillis;
+        return this;
+    }
+
+    /**
+     * @param batteryPercent
+     *         {@link int} battery level of the phone from 0 to 100, or {@link BrightnessContext#UNKNOWN_BATTERY}
+     * @param charging
+     *         {@link int} {@link #CHARGING_YES}, {@link #CHARGING_NO} or {@link #CHARGING_UNKNOWN}
+     * @return {@link PolicyInput} this input
+     */
+    public PolicyInput setPhoneBattery(int batteryPercent, int charging) {
+        mPhoneBatteryPercent = batteryPercent;
+        mPhoneCharging = charging;
+        return this;
+    }
+
+    /**
+     * @param batteryPercent
+     *         {@link int} battery level of the watch from 0 to 100, or {@link BrightnessContext#UNKNOWN_BATTERY}
+     * @param charging
+     *         {@link int} {@link #CHARGING_YES}, {@link #CHARGING_NO} or {@link #CHARGING_UNKNOWN}
+     * @return {@link PolicyInput} this input
+     */
+    public PolicyInput setWatchBattery(int batteryPercent, int charging) {
+        mWatchBatteryPercent = batteryPercent;
+        mWatchCharging = charging;
+        return this;
+    }
+
+    /**
+     * @return {@link int} one of the {@link BrightnessDecisionTable} activity types
+     */
+    public int getActivityType() {
+        return mActivityType;
+    }
+
+    /**
+     * @return {@link int} confidence of the activity, from 0 to 100
+     */
+    public int getConfidence() {
+        return mConfidence;
+    }
+
+    /**
+     * @return {@link boolean} whether it's day time
+     */
+    public boolean isDaytime() {
+        return mDaytime;
+    }
+
+    /**
+     * @return {@link long} instant of the decision, in epoch millis
+     */
+    public long getTimeMillis() {
+        return mTimeMillis;
+    }
+
+    /**
+     * @return {@link int} battery level of the phone, or {@link BrightnessContext#UNKNOWN_BATTERY}
+     */
+    public int getPhoneBatteryPercent() {
+        return mPhoneBatteryPercent;
+    }
+
+    /**
+     * @return {@link int} charging state of the phone
+     */
+    public int getPhoneCharging() {
+        return mPhoneCharging;
+    }
+
+    /**
+     * @return {@link int} battery level of the watch, or {@link BrightnessContext#UNKNOWN_BATTERY}
+     */
+    public int getWatchBatteryPercent() {
+        return mWatchBatteryPercent;
+    }
+
+    /**
+     * @return {@link int} charging state of the watch
+     */
+    public int getWatchCharging() {
+        return mWatchCharging;
+    }
+
+}
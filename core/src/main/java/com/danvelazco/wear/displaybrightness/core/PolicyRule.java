@@ -0,0 +1,582 @@
+package com.danvelazco.wear.displaybrightness.core;
+
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * A user defined brightness rule: when every condition holds, the rule picks the level. Conditions that aren't set
+ * match anything, including unknown inputs.
+ * <p/>
+ * Rules can look at the activity and its confidence, the solar phase, a weekly time window and the battery level and
+ * charging state of the phone and of the watch, see {@link PolicyInput}. They are written one per line as {@code
+ * key=value} conditions followed by the level, for example:
+ * <pre>
+ * activity=still,tilting phase=night days=weekdays time=23:00-07:00 level=0
+ * watch_battery=0-15 watch_charging=no level=1
+ * </pre>
+ * Rules are only meant to be modified while they're being built, they are compiled into a {@link PolicyRuleSet} to be
+ * evaluated.
+ */
+public final class PolicyRule {
+
+    /**
+     * Used for the conditions that match anything
+     */
+    public static final int ANY = -1;
+
+    /**
+     * Solar phases
+     */
+    public static final int PHASE_NIGHT = 0;
+    public static final int PHASE_DAY = 1;
+
+    /**
+     * Mask of every activity type
+     */
+    public static final int ALL_ACTIVITIES = (1 << BrightnessDecisionTable.ACTIVITY_TYPE_COUNT) - 1;
+
+    // Constants
+    private static final int MISSING_LEVEL = Integer.MIN_VALUE;
+    // There is no activity type 6, rules can't be written for it
+    private static final String[] ACTIVITY_NAMES = {"in_vehicle", "on_bicycle", "on_foot", "still", "unknown",
+            "tilting", null, "walking", "running"};
+    private static final String KEY_ACTIVITY = "activity";
+    private static final String KEY_CONFIDENCE = "confidence";
+    private static final String KEY_PHASE = "phase";
+    private static final String KEY_DAYS = "days";
+    private static final String KEY_TIME = "time";
+    private static final String KEY_PHONE_BATTERY = "phone_battery";
+    private static final String KEY_PHONE_CHARGING = "phone_charging";
+    private static final String KEY_WATCH_BATTERY = "watch_battery";
+    private static final String KEY_WATCH_CHARGING = "watch_charging";
+    private static final String KEY_LEVEL = "level";
+
+    // Members
+    private final int mLevel;
+    private int mActivities = ALL_ACTIVITIES;
+    private int mMinConfidence = 0;
+    private int mPhase = ANY;
+    private int mDays = 0;
+    private int mStartMinute = 0;
+    private int mEndMinute = 0;
+    private int mPhoneBatteryMin = 0;
+    private int mPhoneBatteryMax = 100;
+    private int mPhoneCharging = ANY;
+    private int mWatchBatteryMin = 0;
+    private int mWatchBatteryMax = 100;
+    private int mWatchCharging = ANY;
+
+    /**
+     * Constructor, the rule matches anything until conditions are added
+     *
+     * @param level
+     *         {@link int} the {@code BrightnessLevel} picked by the rule, from {@link BrightnessDecision#LOWEST_LEVEL}
+     *         to {@link BrightnessDecision#HIGHEST_LEVEL}
+     */
+    public PolicyRule(int level) {
+        if (level < BrightnessDecision.LOWEST_LEVEL || level > BrightnessDecision.HIGHEST_LEVEL) {
+            throw new IllegalArgumentException("Invalid level: " + level);
+        }
+        mLevel = level;
+    }
+
+    /**
+     * @param activityTypes
+     *         {@link int[]} activity types the rule applies to
+     * @return {@link PolicyRule} this rule
+     */
+    public PolicyRule setActivities(int... activityTypes) {
+        int activities = 0;
+        for (int type : activityTypes) {
+            if (type < 0 || type >= BrightnessDecisionTable.ACTIVITY_TYPE_COUNT || ACTIVITY_NAMES[type] == null) {
+                throw new IllegalArgumentException("Invalid activity type: " + type);
+            }
+            activities |= 1 << type;
+        }
+        mActivities = activities;
+        return this;
+    }
+
+    /**
+     * @param minConfidence
+     *         {@link int} lowest confidence of the activity the rule applies to, from 0 to 100
+     * @return {@link PolicyRule} this rule
+     */
+    public PolicyRule setMinConfidence(int minConfidence) {
+        mMinConfidence = checkPercent(minConfidence);
+        return this;
+    }
+
+    /**
+     * @param phase
+     *         {@link int} {@link #PHASE_DAY}, {@link #PHASE_NIGHT} or {@link #ANY}
+     * @return {@link PolicyRule} this rule
+     */
+    public PolicyRule setPhase(int phase) {
+        if (phase != ANY && phase != PHASE_DAY && phase != PHASE_NIGHT) {
+            throw new IllegalArgumentException("Invalid phase: " + phase);
+        }
+        mPhase = phase;
+        return this;
+    }
+
+    /**
+     * Only apply the rule during a weekly time window, see {@link ScheduleRule} for how windows work
+     *
+     * @param days
+     *         {@link int} mask of the days the window starts on, like {@link ScheduleRule#WEEKDAYS}
+     * @param startMinute
+     *         {@link int} minute of the day the window starts at
+     * @param endMinute
+     *         {@link int} minute of the day the window ends at, before the start if it ends the next day
+     * @return {@link PolicyRule} this rule
+     */
+    public PolicyRule setWindow(int days, int startMinute, int endMinute) {
+        ScheduleRule.checkWindow(days, startMinute, endMinute);
+        mDays = days;
+        mStartMinute = startMinute;
+        mEndMinute = endMinute;
+        return this;
+    }
+
+    /**
+     * @param minPercent
+     *         {@link int} lowest battery level of the phone the rule applies to
+     * @param maxPercent
+     *         {@link int} highest battery level of the phone the rule applies to, not below the lowest one
+     * @return {@link PolicyRule} this rule
+     */
+    public PolicyRule setPhoneBattery(int minPercent, int maxPercent) {
+        checkRange(minPercent, maxPercent);
+        mPhoneBatteryMin = minPercent;
+        mPhoneBatteryMax = maxPercent;
+        return this;
+    }
+
+    /**
+     * @param charging
+     *         {@link int} {@link PolicyInput#CHARGING_YES}, {@link PolicyInput#CHARGING_NO} or {@link #ANY}
+     * @return {@link PolicyRule} this rule
+     */
+    public PolicyRule setPhoneCharging(int charging) {
+        mPhoneCharging = checkCharging(charging);
+        return this;
+    }
+
+    /**
+     * @param minPercent
+     *         {@link int} lowest battery level of the watch the rule applies to
+     * @param maxPercent
+     *         {@link int} highest battery level of the watch the rule applies to, not below the lowest one
+     * @return {@link PolicyRule} this rule
+     */
+    public PolicyRule setWatchBattery(int minPercent, int maxPercent) {
+        checkRange(minPercent, maxPercent);
+        mWatchBatteryMin = minPercent;
+        mWatchBatteryMax = maxPercent;
+        return this;
+    }
+
+    /**
+     * @param charging
+     *         {@link int} {@link PolicyInput#CHARGING_YES}, {@link PolicyInput#CHARGING_NO} or {@link #ANY}
+     * @return {@link PolicyRule} this rule
+     */
+    public PolicyRule setWatchCharging(int charging) {
+        mWatchCharging = checkCharging(charging);
+        return this;
+    }
+
+    /**
+     * Parse a rule, see the class documentation for the format
+     *
+     * @param value
+     *         {@link String} rule
+     * @return {@link PolicyRule}
+     * @throws IllegalArgumentException
+     *         if the rule can't be parsed
+     */
+    public static PolicyRule parse(String value) {
+        String[] tokens = value.trim().split("\\s+");
+        int level = MISSING_LEVEL;
+        for (String token : tokens) {
+            if (token.startsWith(KEY_LEVEL + "=")) {
+                level = Integer.parseInt(token.substring(KEY_LEVEL.length() + 1));
+            }
+        }
+        if (level == MISSING_LEVEL) {
+            throw new IllegalArgumentException("Missing level: " + value);
+        }
+
+        PolicyRule rule = new PolicyRule(level);
+        int days = 0;
+        String time = null;
+        for (String token : tokens) {
+            int separator = token.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Invalid condition: " + token);
+            }
+            String key = token.substring(0, separator).toLowerCase(Locale.US);
+            String argument = token.substring(separator + 1).toLowerCase(Locale.US);
+            int[] range;
+            switch (key) {
+                case KEY_ACTIVITY:
+                    String[] names = argument.split(",");
+                    int[] types = new int[names.length];
+                    for (int i = 0; i < names.length; i++) {
+                        types[i] = parseActivity(names[i]);
+                    }
+                    rule.setActivities(types);
+                    break;
+                case KEY_CONFIDENCE:
+                    rule.setMinConfidence(Integer.parseInt(argument));
+                    break;
+                case KEY_PHASE:
+                    rule.setPhase(parsePhase(argument));
+                    break;
+                case KEY_DAYS:
+                    days = ScheduleRule.parseDays(argument);
+                    break;
+                case KEY_TIME:
+                    time = argument;
+                    break;
+                case KEY_PHONE_BATTERY:
+                    range = parseRange(argument);
+                    rule.setPhoneBattery(range[0], range[1]);
+                    break;
+                case KEY_PHONE_CHARGING:
+                    rule.setPhoneCharging(parseCharging(argument));
+                    break;
+                case KEY_WATCH_BATTERY:
+                    range = parseRange(argument);
+                    rule.setWatchBattery(range[0], range[1]);
+                    break;
+                case KEY_WATCH_CHARGING:
+                    rule.setWatchCharging(parseCharging(argument));
+                    break;
+                case KEY_LEVEL:
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown condition: " + key);
+            }
+        }
+
+        // Days without a time last the whole day, a time without days applies every day
+        if (days != 0 || time != null) {
+            int startMinute = 0;
+            int endMinute = 0;
+            if (time != null) {
+                String[] window = time.split("-");
+                if (window.length != 2) {
+                    throw new IllegalArgumentException("Invalid time: " + time);
+                }
+                startMinute = ScheduleRule.parseMinute(window[0]);
+                endMinute = ScheduleRule.parseMinute(window[1]);
+            }
+            rule.setWindow(days != 0 ? days : ScheduleRule.EVERY_DAY, startMinute, endMinute);
+        }
+        return rule;
+    }
+
+    /**
+     * Write the rule the way {@link #parse(String)} reads it, only the conditions that are set are written
+     *
+     * @return {@link String} rule
+     */
+    public String format() {
+        StringBuilder builder = new StringBuilder();
+        if (mActivities != ALL_ACTIVITIES) {
+            builder.append(KEY_ACTIVITY).append('=');
+            boolean first = true;
+            for (int type = 0; type < BrightnessDecisionTable.ACTIVITY_TYPE_COUNT; type++) {
+                if ((mActivities & (1 << type)) != 0) {
+                    builder.append(first ? "" : ",").append(ACTIVITY_NAMES[type]);
+                    first = false;
+                }
+            }
+            builder.append(' ');
+        }
+        if (mMinConfidence > 0) {
+            builder.append(KEY_CONFIDENCE).append('=').append(mMinConfidence).append(' ');
+        }
+        if (mPhase != ANY) {
+            builder.append(KEY_PHASE).append('=').append(mPhase == PHASE_DAY ? "day" : "night").append(' ');
+        }
+        if (hasWindow()) {
+            builder.append(KEY_DAYS).append('=').append(ScheduleRule.formatDays(mDays)).append(' ')
+                    .append(KEY_TIME).append('=').append(ScheduleRule.formatMinute(mStartMinute)).append('-')
+                    .append(ScheduleRule.formatMinute(mEndMinute)).append(' ');
+        }
+        if (mPhoneBatteryMin > 0 || mPhoneBatteryMax < 100) {
+            builder.append(KEY_PHONE_BATTERY).append('=').append(mPhoneBatteryMin).append('-')
+                    .append(mPhoneBatteryMax).append(' ');
+        }
+        if (mPhoneCharging != ANY) {
+            builder.append(KEY_PHONE_CHARGING).append('=').append(formatCharging(mPhoneCharging)).append(' ');
+        }
+        if (mWatchBatteryMin > 0 || mWatchBatteryMax < 100) {
+            builder.append(KEY_WATCH_BATTERY).append('=').append(mWatchBatteryMin).append('-')
+                    .append(mWatchBatteryMax).append(' ');
+        }
+        if (mWatchCharging != ANY) {
+            builder.append(KEY_WATCH_CHARGING).append('=').append(formatCharging(mWatchCharging)).append(' ');
+        }
+        return builder.append(KEY_LEVEL).append('=').append(mLevel).toString();
+    }
+
+    /**
+     * Check every condition one by one. {@link PolicyRuleSet} gets the same answer for a whole list of rules at once,
+     * this is what it's checked against.
+     *
+     * @param input
+     *         {@link PolicyInput}
+     * @param timeZone
+     *         {@link TimeZone} the time window is in
+     * @return {@link boolean} true if the rule applies
+     */
+    public boolean matches(PolicyInput input, TimeZone timeZone) {
+        int activityType = input.getActivityType();
+        if (activityType < 0 || activityType >= BrightnessDecisionTable.ACTIVITY_TYPE_COUNT) {
+            activityType = BrightnessDecisionTable.UNKNOWN;
+        }
+        if ((mActivities & (1 << activityType)) == 0 || input.getConfidence() < mMinConfidence) {
+            return false;
+        }
+        if (mPhase != ANY && mPhase != (input.isDaytime() ? PHASE_DAY : PHASE_NIGHT)) {
+            return false;
+        }
+        if (!matchesBattery(input.getPhoneBatteryPercent(), mPhoneBatteryMin, mPhoneBatteryMax)
+                || mPhoneCharging != ANY && mPhoneCharging != input.getPhoneCharging()
+                || !matchesBattery(input.getWatchBatteryPercent(), mWatchBatteryMin, mWatchBatteryMax)
+                || mWatchCharging != ANY && mWatchCharging != input.getWatchCharging()) {
+            return false;
+        }
+        if (hasWindow()) {
+            long local = input.getTimeMillis() + timeZone.getOffset(input.getTimeMillis());
+            int minute = (int) (BrightnessSchedule.getMillisOfWeek(local) / (60 * 1000L));
+            int weekMinutes = 7 * ScheduleRule.MINUTES_PER_DAY;
+            for (int day = 0; day < 7; day++) {
+                if ((mDays & (1 << day)) != 0) {
+                    int start = day * ScheduleRule.MINUTES_PER_DAY + mStartMinute;
+                    int elapsed = ((minute - start) % weekMinutes + weekMinutes) % weekMinutes;
+                    if (elapsed < getDurationMinutes()) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return {@link int} the {@code BrightnessLevel} picked by the rule
+     */
+    public int getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * @return {@link int} mask of the activity types the rule applies to
+     */
+    int getActivities() {
+        return mActivities;
+    }
+
+    /**
+     * @return {@link int} lowest confidence the rule applies to
+     */
+    int getMinConfidence() {
+        return mMinConfidence;
+    }
+
+    /**
+     * @return {@link int} solar phase the rule applies to, or {@link #ANY}
+     */
+    int getPhase() {
+        return mPhase;
+    }
+
+    /**
+     * @return {@link boolean} true if the rule only applies during a time window
+     */
+    boolean hasWindow() {
+        return mDays != 0;
+    }
+
+    /**
+     * @return {@link int} mask of the days the window starts on
+     */
+    int getDays() {
+        return mDays;
+    }
+
+    /**
+     * @return {@link int} minute of the day the window starts at
+     */
+    int getStartMinute() {
+        return mStartMinute;
+    }
+
+    /**
+     * @return {@link int} length of the window in minutes, up to a whole day
+     */
+    int getDurationMinutes() {
+        int duration = mEndMinute - mStartMinute;
+        return duration > 0 ? duration : duration + ScheduleRule.MINUTES_PER_DAY;
+    }
+
+    /**
+     * @param batteryPercent
+     *         {@link int} battery level from 0 to 100, or {@link BrightnessContext#UNKNOWN_BATTERY}
+     * @param phone
+     *         {@link boolean} true for the phone, false for the watch
+     * @return {@link boolean} true if the battery condition holds
+     */
+    boolean matchesBattery(int batteryPercent, boolean phone) {
+        return phone ? matchesBattery(batteryPercent, mPhoneBatteryMin, mPhoneBatteryMax)
+                : matchesBattery(batteryPercent, mWatchBatteryMin, mWatchBatteryMax);
+    }
+
+    /**
+     * @param phone
+     *         {@link boolean} true for the phone, false for the watch
+     * @return {@link int} charging state the rule applies to, or {@link #ANY}
+     */
+    int getCharging(boolean phone) {
+        return phone ? mPhoneCharging : mWatchCharging;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "PolicyRule{" + format() + "}";
+    }
+
+    /**
+     * An unknown battery level only matches rules without a battery condition
+     *
+     * @param batteryPercent
+     *         {@link int} battery level from 0 to 100, or {@link BrightnessContext#UNKNOWN_BATTERY}
+     * @param min
+     *         {@link int} lowest battery level of the condition
+     * @param max
+     *         {@link int} highest battery level of the condition
+     * @return {@link boolean} true if the battery condition holds
+     */
+    private static boolean matchesBattery(int batteryPercent, int min, int max) {
+        if (batteryPercent == BrightnessContext.UNKNOWN_BATTERY) {
+            return min == 0 && max == 100;
+        }
+        return batteryPercent >= min && batteryPercent <= max;
+    }
+
+    /**
+     * @param percent
+     *         {@link int} percentage to check
+     * @return {@link int} the same percentage
+     */
+    private static int checkPercent(int percent) {
+        if (percent < 0 || percent > 100) {
+            throw new IllegalArgumentException("Invalid percentage: " + percent);
+        }
+        return percent;
+    }
+
+    /**
+     * @param min
+     *         {@link int} lowest percentage of a range
+     * @param max
+     *         {@link int} highest percentage of a range
+     */
+    private static void checkRange(int min, int max) {
+        checkPercent(min);
+        checkPercent(max);
+        if (min > max) {
+            throw new IllegalArgumentException("Invalid range: " + min + "-" + max);
+        }
+    }
+
+    /**
+     * @param charging
+     *         {@link int} charging condition to check
+     * @return {@link int} the same charging condition
+     */
+    private static int checkCharging(int charging) {
+        if (charging != ANY && charging != PolicyInput.CHARGING_YES && charging != PolicyInput.CHARGING_NO) {
+            throw new IllegalArgumentException("Invalid charging state: " + charging);
+        }
+        return charging;
+    }
+
+    /**
+     * @param name
+     *         {@link String} name of an activity type, like {@code still}
+     * @return {@link int} the activity type
+     */
+    private static int parseActivity(String name) {
+        for (int type = 0; type < ACTIVITY_NAMES.length; type++) {
+            if (name.equals(ACTIVITY_NAMES[type])) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown activity: " + name);
+    }
+
+    /**
+     * @param value
+     *         {@link String} {@code day} or {@code night}
+     * @return {@link int} {@link #PHASE_DAY} or {@link #PHASE_NIGHT}
+     */
+    private static int parsePhase(String value) {
+        switch (value) {
+            case "day":
+                return PHASE_DAY;
+            case "night":
+                return PHASE_NIGHT;
+            default:
+                throw new IllegalArgumentException("Invalid phase: " + value);
+        }
+    }
+
+    /**
+     * @param value
+     *         {@link String} range written as {@code min-max}
+     * @return {@link int[]} the lowest and highest values
+     */
+    private static int[] parseRange(String value) {
+        String[] bounds = value.split("-");
+        if (bounds.length != 2) {
+            throw new IllegalArgumentException("Invalid range: " + value);
+        }
+        return new int[]{Integer.parseInt(bounds[0]), Integer.parseInt(bounds[1])};
+    }
+
+    /**
+     * @param value
+     *         {@link String} {@code yes} or {@code no}
+     * @return {@link int} {@link PolicyInput#CHARGING_YES} or {@link PolicyInput#CHARGING_NO}
+     */
+    private static int parseCharging(String value) {
+        switch (value) {
+            case "yes":
+                return PolicyInput.CHARGING_YES;
+            case "no":
+                return PolicyInput.CHARGING_NO;
+            default:
+                throw new IllegalArgumentException("Invalid charging state: " + value);
+        }
+    }
+
+    /**
+     * @param charging
+     *         {@link int} {@link PolicyInput#CHARGING_YES} or {@link PolicyInput#CHARGING_NO}
+     * @return {@link String} {@code yes} or {@code no}
+     */
+    private static String formatCharging(int charging) {
+        return charging == PolicyInput.CHARGING_YES ? "yes" : "no";
+    }
+
+}
@@ -0,0 +1,316 @@
+package com.danvelazco.wear.displaybrightness.core;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Ordered list of {@link PolicyRule}s compiled into bitset indexed decision tables, the first rule that matches picks
+ * the level.
+ * <p/>
+ * Every input is split into buckets: the activity types, each confidence, day and night, the segments of the week
+ * between the time window boundaries, each battery level plus unknown, and the charging states. Each bucket has a
+ * bitset of the rules it satisfies, bit i standing for rule i. Evaluating is a lookup of one bitset per input and an
+ * AND of them, the lowest bit left is the first rule that matches. The cost grows with a word per 64 rules instead of
+ * with every rule, and nothing is allocated.
+ * <p/>
+ * Rule sets are immutable and thread safe.
+ */
+public final class PolicyRuleSet {
+
+    /**
+     * Returned when no rule matches
+     */
+    public static final int NO_LEVEL = -1;
+
+    /**
+     * Returned when no rule has a time window
+     */
+    public static final long NO_BOUNDARY = BrightnessSchedule.NO_BOUNDARY;
+
+    // Constants
+    private static final int CONFIDENCE_BUCKETS = 101;
+    private static final int BATTERY_BUCKETS = 102;
+    private static final int CHARGING_BUCKETS = 3;
+    private static final int MINUTES_PER_WEEK = 7 * ScheduleRule.MINUTES_PER_DAY;
+    private static final long MINUTE_MILLIS = 60 * 1000L;
+    private static final long WEEK_MILLIS = MINUTES_PER_WEEK * MINUTE_MILLIS;
+
+    // Members
+    private final TimeZone mTimeZone;
+    private final int mWords;
+    private final int[] mLevels;
+    private final long[] mActivities;
+    private final long[] mConfidences;
+    private final long[] mPhases;
+    private final int[] mWindowStarts;
+    private final long[] mWindows;
+    private final long[] mPhoneBatteries;
+    private final long[] mPhoneCharging;
+    private final long[] mWatchBatteries;
+    private final long[] mWatchCharging;
+
+    /**
+     * Constructor, compiles the rules
+     *
+     * @param rules
+     *         {@link List} of {@link PolicyRule}, in order of precedence
+     * @param timeZone
+     *         {@link TimeZone} the time windows are in
+     */
+    public PolicyRuleSet(List<PolicyRule> rules, TimeZone timeZone) {
+        mTimeZone = timeZone;
+        int count = rules.size();
+        mWords = Math.max(1, (count + 63) >>> 6);
+        mLevels = new int[count];
+        mActivities = new long[BrightnessDecisionTable.ACTIVITY_TYPE_COUNT * mWords];
+        mConfidences = new long[CONFIDENCE_BUCKETS * mWords];
+        mPhases = new long[2 * mWords];
+        mPhoneBatteries = new long[BATTERY_BUCKETS * mWords];
+        mPhoneCharging = new long[CHARGING_BUCKETS * mWords];
+        mWatchBatteries = new long[BATTERY_BUCKETS * mWords];
+        mWatchCharging = new long[CHARGING_BUCKETS * mWords];
+        mWindowStarts = compileWindowStarts(rules);
+        mWindows = new long[mWindowStarts.length * mWords];
+
+        for (int i = 0; i < count; i++) {
+            PolicyRule rule = rules.get(i);
+            mLevels[i] = rule.getLevel();
+            for (int type = 0; type < BrightnessDecisionTable.ACTIVITY_TYPE_COUNT; type++) {
+                if ((rule.getActivities() & (1 << type)) != 0) {
+                    set(mActivities, type, i);
+                }
+            }
+            for (int confidence = rule.getMinConfidence(); confidence < CONFIDENCE_BUCKETS; confidence++) {
+                set(mConfidences, confidence, i);
+            }
+            for (int phase = PolicyRule.PHASE_NIGHT; phase <= PolicyRule.PHASE_DAY; phase++) {
+                if (rule.getPhase() == PolicyRule.ANY || rule.getPhase() == phase) {
+                    set(mPhases, phase, i);
+                }
+            }
+            for (int bucket = 0; bucket < BATTERY_BUCKETS; bucket++) {
+                int percent = bucket == 0 ? BrightnessContext.UNKNOWN_BATTERY : bucket - 1;
+                if (rule.matchesBattery(percent, true)) {
+                    set(mPhoneBatteries, bucket, i);
+                }
+                if (rule.matchesBattery(percent, false)) {
+                    set(mWatchBatteries, bucket, i);
+                }
+            }
+            for (int bucket = 0; bucket < CHARGING_BUCKETS; bucket++) {
+                int charging = bucket - 1;
+                if (rule.getCharging(true) == PolicyRule.ANY || rule.getCharging(true) == charging) {
+                    set(mPhoneCharging, bucket, i);
+                }
+                if (rule.getCharging(false) == PolicyRule.ANY || rule.getCharging(false) == charging) {
+                    set(mWatchCharging, bucket, i);
+                }
+            }
+            compileWindow(rule, i);
+        }
+    }
+
+    /**
+     * Find the level picked by the first rule that matches
+     *
+     * @param input
+     *         {@link PolicyInput}
+     * @return {@link int} the {@code BrightnessLevel}, or {@link #NO_LEVEL} if no rule matches
+     */
+    public int evaluate(PolicyInput input) {
+        int rule = findRule(input);
+        return rule >= 0 ? mLevels[rule] : NO_LEVEL;
+    }
+
+    /**
+     * Find the first rule that matches
+     *
+     * @param input
+     *         {@link PolicyInput}
+     * @return {@link int} index of the rule, or -1 if no rule matches
+     */
+    public int findRule(PolicyInput input) {
+        int activityType = input.getActivityType();
+        if (activityType < 0 || activityType >= BrightnessDecisionTable.ACTIVITY_TYPE_COUNT) {
+            activityType = BrightnessDecisionTable.UNKNOWN;
+        }
+        int activity = activityType * mWords;
+        int confidence = Math.max(0, Math.min(100, input.getConfidence())) * mWords;
+        int phase = (input.isDaytime() ? PolicyRule.PHASE_DAY : PolicyRule.PHASE_NIGHT) * mWords;
+        int window = findWindowSegment(input.getTimeMillis()) * mWords;
+        int phoneBattery = getBatteryBucket(input.getPhoneBatteryPercent()) * mWords;
+        int phoneCharging = getChargingBucket(input.getPhoneCharging()) * mWords;
+        int watchBattery = getBatteryBucket(input.getWatchBatteryPercent()) * mWords;
+        int watchCharging = getChargingBucket(input.getWatchCharging()) * mWords;
+
+        for (int word = 0; word < mWords; word++) {
+            long matches = mActivities[activity + word] & mConfidences[confidence + word] & mPhases[phase + word]
+                    & mWindows[window + word] & mPhoneBatteries[phoneBattery + word]
+                    & mPhoneCharging[phoneCharging + word] & mWatchBatteries[watchBattery + word]
+                    & mWatchCharging[watchCharging + word];
+            if (matches != 0) {
+                return (word << 6) + Long.numberOfTrailingZeros(matches);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find the next instant a time window starts or ends, so the level can be evaluated again right there
+     *
+     * @param timeMillis
+     *         {@link long} instant, in epoch millis
+     * @return {@link long} instant of the next boundary in epoch millis, or {@link #NO_BOUNDARY} if no rule has a time
+     * window
+     */
+    public long getNextBoundary(long timeMillis) {
+        if (mWindowStarts.length == 1) {
+            return NO_BOUNDARY;
+        }
+        long local = timeMillis + mTimeZone.getOffset(timeMillis);
+        long weekStart = local - BrightnessSchedule.getMillisOfWeek(local);
+        int next = findWindowSegment(timeMillis) + 1;
+        long boundary = next < mWindowStarts.length ? weekStart + mWindowStarts[next] * MINUTE_MILLIS
+                : weekStart + WEEK_MILLIS;
+        // Back to UTC with the offset in effect at the boundary, which differs across a daylight saving change
+        return boundary - mTimeZone.getOffset(boundary - mTimeZone.getOffset(timeMillis));
+    }
+
+    /**
+     * @return {@link int} number of rules
+     */
+    public int size() {
+        return mLevels.length;
+    }
+
+    /**
+     * @return {@link int} number of segments the week was split into by the time windows
+     */
+    public int getWindowSegmentCount() {
+        return mWindowStarts.length;
+    }
+
+    /**
+     * Set the bit of a rule in the bitset of a bucket
+     *
+     * @param table
+     *         {@link long[]} bitsets of every bucket of an input
+     * @param bucket
+     *         {@link int} bucket
+     * @param rule
+     *         {@link int} index of the rule
+     */
+    private void set(long[] table, int bucket, int rule) {
+        table[bucket * mWords + (rule >>> 6)] |= 1L << rule;
+    }
+
+    /**
+     * Set the bit of a rule in every segment of the week its time window covers
+     *
+     * @param rule
+     *         {@link PolicyRule}
+     * @param index
+     *         {@link int} index of the rule
+     */
+    private void compileWindow(PolicyRule rule, int index) {
+        if (!rule.hasWindow()) {
+            for (int segment = 0; segment < mWindowStarts.length; segment++) {
+                set(mWindows, segment, index);
+            }
+            return;
+        }
+        for (int day = 0; day < 7; day++) {
+            if ((rule.getDays() & (1 << day)) == 0) {
+                continue;
+            }
+            int start = day * ScheduleRule.MINUTES_PER_DAY + rule.getStartMinute();
+            int end = start + rule.getDurationMinutes();
+            setWindow(start, Math.min(end, MINUTES_PER_WEEK), index);
+            if (end > MINUTES_PER_WEEK) {
+                // The window runs into the next week
+                setWindow(0, end - MINUTES_PER_WEEK, index);
+            }
+        }
+    }
+
+    /**
+     * @param from
+     *         {@link int} start of the window in minutes of the week, one of the segment starts
+     * @param to
+     *         {@link int} end of the window in minutes of the week
+     * @param index
+     *         {@link int} index of the rule
+     */
+    private void setWindow(int from, int to, int index) {
+        for (int segment = Arrays.binarySearch(mWindowStarts, from);
+                segment < mWindowStarts.length && mWindowStarts[segment] < to; segment++) {
+            set(mWindows, segment, index);
+        }
+    }
+
+    /**
+     * @param timeMillis
+     *         {@link long} instant, in epoch millis
+     * @return {@link int} segment of the week the instant falls in
+     */
+    private int findWindowSegment(long timeMillis) {
+        if (mWindowStarts.length == 1) {
+            return 0;
+        }
+        long local = timeMillis + mTimeZone.getOffset(timeMillis);
+        int minute = (int) (BrightnessSchedule.getMillisOfWeek(local) / MINUTE_MILLIS);
+        int index = Arrays.binarySearch(mWindowStarts, minute);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    /**
+     * @param rules
+     *         {@link List} of {@link PolicyRule}
+     * @return {@link int[]} sorted minutes of the week where a time window starts or ends, starting with 0
+     */
+    private static int[] compileWindowStarts(List<PolicyRule> rules) {
+        int[] starts = new int[rules.size() * 14 + 1];
+        int count = 0;
+        starts[count++] = 0;
+        for (PolicyRule rule : rules) {
+            if (!rule.hasWindow()) {
+                continue;
+            }
+            for (int day = 0; day < 7; day++) {
+                if ((rule.getDays() & (1 << day)) != 0) {
+                    int start = day * ScheduleRule.MINUTES_PER_DAY + rule.getStartMinute();
+                    starts[count++] = start;
+                    starts[count++] = (start + rule.getDurationMinutes()) % MINUTES_PER_WEEK;
+                }
+            }
+        }
+        Arrays.sort(starts, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || starts[i] != starts[unique - 1]) {
+                starts[unique++] = starts[i];
+            }
+        }
+        return Arrays.copyOf(starts, unique);
+    }
+
+    /**
+     * @param batteryPercent
+     *         {@link int} battery level, or {@link BrightnessContext#UNKNOWN_BATTERY}
+     * @return {@link int} bucket of the battery level, 0 for unknown
+     */
+    private static int getBatteryBucket(int batteryPercent) {
+        return batteryPercent < 0 || batteryPercent > 100 ? 0 : batteryPercent + 1;
+    }
+
+    /**
+     * @param charging
+     *         {@link int} one of the {@link PolicyInput} charging states
+     * @return {@link int} bucket of the charging state, 0 for unknown
+     */
+    private static int getChargingBucket(int charging) {
+        return charging == PolicyInput.CHARGING_YES || charging == PolicyInput.CHARGING_NO ? charging + 1 : 0;
+    }
+
+}
@@ -0,0 +1,283 @@
+package com.danvelazco.wear.displaybrightness.core;
+
+import java.util.Locale;
+
+/**
+ * A user defined time window repeated every week, like a bedtime from 23:00 to 07:00 or a weekday commute, which
+ * overrides or caps the level picked for the activity while it's active.
+ * <p/>
+ * A window starts on each of its days and may run past midnight into the next day, windows ending at the same time
+ * they start last a whole day. Rules are immutable, they are compiled into a {@link BrightnessSchedule} to be looked
+ * up.
+ */
+public final class ScheduleRule {
+
+    /**
+     * Days of the week, combined into a mask
+     */
+    public static final int MONDAY = 1;
+    public static final int TUESDAY = 1 << 1;
+    public static final int WEDNESDAY = 1 << 2;
+    public static final int THURSDAY = 1 << 3;
+    public static final int FRIDAY = 1 << 4;
+    public static final int SATURDAY = 1 << 5;
+    public static final int SUNDAY = 1 << 6;
+    public static final int WEEKDAYS = MONDAY | TUESDAY | WEDNESDAY | THURSDAY | FRIDAY;
+    public static final int WEEKENDS = SATURDAY | SUNDAY;
+    public static final int EVERY_DAY = WEEKDAYS | WEEKENDS;
+
+    /**
+     * What the rule does to the level while it's active
+     */
+    public static final int TYPE_OVERRIDE = 0;
+    public static final int TYPE_CAP = 1;
+
+    // Constants
+    public static final int MINUTES_PER_DAY = 24 * 60;
+    private static final String[] DAY_NAMES = {"mon", "tue", "wed", "thu", "fri", "sat", "sun"};
+
+    // Members
+    private final int mDays;
+    private final int mStartMinute;
+    private final int mEndMinute;
+    private final int mType;
+    private final int mLevel;
+    private final String mName;
+
+    /**
+     * Constructor
+     *
+     * @param days
+     *         {@link int} mask of the days the window starts on, like {@link #WEEKDAYS}
+     * @param startMinute
+     *         {@link int} minute of the day the window starts at, from 0 to 1439
+     * @param endMinute
+     *         {@link int} minute of the day the window ends at, before the start if it ends the next day
+     * @param type
+     *         {@link int} {@link #TYPE_OVERRIDE} or {@link #TYPE_CAP}
+     * @param level
+     *         {@link int} the {@code BrightnessLevel} shown, or the highest one allowed, from {@link
+     *         BrightnessDecision#LOWEST_LEVEL} to {@link BrightnessDecision#HIGHEST_LEVEL}
+     * @param name
+     *         {@link String} name of the rule, may be null
+     */
+    public ScheduleRule(int days, int startMinute, int endMinute, int type, int level, String name) {
+        checkWindow(days, startMinute, endMinute);
+        if (type != TYPE_OVERRIDE && type != TYPE_CAP) {
+            throw new IllegalArgumentException("Invalid type: " + type);
+        }
+        if (level < BrightnessDecision.LOWEST_LEVEL || level > BrightnessDecision.HIGHEST_LEVEL) {
+            // Also keeps a cap from being mistaken for the absence of one in the schedule
+            throw new IllegalArgumentException("Invalid level: " + level);
+        }
+        mDays = days;
+        mStartMinute = startMinute;
+        mEndMinute = endMinute;
+        mType = type;
+        mLevel = level;
+        mName = name;
+    }
+
+    /**
+     * Check the days and times of a window, also used for the time windows of the {@link PolicyRule}
+     *
+     * @param days
+     *         {@link int} mask of the days the window starts on, like {@link #WEEKDAYS}
+     * @param startMinute
+     *         {@link int} minute of the day the window starts at, from 0 to 1439
+     * @param endMinute
+     *         {@link int} minute of the day the window ends at, before the start if it ends the next day
+     * @throws IllegalArgumentException
+     *         if the days or times are invalid
+     */
+    public static void checkWindow(int days, int startMinute, int endMinute) {
+        if ((days & EVERY_DAY) == 0 || (days & ~EVERY_DAY) != 0) {
+            throw new IllegalArgumentException("Invalid days: " + days);
+        }
+        if (startMinute < 0 || startMinute >= MINUTES_PER_DAY || endMinute < 0 || endMinute >= MINUTES_PER_DAY) {
+            throw new IllegalArgumentException("Invalid window: " + startMinute + "-" + endMinute);
+        }
+    }
+
+    /**
+     * Parse a rule written as {@code <days> <HH:mm>-<HH:mm> <override|cap> <level> [name]}, for example {@code
+     * mon-fri 08:00-09:00 cap 2 commute}. Days are {@code daily}, {@code weekdays}, {@code weekends} or a comma
+     * separated list of days and ranges of days, like {@code mon,wed-fri}.
+     *
+     * @param value
+     *         {@link String} rule
+     * @return {@link ScheduleRule}
+     * @throws IllegalArgumentException
+     *         if the rule can't be parsed
+     */
+    public static ScheduleRule parse(String value) {
+        String[] parts = value.trim().split("\\s+", 5);
+        if (parts.length < 4) {
+            throw new IllegalArgumentException("Invalid rule: " + value);
+        }
+        String[] window = parts[1].split("-");
+        if (window.length != 2) {
+            throw new IllegalArgumentException("Invalid window: " + parts[1]);
+        }
+        int type;
+        switch (parts[2].toLowerCase(Locale.US)) {
+            case "override":
+                type = TYPE_OVERRIDE;
+                break;
+            case "cap":
+                type = TYPE_CAP;
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid type: " + parts[2]);
+        }
+        return new ScheduleRule(parseDays(parts[0]), parseMinute(window[0]), parseMinute(window[1]), type,
+                Integer.parseInt(parts[3]), parts.length > 4 ? parts[4] : null);
+    }
+
+    /**
+     * @return {@link int} mask of the days the window starts on
+     */
+    public int getDays() {
+        return mDays;
+    }
+
+    /**
+     * @return {@link int} minute of the day the window starts at
+     */
+    public int getStartMinute() {
+        return mStartMinute;
+    }
+
+    /**
+     * @return {@link int} length of the window in minutes, up to a whole day
+     */
+    public int getDurationMinutes() {
+        int duration = mEndMinute - mStartMinute;
+        return duration > 0 ? duration : duration + MINUTES_PER_DAY;
+    }
+
+    /**
+     * @return {@link int} {@link #TYPE_OVERRIDE} or {@link #TYPE_CAP}
+     */
+    public int getType() {
+        return mType;
+    }
+
+    /**
+     * @return {@link int} the {@code BrightnessLevel} shown, or the highest one allowed
+     */
+    public int getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * @return {@link String} name of the rule, may be null
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "ScheduleRule{%s days=%s %02d:%02d-%02d:%02d %s %d}", mName,
+                Integer.toBinaryString(mDays), mStartMinute / 60, mStartMinute % 60, mEndMinute / 60, mEndMinute % 60,
+                mType == TYPE_CAP ? "cap" : "override", mLevel);
+    }
+
+    /**
+     * @param value
+     *         {@link String} days, see {@link #parse(String)}
+     * @return {@link int} mask of the days
+     */
+    static int parseDays(String value) {
+        switch (value.toLowerCase(Locale.US)) {
+            case "daily":
+                return EVERY_DAY;
+            case "weekdays":
+                return WEEKDAYS;
+            case "weekends":
+                return WEEKENDS;
+        }
+        int days = 0;
+        for (String item : value.split(",")) {
+            String[] range = item.split("-");
+            if (range.length > 2) {
+                throw new IllegalArgumentException("Invalid days: " + value);
+            }
+            int first = parseDay(range[0]);
+            int last = range.length == 2 ? parseDay(range[1]) : first;
+            // Ranges may wrap around the end of the week, like fri-mon
+            for (int day = first; ; day = (day + 1) % DAY_NAMES.length) {
+                days |= 1 << day;
+                if (day == last) {
+                    break;
+                }
+            }
+        }
+        return days;
+    }
+
+    /**
+     * @param days
+     *         {@link int} mask of days
+     * @return {@link String} days as accepted by {@link #parseDays(String)}
+     */
+    static String formatDays(int days) {
+        if (days == EVERY_DAY) {
+            return "daily";
+        }
+        StringBuilder builder = new StringBuilder();
+        for (int day = 0; day < DAY_NAMES.length; day++) {
+            if ((days & (1 << day)) != 0) {
+                builder.append(builder.length() > 0 ? "," : "").append(DAY_NAMES[day]);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @param minute
+     *         {@link int} minute of the day
+     * @return {@link String} time of the day as {@code HH:mm}
+     */
+    static String formatMinute(int minute) {
+        return String.format(Locale.US, "%02d:%02d", minute / 60, minute % 60);
+    }
+
+    /**
+     * @param value
+     *         {@link String} three letter name of a day
+     * @return {@link int} index of the day, from 0 for monday to 6 for sunday
+     */
+    private static int parseDay(String value) {
+        String day = value.trim().toLowerCase(Locale.US);
+        for (int i = 0; i < DAY_NAMES.length; i++) {
+            if (DAY_NAMES[i].equals(day)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Invalid day: " + value);
+    }
+
+    /**
+     * @param value
+     *         {@link String} time of the day as {@code HH:mm}
+     * @return {@link int} minute of the day
+     */
+    static int parseMinute(String value) {
+        String[] parts = value.split(":");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Invalid time: " + value);
+        }
+        int hours = Integer.parseInt(parts[0]);
+        int minutes = Integer.parseInt(parts[1]);
+        if (hours < 0 || hours > 23 || minutes < 0 || minutes > 59) {
+            throw new IllegalArgumentException("Invalid time: " + value);
+        }
+        return hours * 60 + minutes;
+    }
+
+}
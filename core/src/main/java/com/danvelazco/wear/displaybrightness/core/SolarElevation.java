@@ -0,0 +1,75 @@
+package com.danvelazco.wear.displaybrightness.core;
+
+/**
+ * Calculates the elevation of the sun above the horizon for a location and time.
+ * <p/>
+ * Uses the low precision solar coordinates from the Astronomical Almanac, good to about a hundredth of a degree for
+ * the years we care about, which is far more than a brightness curve needs. The sun's declination and right ascension
+ * change very slowly, so they are only recalculated when the hour changes; what's left for every evaluation is a
+ * handful of multiplications, a cosine and an arcsine, and no allocations.
+ * <p/>
+ * Not thread safe.
+ */
+public class SolarElevation {
+
+    // Constants
+    private static final long HOUR_MILLIS = 60 * 60 * 1000L;
+    private static final double DAY_MILLIS = 24 * 60 * 60 * 1000d;
+    private static final double J2000_EPOCH_MILLIS = 946728000000d;
+
+    // Sun coordinates of the hour they were calculated for, in radians
+    private long mHour = Long.MIN_VALUE;
+    private double mSinDeclination;
+    private double mCosDeclination;
+    private double mRightAscension;
+
+    /**
+     * Get the elevation of the sun
+     *
+     * @param latitude
+     *         {@link double}
+     * @param longitude
+     *         {@link double}
+     * @param timeMillis
+     *         {@link long} time in epoch millis
+     * @return {@link double} elevation in degrees, from -90 (sun straight below) to 90 (sun straight above)
+     */
+    public double getElevation(double latitude, double longitude, long timeMillis) {
+        long hour = timeMillis / HOUR_MILLIS;
+        if (hour != mHour) {
+            updateSunCoordinates(hour * HOUR_MILLIS + HOUR_MILLIS / 2);
+            mHour = hour;
+        }
+
+        // Greenwich mean sidereal time, then the local hour angle of the sun
+        double days = (timeMillis - J2000_EPOCH_MILLIS) / DAY_MILLIS;
+        double siderealTime = Math.toRadians(280.46061837d + 360.98564736629d * days + longitude);
+        double hourAngle = siderealTime - mRightAscension;
+
+        double latitudeRadians = Math.toRadians(latitude);
+        double sinElevation = Math.sin(latitudeRadians) * mSinDeclination
+                + Math.cos(latitudeRadians) * mCosDeclination * Math.cos(hourAngle);
+        return Math.toDegrees(Math.asin(Math.max(-1d, Math.min(1d, sinElevation))));
+    }
+
+    /**
+     * Calculate the declination and right ascension of the sun
+     *
+     * @param timeMillis
+     *         {@link long} time in epoch millis
+     */
+    private void updateSunCoordinates(long timeMillis) {
+        double days = (timeMillis - J2000_EPOCH_MILLIS) / DAY_MILLIS;
+        double meanLongitude = Math.toRadians(280.460d + 0.9856474d * days);
+        double meanAnomaly = Math.toRadians(357.528d + 0.9856003d * days);
+        double eclipticLongitude = meanLongitude + Math.toRadians(1.915d * Math.sin(meanAnomaly)
+                + 0.020d * Math.sin(2 * meanAnomaly));
+        double obliquity = Math.toRadians(23.439d - 0.0000004d * days);
+
+        double sinDeclination = Math.sin(obliquity) * Math.sin(eclipticLongitude);
+        mSinDeclination = sinDeclination;
+        mCosDeclination = Math.sqrt(1 - sinDeclination * sinDeclination);
+        mRightAscension = Math.atan2(Math.cos(obliquity) * Math.sin(eclipticLongitude), Math.cos(eclipticLongitude));
+    }
+
+}
@@ -0,0 +1,332 @@
+package com.danvelazco.wear.displaybrightness.core;
+
+import com.luckycatlabs.sunrisesunset.SunriseSunsetCalculator;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Cache of the sunrise and sunset times used to determine whether it's currently day or night time.
+ * <p/>
+ * The {@link SunriseSunsetCalculator} is fairly expensive (several {@link Calendar} instances and a full trigonometric
+ * series per call) and its result only changes once per day for a given location, so each result is stored keyed by
+ * local date, coarse location cell and zenith. Once an entry is cached, {@link #isDaytime(double, double, long,
+ * double, double)} is just a couple of {@code long} comparisons and does not allocate.
+ * <p/>
+ * This class is not thread safe.
+ */
+public class SolarEventCache {
+
+    // Constants
+    private static final long MILLIS_PER_DAY = 24L * 60L * 60L * 1000L;
+    private static final int DEFAULT_CAPACITY = 4;
+
+    /**
+     * Size in degrees of each location cell, roughly 11km of latitude. The sunrise/sunset times barely change within
+     * this distance, so the user needs to move to a different cell before we recalculate.
+     */
+    public static final double CELL_SIZE_DEGREES = 0.1d;
+
+    /**
+     * Value used when there is no sunrise or sunset for a given day, i.e. polar day or polar night
+     */
+    public static final long NO_EVENT = Long.MIN_VALUE;
+
+    /**
+     * Calculates the sunrise and sunset times, only used so the calculation can be swapped (e.g. from tests)
+     */
+    public interface Calculator {
+
+        /**
+         * @param latitude
+         *         {@link double}
+         * @param longitude
+         *         {@link double}
+         * @param timeZone
+         *         {@link TimeZone} of the date
+         * @param date
+         *         {@link Calendar} with the date we want the sunrise for
+         * @param degrees
+         *         {@link double} sun degrees (zenith offset) passed to the {@link SunriseSunsetCalculator}
+         * @return {@link long} sunrise time in epoch millis, or {@link #NO_EVENT}
+         */
+        long getSunrise(double latitude, double longitude, TimeZone timeZone, Calendar date, double degrees);
+
+        /**
+         * @param latitude
+         *         {@link double}
+         * @param longitude
+         *         {@link double}
+         * @param timeZone
+         *         {@link TimeZone} of the date
+         * @param date
+         *         {@link Calendar} with the date we want the sunset for
+         * @param degrees
+         *         {@link double} sun degrees (zenith offset) passed to the {@link SunriseSunsetCalculator}
+         * @return {@link long} sunset time in epoch millis, or {@link #NO_EVENT}
+         */
+        long getSunset(double latitude, double longitude, TimeZone timeZone, Calendar date, double degrees);
+
+    }
+
+    /**
+     * Default {@link Calculator} backed by the {@link SunriseSunsetCalculator}
+     */
+    public static final Calculator DEFAULT_CALCULATOR = new Calculator() {
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getSunrise(double latitude, double longitude, TimeZone timeZone, Calendar date, double degrees) {
+            Calendar sunrise = SunriseSunsetCalculator.getSunrise(latitude, longitude, timeZone, date, degrees);
+            return sunrise != null ? sunrise.getTimeInMillis() : NO_EVENT;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getSunset(double latitude, double longitude, TimeZone timeZone, Calendar date, double degrees) {
+            Calendar sunset = SunriseSunsetCalculator.getSunset(latitude, longitude, timeZone, date, degrees);
+            return sunset != null ? sunset.getTimeInMillis() : NO_EVENT;
+        }
+
+    };
+
+    // Members
+    private final Calculator mCalculator;
+    private final TimeZone mTimeZone;
+
+    // Cache entries, kept in parallel primitive arrays so lookups don't allocate
+    private final long[] mEntryDay;
+    private final int[] mEntryLatCell;
+    private final int[] mEntryLonCell;
+    private final long[] mEntryDegreesBits;
+    private final long[] mEntrySunrise;
+    private final long[] mEntrySunset;
+    private int mEntryCount = 0;
+
+    // Statistics
+    private int mHitCount = 0;
+    private int mMissCount = 0;
+
+    /**
+     * Constructor, uses the {@link #DEFAULT_CALCULATOR} and the default {@link TimeZone}
+     */
+    public SolarEventCache() {
+        this(DEFAULT_CALCULATOR, TimeZone.getDefault(), DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param calculator
+     *         {@link Calculator} used on cache misses
+     * @param timeZone
+     *         {@link TimeZone} used to determine the local date
+     * @param capacity
+     *         {@link int} maximum number of cached (date, cell, zenith) entries
+     */
+    public SolarEventCache(Calculator calculator, TimeZone timeZone, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        mCalculator = calculator;
+        mTimeZone = timeZone;
+        mEntryDay = new long[capacity];
+        mEntryLatCell = new int[capacity];
+        mEntryLonCell = new int[capacity];
+        mEntryDegreesBits = new long[capacity];
+        mEntrySunrise = new long[capacity];
+        mEntrySunset = new long[capacity];
+    }
+
+    /**
+     * Whether it's day time at the given location and time. It's day time if the time is after the sunrise and before
+     * the sunset, if either couldn't be calculated we default to day time.
+     *
+     * @param latitude
+     *         {@link double}
+     * @param longitude
+     *         {@link double}
+     * @param timeMillis
+     *         {@link long} time to check in epoch millis
+     * @param sunriseDegrees
+     *         {@link double} sun degrees used to calculate the sunrise
+     * @param sunsetDegrees
+     *         {@link double} sun degrees used to calculate the sunset
+     * @return {@link boolean} true if it's day time, false if night time
+     */
+    public boolean isDaytime(double latitude, double longitude, long timeMillis, double sunriseDegrees,
+            double sunsetDegrees) {
+        long sunrise = mEntrySunrise[lookup(latitude, longitude, timeMillis, sunriseDegrees)];
+        long sunset = mEntrySunset[lookup(latitude, longitude, timeMillis, sunsetDegrees)];
+        if (sunrise == NO_EVENT || sunset == NO_EVENT) {
+            return true;
+        }
+        return timeMillis > sunrise && timeMillis < sunset;
+    }
+
+    /**
+     * @param latitude
+     *         {@link double}
+     * @param longitude
+     *         {@link double}
+     * @param timeMillis
+     *         {@link long} any time within the local date we want the sunrise for
+     * @param degrees
+     *         {@link double} sun degrees
+     * @return {@link long} sunrise time in epoch millis, or {@link #NO_EVENT}
+     */
+    public long getSunrise(double latitude, double longitude, long timeMillis, double degrees) {
+        return mEntrySunrise[lookup(latitude, longitude, timeMillis, degrees)];
+    }
+
+    /**
+     * @param latitude
+     *         {@link double}
+     * @param longitude
+     *         {@link double}
+     * @param timeMillis
+     *         {@link long} any time within the local date we want the sunset for
+     * @param degrees
+     *         {@link double} sun degrees
+     * @return {@link long} sunset time in epoch millis, or {@link #NO_EVENT}
+     */
+    public long getSunset(double latitude, double longitude, long timeMillis, double degrees) {
+        return mEntrySunset[lookup(latitude, longitude, timeMillis, degrees)];
+    }
+
+    /**
+     * @return {@link int} number of lookups answered from the cache
+     */
+    public int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return {@link int} number of lookups that required calculating the sunrise/sunset
+     */
+    public int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return {@link int} number of entries currently cached
+     */
+    public int size() {
+        return mEntryCount;
+    }
+
+    /**
+     * Remove all the cached entries
+     */
+    public void clear() {
+        mEntryCount = 0;
+    }
+
+    /**
+     * Find the entry for the given location, time and zenith, calculating it if needed.
+     *
+     * @return {@link int} index of the entry
+     */
+    private int lookup(double latitude, double longitude, long timeMillis, double degrees) {
+        long day = getLocalDay(timeMillis);
+        int latCell = toCell(latitude);
+        int lonCell = toCell(longitude);
+        long degreesBits = Double.doubleToLongBits(degrees);
+
+        for (int i = 0; i < mEntryCount; i++) {
+            if (mEntryDay[i] == day && mEntryLatCell[i] == latCell && mEntryLonCell[i] == lonCell
+                    && mEntryDegreesBits[i] == degreesBits) {
+                mHitCount++;
+                return i;
+            }
+        }
+
+        mMissCount++;
+        evictOldDays(day);
+        int index = mEntryCount < mEntryDay.length ? mEntryCount++ : findOldestEntry();
+
+        // Calculate for the center of the cell so every location in the cell gets the same result
+        double cellLatitude = (latCell + 0.5d) * CELL_SIZE_DEGREES;
+        double cellLongitude = (lonCell + 0.5d) * CELL_SIZE_DEGREES;
+        Calendar date = Calendar.getInstance(mTimeZone);
+        date.setTimeInMillis(timeMillis);
+
+        mEntryDay[index] = day;
+        mEntryLatCell[index] = latCell;
+        mEntryLonCell[index] = lonCell;
+        mEntryDegreesBits[index] = degreesBits;
+        mEntrySunrise[index] = mCalculator.getSunrise(cellLatitude, cellLongitude, mTimeZone, date, degrees);
+        mEntrySunset[index] = mCalculator.getSunset(cellLatitude, cellLongitude, mTimeZone, date, degrees);
+        return index;
+    }
+
+    /**
+     * Drop every entry for a date before the given day, we will never need those again
+     *
+     * @param day
+     *         {@link long} current local day
+     */
+    private void evictOldDays(long day) {
+        int i = 0;
+        while (i < mEntryCount) {
+            if (mEntryDay[i] < day) {
+                moveEntry(--mEntryCount, i);
+            } else {
+                i++;
+            }
+        }
+    }
+
+    /**
+     * @return {@link int} index of the entry with the oldest day, used when the cache is full
+     */
+    private int findOldestEntry() {
+        int oldest = 0;
+        for (int i = 1; i < mEntryCount; i++) {
+            if (mEntryDay[i] < mEntryDay[oldest]) {
+                oldest = i;
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * Copy the entry at {@code from} into {@code to}
+     */
+    private void moveEntry(int from, int to) {
+        mEntryDay[to] = mEntryDay[from];
+        mEntryLatCell[to] = mEntryLatCell[from];
+        mEntryLonCell[to] = mEntryLonCell[from];
+        mEntryDegreesBits[to] = mEntryDegreesBits[from];
+        mEntrySunrise[to] = mEntrySunrise[from];
+        mEntrySunset[to] = mEntrySunset[from];
+    }
+
+    /**
+     * @param timeMillis
+     *         {@link long} epoch millis
+     * @return {@link long} number of days since the epoch in the local time zone
+     */
+    private long getLocalDay(long timeMillis) {
+        long localMillis = timeMillis + mTimeZone.getOffset(timeMillis);
+        long day = localMillis / MILLIS_PER_DAY;
+        if (localMillis < 0 && (localMillis % MILLIS_PER_DAY) != 0) {
+            day--;
+        }
+        return day;
+    }
+
+    /**
+     * @param degrees
+     *         {@link double} latitude or longitude
+     * @return {@link int} index of the location cell
+     */
+    private static int toCell(double degrees) {
+        return (int) Math.floor(degrees / CELL_SIZE_DEGREES);
+    }
+
+}
@@ -0,0 +1,113 @@
+package com.danvelazco.wear.displaybrightness.core;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the {@link ActivitySmoother}
+ */
+public class ActivitySmootherTest extends TestCase {
+
+    // Constants
+    private static final long MINUTE = 60 * 1000L;
+
+    // Members
+    private ActivitySmoother mSmoother;
+    private long mNow;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSmoother = new ActivitySmoother();
+        mNow = 1000 * MINUTE;
+    }
+
+    public void testFirstDetectionIsTakenAsIs() {
+        assertEquals(BrightnessDecisionTable.WALKING, detect(BrightnessDecisionTable.WALKING, 70,
+                BrightnessDecisionTable.STILL, 30));
+        assertEquals(70, mSmoother.getConfidence());
+        assertEquals(0, mSmoother.getFlipCount());
+    }
+
+    public void testCloseCallDoesNotFlip() {
+        for (int i = 0; i < 5; i++) {
+            detect(BrightnessDecisionTable.STILL, 90, BrightnessDecisionTable.IN_VEHICLE, 10);
+        }
+        // A 40% against 38% reading, alternating, is noise
+        for (int i = 0; i < 10; i++) {
+            detect(BrightnessDecisionTable.IN_VEHICLE, 40, BrightnessDecisionTable.STILL, 38);
+            detect(BrightnessDecisionTable.STILL, 40, BrightnessDecisionTable.IN_VEHICLE, 38);
+        }
+        assertEquals(BrightnessDecisionTable.STILL, mSmoother.getActivityType());
+        assertEquals(0, mSmoother.getFlipCount());
+        assertEquals(20, mSmoother.getRawFlipCount());
+    }
+
+    public void testSustainedChangeFlips() {
+        detect(BrightnessDecisionTable.STILL, 90, BrightnessDecisionTable.IN_VEHICLE, 10);
+        int detections = 0;
+        while (mSmoother.getActivityType() != BrightnessDecisionTable.IN_VEHICLE && detections < 10) {
+            detect(BrightnessDecisionTable.IN_VEHICLE, 90, BrightnessDecisionTable.STILL, 10);
+            detections++;
+        }
+        assertEquals(BrightnessDecisionTable.IN_VEHICLE, mSmoother.getActivityType());
+        assertTrue("Took " + detections + " detections", detections >= 2 && detections <= 3);
+        assertEquals(1, mSmoother.getFlipCount());
+    }
+
+    public void testZeroMarginFollowsTheLeader() {
+        mSmoother.setMargin(0);
+        mSmoother.setHalfLifeMillis(1);
+        detect(BrightnessDecisionTable.STILL, 40, BrightnessDecisionTable.IN_VEHICLE, 38);
+        detect(BrightnessDecisionTable.IN_VEHICLE, 40, BrightnessDecisionTable.STILL, 38);
+        assertEquals(BrightnessDecisionTable.IN_VEHICLE, mSmoother.getActivityType());
+        assertEquals(1, mSmoother.getFlipCount());
+        assertEquals(mSmoother.getRawFlipCount(), mSmoother.getFlipCount());
+    }
+
+    public void testFlipsPerDay() {
+        mSmoother.setMargin(0);
+        mSmoother.setHalfLifeMillis(1);
+        detect(BrightnessDecisionTable.STILL, 90, BrightnessDecisionTable.WALKING, 10);
+        detect(BrightnessDecisionTable.WALKING, 90, BrightnessDecisionTable.STILL, 10);
+        assertEquals(2, mSmoother.getDetectionCount());
+        assertEquals(1f, mSmoother.getFlipsPerDay(mNow + 24 * 60 * MINUTE - 2 * MINUTE), 0.01f);
+        // Less than an hour is extrapolated as an hour
+        assertEquals(24f, mSmoother.getRawFlipsPerDay(mNow), 0.01f);
+    }
+
+    public void testRestore() {
+        mSmoother.restore(BrightnessDecisionTable.STILL, 90, mNow);
+        assertEquals(BrightnessDecisionTable.STILL, mSmoother.getActivityType());
+        assertEquals(90, mSmoother.getConfidence());
+        assertEquals(0, mSmoother.getDetectionCount());
+
+        // Weighs like a detection two minutes before
+        detect(BrightnessDecisionTable.IN_VEHICLE, 40, BrightnessDecisionTable.STILL, 38);
+        assertEquals(BrightnessDecisionTable.STILL, mSmoother.getActivityType());
+        assertEquals(0, mSmoother.getRawFlipCount());
+
+        // Only before the first detection
+        mSmoother.restore(BrightnessDecisionTable.WALKING, 100, mNow);
+        assertEquals(BrightnessDecisionTable.STILL, mSmoother.getActivityType());
+
+        // Long gone by the next detection
+        ActivitySmoother smoother = new ActivitySmoother();
+        smoother.restore(BrightnessDecisionTable.STILL, 90, mNow - 24 * 60 * MINUTE);
+        assertEquals(BrightnessDecisionTable.WALKING, smoother.onDetection(new int[]{BrightnessDecisionTable.WALKING},
+                new int[]{60}, 1, mNow));
+        assertEquals(1, smoother.getFlipCount());
+    }
+
+    /**
+     * Feed a detection with two probable activities, two minutes after the previous one
+     */
+    private int detect(int firstType, int firstConfidence, int secondType, int secondConfidence) {
+        mNow += 2 * MINUTE;
+        return mSmoother.onDetection(new int[]{firstType, secondType}, new int[]{firstConfidence, secondConfidence},
+                2, mNow);
+    }
+
+}
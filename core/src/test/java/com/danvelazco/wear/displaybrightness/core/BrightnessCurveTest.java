@@ -0,0 +1,78 @@
+package com.danvelazco.wear.displaybrightness.core;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the {@link BrightnessCurve}
+ */
+public class BrightnessCurveTest extends TestCase {
+
+    // Members
+    private BrightnessCurve mCurve;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCurve = new BrightnessCurve(new double[] {-6, 0, 20}, new int[] {10, 60, 255});
+    }
+
+    public void testControlPoints() {
+        assertEquals(10, mCurve.getBrightness(-6));
+        assertEquals(60, mCurve.getBrightness(0));
+        assertEquals(255, mCurve.getBrightness(20));
+    }
+
+    public void testFlatOutsideOfTheControlPoints() {
+        assertEquals(10, mCurve.getBrightness(-90));
+        assertEquals(10, mCurve.getBrightness(-12));
+        assertEquals(255, mCurve.getBrightness(45));
+        assertEquals(255, mCurve.getBrightness(90));
+        assertEquals(255, mCurve.getBrightness(Double.MAX_VALUE));
+        assertEquals(10, mCurve.getBrightness(Double.NaN));
+    }
+
+    public void testMonotonicBetweenControlPoints() {
+        int previous = 0;
+        for (double elevation = -10; elevation <= 25; elevation += 0.1d) {
+            int brightness = mCurve.getBrightness(elevation);
+            assertTrue(brightness >= previous);
+            previous = brightness;
+        }
+    }
+
+    public void testParse() {
+        BrightnessCurve curve = BrightnessCurve.parse(" 20:255, -6:10  0:60 ");
+        for (double elevation = -20; elevation <= 30; elevation += 0.5d) {
+            assertEquals(mCurve.getBrightness(elevation), curve.getBrightness(elevation));
+        }
+        assertEquals(128, BrightnessCurve.parse("-4.5:128").getBrightness(30));
+
+        for (String invalid : new String[]{"", "10", "10:256", "0:-1", "a:10", "0:10 0:20", "0:10:20"}) {
+            try {
+                BrightnessCurve.parse(invalid);
+                fail("Expected " + invalid + " to be rejected");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+
+    public void testInvalidControlPoints() {
+        try {
+            new BrightnessCurve(new double[] {0, 0}, new int[] {10, 20});
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            new BrightnessCurve(new double[] {0}, new int[] {10, 20});
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+}
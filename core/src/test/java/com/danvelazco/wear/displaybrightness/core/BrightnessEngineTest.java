@@ -0,0 +1,133 @@
+package com.danvelazco.wear.displaybrightness.core;
+
+import junit.framework.TestCase;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Tests for the {@link BrightnessEngine}
+ */
+public class BrightnessEngineTest extends TestCase {
+
+    // Constants
+    private static final TimeZone TIME_ZONE = TimeZone.getTimeZone("America/New_York");
+    private static final double LATITUDE = 40.7128d;
+    private static final double LONGITUDE = -74.0060d;
+    private static final int DAY_LEVEL = 4;
+    private static final int NIGHT_LEVEL = 0;
+    private static final int UNKNOWN_DAY_LEVEL = 2;
+    private static final int UNKNOWN_NIGHT_LEVEL = 1;
+
+    // Members
+    private BrightnessEngine mEngine;
+    private BrightnessDecisionTable mTable;
+    private long mNoon;
+    private long mMidnight;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mEngine = new BrightnessEngine(new SolarEventCache(SolarEventCache.DEFAULT_CALCULATOR, TIME_ZONE, 4));
+        mTable = new BrightnessDecisionTable(UNKNOWN_DAY_LEVEL, UNKNOWN_NIGHT_LEVEL)
+                .put(BrightnessDecisionTable.RUNNING, DAY_LEVEL, NIGHT_LEVEL);
+
+        Calendar calendar = Calendar.getInstance(TIME_ZONE);
+        calendar.set(2015, Calendar.JUNE, 21, 12, 0, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        mNoon = calendar.getTimeInMillis();
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        mMidnight = calendar.getTimeInMillis();
+    }
+
+    public void testDayAndNightLevels() {
+        BrightnessDecision day = mEngine.decide(context(BrightnessDecisionTable.RUNNING, 100, mNoon));
+        assertTrue(day.isDaytime());
+        assertEquals(DAY_LEVEL, day.getLevel());
+
+        BrightnessDecision night = mEngine.decide(context(BrightnessDecisionTable.RUNNING, 100, mMidnight));
+        assertFalse(night.isDaytime());
+        assertEquals(NIGHT_LEVEL, night.getLevel());
+    }
+
+    public void testUnknownActivityTypes() {
+        assertEquals(UNKNOWN_DAY_LEVEL, mEngine.decide(context(42, 100, mNoon)).getLevel());
+        assertEquals(UNKNOWN_DAY_LEVEL, mEngine.decide(context(-1, 100, mNoon)).getLevel());
+    }
+
+    public void testUnconfidentActivitiesAreUnknown() {
+        mEngine.setMinConfidence(50);
+        BrightnessDecision decision = mEngine.decide(context(BrightnessDecisionTable.RUNNING, 49, mNoon));
+        assertEquals(BrightnessDecisionTable.UNKNOWN, decision.getActivityType());
+        assertEquals(UNKNOWN_DAY_LEVEL, decision.getLevel());
+
+        assertEquals(DAY_LEVEL, mEngine.decide(context(BrightnessDecisionTable.RUNNING, 50, mNoon)).getLevel());
+    }
+
+    public void testDecisionTableRoundTrip() {
+        BrightnessDecisionTable copy = BrightnessDecisionTable.fromArray(mTable.toArray());
+        assertEquals(mTable, copy);
+        assertEquals(mTable.hashCode(), copy.hashCode());
+        assertEquals(DAY_LEVEL, copy.getBrightnessLevel(BrightnessDecisionTable.RUNNING, true));
+        assertEquals(UNKNOWN_NIGHT_LEVEL, copy.getBrightnessLevel(BrightnessDecisionTable.STILL, false));
+
+        copy.put(BrightnessDecisionTable.STILL, DAY_LEVEL, NIGHT_LEVEL);
+        assertFalse(mTable.equals(copy));
+        try {
+            BrightnessDecisionTable.fromArray(new int[3]);
+            fail("Expected the table to be rejected");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    public void testUnknownLocationDefaultsToDaytime() {
+        BrightnessDecision decision = mEngine.decide(new BrightnessContext(BrightnessDecisionTable.RUNNING, 100,
+                BrightnessContext.UNKNOWN_COORDINATE, BrightnessContext.UNKNOWN_COORDINATE, mMidnight, mTable));
+        assertTrue(decision.isDaytime());
+        assertEquals(DAY_LEVEL, decision.getLevel());
+    }
+
+    public void testMillisToSolarTransition() {
+        long atNoon = mEngine.getMillisToSolarTransition(context(BrightnessDecisionTable.STILL, 100, mNoon));
+        assertTrue(atNoon > 4 * 60 * 60 * 1000L);
+
+        assertEquals(Long.MAX_VALUE, mEngine.getMillisToSolarTransition(new BrightnessContext(
+                BrightnessDecisionTable.STILL, 100, BrightnessContext.UNKNOWN_COORDINATE,
+                BrightnessContext.UNKNOWN_COORDINATE, mNoon, mTable)));
+    }
+
+    public void testNextSolarTransition() {
+        long sunset = mEngine.getNextSolarTransition(context(BrightnessDecisionTable.STILL, 100, mNoon));
+        assertTrue(sunset > mNoon);
+        assertTrue(mEngine.decide(context(BrightnessDecisionTable.STILL, 100, sunset - 1000)).isDaytime());
+        assertFalse(mEngine.decide(context(BrightnessDecisionTable.STILL, 100, sunset + 1000)).isDaytime());
+
+        long sunrise = mEngine.getNextSolarTransition(context(BrightnessDecisionTable.STILL, 100, sunset + 1000));
+        assertTrue(sunrise > sunset);
+        assertFalse(mEngine.decide(context(BrightnessDecisionTable.STILL, 100, sunrise - 1000)).isDaytime());
+        assertTrue(mEngine.decide(context(BrightnessDecisionTable.STILL, 100, sunrise + 1000)).isDaytime());
+    }
+
+    public void testFineLevelFromCurve() {
+        BrightnessCurve curve = new BrightnessCurve(new double[] {-6, 30}, new int[] {10, 255});
+        BrightnessDecision day = mEngine.decide(new BrightnessContext(BrightnessDecisionTable.RUNNING, 100, LATITUDE,
+                LONGITUDE, mNoon, mTable, curve));
+        assertEquals(255, day.getFineLevel());
+        assertEquals(DAY_LEVEL, day.getLevel());
+
+        BrightnessDecision night = mEngine.decide(new BrightnessContext(BrightnessDecisionTable.RUNNING, 100,
+                LATITUDE, LONGITUDE, mMidnight, mTable, curve));
+        assertEquals(10, night.getFineLevel());
+
+        assertFalse(mEngine.decide(context(BrightnessDecisionTable.RUNNING, 100, mNoon)).hasFineLevel());
+    }
+
+    private BrightnessContext context(int activityType, int confidence, long timeMillis) {
+        return new BrightnessContext(activityType, confidence, LATITUDE, LONGITUDE, timeMillis, mTable);
+    }
+
+}
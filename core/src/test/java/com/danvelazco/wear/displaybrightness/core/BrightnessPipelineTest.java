@@ -0,0 +1,88 @@
+package com.danvelazco.wear.displaybrightness.core;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Tests for the {@link BrightnessPipeline}
+ */
+public class BrightnessPipelineTest extends TestCase {
+
+    // Constants
+    private static final TimeZone TIME_ZONE = TimeZone.getTimeZone("America/New_York");
+    private static final double LATITUDE = 40.7128d;
+    private static final double LONGITUDE = -74.0060d;
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    // Members
+    private BrightnessPipeline mPipeline;
+    private BrightnessDecisionTable mTable;
+    private PolicyInput mInput;
+    private long mNoon;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPipeline = new BrightnessPipeline(new BrightnessEngine(new SolarEventCache(
+                SolarEventCache.DEFAULT_CALCULATOR, TIME_ZONE, 4)));
+        mTable = new BrightnessDecisionTable(2, 1).put(BrightnessDecisionTable.RUNNING, 4, 0);
+        mInput = new PolicyInput();
+
+        Calendar calendar = Calendar.getInstance(TIME_ZONE);
+        calendar.set(2015, Calendar.JUNE, 22, 12, 0, 0); // A monday
+        calendar.set(Calendar.MILLISECOND, 0);
+        mNoon = calendar.getTimeInMillis();
+    }
+
+    public void testEngineOnly() {
+        BrightnessContext context = context(BrightnessDecisionTable.RUNNING, mNoon);
+        assertEquals(mPipeline.getEngine().decide(context), mPipeline.decide(context, null, null, mInput));
+    }
+
+    public void testRuleThenSchedule() {
+        PolicyRuleSet policy = new PolicyRuleSet(Arrays.asList(PolicyRule.parse("activity=running level=3")),
+                TIME_ZONE);
+        BrightnessSchedule schedule = new BrightnessSchedule(Arrays.asList(ScheduleRule.parse(
+                "weekdays 13:00-14:00 cap 1 lunch")), TIME_ZONE);
+
+        BrightnessDecision decision = mPipeline.decide(context(BrightnessDecisionTable.RUNNING, mNoon), policy,
+                schedule, mInput);
+        assertEquals(3, decision.getLevel());
+        assertTrue(decision.isDaytime());
+        assertEquals(2, mPipeline.decide(context(BrightnessDecisionTable.STILL, mNoon), policy, schedule, mInput)
+                .getLevel());
+        // The time windows apply on top of the rules
+        assertEquals(1, mPipeline.decide(context(BrightnessDecisionTable.RUNNING, mNoon + HOUR), policy, schedule,
+                mInput).getLevel());
+    }
+
+    public void testNextTransition() {
+        BrightnessContext context = context(BrightnessDecisionTable.RUNNING, mNoon);
+        long sunset = mPipeline.getEngine().getNextSolarTransition(context);
+        assertEquals(sunset, mPipeline.getNextTransition(context, null, null));
+
+        BrightnessSchedule schedule = new BrightnessSchedule(Arrays.asList(ScheduleRule.parse(
+                "weekdays 13:00-14:00 cap 1 lunch")), TIME_ZONE);
+        assertEquals(mNoon + HOUR, mPipeline.getNextTransition(context, null, schedule));
+
+        PolicyRuleSet policy = new PolicyRuleSet(Arrays.asList(PolicyRule.parse("time=12:30-13:30 level=0")),
+                TIME_ZONE);
+        assertEquals(mNoon + HOUR / 2, mPipeline.getNextTransition(context, policy, schedule));
+
+        BrightnessContext unknownLocation = new BrightnessContext(BrightnessDecisionTable.RUNNING, 100,
+                BrightnessContext.UNKNOWN_COORDINATE, BrightnessContext.UNKNOWN_COORDINATE, mNoon, mTable);
+        assertEquals(SolarEventCache.NO_EVENT, mPipeline.getNextTransition(unknownLocation, null, null));
+        assertEquals(mNoon + HOUR, mPipeline.getNextTransition(unknownLocation, null, schedule));
+    }
+
+    private BrightnessContext context(int activityType, long timeMillis) {
+        return new BrightnessContext(activityType, 100, LATITUDE, LONGITUDE, timeMillis, mTable);
+    }
+
+}
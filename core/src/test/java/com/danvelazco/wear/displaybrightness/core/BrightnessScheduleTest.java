@@ -0,0 +1,132 @@
+package com.danvelazco.wear.displaybrightness.core;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Tests for the {@link BrightnessSchedule} and the {@link ScheduleRule} parser
+ */
+public class BrightnessScheduleTest extends TestCase {
+
+    // Constants
+    private static final long MINUTE = 60 * 1000L;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+    private static final long MONDAY = 1430697600000L; // 2015-05-04 00:00 UTC
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    public void testBedtimeCap() {
+        BrightnessSchedule schedule = schedule(UTC, "daily 23:00-07:00 cap 0 bedtime");
+
+        assertEquals(0, schedule.getLevel(4, MONDAY + 2 * DAY + 23 * HOUR + 30 * MINUTE));
+        assertEquals(0, schedule.getLevel(4, MONDAY + 3 * DAY + 6 * HOUR));
+        assertEquals(4, schedule.getLevel(4, MONDAY + 3 * DAY + 7 * HOUR));
+        assertEquals(4, schedule.getLevel(4, MONDAY + 2 * DAY + 12 * HOUR));
+        // Seven nights, the one of sunday carries on into the start of the week
+        assertEquals(15, schedule.getSegmentCount());
+    }
+
+    public void testLastOverrideWinsAndLowestCapApplies() {
+        BrightnessSchedule schedule = schedule(UTC, "weekdays 08:00-18:00 override 3 work",
+                "wed 10:00-11:00 override 1 meeting", "daily 09:00-12:00 cap 2", "mon-fri 10:30-10:45 cap 0");
+
+        assertEquals(3, schedule.getLevel(0, MONDAY + 8 * HOUR));
+        assertEquals(2, schedule.getLevel(0, MONDAY + 9 * HOUR));
+        assertEquals(2, schedule.getLevel(0, MONDAY + 2 * DAY + 9 * HOUR));
+        assertEquals(1, schedule.getLevel(0, MONDAY + 2 * DAY + 10 * HOUR));
+        assertEquals(0, schedule.getLevel(4, MONDAY + 2 * DAY + 10 * HOUR + 40 * MINUTE));
+        assertEquals(4, schedule.getLevel(4, MONDAY + 5 * DAY + 8 * HOUR));
+        assertEquals(2, schedule.getLevel(4, MONDAY + 5 * DAY + 10 * HOUR));
+    }
+
+    public void testWindowRunsIntoTheNextWeek() {
+        BrightnessSchedule schedule = schedule(UTC, "sun 22:00-02:00 override 0");
+
+        assertEquals(0, schedule.getLevel(4, MONDAY + 6 * DAY + 23 * HOUR));
+        assertEquals(0, schedule.getLevel(4, MONDAY + 7 * DAY + HOUR));
+        assertEquals(0, schedule.getLevel(4, MONDAY + HOUR));
+        assertEquals(4, schedule.getLevel(4, MONDAY + 2 * HOUR));
+        assertEquals(MONDAY + 7 * DAY + 2 * HOUR, schedule.getNextBoundary(MONDAY + 6 * DAY + 23 * HOUR));
+        assertEquals(MONDAY + 6 * DAY + 22 * HOUR, schedule.getNextBoundary(MONDAY + 2 * HOUR));
+    }
+
+    public void testNextBoundary() {
+        BrightnessSchedule schedule = schedule(UTC, "daily 23:00-07:00 cap 0");
+
+        assertEquals(MONDAY + 23 * HOUR, schedule.getNextBoundary(MONDAY + 12 * HOUR));
+        assertEquals(MONDAY + DAY + 7 * HOUR, schedule.getNextBoundary(MONDAY + 23 * HOUR));
+        // Sunday night carries on into monday morning
+        assertEquals(MONDAY + 7 * DAY + 7 * HOUR, schedule.getNextBoundary(MONDAY + 6 * DAY + 23 * HOUR + MINUTE));
+        assertEquals(MONDAY + 7 * HOUR, schedule.getNextBoundary(MONDAY));
+    }
+
+    public void testNextBoundaryAcrossDaylightSaving() {
+        TimeZone newYork = TimeZone.getTimeZone("America/New_York");
+        BrightnessSchedule schedule = schedule(newYork, "daily 23:00-07:00 cap 0");
+        // Saturday 2015-03-07 noon, the clocks go forward that night
+        long now = MONDAY - 58 * DAY + 17 * HOUR;
+
+        Calendar calendar = Calendar.getInstance(newYork);
+        calendar.setTimeInMillis(schedule.getNextBoundary(now + 12 * HOUR));
+        assertEquals(Calendar.SUNDAY, calendar.get(Calendar.DAY_OF_WEEK));
+        assertEquals(7, calendar.get(Calendar.HOUR_OF_DAY));
+        assertEquals(0, calendar.get(Calendar.MINUTE));
+    }
+
+    public void testEmptySchedule() {
+        BrightnessSchedule schedule = new BrightnessSchedule(Collections.<ScheduleRule>emptyList(), UTC);
+
+        assertEquals(3, schedule.getLevel(3, MONDAY));
+        assertFalse(schedule.isActive(MONDAY));
+        assertEquals(BrightnessSchedule.NO_BOUNDARY, schedule.getNextBoundary(MONDAY));
+    }
+
+    public void testApplyDropsTheFineLevel() {
+        BrightnessSchedule schedule = schedule(UTC, "daily 23:00-07:00 cap 4");
+        BrightnessDecision decision = new BrightnessDecision(2, 180, BrightnessDecisionTable.STILL, false);
+
+        assertSame(decision, schedule.apply(decision, MONDAY + 12 * HOUR));
+        BrightnessDecision applied = schedule.apply(decision, MONDAY + 23 * HOUR);
+        assertEquals(2, applied.getLevel());
+        assertFalse(applied.hasFineLevel());
+    }
+
+    public void testParse() {
+        ScheduleRule rule = ScheduleRule.parse("  fri-mon 22:30-06:15  CAP 1 late nights ");
+        assertEquals(ScheduleRule.FRIDAY | ScheduleRule.WEEKENDS | ScheduleRule.MONDAY, rule.getDays());
+        assertEquals(22 * 60 + 30, rule.getStartMinute());
+        assertEquals(7 * 60 + 45, rule.getDurationMinutes());
+        assertEquals(ScheduleRule.TYPE_CAP, rule.getType());
+        assertEquals(1, rule.getLevel());
+        assertEquals("late nights", rule.getName());
+
+        assertEquals(ScheduleRule.MINUTES_PER_DAY, ScheduleRule.parse("weekends 08:00-08:00 override 4")
+                .getDurationMinutes());
+
+        for (String invalid : Arrays.asList("daily 23:00 cap 0", "someday 23:00-07:00 cap 0",
+                "daily 24:00-07:00 cap 0", "daily 23:00-07:00 dim 0", "daily 23:00-07:00 cap low",
+                "daily 23:00-07:00 cap -1", "daily 23:00-07:00 override 5")) {
+            try {
+                ScheduleRule.parse(invalid);
+                fail("Expected " + invalid + " to be rejected");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+
+    private static BrightnessSchedule schedule(TimeZone timeZone, String... rules) {
+        List<ScheduleRule> parsed = new ArrayList<>();
+        for (String rule : rules) {
+            parsed.add(ScheduleRule.parse(rule));
+        }
+        return new BrightnessSchedule(parsed, timeZone);
+    }
+
+}
@@ -0,0 +1,135 @@
+package com.danvelazco.wear.displaybrightness.core;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the {@link BrightnessSendGate}
+ */
+public class BrightnessSendGateTest extends TestCase {
+
+    // Constants
+    private static final String NODE = "node";
+    private static final String OTHER_NODE = "other";
+    private static final long MINUTE = 60 * 1000L;
+
+    // Members
+    private BrightnessSendGate mGate;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mGate = new BrightnessSendGate();
+        mGate.setRequiredConfirmations(2);
+        mGate.setMinDwellMillis(15 * MINUTE);
+    }
+
+    public void testFirstLevelIsSent() {
+        assertEquals(BrightnessSendGate.SEND, mGate.evaluate(NODE, 2, 0));
+        // Not delivered yet, so it's still sent
+        assertEquals(BrightnessSendGate.SEND, mGate.evaluate(NODE, 2, MINUTE));
+    }
+
+    public void testDuplicateIsSuppressed() {
+        mGate.markDelivered(NODE, 2, 0);
+        assertEquals(BrightnessSendGate.SUPPRESS_DUPLICATE, mGate.evaluate(NODE, 2, 60 * MINUTE));
+        assertEquals(BrightnessSendGate.SUPPRESS_DUPLICATE, mGate.evaluate(NODE, 2, 60 * MINUTE, true));
+        assertEquals(2, mGate.getSuppressedDuplicateCount());
+    }
+
+    public void testHysteresis() {
+        mGate.markDelivered(NODE, 2, 0);
+        assertEquals(BrightnessSendGate.SUPPRESS_HYSTERESIS, mGate.evaluate(NODE, 4, 60 * MINUTE));
+        assertEquals(BrightnessSendGate.SEND, mGate.evaluate(NODE, 4, 61 * MINUTE));
+
+        // A different level, or the current one, in between starts the confirmations over
+        mGate.markDelivered(NODE, 4, 61 * MINUTE);
+        assertEquals(BrightnessSendGate.SUPPRESS_HYSTERESIS, mGate.evaluate(NODE, 0, 120 * MINUTE));
+        assertEquals(BrightnessSendGate.SUPPRESS_HYSTERESIS, mGate.evaluate(NODE, 1, 121 * MINUTE));
+        assertEquals(BrightnessSendGate.SUPPRESS_DUPLICATE, mGate.evaluate(NODE, 4, 122 * MINUTE));
+        assertEquals(BrightnessSendGate.SUPPRESS_HYSTERESIS, mGate.evaluate(NODE, 1, 123 * MINUTE));
+        assertEquals(BrightnessSendGate.SEND, mGate.evaluate(NODE, 1, 124 * MINUTE));
+        assertEquals(4, mGate.getSuppressedHysteresisCount());
+
+        mGate.setRequiredConfirmations(1);
+        assertEquals(BrightnessSendGate.SEND, mGate.evaluate(NODE, 3, 125 * MINUTE));
+    }
+
+    public void testDwell() {
+        mGate.markDelivered(NODE, 2, 0);
+        mGate.evaluate(NODE, 4, MINUTE);
+        assertEquals(BrightnessSendGate.SUPPRESS_DWELL, mGate.evaluate(NODE, 4, 2 * MINUTE));
+        assertEquals(BrightnessSendGate.SUPPRESS_DWELL, mGate.evaluate(NODE, 4, 15 * MINUTE - 1));
+        assertEquals(BrightnessSendGate.SEND, mGate.evaluate(NODE, 4, 15 * MINUTE));
+        assertEquals(2, mGate.getSuppressedDwellCount());
+
+        // Delivering the same level again doesn't restart the dwell time
+        mGate.markDelivered(NODE, 4, 15 * MINUTE);
+        mGate.markDelivered(NODE, 4, 29 * MINUTE);
+        mGate.evaluate(NODE, 2, 30 * MINUTE);
+        assertEquals(BrightnessSendGate.SEND, mGate.evaluate(NODE, 2, 30 * MINUTE));
+
+        mGate.setMinDwellMillis(0);
+        mGate.markDelivered(NODE, 2, 30 * MINUTE);
+        mGate.evaluate(NODE, 0, 30 * MINUTE);
+        assertEquals(BrightnessSendGate.SEND, mGate.evaluate(NODE, 0, 30 * MINUTE));
+    }
+
+    public void testImmediateSkipsHysteresisAndDwell() {
+        mGate.markDelivered(NODE, 2, 0);
+        assertEquals(BrightnessSendGate.SEND, mGate.evaluate(NODE, 0, MINUTE, true));
+        assertEquals(0, mGate.getSuppressedCount());
+    }
+
+    public void testFineLevelsWithinToleranceAreDuplicates() {
+        mGate.setFineTolerance(8);
+        mGate.markDelivered(NODE, 120, 0);
+        assertEquals(BrightnessSendGate.SUPPRESS_DUPLICATE, mGate.evaluate(NODE, 128, MINUTE, false, true));
+        assertEquals(BrightnessSendGate.SUPPRESS_DUPLICATE, mGate.evaluate(NODE, 112, MINUTE, true, true));
+        // Coarse levels are still compared exactly
+        assertEquals(BrightnessSendGate.SUPPRESS_HYSTERESIS, mGate.evaluate(NODE, 121, MINUTE, false, false));
+    }
+
+    public void testFineLevelsGoThroughHysteresisAndDwell() {
+        mGate.setFineTolerance(8);
+        mGate.markDelivered(NODE, 120, 0);
+        assertEquals(BrightnessSendGate.SUPPRESS_HYSTERESIS, mGate.evaluate(NODE, 140, MINUTE, false, true));
+        // Close to the candidate, which confirms it even though it moved
+        assertEquals(BrightnessSendGate.SUPPRESS_DWELL, mGate.evaluate(NODE, 146, 2 * MINUTE, false, true));
+        assertEquals(BrightnessSendGate.SEND, mGate.evaluate(NODE, 152, 15 * MINUTE, false, true));
+
+        // Too far from the candidate starts over
+        mGate.markDelivered(NODE, 152, 15 * MINUTE);
+        assertEquals(BrightnessSendGate.SUPPRESS_HYSTERESIS, mGate.evaluate(NODE, 200, 40 * MINUTE, false, true));
+        assertEquals(BrightnessSendGate.SUPPRESS_HYSTERESIS, mGate.evaluate(NODE, 220, 41 * MINUTE, false, true));
+        assertEquals(BrightnessSendGate.SEND, mGate.evaluate(NODE, 225, 42 * MINUTE, false, true));
+    }
+
+    public void testStatePerNode() {
+        mGate.markDelivered(NODE, 2, 0);
+        mGate.markDelivered(OTHER_NODE, 4, 0);
+        assertEquals(BrightnessSendGate.SUPPRESS_DUPLICATE, mGate.evaluate(NODE, 2, 60 * MINUTE));
+        assertEquals(BrightnessSendGate.SUPPRESS_HYSTERESIS, mGate.evaluate(OTHER_NODE, 2, 60 * MINUTE));
+        assertEquals(BrightnessSendGate.SUPPRESS_HYSTERESIS, mGate.evaluate(NODE, 0, 61 * MINUTE));
+        // The candidate of the other node doesn't count for this one
+        assertEquals(BrightnessSendGate.SUPPRESS_HYSTERESIS, mGate.evaluate(OTHER_NODE, 0, 61 * MINUTE));
+
+        mGate.reset(NODE);
+        assertEquals(BrightnessSendGate.SEND, mGate.evaluate(NODE, 2, 62 * MINUTE));
+        assertEquals(BrightnessSendGate.SEND, mGate.evaluate(OTHER_NODE, 0, 62 * MINUTE));
+    }
+
+    public void testSendsAreCountedOnce() {
+        assertEquals(BrightnessSendGate.SEND, mGate.evaluate(NODE, 2, 0));
+        assertEquals(BrightnessSendGate.SEND, mGate.evaluate(OTHER_NODE, 2, 0));
+        assertEquals(0, mGate.getSendCount());
+
+        // One level going to both nodes is a single send
+        mGate.markSent();
+        assertEquals(1, mGate.getSendCount());
+        assertEquals(24f, mGate.getSendsPerDay(60 * MINUTE), 0.01f);
+    }
+
+}
@@ -0,0 +1,155 @@
+package com.danvelazco.wear.displaybrightness.core;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for the {@link ContextCollector}
+ */
+public class ContextCollectorTest extends TestCase {
+
+    // Constants
+    private static final long BUDGET_MILLIS = 100;
+
+    // Members
+    private ExecutorService mExecutor;
+    private ContextCollector<String> mCollector;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mExecutor = Executors.newCachedThreadPool();
+        mCollector = new ContextCollector<>(mExecutor);
+        mCollector.setBudgetMillis(BUDGET_MILLIS);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void tearDown() throws Exception {
+        mExecutor.shutdownNow();
+        super.tearDown();
+    }
+
+    public void testReadsEverySource() {
+        ContextCollector.Slot<String, String> echo = mCollector.register("echo",
+                new ContextCollector.Source<String, String>() {
+                    @Override
+                    public String read(String argument) {
+                        return argument;
+                    }
+                }, "default");
+        ContextCollector.Slot<String, Integer> length = mCollector.register("length",
+                new ContextCollector.Source<String, Integer>() {
+                    @Override
+                    public Integer read(String argument) {
+                        return argument.length();
+                    }
+                }, -1);
+
+        ContextCollector.Snapshot snapshot = mCollector.collect("hello");
+        assertEquals("hello", snapshot.get(echo));
+        assertEquals(Integer.valueOf(5), snapshot.get(length));
+        assertTrue(snapshot.isFresh(echo));
+        assertTrue(snapshot.isFresh(length));
+        assertEquals(1, echo.getReadCount());
+        assertEquals(0, echo.getFallbackCount());
+    }
+
+    public void testSlowSourceFallsBackWithinBudget() {
+        final CountDownLatch release = new CountDownLatch(1);
+        ContextCollector.Slot<String, String> slow = mCollector.register("slow",
+                new ContextCollector.Source<String, String>() {
+                    @Override
+                    public String read(String argument) throws Exception {
+                        release.await();
+                        return argument;
+                    }
+                }, "default");
+        ContextCollector.Slot<String, String> fast = mCollector.register("fast",
+                new ContextCollector.Source<String, String>() {
+                    @Override
+                    public String read(String argument) {
+                        return argument;
+                    }
+                }, "default");
+
+        long start = System.nanoTime();
+        ContextCollector.Snapshot snapshot = mCollector.collect("now");
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        release.countDown();
+
+        assertTrue("Took " + elapsedMillis + "ms", elapsedMillis < BUDGET_MILLIS * 5);
+        assertEquals("default", snapshot.get(slow));
+        assertFalse(snapshot.isFresh(slow));
+        assertEquals("now", snapshot.get(fast));
+        assertEquals(1, slow.getTimeoutCount());
+        assertEquals(1, slow.getFallbackCount());
+        assertEquals(0, fast.getTimeoutCount());
+    }
+
+    public void testFallsBackToLastValue() {
+        ContextCollector.Slot<String, String> flaky = mCollector.register("flaky",
+                new ContextCollector.Source<String, String>() {
+                    @Override
+                    public String read(String argument) {
+                        if (argument == null) {
+                            throw new IllegalStateException("Unavailable");
+                        }
+                        return "empty".equals(argument) ? null : argument;
+                    }
+                }, "default");
+
+        assertEquals("default", mCollector.collect(null).get(flaky));
+        assertEquals("first", mCollector.collect("first").get(flaky));
+
+        // Nothing to return and failures both use the last value
+        ContextCollector.Snapshot snapshot = mCollector.collect("empty");
+        assertEquals("first", snapshot.get(flaky));
+        assertFalse(snapshot.isFresh(flaky));
+        assertEquals("first", mCollector.collect(null).get(flaky));
+        assertEquals(3, flaky.getFailureCount());
+        assertEquals(3, flaky.getFallbackCount());
+        assertEquals(0, flaky.getTimeoutCount());
+    }
+
+    public void testLateValueIsCachedForNextCollection() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        ContextCollector.Slot<String, String> late = mCollector.register("late",
+                new ContextCollector.Source<String, String>() {
+                    @Override
+                    public String read(String argument) {
+                        // Ignore the cancellation once the deadline passes, the value only arrives when released
+                        while ("wait".equals(argument)) {
+                            try {
+                                release.await();
+                                break;
+                            } catch (InterruptedException e) {
+                                // Keep waiting
+                            }
+                        }
+                        return argument;
+                    }
+                }, "default");
+
+        assertEquals("default", mCollector.collect("wait").get(late));
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 1000;
+        while (late.getReadCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, late.getReadCount());
+
+        mCollector.setBudgetMillis(0);
+        assertEquals("wait", mCollector.collect("wait").get(late));
+    }
+
+}
@@ -0,0 +1,155 @@
+package com.danvelazco.wear.displaybrightness.core;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.util.List;
+
+/**
+ * Tests for the {@link DecisionJournal}
+ */
+public class DecisionJournalTest extends TestCase {
+
+    // Constants
+    private static final int CAPACITY = 4;
+    private static final long TIME = 1444000000000L;
+
+    // Members
+    private File mFile;
+    private DecisionJournal mJournal;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = File.createTempFile("journal", ".bin");
+        mFile.delete();
+        mJournal = DecisionJournal.open(mFile, CAPACITY);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void tearDown() throws Exception {
+        mJournal.close();
+        mFile.delete();
+        super.tearDown();
+    }
+
+    public void testRoundTrip() {
+        assertTrue(mJournal.read().isEmpty());
+        mJournal.append(TIME, BrightnessDecisionTable.RUNNING, 87, false, 3, 172, 1, 54, true);
+
+        List<DecisionJournal.Entry> entries = mJournal.read();
+        assertEquals(1, entries.size());
+        DecisionJournal.Entry entry = entries.get(0);
+        assertEquals(1, entry.getSequence());
+        assertEquals(TIME, entry.getTimeMillis());
+        assertEquals(BrightnessDecisionTable.RUNNING, entry.getActivityType());
+        assertEquals(87, entry.getConfidence());
+        assertFalse(entry.isDaytime());
+        assertEquals(3, entry.getLevel());
+        assertEquals(172, entry.getFineLevel());
+        assertEquals(1, entry.getReason());
+        assertEquals(54, entry.getBatteryPercent());
+        assertTrue(entry.isSent());
+    }
+
+    public void testWrapsAround() {
+        for (int i = 0; i < 10; i++) {
+            append(i);
+        }
+
+        List<DecisionJournal.Entry> entries = mJournal.read();
+        assertEquals(CAPACITY, entries.size());
+        for (int i = 0; i < CAPACITY; i++) {
+            assertEquals(7 + i, entries.get(i).getSequence());
+            assertEquals(TIME + 6 + i, entries.get(i).getTimeMillis());
+        }
+    }
+
+    public void testSurvivesReopen() throws IOException {
+        for (int i = 0; i < 6; i++) {
+            append(i);
+        }
+        mJournal.close();
+
+        mJournal = DecisionJournal.open(mFile, CAPACITY);
+        assertEquals(CAPACITY, mJournal.read().size());
+        append(6);
+        List<DecisionJournal.Entry> entries = mJournal.read();
+        assertEquals(CAPACITY, entries.size());
+        assertEquals(4, entries.get(0).getSequence());
+        assertEquals(7, entries.get(CAPACITY - 1).getSequence());
+    }
+
+    public void testTornRecordIsSkippedAndOverwritten() throws IOException {
+        for (int i = 0; i < 6; i++) {
+            append(i);
+        }
+        mJournal.close();
+
+        // A crash half way through writing the newest record (sequence 6, second slot)
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.seek(DecisionJournal.HEADER_SIZE + DecisionJournal.RECORD_SIZE + 8);
+        file.writeLong(0x0123456789ABCDEFL);
+        file.close();
+
+        mJournal = DecisionJournal.open(mFile, CAPACITY);
+        List<DecisionJournal.Entry> entries = mJournal.read();
+        assertEquals(3, entries.size());
+        assertEquals(5, entries.get(2).getSequence());
+
+        // Writing resumes where the torn record was
+        append(100);
+        entries = mJournal.read();
+        assertEquals(CAPACITY, entries.size());
+        assertEquals(6, entries.get(CAPACITY - 1).getSequence());
+        assertEquals(TIME + 100, entries.get(CAPACITY - 1).getTimeMillis());
+    }
+
+    public void testOtherFileIsStartedOver() throws IOException {
+        append(0);
+        mJournal.close();
+
+        // Different capacity
+        mJournal = DecisionJournal.open(mFile, CAPACITY * 2);
+        assertTrue(mJournal.read().isEmpty());
+        append(0);
+        mJournal.close();
+
+        // Not a journal at all
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.writeInt(0x12345678);
+        file.close();
+        mJournal = DecisionJournal.open(mFile, CAPACITY * 2);
+        assertTrue(mJournal.read().isEmpty());
+    }
+
+    public void testExportCsv() throws IOException {
+        mJournal.append(TIME, BrightnessDecisionTable.STILL, 100, true, 2, BrightnessDecision.NO_FINE_LEVEL, 0,
+                BrightnessContext.UNKNOWN_BATTERY, false);
+
+        StringWriter writer = new StringWriter();
+        mJournal.exportCsv(writer);
+        String[] lines = writer.toString().split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].startsWith("sequence,"));
+        assertEquals("1," + TIME + ",2015-10-04T23:06:40.000Z," + BrightnessDecisionTable.STILL
+                + ",100,true,2,0,0,-1,false", lines[1]);
+    }
+
+    /**
+     * Append a record whose time is offset by the given value
+     */
+    private void append(int offset) {
+        mJournal.append(TIME + offset, BrightnessDecisionTable.WALKING, 90, true, 4, 0, 0, 80, true);
+    }
+
+}
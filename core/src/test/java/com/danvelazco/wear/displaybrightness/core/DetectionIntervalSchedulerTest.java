@@ -0,0 +1,93 @@
+package com.danvelazco.wear.displaybrightness.core;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the {@link DetectionIntervalScheduler}
+ */
+public class DetectionIntervalSchedulerTest extends TestCase {
+
+    // Constants
+    private static final long MINUTE = 60 * 1000L;
+    private static final long FAR_FROM_TRANSITION = Long.MAX_VALUE;
+
+    // Members
+    private DetectionIntervalScheduler mScheduler;
+    private long mNow;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mScheduler = new DetectionIntervalScheduler();
+        mNow = 1000 * MINUTE;
+    }
+
+    public void testBacksOffWhileStill() {
+        long previous = 0;
+        for (int i = 0; i < 10; i++) {
+            long interval = detect(BrightnessDecisionTable.STILL, FAR_FROM_TRANSITION);
+            assertTrue(interval >= previous);
+            previous = interval;
+        }
+        assertEquals(DetectionIntervalScheduler.DEFAULT_MAX_INTERVAL_MILLIS, previous);
+    }
+
+    public void testShortIntervalWhenMoving() {
+        for (int i = 0; i < 10; i++) {
+            detect(BrightnessDecisionTable.STILL, FAR_FROM_TRANSITION);
+        }
+        assertEquals(DetectionIntervalScheduler.DEFAULT_MOVING_INTERVAL_MILLIS,
+                detect(BrightnessDecisionTable.IN_VEHICLE, FAR_FROM_TRANSITION));
+
+        // Being still again starts from scratch
+        assertEquals(DetectionIntervalScheduler.DEFAULT_INTERVAL_MILLIS,
+                detect(BrightnessDecisionTable.STILL, FAR_FROM_TRANSITION));
+    }
+
+    public void testTiltingDoesNotBreakStillStreak() {
+        for (int i = 0; i < 10; i++) {
+            detect(BrightnessDecisionTable.STILL, FAR_FROM_TRANSITION);
+        }
+        detect(BrightnessDecisionTable.TILTING, FAR_FROM_TRANSITION);
+        assertEquals(DetectionIntervalScheduler.DEFAULT_MAX_INTERVAL_MILLIS,
+                detect(BrightnessDecisionTable.STILL, FAR_FROM_TRANSITION));
+    }
+
+    public void testShortIntervalNearSolarTransition() {
+        for (int i = 0; i < 10; i++) {
+            detect(BrightnessDecisionTable.STILL, FAR_FROM_TRANSITION);
+        }
+        assertEquals(DetectionIntervalScheduler.DEFAULT_TRANSITION_INTERVAL_MILLIS,
+                detect(BrightnessDecisionTable.STILL, 10 * MINUTE));
+    }
+
+    public void testBounds() {
+        mScheduler.setBounds(5 * MINUTE, 15 * MINUTE);
+        assertEquals(5 * MINUTE, detect(BrightnessDecisionTable.RUNNING, FAR_FROM_TRANSITION));
+        for (int i = 0; i < 10; i++) {
+            detect(BrightnessDecisionTable.STILL, FAR_FROM_TRANSITION);
+        }
+        assertEquals(15 * MINUTE, mScheduler.getIntervalMillis());
+    }
+
+    public void testWakeupsInLastHour() {
+        for (int i = 0; i < 100; i++) {
+            detect(BrightnessDecisionTable.RUNNING, FAR_FROM_TRANSITION);
+        }
+        // One detection every two minutes
+        assertEquals(31, mScheduler.getWakeupsInLastHour(mNow - 2 * MINUTE));
+    }
+
+    /**
+     * Detect the activity and move the clock forward by the picked interval
+     */
+    private long detect(int activityType, long millisToSolarTransition) {
+        long interval = mScheduler.onDetection(activityType, millisToSolarTransition, mNow);
+        mNow += interval;
+        return interval;
+    }
+
+}
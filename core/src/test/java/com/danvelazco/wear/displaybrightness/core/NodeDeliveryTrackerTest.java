@@ -0,0 +1,59 @@
+package com.danvelazco.wear.displaybrightness.core;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the {@link NodeDeliveryTracker}
+ */
+public class NodeDeliveryTrackerTest extends TestCase {
+
+    // Constants
+    private static final String NODE_OLD = "old";
+    private static final String NODE_NEW = "new";
+    private static final String NODE_UNKNOWN = "unknown";
+
+    // Members
+    private NodeDeliveryTracker mTracker;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTracker = new NodeDeliveryTracker();
+        mTracker.setMapping(NODE_OLD, NodeDeliveryTracker.COARSE);
+        mTracker.setMapping(NODE_NEW, NodeDeliveryTracker.FINE);
+    }
+
+    public void testMapsPerNode() {
+        assertEquals(2, mTracker.getTargetLevel(NODE_OLD, 2, 120));
+        assertEquals(120, mTracker.getTargetLevel(NODE_NEW, 2, 120));
+        // Until it says what it supports a watch is assumed to only know the coarse levels
+        assertEquals(2, mTracker.getTargetLevel(NODE_UNKNOWN, 2, 120));
+        assertFalse(mTracker.showsFineLevels(NODE_UNKNOWN));
+
+        // Without a fine level every watch shows the coarse one
+        assertEquals(2, mTracker.getTargetLevel(NODE_NEW, 2, BrightnessDecision.NO_FINE_LEVEL));
+        assertTrue(mTracker.showsFineLevels(NODE_NEW));
+        assertFalse(mTracker.showsFineLevels(NODE_OLD));
+
+        mTracker.setMapping(NODE_NEW, null);
+        assertEquals(2, mTracker.getTargetLevel(NODE_NEW, 2, 120));
+    }
+
+    public void testLatencyPerNode() {
+        mTracker.markDelivered(NODE_OLD, 100);
+        mTracker.markDelivered(NODE_OLD, 300);
+        mTracker.markDelivered(NODE_NEW, 20);
+
+        assertEquals(2, mTracker.getDeliveryCount(NODE_OLD));
+        assertEquals(300, mTracker.getLastLatencyMillis(NODE_OLD));
+        assertEquals(200, mTracker.getAverageLatencyMillis(NODE_OLD));
+        assertEquals(1, mTracker.getDeliveryCount(NODE_NEW));
+        assertEquals(20, mTracker.getAverageLatencyMillis(NODE_NEW));
+        assertEquals(0, mTracker.getAverageLatencyMillis(NODE_UNKNOWN));
+        assertEquals(2, mTracker.getNodeIds().size());
+    }
+
+}
@@ -0,0 +1,117 @@
+package com.danvelazco.wear.displaybrightness.core;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests for the {@link PipelineQueue}
+ */
+public class PipelineQueueTest extends TestCase {
+
+    // Constants
+    private static final String ACTIVITY = "activity";
+    private static final String SOLAR = "solar";
+
+    public void testNewerItemSupersedesQueuedOne() throws Exception {
+        PipelineQueue<String> queue = new PipelineQueue<>(4);
+        assertNull(queue.offer("walking", ACTIVITY));
+        assertNull(queue.offer("sunset", SOLAR));
+        assertEquals("walking", queue.offer("running", ACTIVITY));
+
+        assertEquals(2, queue.size());
+        assertEquals("sunset", queue.take());
+        assertEquals("running", queue.take());
+        assertNull(queue.poll());
+        assertEquals(1, queue.getSupersededCount());
+        assertEquals(0, queue.getDroppedCount());
+        assertEquals(3, queue.getOfferedCount());
+    }
+
+    public void testDropsOldestWhenFull() {
+        PipelineQueue<Integer> queue = new PipelineQueue<>(2);
+        assertNull(queue.offer(1, 1));
+        assertNull(queue.offer(2, 2));
+        assertEquals(Integer.valueOf(1), queue.offer(3, 3));
+
+        assertEquals(2, queue.getMaxDepth());
+        assertEquals(1, queue.getDroppedCount());
+        assertEquals(Integer.valueOf(2), queue.poll());
+        assertEquals(Integer.valueOf(3), queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    public void testRetry() throws Exception {
+        PipelineQueue<String> queue = new PipelineQueue<>(3);
+        queue.offer("walking", ACTIVITY);
+        queue.offer("sunset", SOLAR);
+
+        // Goes back in front of the items that came after it
+        String item = queue.take();
+        assertTrue(queue.retry(item, ACTIVITY));
+        assertEquals("walking", queue.take());
+
+        // A newer item of the same kind wins
+        queue.offer("running", ACTIVITY);
+        assertFalse(queue.retry("walking", ACTIVITY));
+        assertEquals("sunset", queue.take());
+        assertEquals("running", queue.take());
+
+        // Never drops a queued item to make room
+        queue.offer("still", ACTIVITY);
+        queue.offer("sunrise", SOLAR);
+        queue.offer("noon", "other");
+        assertFalse(queue.retry("walking", ACTIVITY));
+        assertEquals(3, queue.size());
+        assertEquals(1, queue.getRetriedCount());
+        assertEquals(1, queue.getDroppedCount());
+    }
+
+    public void testWorkerWaitsForItems() throws Exception {
+        final PipelineQueue<String> queue = new PipelineQueue<>(1);
+        final AtomicReference<String> taken = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    taken.set(queue.take());
+                } catch (InterruptedException e) {
+                    // Test fails below
+                }
+                done.countDown();
+            }
+        });
+        worker.start();
+
+        queue.offer("still", ACTIVITY);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals("still", taken.get());
+    }
+
+    public void testInterruptedWorkerTakesNothing() {
+        PipelineQueue<String> queue = new PipelineQueue<>(2);
+        queue.offer("still", ACTIVITY);
+        Thread.currentThread().interrupt();
+        try {
+            queue.take();
+            fail("An interrupted worker took an item");
+        } catch (InterruptedException e) {
+            // Expected
+        }
+        assertFalse(Thread.currentThread().isInterrupted());
+        assertEquals(1, queue.size());
+    }
+
+    public void testProcessingTime() {
+        PipelineQueue<String> queue = new PipelineQueue<>(1);
+        queue.onProcessed(100);
+        queue.onProcessed(300);
+        assertEquals(2, queue.getProcessedCount());
+        assertEquals(300, queue.getLastProcessingMillis());
+        assertEquals(200, queue.getAverageProcessingMillis());
+    }
+
+}
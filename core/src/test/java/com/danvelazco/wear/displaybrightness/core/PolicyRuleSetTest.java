@@ -0,0 +1,169 @@
+package com.danvelazco.wear.displaybrightness.core;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Tests for the {@link PolicyRuleSet} and the {@link PolicyRule} format
+ */
+public class PolicyRuleSetTest extends TestCase {
+
+    // Constants
+    private static final long HOUR = 60 * 60 * 1000L;
+    private static final long DAY = 24 * HOUR;
+    private static final long MONDAY = 1430697600000L; // 2015-05-04 00:00 UTC
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    public void testFirstMatchingRuleWins() {
+        PolicyRuleSet ruleSet = new PolicyRuleSet(Arrays.asList(
+                PolicyRule.parse("watch_battery=0-15 watch_charging=no level=1"),
+                PolicyRule.parse("activity=still phase=night level=0"),
+                PolicyRule.parse("activity=still,walking confidence=60 level=2"),
+                PolicyRule.parse("level=4")), UTC);
+        PolicyInput input = new PolicyInput().setTimeMillis(MONDAY);
+
+        assertEquals(0, ruleSet.evaluate(input.setActivity(BrightnessDecisionTable.STILL, 90).setDaytime(false)));
+        assertEquals(2, ruleSet.evaluate(input.setDaytime(true)));
+        assertEquals(4, ruleSet.evaluate(input.setActivity(BrightnessDecisionTable.WALKING, 50)));
+        assertEquals(4, ruleSet.evaluate(input.setWatchBattery(10, PolicyInput.CHARGING_YES)));
+        assertEquals(1, ruleSet.evaluate(input.setWatchBattery(10, PolicyInput.CHARGING_NO)));
+        assertEquals(3, ruleSet.findRule(input.setWatchBattery(BrightnessContext.UNKNOWN_BATTERY,
+                PolicyInput.CHARGING_UNKNOWN)));
+    }
+
+    public void testTimeWindow() {
+        PolicyRuleSet ruleSet = new PolicyRuleSet(Arrays.asList(
+                PolicyRule.parse("days=sun time=22:00-02:00 level=0"),
+                PolicyRule.parse("days=weekdays level=3")), UTC);
+        PolicyInput input = new PolicyInput();
+
+        assertEquals(0, ruleSet.evaluate(input.setTimeMillis(MONDAY + HOUR)));
+        assertEquals(3, ruleSet.evaluate(input.setTimeMillis(MONDAY + 2 * HOUR)));
+        assertEquals(0, ruleSet.evaluate(input.setTimeMillis(MONDAY + 6 * DAY + 23 * HOUR)));
+        assertEquals(PolicyRuleSet.NO_LEVEL, ruleSet.evaluate(input.setTimeMillis(MONDAY + 5 * DAY)));
+
+        assertEquals(MONDAY + 2 * HOUR, ruleSet.getNextBoundary(MONDAY + HOUR));
+        // Boundaries are kept between the days of a window, like the schedule does
+        assertEquals(MONDAY + 3 * DAY, ruleSet.getNextBoundary(MONDAY + 2 * DAY));
+        assertEquals(MONDAY + 6 * DAY + 22 * HOUR, ruleSet.getNextBoundary(MONDAY + 5 * DAY));
+        assertEquals(MONDAY + 7 * DAY, ruleSet.getNextBoundary(MONDAY + 6 * DAY + 23 * HOUR));
+        assertEquals(PolicyRuleSet.NO_BOUNDARY, new PolicyRuleSet(Arrays.asList(PolicyRule.parse("level=1")), UTC)
+                .getNextBoundary(MONDAY));
+    }
+
+    public void testEmptyRuleSet() {
+        PolicyRuleSet ruleSet = new PolicyRuleSet(new ArrayList<PolicyRule>(), UTC);
+        assertEquals(PolicyRuleSet.NO_LEVEL, ruleSet.evaluate(new PolicyInput()));
+    }
+
+    public void testSameAsCheckingEveryRule() {
+        Random random = new Random(11);
+        for (int count : new int[]{1, 10, 63, 64, 65, 100, 200}) {
+            List<PolicyRule> rules = randomRules(random, count);
+            PolicyRuleSet ruleSet = new PolicyRuleSet(rules, UTC);
+            PolicyInput input = new PolicyInput();
+            for (int i = 0; i < 2000; i++) {
+                randomInput(random, input);
+                int expected = -1;
+                for (int rule = 0; rule < rules.size() && expected < 0; rule++) {
+                    if (rules.get(rule).matches(input, UTC)) {
+                        expected = rule;
+                    }
+                }
+                assertEquals(count + " rules, input " + i, expected, ruleSet.findRule(input));
+            }
+        }
+    }
+
+    public void testFormatRoundTrip() {
+        Random random = new Random(5);
+        for (PolicyRule rule : randomRules(random, 200)) {
+            String formatted = rule.format();
+            assertEquals(formatted, PolicyRule.parse(formatted).format());
+        }
+        assertEquals("activity=on_foot,walking confidence=40 phase=day days=mon,tue,wed,thu,fri time=08:00-09:30 "
+                        + "phone_battery=0-30 phone_charging=no level=3",
+                PolicyRule.parse("  level=3 phone_charging=no phone_battery=0-30 time=08:00-09:30 days=weekdays "
+                        + "phase=day confidence=40 activity=walking,on_foot").format());
+        assertEquals("days=daily time=23:00-07:00 level=0", PolicyRule.parse("time=23:00-07:00 level=0").format());
+    }
+
+    public void testInvalidRules() {
+        for (String invalid : Arrays.asList("activity=still", "activity=flying level=1", "confidence=101 level=1",
+                "phase=dusk level=1", "time=23:00 level=1", "phone_battery=20 level=1", "watch_charging=maybe level=1",
+                "color=red level=1", "still level=1", "level=-1", "level=5", "phone_battery=50-20 level=1",
+                "watch_battery=30-10 level=1", "days=weekdays")) {
+            try {
+                PolicyRule.parse(invalid);
+                fail("Expected " + invalid + " to be rejected");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+        try {
+            new PolicyRule(1).setActivities(BrightnessDecisionTable.STILL, 6);
+            fail("Expected activity type 6 to be rejected");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Rules with a few random conditions each, so some of them overlap
+     */
+    static List<PolicyRule> randomRules(Random random, int count) {
+        List<PolicyRule> rules = new ArrayList<>(count);
+        int[] types = {BrightnessDecisionTable.IN_VEHICLE, BrightnessDecisionTable.ON_BICYCLE,
+                BrightnessDecisionTable.ON_FOOT, BrightnessDecisionTable.STILL, BrightnessDecisionTable.UNKNOWN,
+                BrightnessDecisionTable.TILTING, BrightnessDecisionTable.WALKING, BrightnessDecisionTable.RUNNING};
+        for (int i = 0; i < count; i++) {
+            PolicyRule rule = new PolicyRule(random.nextInt(5));
+            if (random.nextInt(2) == 0) {
+                rule.setActivities(types[random.nextInt(types.length)], types[random.nextInt(types.length)]);
+            }
+            if (random.nextInt(3) == 0) {
+                rule.setMinConfidence(random.nextInt(101));
+            }
+            if (random.nextInt(3) == 0) {
+                rule.setPhase(random.nextInt(2));
+            }
+            if (random.nextInt(4) == 0) {
+                rule.setWindow(1 + random.nextInt(ScheduleRule.EVERY_DAY), random.nextInt(24 * 60),
+                        random.nextInt(24 * 60));
+            }
+            if (random.nextInt(4) == 0) {
+                int min = random.nextInt(101);
+                rule.setPhoneBattery(min, min + random.nextInt(101 - min));
+            }
+            if (random.nextInt(4) == 0) {
+                rule.setPhoneCharging(random.nextInt(2));
+            }
+            if (random.nextInt(4) == 0) {
+                int min = random.nextInt(101);
+                rule.setWatchBattery(min, min + random.nextInt(101 - min));
+            }
+            if (random.nextInt(4) == 0) {
+                rule.setWatchCharging(random.nextInt(2));
+            }
+            rules.add(rule);
+        }
+        return rules;
+    }
+
+    /**
+     * Fill the input with random values, unknown ones included
+     */
+    static void randomInput(Random random, PolicyInput input) {
+        input.setActivity(random.nextInt(BrightnessDecisionTable.ACTIVITY_TYPE_COUNT + 1), random.nextInt(101))
+                .setDaytime(random.nextBoolean())
+                .setTimeMillis(MONDAY + (long) (random.nextDouble() * 14 * DAY))
+                .setPhoneBattery(random.nextInt(102) - 1, random.nextInt(3) - 1)
+                .setWatchBattery(random.nextInt(102) - 1, random.nextInt(3) - 1);
+    }
+
+}
@@ -0,0 +1,61 @@
+package com.danvelazco.wear.displaybrightness.core;
+
+import com.luckycatlabs.sunrisesunset.SunriseSunsetCalculator;
+import junit.framework.TestCase;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Tests for the {@link SolarElevation}
+ */
+public class SolarElevationTest extends TestCase {
+
+    // Constants
+    private static final TimeZone TIME_ZONE = TimeZone.getTimeZone("America/New_York");
+    private static final double LATITUDE = 40.7128d;
+    private static final double LONGITUDE = -74.0060d;
+
+    // Members
+    private SolarElevation mSolarElevation;
+    private Calendar mDate;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSolarElevation = new SolarElevation();
+        mDate = Calendar.getInstance(TIME_ZONE);
+        mDate.set(2015, Calendar.JUNE, 21, 12, 0, 0);
+        mDate.set(Calendar.MILLISECOND, 0);
+    }
+
+    public void testHighestAtSolarNoon() {
+        // Solar noon is a few minutes before 1pm in New York during daylight saving time
+        double highest = -90;
+        for (int minute = 0; minute < 24 * 60; minute += 5) {
+            highest = Math.max(highest, mSolarElevation.getElevation(LATITUDE, LONGITUDE,
+                    mDate.getTimeInMillis() + minute * 60 * 1000L));
+        }
+        // 90 - latitude + axial tilt
+        assertEquals(90 - LATITUDE + 23.44d, highest, 0.2d);
+    }
+
+    public void testMatchesOfficialSunriseAndSunset() {
+        // The calculator takes the elevation of the sun, officially it rises and sets 50 arc minutes below the horizon
+        long sunrise = SunriseSunsetCalculator.getSunrise(LATITUDE, LONGITUDE, TIME_ZONE, mDate, -0.8333d)
+                .getTimeInMillis();
+        long sunset = SunriseSunsetCalculator.getSunset(LATITUDE, LONGITUDE, TIME_ZONE, mDate, -0.8333d)
+                .getTimeInMillis();
+        assertEquals(-0.83d, mSolarElevation.getElevation(LATITUDE, LONGITUDE, sunrise), 0.5d);
+        assertEquals(-0.83d, mSolarElevation.getElevation(LATITUDE, LONGITUDE, sunset), 0.5d);
+    }
+
+    public void testNight() {
+        assertTrue(mSolarElevation.getElevation(LATITUDE, LONGITUDE, mDate.getTimeInMillis() + 12 * 60 * 60 * 1000L)
+                < -18);
+    }
+
+}
@@ -0,0 +1,137 @@
+package com.danvelazco.wear.displaybrightness.core;
+
+import junit.framework.TestCase;
+
+import java.lang.management.ManagementFactory;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Tests for the {@link SolarEventCache}
+ */
+public class SolarEventCacheTest extends TestCase {
+
+    // Constants
+    private static final TimeZone TIME_ZONE = TimeZone.getTimeZone("America/New_York");
+    private static final double LATITUDE = 40.7128d;
+    private static final double LONGITUDE = -74.0060d;
+    private static final double SUNRISE_DEGREES = 15;
+    private static final double SUNSET_DEGREES = 5;
+    private static final int ALLOCATION_RUNS = 20;
+
+    // Members
+    private CountingCalculator mCalculator;
+    private SolarEventCache mCache;
+    private long mNoon;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCalculator = new CountingCalculator();
+        mCache = new SolarEventCache(mCalculator, TIME_ZONE, 4);
+
+        Calendar calendar = Calendar.getInstance(TIME_ZONE);
+        calendar.set(2015, Calendar.JUNE, 21, 12, 0, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        mNoon = calendar.getTimeInMillis();
+    }
+
+    public void testDayAndNight() {
+        assertTrue(mCache.isDaytime(LATITUDE, LONGITUDE, mNoon, SUNRISE_DEGREES, SUNSET_DEGREES));
+        assertFalse(mCache.isDaytime(LATITUDE, LONGITUDE, mNoon + hours(11), SUNRISE_DEGREES, SUNSET_DEGREES));
+        assertFalse(mCache.isDaytime(LATITUDE, LONGITUDE, mNoon - hours(10), SUNRISE_DEGREES, SUNSET_DEGREES));
+    }
+
+    public void testRepeatedLookupsDoNotRecalculate() {
+        mCache.isDaytime(LATITUDE, LONGITUDE, mNoon, SUNRISE_DEGREES, SUNSET_DEGREES);
+        int calculations = mCalculator.mCalls;
+
+        for (int i = 0; i < 1000; i++) {
+            // Small moves within the same cell and times within the same day must hit the cache
+            mCache.isDaytime(LATITUDE + 0.001d, LONGITUDE, mNoon + i * 1000L, SUNRISE_DEGREES, SUNSET_DEGREES);
+        }
+        assertEquals(calculations, mCalculator.mCalls);
+        assertEquals(2000, mCache.getHitCount());
+    }
+
+    public void testRepeatedLookupsDoNotAllocate() {
+        mCache.isDaytime(LATITUDE, LONGITUDE, mNoon, SUNRISE_DEGREES, SUNSET_DEGREES);
+
+        // Allocation counting is a HotSpot extension
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+        long threadId = Thread.currentThread().getId();
+
+        // The first call may allocate while the bean initializes itself
+        allocationBean.getThreadAllocatedBytes(threadId);
+
+        // The counter also sees what the JIT allocates on this thread (e.g. on-stack replacement of the loop) while
+        // it compiles the lookup, so warm up first and only require one run in steady state to be free
+        long allocated = Long.MAX_VALUE;
+        for (int run = 0; run < ALLOCATION_RUNS && allocated > 0; run++) {
+            long before = allocationBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < 1000; i++) {
+                mCache.isDaytime(LATITUDE, LONGITUDE, mNoon + i * 1000L, SUNRISE_DEGREES, SUNSET_DEGREES);
+            }
+            allocated = allocationBean.getThreadAllocatedBytes(threadId) - before;
+        }
+
+        assertEquals(0, allocated);
+    }
+
+    public void testRecalculatesWhenMovingToAnotherCell() {
+        mCache.isDaytime(LATITUDE, LONGITUDE, mNoon, SUNRISE_DEGREES, SUNSET_DEGREES);
+        int calculations = mCalculator.mCalls;
+
+        mCache.isDaytime(LATITUDE + 1, LONGITUDE, mNoon, SUNRISE_DEGREES, SUNSET_DEGREES);
+        assertTrue(mCalculator.mCalls > calculations);
+    }
+
+    public void testEvictsOldDays() {
+        for (int day = 0; day < 10; day++) {
+            mCache.isDaytime(LATITUDE, LONGITUDE, mNoon + hours(24 * day), SUNRISE_DEGREES, SUNSET_DEGREES);
+            // One entry per zenith, previous days are gone
+            assertEquals(2, mCache.size());
+        }
+    }
+
+    public void testPolarNightDefaultsToDaytime() {
+        mCalculator.mNoEvents = true;
+        assertTrue(mCache.isDaytime(LATITUDE, LONGITUDE, mNoon + hours(11), SUNRISE_DEGREES, SUNSET_DEGREES));
+    }
+
+    private static long hours(int hours) {
+        return hours * 60L * 60L * 1000L;
+    }
+
+    /**
+     * {@link SolarEventCache.Calculator} that counts how many times the sunrise/sunset was calculated
+     */
+    private static class CountingCalculator implements SolarEventCache.Calculator {
+
+        int mCalls = 0;
+        boolean mNoEvents = false;
+
+        @Override
+        public long getSunrise(double latitude, double longitude, TimeZone timeZone, Calendar date, double degrees) {
+            mCalls++;
+            return mNoEvents ? SolarEventCache.NO_EVENT
+                    : SolarEventCache.DEFAULT_CALCULATOR.getSunrise(latitude, longitude, timeZone, date, degrees);
+        }
+
+        @Override
+        public long getSunset(double latitude, double longitude, TimeZone timeZone, Calendar date, double degrees) {
+            mCalls++;
+            return mNoEvents ? SolarEventCache.NO_EVENT
+                    : SolarEventCache.DEFAULT_CALCULATOR.getSunset(latitude, longitude, timeZone, date, degrees);
+        }
+
+    }
+
+}
@@ -0,0 +1,28 @@
+package com.danvelazco.wear.displaybrightness.util;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the sequence numbers of the {@link BrightnessSender}
+ */
+public class BrightnessSenderTest extends TestCase {
+
+    /**
+     * The watch keeps the last sequence applied from the phone and discards anything lower as out of order, so a level
+     * from the service after a manual level of the debug screen must have a higher one
+     */
+    public void testServiceLevelAfterDebugLevelIsAccepted() throws InterruptedException {
+        BrightnessSender service = BrightnessSender.getInstance();
+        long lastApplied = service.nextSequence();
+
+        // The debug screen creates its sender when it's opened, later than the process wide one
+        Thread.sleep(10);
+        BrightnessSender debug = new BrightnessSender();
+        long debugSequence = debug.nextSequence();
+        assertTrue(debugSequence > lastApplied);
+        lastApplied = debugSequence;
+
+        assertTrue(service.nextSequence() > lastApplied);
+    }
+
+}
@@ -4,6 +4,7 @@ import android.app.ActionBar;
 import android.app.Activity;
 import android.app.ListFragment;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.os.Build;
 import android.os.Bundle;
 import android.preference.ListPreference;
@@ -13,8 +14,12 @@ import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.Window;
+import com.danvelazco.wear.displaybrightness.core.BrightnessSendGate;
+import com.danvelazco.wear.displaybrightness.shared.AmbientLightFilter;
 import com.danvelazco.wear.displaybrightness.shared.BrightnessLevel;
 import com.danvelazco.wear.displaybrightness.util.ActivityRecognitionHelper;
+import com.danvelazco.wear.displaybrightness.util.AutonomousConfigSender;
+import com.danvelazco.wear.displaybrightness.util.LightSensorConfigSender;
 
 /**
  * @author Daniel Velazco <velazcod@gmail.com>
@@ -38,22 +43,51 @@ public class BrightnessLevelsPreferenceActivity extends Activity {
     public final static String KEY_LEVEL_NIGHT_ON_FOOT = "level_night_on_foot";
     public final static String KEY_LEVEL_UNKNOWN = "level_unknown";
     public final static String KEY_LEVEL_NIGHT_UNKNOWN = "level_night_unknown";
+    public final static String KEY_FAST_DELIVERY = "fast_delivery";
+    public final static String KEY_AUTONOMOUS_MODE = "autonomous_mode";
+    public final static String KEY_SEND_CONFIRMATIONS = "send_confirmations";
+    public final static String KEY_SEND_DWELL_MINUTES = "send_dwell_minutes";
+    public final static String KEY_CONTINUOUS_MODE = "continuous_mode";
+    public final static String KEY_CURVE_NIGHT_LEVEL = "curve_night_level";
+    public final static String KEY_CURVE_DAY_LEVEL = "curve_day_level";
+    public final static String KEY_CURVE_POINTS = "curve_points";
+    public final static String KEY_LIGHT_SENSOR_FUSION = "light_sensor_fusion";
+    public final static String KEY_LIGHT_SENSOR_BATCH_LATENCY = "light_sensor_batch_latency";
+    public final static String KEY_LIGHT_SENSOR_SAMPLES = "light_sensor_samples";
+    public final static String KEY_LIGHT_SENSOR_WEIGHT = "light_sensor_weight";
+    public final static String KEY_ACTIVITY_SMOOTHING_MARGIN = "activity_smoothing_margin";
+    public final static String KEY_SCHEDULE_RULES = "schedule_rules";
+    public final static String KEY_POLICY_RULES = "policy_rules";
 
     // Default values
-    public final static int DEFAULT_LEVEL_DRIVING = BrightnessLevel.HIGHEST;
-    public final static int DEFAULT_LEVEL_NIGHT_DRIVING = BrightnessLevel.LOWEST;
-    public final static int DEFAULT_LEVEL_BICYCLE = BrightnessLevel.HIGHEST;
-    public final static int DEFAULT_LEVEL_NIGHT_BICYCLE = BrightnessLevel.MEDIUM_LOW;
-    public final static int DEFAULT_LEVEL_WALKING = BrightnessLevel.HIGHEST;
-    public final static int DEFAULT_LEVEL_NIGHT_WALKING = BrightnessLevel.MEDIUM;
-    public final static int DEFAULT_LEVEL_RUNNING = BrightnessLevel.HIGHEST;
-    public final static int DEFAULT_LEVEL_NIGHT_RUNNING = BrightnessLevel.MEDIUM;
-    public final static int DEFAULT_LEVEL_STILL = BrightnessLevel.MEDIUM;
-    public final static int DEFAULT_LEVEL_NIGHT_STILL = BrightnessLevel.LOWEST;
-    public final static int DEFAULT_LEVEL_ON_FOOT = BrightnessLevel.HIGHEST;
-    public final static int DEFAULT_LEVEL_NIGHT_ON_FOOT = BrightnessLevel.MEDIUM;
-    public final static int DEFAULT_LEVEL_UNKNOWN = BrightnessLevel.MEDIUM;
-    public final static int DEFAULT_LEVEL_NIGHT_UNKNOWN = BrightnessLevel.MEDIUM_LOW;
+    public final static int DEFAULT_LEVEL_DRIVING = BrightnessLevel.DEFAULT_DRIVING;
+    public final static int DEFAULT_LEVEL_NIGHT_DRIVING = BrightnessLevel.DEFAULT_NIGHT_DRIVING;
+    public final static int DEFAULT_LEVEL_BICYCLE = BrightnessLevel.DEFAULT_BICYCLE;
+    public final static int DEFAULT_LEVEL_NIGHT_BICYCLE = BrightnessLevel.DEFAULT_NIGHT_BICYCLE;
+    public final static int DEFAULT_LEVEL_WALKING = BrightnessLevel.DEFAULT_WALKING;
+    public final static int DEFAULT_LEVEL_NIGHT_WALKING = BrightnessLevel.DEFAULT_NIGHT_WALKING;
+    public final static int DEFAULT_LEVEL_RUNNING = BrightnessLevel.DEFAULT_RUNNING;
+    public final static int DEFAULT_LEVEL_NIGHT_RUNNING = BrightnessLevel.DEFAULT_NIGHT_RUNNING;
+    public final static int DEFAULT_LEVEL_STILL = BrightnessLevel.DEFAULT_STILL;
+    public final static int DEFAULT_LEVEL_NIGHT_STILL = BrightnessLevel.DEFAULT_NIGHT_STILL;
+    public final static int DEFAULT_LEVEL_ON_FOOT = BrightnessLevel.DEFAULT_ON_FOOT;
+    public final static int DEFAULT_LEVEL_NIGHT_ON_FOOT = BrightnessLevel.DEFAULT_NIGHT_ON_FOOT;
+    public final static int DEFAULT_LEVEL_UNKNOWN = BrightnessLevel.DEFAULT_UNKNOWN;
+    public final static int DEFAULT_LEVEL_NIGHT_UNKNOWN = BrightnessLevel.DEFAULT_NIGHT_UNKNOWN;
+    public final static boolean DEFAULT_AUTONOMOUS_MODE = false;
+    public final static int DEFAULT_SEND_CONFIRMATIONS = BrightnessSendGate.DEFAULT_REQUIRED_CONFIRMATIONS;
+    public final static int DEFAULT_SEND_DWELL_MINUTES = (int) (BrightnessSendGate.DEFAULT_MIN_DWELL_MILLIS / 60000);
+    public final static boolean DEFAULT_CONTINUOUS_MODE = false;
+    public final static int DEFAULT_CURVE_NIGHT_LEVEL = BrightnessLevel.LOWEST;
+    public final static int DEFAULT_CURVE_DAY_LEVEL = BrightnessLevel.HIGHEST;
+    public final static String DEFAULT_CURVE_POINTS = "";
+    public final static boolean DEFAULT_LIGHT_SENSOR_FUSION = false;
+    public final static int DEFAULT_LIGHT_SENSOR_BATCH_LATENCY = 30;
+    public final static int DEFAULT_LIGHT_SENSOR_SAMPLES = 16;
+    public final static int DEFAULT_LIGHT_SENSOR_WEIGHT = Math.round(AmbientLightFilter.DEFAULT_SENSOR_WEIGHT * 100);
+    public final static int DEFAULT_ACTIVITY_SMOOTHING_MARGIN = 15;
+    public final static String DEFAULT_SCHEDULE_RULES = "";
+    public final static String DEFAULT_POLICY_RULES = "";
 
     /**
      * {@inheritDoc}
@@ -123,7 +157,7 @@ public class BrightnessLevelsPreferenceActivity extends Activity {
      * activity
      */
     public static class BrightnessLevelsPreferenceFragment extends PreferenceFragment implements
-            Preference.OnPreferenceChangeListener {
+            Preference.OnPreferenceChangeListener, SharedPreferences.OnSharedPreferenceChangeListener {
 
         // Preference items
         private ListPreference mPreferenceDriving;
@@ -211,6 +245,49 @@ public class BrightnessLevelsPreferenceActivity extends Activity {
         public void onResume() {
             super.onResume();
             resetSummaries();
+            getPreferenceManager().getSharedPreferences().registerOnSharedPreferenceChangeListener(this);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onPause() {
+            getPreferenceManager().getSharedPreferences().unregisterOnSharedPreferenceChangeListener(this);
+            super.onPause();
+        }
+
+        /**
+         * Send the light sensor and autonomous mode preferences to the watches once they are saved
+         * <p/>
+         * {@inheritDoc}
+         */
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+            switch (key) {
+                case KEY_LIGHT_SENSOR_FUSION:
+                case KEY_LIGHT_SENSOR_BATCH_LATENCY:
+                case KEY_LIGHT_SENSOR_SAMPLES:
+                case KEY_LIGHT_SENSOR_WEIGHT:
+                    LightSensorConfigSender.send(getActivity());
+                    break;
+                case KEY_AUTONOMOUS_MODE:
+                case KEY_CONTINUOUS_MODE:
+                case KEY_SCHEDULE_RULES:
+                case KEY_POLICY_RULES:
+                    // Once enabled the next detection hands the levels over to the watches, the continuous mode, the
+                    // schedule and the policy rules need the phone
+                    if (sharedPreferences.getBoolean(KEY_AUTONOMOUS_MODE, DEFAULT_AUTONOMOUS_MODE)
+                            && !sharedPreferences.getBoolean(KEY_CONTINUOUS_MODE, DEFAULT_CONTINUOUS_MODE)
+                            && sharedPreferences.getString(KEY_SCHEDULE_RULES, DEFAULT_SCHEDULE_RULES).trim()
+                            .isEmpty()
+                            && sharedPreferences.getString(KEY_POLICY_RULES, DEFAULT_POLICY_RULES).trim().isEmpty()) {
+                        AutonomousConfigSender.reset();
+                    } else {
+                        AutonomousConfigSender.disable(getActivity());
+                    }
+                    break;
+            }
         }
 
         /**
@@ -2,19 +2,31 @@ package com.danvelazco.wear.displaybrightness;
 
 import android.app.ActionBar;
 import android.app.Activity;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.Window;
 import android.widget.Button;
+import android.widget.TextView;
+import android.widget.Toast;
+import com.danvelazco.wear.displaybrightness.core.ActivitySmoother;
+import com.danvelazco.wear.displaybrightness.service.ActivityRecognitionIntentService;
 import com.danvelazco.wear.displaybrightness.shared.BrightnessLevel;
+import com.danvelazco.wear.displaybrightness.shared.BrightnessPayload;
+import com.danvelazco.wear.displaybrightness.util.BrightnessSender;
+import com.danvelazco.wear.displaybrightness.util.DecisionRecorder;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.wearable.PutDataMapRequest;
-import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
+import java.io.File;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+
 /**
  * @author Daniel Velazco <velazcod@gmail.com>
  * @since 9/15/14
@@ -24,9 +36,14 @@ public class DebugActivity extends Activity implements View.OnClickListener, Goo
 
     // Constants
     private static final String LOG_TAG = "DebugActivity";
+    private static final String DECISIONS_EXPORT_FILENAME = "decisions.csv";
 
     // Members
     private GoogleApiClient mGoogleApiClient;
+    private int mConnectCount = 0;
+
+    // Manual levels use their own sender, the process wide one listens for acknowledgements on the service's client
+    private final BrightnessSender mSender = new BrightnessSender();
 
     // Views
     private Button mBtnLowest;
@@ -34,6 +51,7 @@ public class DebugActivity extends Activity implements View.OnClickListener, Goo
     private Button mBtnMedium;
     private Button mBtnMediumHigh;
     private Button mBtnHighest;
+    private TextView mTxtLatency;
 
     /**
      * {@inheritDoc}
@@ -72,6 +90,11 @@ public class DebugActivity extends Activity implements View.OnClickListener, Goo
         mBtnHighest = (Button) findViewById(R.id.btn_level_highest);
         mBtnHighest.setOnClickListener(this);
 
+        findViewById(R.id.btn_export_decisions).setOnClickListener(this);
+
+        mTxtLatency = (TextView) findViewById(R.id.txt_latency);
+        mTxtLatency.setOnClickListener(this);
+
         mGoogleApiClient = new GoogleApiClient.Builder(this)
                 .addApi(Wearable.API)
                 .addConnectionCallbacks(this)
@@ -82,6 +105,7 @@ public class DebugActivity extends Activity implements View.OnClickListener, Goo
     @Override
     protected void onResume() {
         super.onResume();
+        showLatency();
 
         if (mGoogleApiClient != null && !mGoogleApiClient.isConnected()) {
             mGoogleApiClient.connect();
@@ -131,6 +155,12 @@ public class DebugActivity extends Activity implements View.OnClickListener, Goo
             case R.id.btn_level_highest:
                 sendBrightnessLevelToWatch(BrightnessLevel.HIGHEST);
                 break;
+            case R.id.btn_export_decisions:
+                exportDecisions();
+                break;
+            case R.id.txt_latency:
+                showLatency();
+                break;
         }
     }
 
@@ -139,6 +169,8 @@ public class DebugActivity extends Activity implements View.OnClickListener, Goo
      */
     @Override
     public void onConnected(Bundle bundle) {
+        // The ack listener has to be added again on every connection
+        mConnectCount++;
         if (mGoogleApiClient != null && mGoogleApiClient.isConnected()) {
             mBtnLowest.setEnabled(true);
             mBtnMediumLow.setEnabled(true);
@@ -170,6 +202,58 @@ public class DebugActivity extends Activity implements View.OnClickListener, Goo
         // Not implemented
     }
 
+    /**
+     * Show the latency percentiles of every stage of the levels sent by the app, the delivery state of every watch
+     * and of its light sensor, the state of the service's queue and how often the activity and the level change, tap
+     * to refresh. The process wide {@link BrightnessSender} is only read here, never used to send.
+     */
+    private void showLatency() {
+        BrightnessSender sender = BrightnessSender.getInstance();
+        ActivitySmoother smoother = ActivityRecognitionIntentService.getActivitySmoother();
+        long now = SystemClock.elapsedRealtime();
+        StringBuilder lightSensors = new StringBuilder();
+        for (Map.Entry<String, String> entry : sender.getLightSensorStats().entrySet()) {
+            lightSensors.append(entry.getKey()).append(": ").append(entry.getValue()).append("\n\n");
+        }
+        mTxtLatency.setText(sender.getTraceStats() + "\n\n" + sender.getDeliveryTracker() + "\n\n" + lightSensors
+                + ActivityRecognitionIntentService.getQueue() + "\n\n" + smoother
+                + String.format(Locale.US, "\nProfile flips/day: %.1f (%.1f unsmoothed), sends/day: %.1f",
+                smoother.getFlipsPerDay(now), smoother.getRawFlipsPerDay(now),
+                ActivityRecognitionIntentService.getSendGate().getSendsPerDay(now)));
+    }
+
+    /**
+     * Export the decision journal as CSV to the app's external files, where it can be pulled with adb or a file
+     * manager
+     */
+    private void exportDecisions() {
+        final File directory = getExternalFilesDir(null);
+        if (directory == null) {
+            Toast.makeText(this, R.string.msg_export_decisions_failed, Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        final File file = new File(directory, DECISIONS_EXPORT_FILENAME);
+        final DecisionRecorder recorder = DecisionRecorder.getInstance(this);
+        new AsyncTask<Void, Void, Boolean>() {
+            @Override
+            protected Boolean doInBackground(Void... params) {
+                return recorder.exportCsv(file);
+            }
+
+            @Override
+            protected void onPostExecute(Boolean exported) {
+                if (exported) {
+                    Toast.makeText(DebugActivity.this, getString(R.string.msg_export_decisions_done, file),
+                            Toast.LENGTH_LONG).show();
+                } else {
+                    Toast.makeText(DebugActivity.this, R.string.msg_export_decisions_failed,
+                            Toast.LENGTH_SHORT).show();
+                }
+            }
+        }.execute();
+    }
+
     /**
      * Use the {@link GoogleApiClient} to send a data item to the wearable using the Wear Data API
      *
@@ -179,10 +263,8 @@ public class DebugActivity extends Activity implements View.OnClickListener, Goo
     private void sendBrightnessLevelToWatch(int level) {
         Log.d(LOG_TAG, "sendBrightnessLevelToWatch(level=" + level + ")");
         if (mGoogleApiClient != null && mGoogleApiClient.isConnected()) {
-            PutDataMapRequest dataMap = PutDataMapRequest.create(BrightnessLevel.PATH_BRIGHTNESS);
-            dataMap.getDataMap().putInt(BrightnessLevel.FIELD_NAME, level);
-            PutDataRequest request = dataMap.asPutDataRequest();
-            Wearable.DataApi.putDataItem(mGoogleApiClient, request);
+            mSender.send(mGoogleApiClient, mConnectCount, Collections.<String>emptyList(), level,
+                    BrightnessPayload.REASON_MANUAL, null);
             Log.d(LOG_TAG, "Data sent to watch");
         }
     }
@@ -0,0 +1,25 @@
+package com.danvelazco.wear.displaybrightness.receiver;
+
+import android.content.Context;
+import android.content.Intent;
+import android.support.v4.content.WakefulBroadcastReceiver;
+import com.danvelazco.wear.displaybrightness.service.ActivityRecognitionIntentService;
+
+/**
+ * Broadcast receiver for the {@link com.danvelazco.wear.displaybrightness.util.SolarTransitionAlarm}, hands the alarm
+ * over to the {@link ActivityRecognitionIntentService} while holding a wake lock so the new level is sent right away
+ */
+public class SolarTransitionReceiver extends WakefulBroadcastReceiver {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        Intent serviceIntent = new Intent(context, ActivityRecognitionIntentService.class);
+        serviceIntent.setAction(ActivityRecognitionIntentService.ACTION_SOLAR_TRANSITION);
+        serviceIntent.putExtras(intent);
+        startWakefulService(context, serviceIntent);
+    }
+
+}
@@ -1,291 +1,688 @@
 package com.danvelazco.wear.displaybrightness.service;
 
-import android.app.IntentService;
+import android.app.Service;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.location.Location;
-import android.os.Bundle;
+import android.os.IBinder;
+import android.os.SystemClock;
 import android.util.Log;
 import com.danvelazco.wear.displaybrightness.BrightnessLevelsPreferenceActivity;
+import com.danvelazco.wear.displaybrightness.core.ActivitySmoother;
+import com.danvelazco.wear.displaybrightness.core.BrightnessContext;
+import com.danvelazco.wear.displaybrightness.core.BrightnessDecision;
+import com.danvelazco.wear.displaybrightness.core.BrightnessEngine;
+import com.danvelazco.wear.displaybrightness.core.BrightnessPipeline;
+import com.danvelazco.wear.displaybrightness.core.BrightnessSchedule;
+import com.danvelazco.wear.displaybrightness.core.BrightnessSendGate;
+import com.danvelazco.wear.displaybrightness.core.DetectionIntervalScheduler;
+import com.danvelazco.wear.displaybrightness.core.NodeDeliveryTracker;
+import com.danvelazco.wear.displaybrightness.core.PipelineQueue;
+import com.danvelazco.wear.displaybrightness.core.PolicyInput;
+import com.danvelazco.wear.displaybrightness.core.SolarEventCache;
+import com.danvelazco.wear.displaybrightness.receiver.SolarTransitionReceiver;
 import com.danvelazco.wear.displaybrightness.shared.BrightnessLevel;
-import com.google.android.gms.common.ConnectionResult;
+import com.danvelazco.wear.displaybrightness.shared.BrightnessPayload;
+import com.danvelazco.wear.displaybrightness.shared.LatencyTrace;
+import com.danvelazco.wear.displaybrightness.util.ActivityRecognitionHelper;
+import com.danvelazco.wear.displaybrightness.util.AutonomousConfigSender;
+import com.danvelazco.wear.displaybrightness.util.BrightnessContextCollector;
+import com.danvelazco.wear.displaybrightness.util.BrightnessLevelPreferences;
+import com.danvelazco.wear.displaybrightness.util.BrightnessSender;
+import com.danvelazco.wear.displaybrightness.util.DecisionRecorder;
+import com.danvelazco.wear.displaybrightness.util.SolarTransitionAlarm;
+import com.danvelazco.wear.displaybrightness.util.WearableConnectionManager;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.location.ActivityRecognition;
 import com.google.android.gms.location.ActivityRecognitionResult;
 import com.google.android.gms.location.DetectedActivity;
-import com.google.android.gms.location.LocationServices;
-import com.google.android.gms.wearable.PutDataMapRequest;
-import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.NodeApi;
 import com.google.android.gms.wearable.Wearable;
-import com.luckycatlabs.sunrisesunset.SunriseSunsetCalculator;
 
-import java.util.Calendar;
-import java.util.TimeZone;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Intent service used by the {@link ActivityRecognition#API} to receive the current {@link DetectedActivity} the user
- * is doing at the moment.
+ * Service used by the {@link ActivityRecognition#API} to receive the current {@link DetectedActivity} the user is doing
+ * at the moment.
  * <p/>
- * When this {@link IntentService} starts, we fetch the {@link DetectedActivity} via {@link #onHandleIntent(Intent)},
- * determine the user's last known location using the {@link com.google.android.gms.location.FusedLocationProviderApi#getLastLocation(GoogleApiClient)},
+ * Every intent becomes a job in a {@link PipelineQueue} drained by a single worker thread. A new activity result
+ * supersedes the one still waiting in the queue, only the latest matters, and when the queue is full the oldest job is
+ * dropped, so a burst of detections never piles up work. The worker does each job from start to end: it holds a
+ * connected client until the job's send is complete, i.e. every watch acknowledged the level or it was put on the data
+ * layer, see {@link BrightnessSender.Callback#onCompleted()}. The service only stops once nothing is queued and every
+ * send is complete. The worker of a destroyed service stops taking jobs right away, and the worker of the next one
+ * waits for it to finish the job it's on, so there's never more than one job running. A job that can't get a
+ * connected client in time is queued again, up to {@link #MAX_CONNECT_ATTEMPTS} times, unless a newer job of the same
+ * kind came in meanwhile. The class keeps its name so the {@link android.app.PendingIntent}s already registered with
+ * Play Services still find it.
+ * <p/>
+ * For each job we smooth the probable {@link DetectedActivity}s with the {@link ActivitySmoother}, let the {@link
+ * BrightnessContextCollector} read the user's last known location and the battery level within its latency budget,
  * calculate the user's sunrise/sunset times, and determine the proper {@link BrightnessLevel} and send it to the
- * wearable using the Data API.
+ * wearable using the Data API. A level is sent even when the location is unknown.
+ * <p/>
+ * The decision itself is made by the {@link BrightnessEngine}, this service only turns the Play Services results into
+ * a {@link BrightnessContext} and delivers the resulting level. Every stage is stamped in a {@link LatencyTrace} that
+ * travels with the level, see {@link BrightnessSender#getTraceStats()}.
+ * <p/>
+ * The service also handles {@link #ACTION_SOLAR_TRANSITION}, sent by the {@link SolarTransitionAlarm} at sunrise and
+ * sunset, to push the new day or night level without waiting for the next activity detection. The same alarm fires
+ * when one of the user's {@link BrightnessSchedule} time windows starts or ends. In the autonomous mode the watches
+ * switch between day and night on their own and are only told about new activities, see {@link
+ * AutonomousConfigSender}.
+ * <p/>
+ * The {@link GoogleApiClient} is owned by the {@link WearableConnectionManager} so it stays connected between
+ * activity detections.
  */
-public class ActivityRecognitionIntentService extends IntentService implements GoogleApiClient.ConnectionCallbacks,
-        GoogleApiClient.OnConnectionFailedListener {
+public class ActivityRecognitionIntentService extends Service {
 
     // Constants
     private static final String LOG_TAG = "ActivityRecognitionIS";
+    private static final long CONNECT_TIMEOUT_SECONDS = 30;
+    private static final int MAX_CONNECT_ATTEMPTS = 3;
+    private static final long NODES_TIMEOUT_SECONDS = 10;
+    private static final String KEY_ACTIVITY = "activity";
 
-    // Members
-    private GoogleApiClient mGoogleApiClient;
-    private SharedPreferences mSharedPreferencesBrightnessLevels;
+    // Last smoothed activity, kept in its own file so writing it doesn't wake up the preference listeners
+    private static final String KEY_SMOOTHER_PREF_FILENAME = "activity_smoother";
+    private static final String KEY_SMOOTHED_ACTIVITY = "activity_type";
+    private static final String KEY_SMOOTHED_CONFIDENCE = "confidence";
+    private static final String KEY_SMOOTHED_TIME = "time";
+
+    /**
+     * Action used when the sun rises or sets, see {@link SolarTransitionAlarm}
+     */
+    public static final String ACTION_SOLAR_TRANSITION = "com.danvelazco.wear.displaybrightness.SOLAR_TRANSITION";
 
-    // Pending data
-    private DetectedActivity mDetectedActivity = null;
-    private Location mCurrentLocation = null;
-    private int mPendingLevelToSend = -1;
+    // Sunrise/sunset times only change once per day, keep the engine and its cache for as long as the process lives
+    private static final BrightnessEngine sBrightnessEngine = new BrightnessEngine();
+    private static final BrightnessPipeline sBrightnessPipeline = new BrightnessPipeline(sBrightnessEngine);
+
+    // Brightness level preferences compiled into a table, only rebuilt when the preferences change
+    private static BrightnessLevelPreferences sBrightnessLevelPreferences;
+
+    // Last level delivered to each watch, used to avoid sending duplicates or flipping levels back and forth
+    private static final BrightnessSendGate sSendGate = new BrightnessSendGate();
+
+    // Confidences of the recent detections, so a single uncertain one doesn't flip the profile. Starts from the last
+    // smoothed activity when the process is restarted.
+    private static final ActivitySmoother sActivitySmoother = new ActivitySmoother();
+    private static boolean sActivitySmootherRestored = false;
+
+    // Whether the watches were in the autonomous mode on the last job
+    private static boolean sAutonomous = false;
+
+    // Jobs waiting for the worker, kept with their statistics for as long as the process lives
+    private static final PipelineQueue<Job> sQueue = new PipelineQueue<>(PipelineQueue.DEFAULT_CAPACITY);
+
+    // Worker of the newest service instance, guarded by the class
+    private static Thread sWorker;
 
     /**
-     * Constructor
+     * An intent waiting for the worker
      */
-    public ActivityRecognitionIntentService() {
-        super(LOG_TAG);
+    private static class Job {
+
+        final Intent mIntent;
+        final int mStartId;
+        final String mKey;
+        final LatencyTrace mTrace = new LatencyTrace();
+        int mConnectAttempts = 0;
+
+        Job(Intent intent, int startId) {
+            mIntent = intent;
+            mStartId = startId;
+            // Every activity result supersedes the previous one, solar transitions only supersede each other
+            mKey = intent.getAction() != null ? intent.getAction() : KEY_ACTIVITY;
+            mTrace.stamp(LatencyTrace.STAGE_INTENT_RECEIVED);
+        }
+
     }
 
+    // Members
+    private WearableConnectionManager mConnectionManager;
+    private BrightnessSender mSender;
+    private BrightnessContextCollector mContextCollector;
+    private DecisionRecorder mDecisionRecorder;
+    private SharedPreferences mSharedPreferences;
+    private SharedPreferences mSmootherPreferences;
+    private Thread mWorker;
+
+    // Sends not complete yet and the newest start handled, guarded by the service
+    private int mPendingSendCount = 0;
+    private int mLastStartId = 0;
+
+    // Only used by the worker, filled in again for every decision
+    private final PolicyInput mPolicyInput = new PolicyInput();
+
+    // Only used by the worker, whether the current job still holds the client or handed it over to its send
+    private boolean mHoldingClient = false;
+
     @Override
     public void onCreate() {
         super.onCreate();
         Log.d(LOG_TAG, "onCreate()");
 
-        mSharedPreferencesBrightnessLevels = getSharedPreferences(BrightnessLevelsPreferenceActivity.KEY_PREF_FILENAME,
+        mSharedPreferences = getSharedPreferences(BrightnessLevelsPreferenceActivity.KEY_PREF_FILENAME,
                 MODE_MULTI_PROCESS);
+        mSmootherPreferences = getSharedPreferences(KEY_SMOOTHER_PREF_FILENAME, MODE_PRIVATE);
+        synchronized (ActivityRecognitionIntentService.class) {
+            if (sBrightnessLevelPreferences == null) {
+                sBrightnessLevelPreferences = new BrightnessLevelPreferences(mSharedPreferences);
+            }
+            if (!sActivitySmootherRestored) {
+                restoreActivitySmoother();
+                sActivitySmootherRestored = true;
+            }
+        }
 
-        mGoogleApiClient = new GoogleApiClient.Builder(this)
-                .addApi(Wearable.API)
-                .addApi(LocationServices.API)
-                .addConnectionCallbacks(this)
-                .addOnConnectionFailedListener(this)
-                .build();
-        mGoogleApiClient.connect();
+        mConnectionManager = WearableConnectionManager.getInstance(this);
+        mSender = BrightnessSender.getInstance();
+        mSender.setPreferences(getSharedPreferences(BrightnessSender.PREF_FILENAME, MODE_PRIVATE));
+        mContextCollector = BrightnessContextCollector.getInstance(this);
+        mDecisionRecorder = DecisionRecorder.getInstance(this);
+
+        synchronized (ActivityRecognitionIntentService.class) {
+            final Thread previousWorker = sWorker;
+            mWorker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    awaitWorker(previousWorker);
+                    runWorker();
+                }
+            }, LOG_TAG);
+            sWorker = mWorker;
+        }
+        mWorker.start();
     }
 
     /**
+     * Queue the intent for the worker, never blocks the main thread
+     * <p/>
      * {@inheritDoc}
      */
     @Override
-    public void onConnected(Bundle bundle) {
-        if (mGoogleApiClient != null && mGoogleApiClient.isConnected()) {
-            if ((LocationServices.FusedLocationApi.getLastLocation(mGoogleApiClient) != null)
-                    && (mPendingLevelToSend == -1)) {
-                mCurrentLocation = LocationServices.FusedLocationApi.getLastLocation(mGoogleApiClient);
-
-                // Synchronize the activity detection and the user's location before sending data to wearable
-                if (mDetectedActivity != null) {
-                    determineBrightnessLevelBasedOnData();
-                }
-            }
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent == null) {
+            stopIfIdle(startId);
+            return START_NOT_STICKY;
+        }
 
-            // If the client is connected and we have pending data to be sent, simply send it
-            if (mPendingLevelToSend != -1) {
-                sendBrightnessLevelToWatch(mPendingLevelToSend);
-            }
+        Job job = new Job(intent, startId);
+        Job discarded = sQueue.offer(job, job.mKey);
+        if (discarded != null) {
+            Log.d(LOG_TAG, "Discarded a queued job " + sQueue);
+            release(discarded);
         }
+        return START_NOT_STICKY;
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public void onConnectionSuspended(int i) {
-        // Not implemented
+    public void onDestroy() {
+        Log.d(LOG_TAG, "onDestroy() " + sQueue);
+        mWorker.interrupt();
+        super.onDestroy();
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public void onConnectionFailed(ConnectionResult connectionResult) {
-        // Not implemented
+    public IBinder onBind(Intent intent) {
+        return null;
     }
 
     /**
-     * {@inheritDoc}
+     * @return {@link PipelineQueue} in front of the worker, to read its statistics
      */
-    @Override
-    protected void onHandleIntent(Intent intent) {
-        Log.d(LOG_TAG, "onHandleIntent()");
-        ActivityRecognitionResult result = ActivityRecognitionResult.extractResult(intent);
-        if (result != null) {
-            DetectedActivity detectedActivity = result.getMostProbableActivity();
-            if (detectedActivity != null) {
-                Log.d(LOG_TAG, "Detected activity: " + detectedActivity.toString());
-                mDetectedActivity = detectedActivity;
-
-                // Synchronize the activity detection and the user's location before sending data to wearable
-                if (mCurrentLocation != null) {
-                    determineBrightnessLevelBasedOnData();
+    public static PipelineQueue<?> getQueue() {
+        return sQueue;
+    }
+
+    /**
+     * @return {@link ActivitySmoother} the detections go through, to read its statistics
+     */
+    public static ActivitySmoother getActivitySmoother() {
+        return sActivitySmoother;
+    }
+
+    /**
+     * @return {@link BrightnessSendGate} deciding which levels reach the watches, to read its statistics
+     */
+    public static BrightnessSendGate getSendGate() {
+        return sSendGate;
+    }
+
+    /**
+     * Wait for the worker of a destroyed instance to finish its job. Waits even if interrupted, the interrupt is kept
+     * so the worker ends right after.
+     *
+     * @param worker
+     *         {@link Thread} worker of the previous instance, or null
+     */
+    private static void awaitWorker(Thread worker) {
+        if (worker == null) {
+            return;
+        }
+        boolean interrupted = false;
+        while (worker.isAlive()) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Loop of the worker thread, one job at a time until the service is destroyed
+     */
+    private void runWorker() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Job job;
+            try {
+                job = sQueue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            long start = SystemClock.elapsedRealtime();
+            boolean done = true;
+            try {
+                done = handleJob(job);
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, "Job failed", e);
+            } finally {
+                if (done) {
+                    release(job);
                 }
+                sQueue.onProcessed(SystemClock.elapsedRealtime() - start);
+                Log.d(LOG_TAG, "Job done " + sQueue);
+                stopIfIdle(job.mStartId);
             }
         }
     }
 
     /**
-     * Disconnect all connected clients
+     * Stop the service if nothing is queued and every send is complete, unless it was started again after the newest
+     * start handled so far
+     *
+     * @param startId
+     *         {@link int} start of the last job handled
      */
-    private void disconnectAll() {
-        if (mGoogleApiClient != null && mGoogleApiClient.isConnected()) {
-            mGoogleApiClient.disconnect();
-            mGoogleApiClient = null;
+    private synchronized void stopIfIdle(int startId) {
+        mLastStartId = Math.max(mLastStartId, startId);
+        if (sQueue.isEmpty() && mPendingSendCount == 0) {
+            stopSelf(mLastStartId);
         }
     }
 
     /**
-     * Determine the brightness level that will be set on the watch based on the received data (Detected activity and
-     * last known location.
+     * Called on the worker right before a level is sent, the send takes over the job's hold on the client
      */
-    private void determineBrightnessLevelBasedOnData() {
-        Log.d(LOG_TAG, "determineBrightnessLevelBasedOnData()");
+    private void onSendStarted() {
+        synchronized (this) {
+            mPendingSendCount++;
+        }
+        mHoldingClient = false;
+    }
 
-        boolean isDaytime = isDaytime();
-        Log.d(LOG_TAG, "It's " + (isDaytime ? "day time" : "night time") + " time");
-
-        String brightnessLevelPrefKey;
-        String defaultValue;
-        switch (mDetectedActivity.getType()) {
-            case DetectedActivity.IN_VEHICLE:
-                Log.d(LOG_TAG, "Vehicle");
-                brightnessLevelPrefKey = isDaytime ? BrightnessLevelsPreferenceActivity.KEY_LEVEL_DRIVING :
-                        BrightnessLevelsPreferenceActivity.KEY_LEVEL_NIGHT_DRIVING;
-                defaultValue = isDaytime ? Integer.toString(BrightnessLevelsPreferenceActivity.DEFAULT_LEVEL_DRIVING) :
-                        Integer.toString(BrightnessLevelsPreferenceActivity.DEFAULT_LEVEL_NIGHT_DRIVING);
-                break;
-            case DetectedActivity.ON_BICYCLE:
-                Log.d(LOG_TAG, "On bicycle");
-                brightnessLevelPrefKey = isDaytime ? BrightnessLevelsPreferenceActivity.KEY_LEVEL_ON_BICYCLE :
-                        BrightnessLevelsPreferenceActivity.KEY_LEVEL_NIGHT_ON_BICYCLE;
-                defaultValue = isDaytime ? Integer.toString(BrightnessLevelsPreferenceActivity.DEFAULT_LEVEL_BICYCLE) :
-                        Integer.toString(BrightnessLevelsPreferenceActivity.DEFAULT_LEVEL_NIGHT_BICYCLE);
-                break;
-            case DetectedActivity.WALKING:
-                Log.d(LOG_TAG, "Walking");
-                brightnessLevelPrefKey = isDaytime ? BrightnessLevelsPreferenceActivity.KEY_LEVEL_WALKING :
-                        BrightnessLevelsPreferenceActivity.KEY_LEVEL_NIGHT_WALKING;
-                defaultValue = isDaytime ? Integer.toString(BrightnessLevelsPreferenceActivity.DEFAULT_LEVEL_WALKING) :
-                        Integer.toString(BrightnessLevelsPreferenceActivity.DEFAULT_LEVEL_NIGHT_WALKING);
-                break;
-            case DetectedActivity.RUNNING:
-                Log.d(LOG_TAG, "Running");
-                brightnessLevelPrefKey = isDaytime ? BrightnessLevelsPreferenceActivity.KEY_LEVEL_RUNNING :
-                        BrightnessLevelsPreferenceActivity.KEY_LEVEL_NIGHT_RUNNING;
-                defaultValue = isDaytime ? Integer.toString(BrightnessLevelsPreferenceActivity.DEFAULT_LEVEL_RUNNING) :
-                        Integer.toString(BrightnessLevelsPreferenceActivity.DEFAULT_LEVEL_NIGHT_RUNNING);
-                break;
-            case DetectedActivity.STILL:
-                Log.d(LOG_TAG, "Still");
-                brightnessLevelPrefKey = isDaytime ? BrightnessLevelsPreferenceActivity.KEY_LEVEL_STILL :
-                        BrightnessLevelsPreferenceActivity.KEY_LEVEL_NIGHT_STILL;
-                defaultValue = isDaytime ? Integer.toString(BrightnessLevelsPreferenceActivity.DEFAULT_LEVEL_STILL) :
-                        Integer.toString(BrightnessLevelsPreferenceActivity.DEFAULT_LEVEL_NIGHT_STILL);
-                break;
-            case DetectedActivity.TILTING:
-            case DetectedActivity.ON_FOOT:
-                Log.d(LOG_TAG, "On foot");
-                brightnessLevelPrefKey = isDaytime ? BrightnessLevelsPreferenceActivity.KEY_LEVEL_ON_FOOT :
-                        BrightnessLevelsPreferenceActivity.KEY_LEVEL_NIGHT_ON_FOOT;
-                defaultValue = isDaytime ? Integer.toString(BrightnessLevelsPreferenceActivity.DEFAULT_LEVEL_ON_FOOT) :
-                        Integer.toString(BrightnessLevelsPreferenceActivity.DEFAULT_LEVEL_NIGHT_ON_FOOT);
-                break;
-            case DetectedActivity.UNKNOWN:
-                Log.d(LOG_TAG, "Unknown");
-                brightnessLevelPrefKey = isDaytime ? BrightnessLevelsPreferenceActivity.KEY_LEVEL_UNKNOWN :
-                        BrightnessLevelsPreferenceActivity.KEY_LEVEL_NIGHT_UNKNOWN;
-                defaultValue = isDaytime ? Integer.toString(BrightnessLevelsPreferenceActivity.DEFAULT_LEVEL_UNKNOWN) :
-                        Integer.toString(BrightnessLevelsPreferenceActivity.DEFAULT_LEVEL_NIGHT_UNKNOWN);
-                break;
-            default:
-                Log.d(LOG_TAG, "I have no idea what I'm doing");
-                brightnessLevelPrefKey = isDaytime ? BrightnessLevelsPreferenceActivity.KEY_LEVEL_UNKNOWN :
-                        BrightnessLevelsPreferenceActivity.KEY_LEVEL_NIGHT_UNKNOWN;
-                defaultValue = isDaytime ? Integer.toString(BrightnessLevelsPreferenceActivity.DEFAULT_LEVEL_UNKNOWN) :
-                        Integer.toString(BrightnessLevelsPreferenceActivity.DEFAULT_LEVEL_NIGHT_UNKNOWN);
-                break;
+    /**
+     * Called from any thread once a send is complete, releases its hold on the client
+     */
+    private void onSendCompleted() {
+        mConnectionManager.release();
+        synchronized (this) {
+            mPendingSendCount--;
+            stopIfIdle(mLastStartId);
         }
+    }
 
-        String brightnessLevelValueString = mSharedPreferencesBrightnessLevels.getString(brightnessLevelPrefKey,
-                defaultValue);
-        setBrightnessLevel(Integer.parseInt(brightnessLevelValueString));
+    /**
+     * Release what the job holds once it's done or discarded
+     *
+     * @param job
+     *         {@link Job}
+     */
+    private void release(Job job) {
+        if (ACTION_SOLAR_TRANSITION.equals(job.mIntent.getAction())) {
+            SolarTransitionReceiver.completeWakefulIntent(job.mIntent);
+        }
     }
 
     /**
-     * Whether ir currently day or night time. Uses the {@link SunriseSunsetCalculator} to find out the sunrise and
-     * sunset times of the place where the user currently is at.
+     * Handle a job on the worker thread, returns once the level was sent or suppressed. The send itself completes
+     * later, see {@link #onSendCompleted()}.
      *
-     * @return {@link boolean} true if it's currently day time, false if night time
+     * @param job
+     *         {@link Job}
+     * @return {@link boolean} true if the job is done, false if it was queued again to wait for a connected client
      */
-    private boolean isDaytime() {
-        Log.d(LOG_TAG, "isDaytime()");
-
-        if (mCurrentLocation != null) {
-
-            // TODO: make this configurable by user!
-            // Sun degrees
-            double sunriseSunDegrees = 15;
-            double sunsetSunDegrees = 5;
-
-            Calendar calendarNow = Calendar.getInstance();
-            Calendar calendarSunrise = SunriseSunsetCalculator.getSunrise(mCurrentLocation.getLatitude(),
-                    mCurrentLocation.getLongitude(), TimeZone.getDefault(), Calendar.getInstance(), sunriseSunDegrees);
-            Calendar calendarSunset = SunriseSunsetCalculator.getSunset(mCurrentLocation.getLatitude(),
-                    mCurrentLocation.getLongitude(), TimeZone.getDefault(), Calendar.getInstance(), sunsetSunDegrees);
-
-            if ((calendarSunrise != null) && (calendarSunset != null)) {
-                String sunrise = calendarSunrise.get(Calendar.HOUR_OF_DAY) + ":" + calendarSunrise.get(Calendar.MINUTE);
-                String sunset = calendarSunset.get(Calendar.HOUR_OF_DAY) + ":" + calendarSunset.get(Calendar.MINUTE);
-                Log.d(LOG_TAG, "Sunrise: " + sunrise);
-                Log.d(LOG_TAG, "Sunset: " + sunset);
-
-                // It's day time if the current time is after sunrise and before sunset
-                return calendarNow.after(calendarSunrise) && calendarNow.before(calendarSunset);
+    private boolean handleJob(Job job) {
+        boolean solarTransition = ACTION_SOLAR_TRANSITION.equals(job.mIntent.getAction());
+        if (!solarTransition && job.mConnectAttempts == 0) {
+            ActivityRecognitionResult result = ActivityRecognitionResult.extractResult(job.mIntent);
+            if (result == null || result.getProbableActivities().isEmpty()) {
+                return true;
             }
+            smoothActivity(result);
         }
 
-        // If we couldn't calculate the sunrise/sunset, default to day time
+        // The user's location and the data layer both need a connected client
+        GoogleApiClient googleApiClient = mConnectionManager.acquire(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (googleApiClient == null) {
+            job.mConnectAttempts++;
+            if (job.mConnectAttempts < MAX_CONNECT_ATTEMPTS && !Thread.currentThread().isInterrupted()
+                    && sQueue.retry(job, job.mKey)) {
+                Log.w(LOG_TAG, "No connected client, job queued again (attempt " + job.mConnectAttempts + ")");
+                return false;
+            }
+            Log.w(LOG_TAG, "No connected client, job dropped after " + job.mConnectAttempts + " attempt(s)");
+            return true;
+        }
+
+        mHoldingClient = true;
+        try {
+            // Listen before deciding so the battery states the watches put while disconnected come in early
+            mSender.listen(googleApiClient, mConnectionManager.getConnectCount());
+            if (solarTransition) {
+                onSolarTransition(googleApiClient, job.mIntent, job.mTrace);
+            } else {
+                onActivityDetected(googleApiClient, sActivitySmoother.getActivityType(),
+                        sActivitySmoother.getConfidence(), job.mTrace);
+            }
+        } finally {
+            if (mHoldingClient) {
+                mHoldingClient = false;
+                mConnectionManager.release();
+            }
+        }
         return true;
     }
 
     /**
-     * Possibly send the brightness level to the watch, unless we are still not connected to the {@link
-     * GoogleApiClient}, if so, simply keep a reference of the brightness level we want to set to be send later when the
-     * client connects.
+     * Feed every probable activity of the result, with its confidence, to the {@link ActivitySmoother}
+     *
+     * @param result
+     *         {@link ActivityRecognitionResult} with at least one probable activity
+     */
+    private void smoothActivity(ActivityRecognitionResult result) {
+        List<DetectedActivity> activities = result.getProbableActivities();
+        int count = activities.size();
+        int[] activityTypes = new int[count];
+        int[] confidences = new int[count];
+        for (int i = 0; i < count; i++) {
+            activityTypes[i] = activities.get(i).getType();
+            confidences[i] = activities.get(i).getConfidence();
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        sActivitySmoother.setMargin(sBrightnessLevelPreferences.getSmoothingMargin());
+        sActivitySmoother.onDetection(activityTypes, confidences, count, now);
+        mSmootherPreferences.edit()
+                .putInt(KEY_SMOOTHED_ACTIVITY, sActivitySmoother.getActivityType())
+                .putInt(KEY_SMOOTHED_CONFIDENCE, sActivitySmoother.getConfidence())
+                .putLong(KEY_SMOOTHED_TIME, System.currentTimeMillis())
+                .apply();
+        Log.d(LOG_TAG, "Detected activity: " + result.getMostProbableActivity() + ", smoothed: " + sActivitySmoother
+                + String.format(Locale.US, " (flips/day=%.1f raw=%.1f, sends/day=%.1f)",
+                sActivitySmoother.getFlipsPerDay(now), sActivitySmoother.getRawFlipsPerDay(now),
+                sSendGate.getSendsPerDay(now)));
+    }
+
+    /**
+     * Start the smoother from the activity smoothed by the previous process, if any. The monotonic clock restarts with
+     * the phone, so the age of the detection comes from the wall clock.
+     */
+    private void restoreActivitySmoother() {
+        if (!mSmootherPreferences.contains(KEY_SMOOTHED_ACTIVITY)) {
+            return;
+        }
+        long age = Math.max(0, System.currentTimeMillis() - mSmootherPreferences.getLong(KEY_SMOOTHED_TIME, 0));
+        sActivitySmoother.restore(mSmootherPreferences.getInt(KEY_SMOOTHED_ACTIVITY, DetectedActivity.UNKNOWN),
+                mSmootherPreferences.getInt(KEY_SMOOTHED_CONFIDENCE, 0), SystemClock.elapsedRealtime() - age);
+        Log.d(LOG_TAG, "Restored " + sActivitySmoother + " from " + age + "ms ago");
+    }
+
+    /**
+     * Decide and send the level for a detected activity
      *
-     * @param brightnessLevel
-     *         {@link BrightnessLevel} to be sent to the watch
+     * @param googleApiClient
+     *         connected {@link GoogleApiClient}
+     * @param activityType
+     *         {@link int} smoothed activity type
+     * @param confidence
+     *         {@link int} smoothed confidence of the activity type
+     * @param trace
+     *         {@link LatencyTrace} stamped when the intent was received
      */
-    private void setBrightnessLevel(int brightnessLevel) {
-        if (mGoogleApiClient != null && mGoogleApiClient.isConnected()) {
-            sendBrightnessLevelToWatch(brightnessLevel);
+    private void onActivityDetected(GoogleApiClient googleApiClient, int activityType, int confidence,
+            LatencyTrace trace) {
+        BrightnessContext context = mContextCollector.collect(googleApiClient, activityType, confidence,
+                sBrightnessLevelPreferences.getDecisionTable(), sBrightnessLevelPreferences.getCurve());
+        trace.stamp(LatencyTrace.STAGE_CONTEXT_READY);
+        BrightnessDecision decision = determineBrightnessLevelBasedOnData(context);
+        trace.stamp(LatencyTrace.STAGE_DECISION_MADE);
+        if (isAutonomous()) {
+            // The watches switch between day and night on their own, they only need to hear about changes
+            boolean synced = AutonomousConfigSender.sync(googleApiClient, context, decision);
+            mDecisionRecorder.record(context, decision, BrightnessPayload.REASON_ACTIVITY, synced);
+            SolarTransitionAlarm.schedule(getApplicationContext(), context, SolarEventCache.NO_EVENT);
         } else {
-            mPendingLevelToSend = brightnessLevel;
+            sendBrightnessLevelToWatch(googleApiClient, context, decision, BrightnessPayload.REASON_ACTIVITY, trace);
+            scheduleNextWakeup(context);
+        }
+        updateDetectionInterval(googleApiClient, context);
+    }
+
+    /**
+     * Whether the watches are in the autonomous mode, see {@link AutonomousConfigSender}. The continuous mode, the time
+     * windows and the policy rules need the phone, so they turn the autonomous mode off.
+     *
+     * @return {@link boolean} true if the watches switch levels on their own
+     */
+    private boolean isAutonomous() {
+        boolean autonomous = sBrightnessLevelPreferences.getCurve() == null
+                && sBrightnessLevelPreferences.getSchedule() == null
+                && sBrightnessLevelPreferences.getPolicy() == null && mSharedPreferences.getBoolean(
+                BrightnessLevelsPreferenceActivity.KEY_AUTONOMOUS_MODE,
+                BrightnessLevelsPreferenceActivity.DEFAULT_AUTONOMOUS_MODE);
+        if (sAutonomous && !autonomous) {
+            // The watches may show anything by now, the next level must not be suppressed as a duplicate
+            for (String nodeId : mSender.getDeliveryTracker().getNodeIds()) {
+                sSendGate.reset(nodeId);
+            }
         }
+        sAutonomous = autonomous;
+        return autonomous;
     }
 
     /**
-     * Use the {@link GoogleApiClient} to send a data item to the wearable using the Wear Data API
+     * The sun just rose or set, re-evaluate the level with the last known activity and send it right away. The wake
+     * lock taken by the {@link SolarTransitionReceiver} is released once the job is done.
      *
-     * @param level
-     *         {@link BrightnessLevel} to be sent to the watch
+     * @param googleApiClient
+     *         connected {@link GoogleApiClient}
+     * @param intent
+     *         {@link Intent} with the snapshot stored by the {@link SolarTransitionAlarm}
+     * @param trace
+     *         {@link LatencyTrace} stamped when the intent was received
      */
-    private void sendBrightnessLevelToWatch(int level) {
-        Log.d(LOG_TAG, "sendBrightnessLevelToWatch(level=" + level + ")");
-        if (mGoogleApiClient != null && mGoogleApiClient.isConnected()) {
-            PutDataMapRequest dataMap = PutDataMapRequest.create(BrightnessLevel.PATH_BRIGHTNESS);
-            dataMap.getDataMap().putInt(BrightnessLevel.FIELD_NAME, level);
-            PutDataRequest request = dataMap.asPutDataRequest();
-            Wearable.DataApi.putDataItem(mGoogleApiClient, request);
-            Log.d(LOG_TAG, "Data sent to watch");
+    private void onSolarTransition(GoogleApiClient googleApiClient, Intent intent, LatencyTrace trace) {
+        Log.d(LOG_TAG, "onSolarTransition()");
+        if (isAutonomous()) {
+            // An alarm set before the autonomous mode was enabled, the watches take care of it
+            return;
+        }
+        BrightnessContext stored = SolarTransitionAlarm.readContext(intent, System.currentTimeMillis(),
+                sBrightnessLevelPreferences.getDecisionTable(), sBrightnessLevelPreferences.getCurve());
+
+        // The user may have moved since the alarm was set, the stored location is only used as a fallback
+        BrightnessContext context = mContextCollector.collect(googleApiClient, stored.getActivityType(),
+                stored.getConfidence(), stored.getDecisionTable(), stored.getCurve());
+        if (!context.hasLocation()) {
+            context = new BrightnessContext(context.getActivityType(), context.getConfidence(),
+                    stored.getLatitude(), stored.getLongitude(), context.getTimeMillis(),
+                    context.getDecisionTable(), context.getCurve(), context.getBatteryPercent());
         }
-        disconnectAll();
+        trace.stamp(LatencyTrace.STAGE_CONTEXT_READY);
+
+        BrightnessDecision decision = determineBrightnessLevelBasedOnData(context);
+        trace.stamp(LatencyTrace.STAGE_DECISION_MADE);
+        sendBrightnessLevelToWatch(googleApiClient, context, decision, BrightnessPayload.REASON_DAYLIGHT, trace);
+        scheduleNextWakeup(context);
+    }
+
+    /**
+     * Set the alarm for the next sunrise, sunset or time window boundary of the schedule or the policy rules, whichever
+     * comes first. Without a location or a time window the alarm already set is kept.
+     *
+     * @param context
+     *         {@link BrightnessContext} snapshot of the received data
+     */
+    private void scheduleNextWakeup(BrightnessContext context) {
+        long next = sBrightnessPipeline.getNextTransition(context, sBrightnessLevelPreferences.getPolicy(),
+                sBrightnessLevelPreferences.getSchedule());
+        if (next != SolarEventCache.NO_EVENT || context.hasLocation()) {
+            SolarTransitionAlarm.schedule(getApplicationContext(), context, next);
+        }
+    }
+
+    /**
+     * Determine the brightness level that will be set on the watch based on the received data (Detected activity and
+     * last known location), let the first matching policy rule pick another level, then apply the time windows picked
+     * by the user. Without a matching rule the level comes from the level preferences. The stages are those of the
+     * {@link BrightnessPipeline}, which the simulator replays traces through.
+     *
+     * @param context
+     *         {@link BrightnessContext} snapshot of the received data
+     * @return {@link BrightnessDecision} with the {@link BrightnessLevel} to be sent to the watch
+     */
+    private BrightnessDecision determineBrightnessLevelBasedOnData(BrightnessContext context) {
+        Log.d(LOG_TAG, "determineBrightnessLevelBasedOnData()");
+
+        mPolicyInput.setPhoneBattery(context.getBatteryPercent(), mContextCollector.getCharging())
+                .setWatchBattery(mSender.getWatchBatteryPercent(), mSender.getWatchCharging());
+        BrightnessDecision decision = sBrightnessPipeline.decide(context, sBrightnessLevelPreferences.getPolicy(),
+                sBrightnessLevelPreferences.getSchedule(), mPolicyInput);
+        Log.d(LOG_TAG, context + " -> " + decision);
+        return decision;
+    }
+
+    /**
+     * Let the {@link DetectionIntervalScheduler} pick the interval until the next detection based on what the user is
+     * doing, and re-request activity updates if it changed
+     *
+     * @param googleApiClient
+     *         connected {@link GoogleApiClient}
+     * @param context
+     *         {@link BrightnessContext} snapshot of the received data
+     */
+    private void updateDetectionInterval(GoogleApiClient googleApiClient, BrightnessContext context) {
+        DetectionIntervalScheduler scheduler = ActivityRecognitionHelper.getIntervalScheduler();
+        long now = SystemClock.elapsedRealtime();
+        long interval = scheduler.onDetection(context.getActivityType(),
+                sBrightnessEngine.getMillisToSolarTransition(context), now);
+        Log.d(LOG_TAG, "Wakeups in the last hour: " + scheduler.getWakeupsInLastHour(now) + ", next interval: "
+                + interval + "ms");
+        if (interval != scheduler.getRequestedIntervalMillis()) {
+            ActivityRecognitionHelper.requestActivityUpdates(getApplicationContext(), googleApiClient, interval);
+        }
+    }
+
+    /**
+     * Use the {@link BrightnessSender} to send the level to the wearable, unless the {@link BrightnessSendGate} decides
+     * that none of the connected watches need it. Watches are only marked as having the level once they acknowledge
+     * it.
+     * <p/>
+     * Every connected watch is looked at on its own: the gate is given the level that watch would actually show, see
+     * {@link NodeDeliveryTracker}, so in the continuous mode a watch that doesn't know about fine levels only gets a
+     * new level when the closest of the five {@link BrightnessLevel} values changes. The curve follows the sun rather
+     * than the detected activity, so like day/night transitions its changes skip the hysteresis and dwell time of the
+     * gate.
+     * <p/>
+     * Whether the level was sent or suppressed is recorded in the {@link DecisionRecorder}.
+     *
+     * @param googleApiClient
+     *         connected {@link GoogleApiClient}
+     * @param context
+     *         {@link BrightnessContext} the decision was made on
+     * @param decision
+     *         {@link BrightnessDecision} with the level to be sent to the watch
+     * @param reason
+     *         {@link int} why the level is sent, one of the {@link BrightnessPayload} reasons
+     * @param trace
+     *         {@link LatencyTrace} stamped up to the decision
+     */
+    private void sendBrightnessLevelToWatch(final GoogleApiClient googleApiClient, final BrightnessContext context,
+            final BrightnessDecision decision, final int reason, final LatencyTrace trace) {
+        final int fineLevel = decision.getFineLevel();
+        final int level = decision.hasFineLevel() ? BrightnessLevel.getClosestValue(fineLevel) : decision.getLevel();
+        final NodeDeliveryTracker deliveryTracker = mSender.getDeliveryTracker();
+        final boolean immediate = reason == BrightnessPayload.REASON_DAYLIGHT;
+        Log.d(LOG_TAG, "sendBrightnessLevelToWatch(level=" + level + ", fine=" + fineLevel + ", reason=" + reason
+                + ")");
+        NodeApi.GetConnectedNodesResult result = Wearable.NodeApi.getConnectedNodes(googleApiClient)
+                .await(NODES_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (!result.getStatus().isSuccess()) {
+            Log.w(LOG_TAG, "Unable to get the connected nodes: " + result.getStatus());
+            return;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        List<Node> nodes = result.getNodes();
+        final List<String> targetNodeIds = new ArrayList<>();
+        sSendGate.setRequiredConfirmations(sBrightnessLevelPreferences.getSendConfirmations());
+        sSendGate.setMinDwellMillis(sBrightnessLevelPreferences.getSendDwellMillis());
+        for (Node node : nodes) {
+            int targetLevel = deliveryTracker.getTargetLevel(node.getId(), level, fineLevel);
+            boolean fine = decision.hasFineLevel() && deliveryTracker.showsFineLevels(node.getId());
+            if (sSendGate.evaluate(node.getId(), targetLevel, now, immediate, fine) == BrightnessSendGate.SEND) {
+                targetNodeIds.add(node.getId());
+            }
+        }
+
+        // With no watch connected the data item is simply synced whenever one connects
+        if (!nodes.isEmpty() && targetNodeIds.isEmpty()) {
+            mDecisionRecorder.record(context, decision, reason, false);
+            Log.d(LOG_TAG, "Send suppressed (suppressed=" + sSendGate.getSuppressedCount()
+                    + ", sent=" + sSendGate.getSendCount() + ")");
+            return;
+        }
+
+        mSender.setFastPathEnabled(mSharedPreferences.getBoolean(
+                BrightnessLevelsPreferenceActivity.KEY_FAST_DELIVERY, false));
+        sSendGate.markSent();
+        onSendStarted();
+        mSender.send(googleApiClient, mConnectionManager.getConnectCount(), targetNodeIds, level,
+                fineLevel, reason, trace, new BrightnessSender.Callback() {
+                    @Override
+                    public void onDelivered(String nodeId, int deliveredLevel, int transport) {
+                        sSendGate.markDelivered(nodeId,
+                                deliveryTracker.getTargetLevel(nodeId, level, fineLevel),
+                                SystemClock.elapsedRealtime());
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        onSendCompleted();
+                    }
+                });
+        mDecisionRecorder.record(context, decision, reason, true);
+        Log.d(LOG_TAG, "Data sent to watch (connects=" + mConnectionManager.getConnectCount()
+                + ", reused=" + mConnectionManager.getReusedCount() + ", avg connect="
+                + mConnectionManager.getAverageConnectLatencyMillis() + "ms, suppressed="
+                + sSendGate.getSuppressedCount() + ", targets=" + targetNodeIds.size() + "/"
+                + nodes.size() + ")");
     }
 
 }
@@ -4,6 +4,8 @@ import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
+import android.util.Log;
+import com.danvelazco.wear.displaybrightness.core.DetectionIntervalScheduler;
 import com.danvelazco.wear.displaybrightness.service.ActivityRecognitionIntentService;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
@@ -12,19 +14,22 @@ import com.google.android.gms.location.ActivityRecognition;
 /**
  * Helper class that simply schedules activity detection with the {@link ActivityRecognition#API} and then disconnects.
  * Call {@link #scheduleActivityUpdates()}
+ * <p/>
+ * The detection interval is picked by the process wide {@link DetectionIntervalScheduler}, which the {@link
+ * ActivityRecognitionIntentService} updates on every detection and uses to re-request updates through {@link
+ * #requestActivityUpdates(Context, GoogleApiClient, long)} whenever the interval changes.
  */
 public class ActivityRecognitionHelper implements GoogleApiClient.ConnectionCallbacks,
         GoogleApiClient.OnConnectionFailedListener {
 
-    // Constants that define the activity detection interval
-    public static final int MILLISECONDS_PER_SECOND = 1000;
-    public static final int SECONDS_PER_MINUTE = 60;
-    public static final int DETECTION_INTERVAL_MINUTES = 10;
-    public static final int DETECTION_INTERVAL_MILLISECONDS = (DETECTION_INTERVAL_MINUTES * SECONDS_PER_MINUTE)
-            * MILLISECONDS_PER_SECOND;
-//    public static final int DETECTION_INTERVAL_MILLISECONDS = 10 * MILLISECONDS_PER_SECOND; // Debug
+    // Constants
+    private static final String LOG_TAG = "ActivityRecognitionHelp";
+
+    // Keeps track of the interval that was last requested for as long as the process lives
+    private static final DetectionIntervalScheduler sIntervalScheduler = new DetectionIntervalScheduler();
 
     // Members
+    private Context mContext;
     private GoogleApiClient mGoogleApiClient = null;
     private PendingIntent mActivityRecognitionPendingIntent;
 
@@ -36,9 +41,8 @@ public class ActivityRecognitionHelper implements GoogleApiClient.ConnectionCall
      *         {@link Context}
      */
     public ActivityRecognitionHelper(Context context) {
-        Intent intentService = new Intent(context, ActivityRecognitionIntentService.class);
-        mActivityRecognitionPendingIntent = PendingIntent.getService(context, 0, intentService,
-                PendingIntent.FLAG_UPDATE_CURRENT);
+        mContext = context.getApplicationContext();
+        mActivityRecognitionPendingIntent = getPendingIntent(context);
 
         mGoogleApiClient = new GoogleApiClient.Builder(context)
                 .addApi(ActivityRecognition.API)
@@ -54,8 +58,7 @@ public class ActivityRecognitionHelper implements GoogleApiClient.ConnectionCall
     public void onConnected(Bundle bundle) {
         if ((mGoogleApiClient != null) && mGoogleApiClient.isConnected()
                 && (mActivityRecognitionPendingIntent != null)) {
-            ActivityRecognition.ActivityRecognitionApi.requestActivityUpdates(mGoogleApiClient,
-                    DETECTION_INTERVAL_MILLISECONDS, mActivityRecognitionPendingIntent);
+            requestActivityUpdates(mContext, mGoogleApiClient, sIntervalScheduler.getIntervalMillis());
 
             // After scheduling the updates, simply disconnect
             mGoogleApiClient.disconnect();
@@ -88,4 +91,40 @@ public class ActivityRecognitionHelper implements GoogleApiClient.ConnectionCall
         }
     }
 
+    /**
+     * @return {@link DetectionIntervalScheduler} used to pick the detection interval
+     */
+    public static DetectionIntervalScheduler getIntervalScheduler() {
+        return sIntervalScheduler;
+    }
+
+    /**
+     * Request activity updates with the given interval, replacing the previous request
+     *
+     * @param context
+     *         {@link Context}
+     * @param googleApiClient
+     *         connected {@link GoogleApiClient} with the {@link ActivityRecognition#API}
+     * @param intervalMillis
+     *         {@link long} detection interval
+     */
+    public static void requestActivityUpdates(Context context, GoogleApiClient googleApiClient,
+            long intervalMillis) {
+        Log.d(LOG_TAG, "requestActivityUpdates(interval=" + intervalMillis + "ms)");
+        ActivityRecognition.ActivityRecognitionApi.requestActivityUpdates(googleApiClient, intervalMillis,
+                getPendingIntent(context));
+        sIntervalScheduler.markRequested(intervalMillis);
+    }
+
+    /**
+     * @param context
+     *         {@link Context}
+     * @return {@link PendingIntent} that starts the {@link ActivityRecognitionIntentService}, the same one is returned
+     * every time so new requests replace the old ones
+     */
+    private static PendingIntent getPendingIntent(Context context) {
+        Intent intentService = new Intent(context, ActivityRecognitionIntentService.class);
+        return PendingIntent.getService(context, 0, intentService, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
 }
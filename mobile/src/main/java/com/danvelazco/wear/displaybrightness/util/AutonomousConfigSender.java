@@ -0,0 +1,126 @@
+package com.danvelazco.wear.displaybrightness.util;
+
+import android.content.Context;
+import android.util.Log;
+import com.danvelazco.wear.displaybrightness.core.BrightnessContext;
+import com.danvelazco.wear.displaybrightness.core.BrightnessDecision;
+import com.danvelazco.wear.displaybrightness.core.BrightnessDecisionTable;
+import com.danvelazco.wear.displaybrightness.core.SolarEventCache;
+import com.danvelazco.wear.displaybrightness.shared.BrightnessLevel;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.Status;
+import com.google.android.gms.wearable.DataMap;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands the decision over to the watches for the autonomous mode, as a data item on {@link
+ * BrightnessLevel#PATH_AUTONOMOUS_CONFIG} with the whole {@link BrightnessDecisionTable}, the current activity and a
+ * recent location. The watches work out the sunrise and sunset themselves and switch between the day and night levels
+ * with their own alarms, even when the phone is out of range.
+ * <p/>
+ * The item is only put again when something the watches need changed: the activity, the table, or the location moved
+ * to another {@link SolarEventCache#CELL_SIZE_DEGREES} cell, which is as precise as the sunrise and sunset get anyway.
+ */
+public class AutonomousConfigSender {
+
+    // Constants
+    private static final String LOG_TAG = "AutonomousConfig";
+    private static final long PUT_TIMEOUT_SECONDS = 10;
+
+    // What the watches were last given, for as long as the process lives
+    private static boolean sSynced = false;
+    private static BrightnessDecisionTable sDecisionTable;
+    private static int sActivityType;
+    private static double sLatitude = BrightnessContext.UNKNOWN_COORDINATE;
+    private static double sLongitude = BrightnessContext.UNKNOWN_COORDINATE;
+
+    /**
+     * Put the activity, table and location of the snapshot on the data layer, unless the watches already have them.
+     * Blocks until the item is put, call it from a worker thread.
+     *
+     * @param googleApiClient
+     *         connected {@link GoogleApiClient}
+     * @param context
+     *         {@link BrightnessContext} snapshot of the detection, without a location the last one synced is kept
+     * @param decision
+     *         {@link BrightnessDecision} made for the snapshot, its activity already accounts for the confidence
+     * @return {@link boolean} true if the item was put, false if the watches were already up to date or it failed
+     */
+    public static synchronized boolean sync(GoogleApiClient googleApiClient, BrightnessContext context,
+            BrightnessDecision decision) {
+        double latitude = context.hasLocation() ? context.getLatitude() : sLatitude;
+        double longitude = context.hasLocation() ? context.getLongitude() : sLongitude;
+        if (sSynced && decision.getActivityType() == sActivityType && context.getDecisionTable().equals(sDecisionTable)
+                && toCell(latitude) == toCell(sLatitude) && toCell(longitude) == toCell(sLongitude)) {
+            return false;
+        }
+
+        int[] table = context.getDecisionTable().toArray();
+        ArrayList<Integer> levels = new ArrayList<>(table.length);
+        for (int level : table) {
+            levels.add(level);
+        }
+        PutDataMapRequest request = PutDataMapRequest.create(BrightnessLevel.PATH_AUTONOMOUS_CONFIG);
+        DataMap dataMap = request.getDataMap();
+        dataMap.putBoolean(BrightnessLevel.FIELD_AUTONOMOUS_ENABLED, true);
+        dataMap.putIntegerArrayList(BrightnessLevel.FIELD_LEVEL_TABLE, levels);
+        dataMap.putInt(BrightnessLevel.FIELD_ACTIVITY_TYPE, decision.getActivityType());
+        dataMap.putDouble(BrightnessLevel.FIELD_LATITUDE, latitude);
+        dataMap.putDouble(BrightnessLevel.FIELD_LONGITUDE, longitude);
+        Status status = Wearable.DataApi.putDataItem(googleApiClient, request.asPutDataRequest())
+                .await(PUT_TIMEOUT_SECONDS, TimeUnit.SECONDS).getStatus();
+        if (!status.isSuccess()) {
+            Log.w(LOG_TAG, "Unable to put the autonomous config: " + status);
+            return false;
+        }
+
+        sSynced = true;
+        sDecisionTable = context.getDecisionTable();
+        sActivityType = decision.getActivityType();
+        sLatitude = latitude;
+        sLongitude = longitude;
+        Log.d(LOG_TAG, "Synced (activity=" + sActivityType + ", location=" + latitude + "," + longitude + ")");
+        return true;
+    }
+
+    /**
+     * Tell the watches to stop switching levels on their own, the phone sends them again from now on
+     *
+     * @param context
+     *         {@link Context}
+     */
+    public static synchronized void disable(Context context) {
+        sSynced = false;
+        WearableConnectionManager.getInstance(context).execute(new WearableConnectionManager.Task() {
+            @Override
+            public void run(GoogleApiClient googleApiClient) {
+                PutDataMapRequest request = PutDataMapRequest.create(BrightnessLevel.PATH_AUTONOMOUS_CONFIG);
+                request.getDataMap().putBoolean(BrightnessLevel.FIELD_AUTONOMOUS_ENABLED, false);
+                Wearable.DataApi.putDataItem(googleApiClient, request.asPutDataRequest());
+                Log.d(LOG_TAG, "Disabled");
+            }
+        });
+    }
+
+    /**
+     * Forget what the watches were given, so the next detection syncs everything again
+     */
+    public static synchronized void reset() {
+        sSynced = false;
+    }
+
+    /**
+     * @param coordinate
+     *         {@link double} latitude or longitude, may be unknown
+     * @return {@link int} cell of the coordinate, unknown coordinates all share one
+     */
+    private static int toCell(double coordinate) {
+        return Double.isNaN(coordinate) ? Integer.MIN_VALUE
+                : (int) Math.floor(coordinate / SolarEventCache.CELL_SIZE_DEGREES);
+    }
+
+}
@@ -0,0 +1,141 @@
+package com.danvelazco.wear.displaybrightness.util;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.location.Location;
+import android.os.BatteryManager;
+import android.util.Log;
+import com.danvelazco.wear.displaybrightness.core.BrightnessContext;
+import com.danvelazco.wear.displaybrightness.core.BrightnessCurve;
+import com.danvelazco.wear.displaybrightness.core.BrightnessDecisionTable;
+import com.danvelazco.wear.displaybrightness.core.ContextCollector;
+import com.danvelazco.wear.displaybrightness.core.PolicyInput;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.location.LocationServices;
+
+import java.util.concurrent.Executors;
+
+/**
+ * Builds the {@link BrightnessContext} of an activity detection, reading the location and the battery level of the
+ * phone concurrently through a {@link ContextCollector}.
+ * <p/>
+ * The whole collection is bounded by {@link ContextCollector#DEFAULT_BUDGET_MILLIS}. When the location can't be read
+ * in time, or Play Services doesn't have one, the last known one is used, and if there has never been one the context
+ * has an unknown location; either way a context is always returned so a level can be decided and sent.
+ */
+public class BrightnessContextCollector {
+
+    // Constants
+    private static final String LOG_TAG = "ContextCollector";
+
+    // Singleton
+    private static BrightnessContextCollector sInstance;
+
+    // Members
+    private final ContextCollector<GoogleApiClient> mCollector;
+    private final ContextCollector.Slot<GoogleApiClient, Location> mLocationSlot;
+    private final ContextCollector.Slot<GoogleApiClient, Integer> mBatterySlot;
+
+    // State
+    private volatile int mCharging = PolicyInput.CHARGING_UNKNOWN;
+
+    /**
+     * Get the process wide instance, so the cached values and statistics outlive the service
+     *
+     * @param context
+     *         {@link Context}, only the application context is retained
+     * @return {@link BrightnessContextCollector}
+     */
+    public static synchronized BrightnessContextCollector getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BrightnessContextCollector(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param context
+     *         {@link Context}
+     */
+    private BrightnessContextCollector(final Context context) {
+        // Idle threads are let go after a minute, detections are further apart than that most of the time
+        mCollector = new ContextCollector<>(Executors.newCachedThreadPool());
+
+        mLocationSlot = mCollector.register("location", new ContextCollector.Source<GoogleApiClient, Location>() {
+            @Override
+            public Location read(GoogleApiClient googleApiClient) {
+                return LocationServices.FusedLocationApi.getLastLocation(googleApiClient);
+            }
+        }, null);
+
+        mBatterySlot = mCollector.register("battery", new ContextCollector.Source<GoogleApiClient, Integer>() {
+            @Override
+            public Integer read(GoogleApiClient googleApiClient) {
+                // Sticky broadcast, nothing is actually registered
+                Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+                if (battery == null) {
+                    return null;
+                }
+                mCharging = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0 ? PolicyInput.CHARGING_YES
+                        : PolicyInput.CHARGING_NO;
+                int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+                int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+                return level >= 0 && scale > 0 ? level * 100 / scale : null;
+            }
+        }, BrightnessContext.UNKNOWN_BATTERY);
+    }
+
+    /**
+     * Take a snapshot of the detected activity and everything else the decision needs
+     *
+     * @param googleApiClient
+     *         connected {@link GoogleApiClient}
+     * @param activityType
+     *         {@link int} type of the detected activity
+     * @param confidence
+     *         {@link int} confidence of the detected activity, from 0 to 100
+     * @param decisionTable
+     *         {@link BrightnessDecisionTable} current levels
+     * @param curve
+     *         {@link BrightnessCurve} current curve, or null if the continuous mode is disabled
+     * @return {@link BrightnessContext}
+     */
+    public BrightnessContext collect(GoogleApiClient googleApiClient, int activityType, int confidence,
+            BrightnessDecisionTable decisionTable, BrightnessCurve curve) {
+        long timeMillis = System.currentTimeMillis();
+        ContextCollector.Snapshot snapshot = mCollector.collect(googleApiClient);
+        Log.d(LOG_TAG, mCollector.toString());
+
+        Location location = snapshot.get(mLocationSlot);
+        double latitude = location != null ? location.getLatitude() : BrightnessContext.UNKNOWN_COORDINATE;
+        double longitude = location != null ? location.getLongitude() : BrightnessContext.UNKNOWN_COORDINATE;
+        return new BrightnessContext(activityType, confidence, latitude, longitude, timeMillis, decisionTable, curve,
+                snapshot.get(mBatterySlot));
+    }
+
+    /**
+     * @return {@link int} charging state of the phone when the battery level was last read, one of the {@link
+     * PolicyInput} charging states
+     */
+    public int getCharging() {
+        return mCharging;
+    }
+
+    /**
+     * @return {@link ContextCollector.Slot} of the location, to read its statistics
+     */
+    public ContextCollector.Slot<GoogleApiClient, Location> getLocationSlot() {
+        return mLocationSlot;
+    }
+
+    /**
+     * @return {@link ContextCollector.Slot} of the battery level, to read its statistics
+     */
+    public ContextCollector.Slot<GoogleApiClient, Integer> getBatterySlot() {
+        return mBatterySlot;
+    }
+
+}
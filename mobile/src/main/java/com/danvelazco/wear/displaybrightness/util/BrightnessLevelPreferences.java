@@ -0,0 +1,359 @@
+package com.danvelazco.wear.displaybrightness.util;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+import com.danvelazco.wear.displaybrightness.BrightnessLevelsPreferenceActivity;
+import com.danvelazco.wear.displaybrightness.core.BrightnessCurve;
+import com.danvelazco.wear.displaybrightness.core.BrightnessDecisionTable;
+import com.danvelazco.wear.displaybrightness.core.BrightnessSchedule;
+import com.danvelazco.wear.displaybrightness.core.BrightnessSendGate;
+import com.danvelazco.wear.displaybrightness.core.PolicyRule;
+import com.danvelazco.wear.displaybrightness.core.PolicyRuleSet;
+import com.danvelazco.wear.displaybrightness.core.ScheduleRule;
+import com.danvelazco.wear.displaybrightness.shared.BrightnessLevel;
+import com.google.android.gms.location.DetectedActivity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Compiles the brightness level preferences into a {@link BrightnessDecisionTable}, plus a {@link BrightnessCurve} when
+ * the continuous mode is enabled, a {@link BrightnessSchedule} when there are time windows and a {@link PolicyRuleSet}
+ * when there are policy rules, and reads the activity smoothing margin.
+ * <p/>
+ * The brightness level preferences are stored as strings, so instead of reading and parsing them on every activity
+ * detection, they are compiled once and the table is only rebuilt when one of the preferences changes.
+ */
+public class BrightnessLevelPreferences implements SharedPreferences.OnSharedPreferenceChangeListener {
+
+    // Constants
+    private static final String LOG_TAG = "BrightnessLevelPrefs";
+    private static final double CURVE_NIGHT_ELEVATION = -6; // End of civil twilight
+    private static final double CURVE_DAY_ELEVATION = 10; // Sun clear of most buildings and trees
+    private static final int MAX_SMOOTHING_MARGIN = 100;
+    private static final int MAX_SEND_CONFIRMATIONS = 10;
+    private static final int MAX_SEND_DWELL_MINUTES = 24 * 60;
+    private static final long MINUTE_MILLIS = 60 * 1000L;
+
+    // Members
+    private final SharedPreferences mSharedPreferences;
+    private volatile BrightnessDecisionTable mDecisionTable;
+    private volatile BrightnessCurve mCurve;
+    private volatile BrightnessSchedule mSchedule;
+    private volatile PolicyRuleSet mPolicy;
+    private volatile int mSmoothingMargin;
+    private volatile int mSendConfirmations;
+    private volatile long mSendDwellMillis;
+
+    /**
+     * Constructor, compiles the table and starts listening for preference changes. A strong reference to this object
+     * must be kept, {@link SharedPreferences} only keeps weak references to its listeners.
+     *
+     * @param sharedPreferences
+     *         {@link SharedPreferences} holding the brightness level preferences, see {@link
+     *         BrightnessLevelsPreferenceActivity#KEY_PREF_FILENAME}
+     */
+    public BrightnessLevelPreferences(SharedPreferences sharedPreferences) {
+        mSharedPreferences = sharedPreferences;
+        mDecisionTable = compile(sharedPreferences);
+        mCurve = compileCurve(sharedPreferences);
+        mSchedule = compileSchedule(sharedPreferences);
+        mPolicy = compilePolicy(sharedPreferences);
+        mSmoothingMargin = readSmoothingMargin(sharedPreferences);
+        mSendConfirmations = readSendConfirmations(sharedPreferences);
+        mSendDwellMillis = readSendDwellMillis(sharedPreferences);
+        mSharedPreferences.registerOnSharedPreferenceChangeListener(this);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        Log.d(LOG_TAG, "onSharedPreferenceChanged(key=" + key + ")");
+        mDecisionTable = compile(sharedPreferences);
+        mCurve = compileCurve(sharedPreferences);
+        mSchedule = compileSchedule(sharedPreferences);
+        mPolicy = compilePolicy(sharedPreferences);
+        mSmoothingMargin = readSmoothingMargin(sharedPreferences);
+        mSendConfirmations = readSendConfirmations(sharedPreferences);
+        mSendDwellMillis = readSendDwellMillis(sharedPreferences);
+    }
+
+    /**
+     * @return {@link BrightnessDecisionTable} compiled from the current preferences, must not be modified
+     */
+    public BrightnessDecisionTable getDecisionTable() {
+        return mDecisionTable;
+    }
+
+    /**
+     * @return {@link BrightnessCurve} compiled from the current preferences, or null if the continuous mode is disabled
+     */
+    public BrightnessCurve getCurve() {
+        return mCurve;
+    }
+
+    /**
+     * @return {@link BrightnessSchedule} compiled from the current preferences, or null if there are no time windows
+     */
+    public BrightnessSchedule getSchedule() {
+        return mSchedule;
+    }
+
+    /**
+     * @return {@link PolicyRuleSet} compiled from the current preferences, or null if there are no policy rules
+     */
+    public PolicyRuleSet getPolicy() {
+        return mPolicy;
+    }
+
+    /**
+     * @return {@link int} confidence points another activity must be ahead by before the smoothed activity changes
+     */
+    public int getSmoothingMargin() {
+        return mSmoothingMargin;
+    }
+
+    /**
+     * @return {@link int} consecutive times a new level must be decided before it's sent, see {@link
+     * BrightnessSendGate#setRequiredConfirmations(int)}
+     */
+    public int getSendConfirmations() {
+        return mSendConfirmations;
+    }
+
+    /**
+     * @return {@link long} minimum time between two level changes on the same watch, see {@link
+     * BrightnessSendGate#setMinDwellMillis(long)}
+     */
+    public long getSendDwellMillis() {
+        return mSendDwellMillis;
+    }
+
+    /**
+     * Stop listening for preference changes
+     */
+    public void release() {
+        mSharedPreferences.unregisterOnSharedPreferenceChangeListener(this);
+    }
+
+    /**
+     * Read every brightness level preference and compile them into a new table
+     *
+     * @param prefs
+     *         {@link SharedPreferences}
+     * @return {@link BrightnessDecisionTable}
+     */
+    private static BrightnessDecisionTable compile(SharedPreferences prefs) {
+        // Anything we don't know about (including gaps in the activity types) falls back to unknown
+        BrightnessDecisionTable table = new BrightnessDecisionTable(
+                readLevel(prefs, BrightnessLevelsPreferenceActivity.KEY_LEVEL_UNKNOWN,
+                        BrightnessLevelsPreferenceActivity.DEFAULT_LEVEL_UNKNOWN),
+                readLevel(prefs, BrightnessLevelsPreferenceActivity.KEY_LEVEL_NIGHT_UNKNOWN,
+                        BrightnessLevelsPreferenceActivity.DEFAULT_LEVEL_NIGHT_UNKNOWN));
+
+        table.put(DetectedActivity.IN_VEHICLE,
+                readLevel(prefs, BrightnessLevelsPreferenceActivity.KEY_LEVEL_DRIVING,
+                        BrightnessLevelsPreferenceActivity.DEFAULT_LEVEL_DRIVING),
+                readLevel(prefs, BrightnessLevelsPreferenceActivity.KEY_LEVEL_NIGHT_DRIVING,
+                        BrightnessLevelsPreferenceActivity.DEFAULT_LEVEL_NIGHT_DRIVING));
+        table.put(DetectedActivity.ON_BICYCLE,
+                readLevel(prefs, BrightnessLevelsPreferenceActivity.KEY_LEVEL_ON_BICYCLE,
+                        BrightnessLevelsPreferenceActivity.DEFAULT_LEVEL_BICYCLE),
+                readLevel(prefs, BrightnessLevelsPreferenceActivity.KEY_LEVEL_NIGHT_ON_BICYCLE,
+                        BrightnessLevelsPreferenceActivity.DEFAULT_LEVEL_NIGHT_BICYCLE));
+        table.put(DetectedActivity.WALKING,
+                readLevel(prefs, BrightnessLevelsPreferenceActivity.KEY_LEVEL_WALKING,
+                        BrightnessLevelsPreferenceActivity.DEFAULT_LEVEL_WALKING),
+                readLevel(prefs, BrightnessLevelsPreferenceActivity.KEY_LEVEL_NIGHT_WALKING,
+                        BrightnessLevelsPreferenceActivity.DEFAULT_LEVEL_NIGHT_WALKING));
+        table.put(DetectedActivity.RUNNING,
+                readLevel(prefs, BrightnessLevelsPreferenceActivity.KEY_LEVEL_RUNNING,
+                        BrightnessLevelsPreferenceActivity.DEFAULT_LEVEL_RUNNING),
+                readLevel(prefs, BrightnessLevelsPreferenceActivity.KEY_LEVEL_NIGHT_RUNNING,
+                        BrightnessLevelsPreferenceActivity.DEFAULT_LEVEL_NIGHT_RUNNING));
+        table.put(DetectedActivity.STILL,
+                readLevel(prefs, BrightnessLevelsPreferenceActivity.KEY_LEVEL_STILL,
+                        BrightnessLevelsPreferenceActivity.DEFAULT_LEVEL_STILL),
+                readLevel(prefs, BrightnessLevelsPreferenceActivity.KEY_LEVEL_NIGHT_STILL,
+                        BrightnessLevelsPreferenceActivity.DEFAULT_LEVEL_NIGHT_STILL));
+
+        // Tilting is treated as being on foot
+        int onFootDay = readLevel(prefs, BrightnessLevelsPreferenceActivity.KEY_LEVEL_ON_FOOT,
+                BrightnessLevelsPreferenceActivity.DEFAULT_LEVEL_ON_FOOT);
+        int onFootNight = readLevel(prefs, BrightnessLevelsPreferenceActivity.KEY_LEVEL_NIGHT_ON_FOOT,
+                BrightnessLevelsPreferenceActivity.DEFAULT_LEVEL_NIGHT_ON_FOOT);
+        table.put(DetectedActivity.ON_FOOT, onFootDay, onFootNight);
+        table.put(DetectedActivity.TILTING, onFootDay, onFootNight);
+        return table;
+    }
+
+    /**
+     * Build the curve from the custom control points, or when there are none, going from the night level at the end
+     * of civil twilight to the day level once the sun is well above the horizon
+     *
+     * @param prefs
+     *         {@link SharedPreferences}
+     * @return {@link BrightnessCurve} or null if the continuous mode is disabled
+     */
+    private static BrightnessCurve compileCurve(SharedPreferences prefs) {
+        if (!prefs.getBoolean(BrightnessLevelsPreferenceActivity.KEY_CONTINUOUS_MODE,
+                BrightnessLevelsPreferenceActivity.DEFAULT_CONTINUOUS_MODE)) {
+            return null;
+        }
+        String points = prefs.getString(BrightnessLevelsPreferenceActivity.KEY_CURVE_POINTS,
+                BrightnessLevelsPreferenceActivity.DEFAULT_CURVE_POINTS);
+        if (!points.trim().isEmpty()) {
+            try {
+                return BrightnessCurve.parse(points);
+            } catch (IllegalArgumentException e) {
+                Log.w(LOG_TAG, "Invalid curve points: " + points);
+            }
+        }
+        int night = readLevel(prefs, BrightnessLevelsPreferenceActivity.KEY_CURVE_NIGHT_LEVEL,
+                BrightnessLevelsPreferenceActivity.DEFAULT_CURVE_NIGHT_LEVEL);
+        int day = readLevel(prefs, BrightnessLevelsPreferenceActivity.KEY_CURVE_DAY_LEVEL,
+                BrightnessLevelsPreferenceActivity.DEFAULT_CURVE_DAY_LEVEL);
+        return new BrightnessCurve(new double[]{CURVE_NIGHT_ELEVATION, CURVE_DAY_ELEVATION},
+                new int[]{BrightnessLevel.getBrightnessLevel(night), BrightnessLevel.getBrightnessLevel(day)});
+    }
+
+    /**
+     * Parse the time windows, one per line, in the current time zone. Lines that can't be parsed are skipped.
+     *
+     * @param prefs
+     *         {@link SharedPreferences}
+     * @return {@link BrightnessSchedule} or null if there are no valid time windows
+     */
+    private static BrightnessSchedule compileSchedule(SharedPreferences prefs) {
+        String value = prefs.getString(BrightnessLevelsPreferenceActivity.KEY_SCHEDULE_RULES,
+                BrightnessLevelsPreferenceActivity.DEFAULT_SCHEDULE_RULES);
+        List<ScheduleRule> rules = new ArrayList<>();
+        for (String line : value.split("\n")) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                rules.add(ScheduleRule.parse(line));
+            } catch (IllegalArgumentException e) {
+                Log.w(LOG_TAG, "Invalid time window: " + line);
+            }
+        }
+        return rules.isEmpty() ? null : new BrightnessSchedule(rules, TimeZone.getDefault());
+    }
+
+    /**
+     * Parse the policy rules, one per line in order of precedence, in the current time zone. Lines that can't be
+     * parsed are skipped.
+     *
+     * @param prefs
+     *         {@link SharedPreferences}
+     * @return {@link PolicyRuleSet} or null if there are no valid rules
+     */
+    private static PolicyRuleSet compilePolicy(SharedPreferences prefs) {
+        String value = prefs.getString(BrightnessLevelsPreferenceActivity.KEY_POLICY_RULES,
+                BrightnessLevelsPreferenceActivity.DEFAULT_POLICY_RULES);
+        List<PolicyRule> rules = new ArrayList<>();
+        for (String line : value.split("\n")) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                rules.add(PolicyRule.parse(line));
+            } catch (IllegalArgumentException e) {
+                Log.w(LOG_TAG, "Invalid policy rule: " + line);
+            }
+        }
+        return rules.isEmpty() ? null : new PolicyRuleSet(rules, TimeZone.getDefault());
+    }
+
+    /**
+     * @param prefs
+     *         {@link SharedPreferences}
+     * @return {@link int} confidence margin for the {@link com.danvelazco.wear.displaybrightness.core.ActivitySmoother}
+     */
+    private static int readSmoothingMargin(SharedPreferences prefs) {
+        return readInt(prefs, BrightnessLevelsPreferenceActivity.KEY_ACTIVITY_SMOOTHING_MARGIN,
+                BrightnessLevelsPreferenceActivity.DEFAULT_ACTIVITY_SMOOTHING_MARGIN, 0, MAX_SMOOTHING_MARGIN);
+    }
+
+    /**
+     * @param prefs
+     *         {@link SharedPreferences}
+     * @return {@link int} confirmations required by the {@link BrightnessSendGate}
+     */
+    private static int readSendConfirmations(SharedPreferences prefs) {
+        return readInt(prefs, BrightnessLevelsPreferenceActivity.KEY_SEND_CONFIRMATIONS,
+                BrightnessLevelsPreferenceActivity.DEFAULT_SEND_CONFIRMATIONS, 1, MAX_SEND_CONFIRMATIONS);
+    }
+
+    /**
+     * @param prefs
+     *         {@link SharedPreferences}
+     * @return {@link long} dwell time of the {@link BrightnessSendGate}
+     */
+    private static long readSendDwellMillis(SharedPreferences prefs) {
+        return readInt(prefs, BrightnessLevelsPreferenceActivity.KEY_SEND_DWELL_MINUTES,
+                BrightnessLevelsPreferenceActivity.DEFAULT_SEND_DWELL_MINUTES, 0, MAX_SEND_DWELL_MINUTES)
+                * MINUTE_MILLIS;
+    }
+
+    /**
+     * Read a number preference, the {@link android.preference.ListPreference} stores them as strings
+     *
+     * @param prefs
+     *         {@link SharedPreferences}
+     * @param key
+     *         {@link String} preference key
+     * @param defaultValue
+     *         {@link int} value used if the preference is not set, can't be parsed or is out of range
+     * @param min
+     *         {@link int} lowest valid value
+     * @param max
+     *         {@link int} highest valid value
+     * @return {@link int} the value
+     */
+    private static int readInt(SharedPreferences prefs, String key, int defaultValue, int min, int max) {
+        String value = prefs.getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int number = Integer.parseInt(value);
+            if (number >= min && number <= max) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // Logged below
+        }
+        Log.w(LOG_TAG, "Invalid value for " + key + ": " + value);
+        return defaultValue;
+    }
+
+    /**
+     * Read a brightness level preference, the {@link android.preference.ListPreference} stores them as strings
+     *
+     * @param prefs
+     *         {@link SharedPreferences}
+     * @param key
+     *         {@link String} preference key
+     * @param defaultValue
+     *         {@link int} level used if the preference is not set or can't be parsed
+     * @return {@link int} the {@link BrightnessLevel}
+     */
+    private static int readLevel(SharedPreferences prefs, String key, int defaultValue) {
+        String value = prefs.getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            Log.w(LOG_TAG, "Invalid brightness level for " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+
+}
@@ -0,0 +1,715 @@
+package com.danvelazco.wear.displaybrightness.util;
+
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.LongSparseArray;
+import com.danvelazco.wear.displaybrightness.core.BrightnessContext;
+import com.danvelazco.wear.displaybrightness.core.NodeDeliveryTracker;
+import com.danvelazco.wear.displaybrightness.core.PolicyInput;
+import com.danvelazco.wear.displaybrightness.shared.BrightnessLevel;
+import com.danvelazco.wear.displaybrightness.shared.BrightnessPayload;
+import com.danvelazco.wear.displaybrightness.shared.LatencyStats;
+import com.danvelazco.wear.displaybrightness.shared.LatencyTrace;
+import com.danvelazco.wear.displaybrightness.shared.LatencyTraceStats;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.DataEvent;
+import com.google.android.gms.wearable.DataEventBuffer;
+import com.google.android.gms.wearable.DataItem;
+import com.google.android.gms.wearable.DataItemBuffer;
+import com.google.android.gms.wearable.DataMap;
+import com.google.android.gms.wearable.DataMapItem;
+import com.google.android.gms.wearable.MessageApi;
+import com.google.android.gms.wearable.MessageEvent;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers brightness levels to the watches.
+ * <p/>
+ * Data items are synced by the Data API on its own schedule, so when the fast path is enabled the level is first sent
+ * as a message to every connected node. The watch acknowledges every level it receives; only if some node didn't
+ * acknowledge the message within the timeout do we fall back to the persistent data item. Delivery latency (time until
+ * the acknowledgement arrives) is recorded per transport.
+ * <p/>
+ * Messages go to every node at the same time, each with its own acknowledgement. What every watch acknowledged, how
+ * long it took and which {@link NodeDeliveryTracker.LevelMapping} the watch uses, learnt from the payload version in
+ * its acknowledgements, is kept in {@link #getDeliveryTracker()}.
+ * <p/>
+ * Levels can carry a {@link LatencyTrace} of how long each stage on the phone took. The watch completes it once the
+ * level is applied and reports it back, the percentiles of every stage are kept in {@link #getTraceStats()}.
+ * <p/>
+ * Newer watches also report their battery level and charging state with every acknowledgement, along with the state
+ * of their ambient light sampler, and put it in a data item on {@link BrightnessLevel#PATH_WATCH_STATUS} whenever it
+ * changes. The battery state of every watch is kept for the policy rules and saved in the preferences given to {@link
+ * #setPreferences(SharedPreferences)}, so it's known right away after the process restarts.
+ */
+public class BrightnessSender implements MessageApi.MessageListener, DataApi.DataListener {
+
+    // Constants
+    private static final String LOG_TAG = "BrightnessSender";
+    public static final long DEFAULT_ACK_TIMEOUT_MILLIS = 3000;
+    public static final String PREF_FILENAME = "watch_status";
+    private static final String KEY_BATTERY_PREFIX = "battery_";
+
+    /**
+     * Pending sends are forgotten after this long, data items can take a while to be synced
+     */
+    private static final long DATA_ITEM_ACK_TIMEOUT_MILLIS = 5 * 60 * 1000;
+
+    /**
+     * Notified when a watch acknowledges a level, and once the send is complete
+     */
+    public interface Callback {
+
+        /**
+         * @param nodeId
+         *         {@link String} node that received the level
+         * @param level
+         *         {@link int} the {@link BrightnessLevel} it received
+         * @param transport
+         *         {@link int} {@link BrightnessLevel#TRANSPORT_MESSAGE} or {@link BrightnessLevel#TRANSPORT_DATA_ITEM}
+         */
+        void onDelivered(String nodeId, int level, int transport);
+
+        /**
+         * Called once, when every node acknowledged the level or the level was put on the data layer, which delivers
+         * it on its own from then on. Nothing is left to do on the client for the send after this.
+         */
+        void onCompleted();
+
+    }
+
+    /**
+     * Battery state reported by a watch
+     */
+    private static class WatchBattery {
+
+        final int mPercent;
+        final int mCharging;
+        final long mReportedAt;
+
+        WatchBattery(int percent, int charging, long reportedAt) {
+            mPercent = percent;
+            mCharging = charging;
+            mReportedAt = reportedAt;
+        }
+
+    }
+
+    /**
+     * A level waiting for acknowledgements
+     */
+    private class PendingSend implements Runnable {
+
+        final long mSequence;
+        final int mLevel;
+        final int mFineLevel;
+        final byte[] mPayload;
+        final Set<String> mRemainingNodeIds;
+        final Callback mCallback;
+        final GoogleApiClient mGoogleApiClient;
+        int mTransport;
+        boolean mCompleted = false;
+        long mMessageSentAt;
+        long mDataItemSentAt;
+
+        PendingSend(GoogleApiClient googleApiClient, long sequence, int level, int fineLevel, int reason,
+                LatencyTrace trace, List<String> nodeIds, Callback callback) {
+            mGoogleApiClient = googleApiClient;
+            mSequence = sequence;
+            mLevel = level;
+            mFineLevel = fineLevel;
+            BrightnessPayload payload = new BrightnessPayload().set(level, sequence, System.currentTimeMillis(),
+                    reason, fineLevel);
+            if (trace != null) {
+                trace.set(LatencyTrace.STAGE_SEND_ISSUED, payload.getTimestamp());
+                payload.setTrace(trace);
+            }
+            mPayload = payload.toByteArray();
+            mRemainingNodeIds = new HashSet<>(nodeIds);
+            mCallback = callback;
+        }
+
+        /**
+         * Ack timeout
+         */
+        @Override
+        public void run() {
+            onAckTimeout(this);
+        }
+
+    }
+
+    // Singleton
+    private static BrightnessSender sInstance;
+
+    // Seeded once with the current time so sequence numbers keep increasing across process restarts. Shared by every
+    // sender, the watch keeps one last sequence per phone and discards anything lower.
+    private static final AtomicLong sSequence = new AtomicLong(System.currentTimeMillis());
+
+    // Members
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final LongSparseArray<PendingSend> mPendingSends = new LongSparseArray<>();
+
+    private GoogleApiClient mListenerClient = null;
+    private int mListenerConnectCount = -1;
+    private volatile boolean mFastPathEnabled = false;
+    private volatile long mAckTimeoutMillis = DEFAULT_ACK_TIMEOUT_MILLIS;
+
+    // Statistics
+    private final LatencyStats mMessageLatency = new LatencyStats("message");
+    private final LatencyStats mDataItemLatency = new LatencyStats("data item");
+    private final LatencyTraceStats mTraceStats = new LatencyTraceStats();
+    private final NodeDeliveryTracker mDeliveryTracker = new NodeDeliveryTracker();
+    private int mFallbackCount = 0;
+    private final Map<String, String> mLightSensorStats = new ConcurrentHashMap<>();
+
+    // State
+    private final Map<String, WatchBattery> mWatchBatteries = new ConcurrentHashMap<>();
+    private volatile SharedPreferences mPreferences;
+
+    /**
+     * @return {@link BrightnessSender} process wide instance
+     */
+    public static synchronized BrightnessSender getInstance() {
+        if (sInstance == null) {
+            sInstance = new BrightnessSender();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Constructor, for levels that must not go through the process wide instance, like the manual levels of the
+     * debug screen. Every sender listens for acknowledgements on the client it was last given, so sharing one between
+     * clients would take the listener away from the other client. The sequence numbers are still shared.
+     */
+    public BrightnessSender() {
+    }
+
+    /**
+     * @return {@link long} next sequence number, higher than any other sent from this process
+     */
+    long nextSequence() {
+        return sSequence.incrementAndGet();
+    }
+
+    /**
+     * Send the level to the nodes, through a message if the fast path is enabled or as a data item otherwise. With no
+     * nodes the data item is put right away, it will be synced once a watch connects.
+     *
+     * @param googleApiClient
+     *         connected {@link GoogleApiClient}
+     * @param connectCount
+     *         {@link int} {@link WearableConnectionManager#getConnectCount()}, used to know when the client reconnected
+     *         and the ack listener must be added again
+     * @param nodeIds
+     *         {@link List} of node ids to deliver to
+     * @param level
+     *         {@link int} the {@link BrightnessLevel}
+     * @param reason
+     *         {@link int} why the level is sent, one of the {@link BrightnessPayload} REASON_ constants
+     * @param callback
+     *         {@link Callback} notified for every acknowledgement, may be null
+     */
+    public void send(GoogleApiClient googleApiClient, int connectCount, List<String> nodeIds, int level, int reason,
+            Callback callback) {
+        send(googleApiClient, connectCount, nodeIds, level, BrightnessPayload.NO_FINE_LEVEL, reason, callback);
+    }
+
+    /**
+     * Send the level to the nodes, see {@link #send(GoogleApiClient, int, List, int, int, Callback)}
+     *
+     * @param googleApiClient
+     *         connected {@link GoogleApiClient}
+     * @param connectCount
+     *         {@link int} {@link WearableConnectionManager#getConnectCount()}
+     * @param nodeIds
+     *         {@link List} of node ids to deliver to
+     * @param level
+     *         {@link int} the {@link BrightnessLevel}, used by watches that don't know about fine levels
+     * @param fineLevel
+     *         {@link int} exact brightness level from the continuous mode, or {@link BrightnessPayload#NO_FINE_LEVEL}
+     * @param reason
+     *         {@link int} why the level is sent, one of the {@link BrightnessPayload} REASON_ constants
+     * @param callback
+     *         {@link Callback} notified for every acknowledgement, may be null
+     */
+    public void send(GoogleApiClient googleApiClient, int connectCount, List<String> nodeIds, int level,
+            int fineLevel, int reason, Callback callback) {
+        send(googleApiClient, connectCount, nodeIds, level, fineLevel, reason, null, callback);
+    }
+
+    /**
+     * Send the level to the nodes, see {@link #send(GoogleApiClient, int, List, int, int, Callback)}
+     *
+     * @param googleApiClient
+     *         connected {@link GoogleApiClient}
+     * @param connectCount
+     *         {@link int} {@link WearableConnectionManager#getConnectCount()}
+     * @param nodeIds
+     *         {@link List} of node ids to deliver to
+     * @param level
+     *         {@link int} the {@link BrightnessLevel}, used by watches that don't know about fine levels
+     * @param fineLevel
+     *         {@link int} exact brightness level from the continuous mode, or {@link BrightnessPayload#NO_FINE_LEVEL}
+     * @param reason
+     *         {@link int} why the level is sent, one of the {@link BrightnessPayload} REASON_ constants
+     * @param trace
+     *         {@link LatencyTrace} stamped up to the decision, the send stage is stamped here. May be null.
+     * @param callback
+     *         {@link Callback} notified for every acknowledgement, may be null
+     */
+    public void send(GoogleApiClient googleApiClient, int connectCount, List<String> nodeIds, int level,
+            int fineLevel, int reason, LatencyTrace trace, Callback callback) {
+        listen(googleApiClient, connectCount);
+
+        final PendingSend pendingSend = new PendingSend(googleApiClient, nextSequence(), level,
+                fineLevel, reason, trace, nodeIds, callback);
+        if (trace != null) {
+            mTraceStats.record(trace, LatencyTrace.STAGE_CONTEXT_READY);
+            Log.d(LOG_TAG, trace.toString());
+        }
+        synchronized (mPendingSends) {
+            mPendingSends.put(pendingSend.mSequence, pendingSend);
+        }
+
+        if (mFastPathEnabled && !nodeIds.isEmpty()) {
+            pendingSend.mTransport = BrightnessLevel.TRANSPORT_MESSAGE;
+            pendingSend.mMessageSentAt = SystemClock.elapsedRealtime();
+            for (String nodeId : nodeIds) {
+                Wearable.MessageApi.sendMessage(googleApiClient, nodeId, BrightnessLevel.PATH_BRIGHTNESS_MESSAGE,
+                        pendingSend.mPayload)
+                        .setResultCallback(new ResultCallback<MessageApi.SendMessageResult>() {
+                            @Override
+                            public void onResult(MessageApi.SendMessageResult sendMessageResult) {
+                                if (!sendMessageResult.getStatus().isSuccess()) {
+                                    // Don't bother waiting for the ack
+                                    fallBackToDataItem(pendingSend);
+                                }
+                            }
+                        });
+            }
+            mHandler.postDelayed(pendingSend, mAckTimeoutMillis);
+        } else {
+            putDataItem(pendingSend);
+        }
+    }
+
+    /**
+     * Listen for acknowledgements and battery states on the client, again every time it reconnects. After a reconnect
+     * the battery states put while the phone wasn't listening are fetched in the background.
+     *
+     * @param googleApiClient
+     *         connected {@link GoogleApiClient}
+     * @param connectCount
+     *         {@link int} {@link WearableConnectionManager#getConnectCount()}
+     */
+    public synchronized void listen(GoogleApiClient googleApiClient, int connectCount) {
+        if (mListenerClient == googleApiClient && mListenerConnectCount == connectCount) {
+            return;
+        }
+        Wearable.MessageApi.addListener(googleApiClient, this);
+        Wearable.DataApi.addListener(googleApiClient, this);
+        mListenerClient = googleApiClient;
+        mListenerConnectCount = connectCount;
+
+        Uri uri = new Uri.Builder().scheme(PutDataRequest.WEAR_URI_SCHEME).path(BrightnessLevel.PATH_WATCH_STATUS)
+                .build();
+        Wearable.DataApi.getDataItems(googleApiClient, uri).setResultCallback(new ResultCallback<DataItemBuffer>() {
+            @Override
+            public void onResult(DataItemBuffer dataItems) {
+                try {
+                    if (dataItems.getStatus().isSuccess()) {
+                        for (DataItem dataItem : dataItems) {
+                            onWatchStatus(dataItem);
+                        }
+                    }
+                } finally {
+                    dataItems.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Keep the battery states in the preferences, and restore the ones saved by an earlier process. Only the first
+     * preferences given are used.
+     *
+     * @param preferences
+     *         {@link SharedPreferences} of {@link #PREF_FILENAME}
+     */
+    public synchronized void setPreferences(SharedPreferences preferences) {
+        if (mPreferences != null) {
+            return;
+        }
+        for (Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+            if (!entry.getKey().startsWith(KEY_BATTERY_PREFIX) || !(entry.getValue() instanceof String)) {
+                continue;
+            }
+            String[] values = ((String) entry.getValue()).split(",");
+            try {
+                WatchBattery battery = new WatchBattery(Integer.parseInt(values[0]), Integer.parseInt(values[1]),
+                        Long.parseLong(values[2]));
+                String nodeId = entry.getKey().substring(KEY_BATTERY_PREFIX.length());
+                // Anything reported since the process started is newer
+                if (!mWatchBatteries.containsKey(nodeId)) {
+                    mWatchBatteries.put(nodeId, battery);
+                }
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                Log.w(LOG_TAG, "Invalid battery state: " + entry);
+            }
+        }
+        mPreferences = preferences;
+    }
+
+    /**
+     * Acknowledgements and trace reports from the watches
+     * <p/>
+     * {@inheritDoc}
+     */
+    @Override
+    public void onMessageReceived(MessageEvent messageEvent) {
+        if (BrightnessLevel.PATH_BRIGHTNESS_TRACE.equals(messageEvent.getPath())) {
+            onTraceReceived(messageEvent);
+            return;
+        }
+        if (!BrightnessLevel.PATH_BRIGHTNESS_ACK.equals(messageEvent.getPath())) {
+            return;
+        }
+
+        DataMap dataMap = DataMap.fromByteArray(messageEvent.getData());
+        long sequence = dataMap.getLong(BrightnessLevel.FIELD_SEQUENCE, -1);
+        int transport = dataMap.getInt(BrightnessLevel.FIELD_TRANSPORT, BrightnessLevel.TRANSPORT_DATA_ITEM);
+        String nodeId = messageEvent.getSourceNodeId();
+        updateMapping(nodeId, dataMap.getInt(BrightnessLevel.FIELD_PAYLOAD_VERSION, 0));
+        updateWatchBattery(nodeId, dataMap, System.currentTimeMillis());
+        String lightSensorStats = dataMap.getString(BrightnessLevel.FIELD_LIGHT_SENSOR_STATS);
+        if (lightSensorStats != null) {
+            mLightSensorStats.put(nodeId, lightSensorStats);
+        }
+
+        PendingSend pendingSend;
+        long sentAt;
+        synchronized (mPendingSends) {
+            pendingSend = mPendingSends.get(sequence);
+            if (pendingSend == null || !pendingSend.mRemainingNodeIds.remove(nodeId)) {
+                // Already timed out or a duplicate
+                return;
+            }
+            if (pendingSend.mRemainingNodeIds.isEmpty()) {
+                mPendingSends.remove(sequence);
+                mHandler.removeCallbacks(pendingSend);
+            }
+            sentAt = transport == BrightnessLevel.TRANSPORT_MESSAGE ? pendingSend.mMessageSentAt
+                    : pendingSend.mDataItemSentAt;
+        }
+
+        long latency = SystemClock.elapsedRealtime() - sentAt;
+        boolean completed = pendingSend.mRemainingNodeIds.isEmpty();
+        LatencyStats stats = transport == BrightnessLevel.TRANSPORT_MESSAGE ? mMessageLatency : mDataItemLatency;
+        stats.record(latency);
+        mDeliveryTracker.markDelivered(nodeId, latency);
+        Log.d(LOG_TAG, "Ack from " + nodeId + " for level " + pendingSend.mLevel + " (" + stats + ")");
+
+        if (pendingSend.mCallback != null) {
+            pendingSend.mCallback.onDelivered(nodeId, pendingSend.mLevel, transport);
+        }
+        if (completed) {
+            complete(pendingSend);
+        }
+    }
+
+    /**
+     * Battery states put by the watches while the phone is listening
+     * <p/>
+     * {@inheritDoc}
+     */
+    @Override
+    public void onDataChanged(DataEventBuffer dataEvents) {
+        for (DataEvent event : dataEvents) {
+            if (event.getType() == DataEvent.TYPE_CHANGED
+                    && BrightnessLevel.PATH_WATCH_STATUS.equals(event.getDataItem().getUri().getPath())) {
+                onWatchStatus(event.getDataItem());
+            }
+        }
+    }
+
+    /**
+     * @param fastPathEnabled
+     *         {@link boolean} whether levels are sent as messages first
+     */
+    public void setFastPathEnabled(boolean fastPathEnabled) {
+        mFastPathEnabled = fastPathEnabled;
+    }
+
+    /**
+     * @param ackTimeoutMillis
+     *         {@link long} how long to wait for message acknowledgements before falling back to a data item
+     */
+    public void setAckTimeoutMillis(long ackTimeoutMillis) {
+        mAckTimeoutMillis = ackTimeoutMillis;
+    }
+
+    /**
+     * @return {@link LatencyStats} of levels delivered with messages
+     */
+    public LatencyStats getMessageLatency() {
+        return mMessageLatency;
+    }
+
+    /**
+     * @return {@link LatencyStats} of levels delivered with data items
+     */
+    public LatencyStats getDataItemLatency() {
+        return mDataItemLatency;
+    }
+
+    /**
+     * @return {@link LatencyTraceStats} of the traced levels, the watch stages once the watches reported them
+     */
+    public LatencyTraceStats getTraceStats() {
+        return mTraceStats;
+    }
+
+    /**
+     * @return {@link NodeDeliveryTracker} with the delivery latency and mapping of every watch
+     */
+    public NodeDeliveryTracker getDeliveryTracker() {
+        return mDeliveryTracker;
+    }
+
+    /**
+     * @return {@link int} battery level of the watch that reported its battery last, or {@link
+     * BrightnessContext#UNKNOWN_BATTERY}
+     */
+    public int getWatchBatteryPercent() {
+        WatchBattery battery = getLatestWatchBattery();
+        return battery != null ? battery.mPercent : BrightnessContext.UNKNOWN_BATTERY;
+    }
+
+    /**
+     * @return {@link int} charging state of the watch that reported its battery last, one of the {@link PolicyInput}
+     * charging states
+     */
+    public int getWatchCharging() {
+        WatchBattery battery = getLatestWatchBattery();
+        return battery != null ? battery.mCharging : PolicyInput.CHARGING_UNKNOWN;
+    }
+
+    /**
+     * @return {@link Map} of the id of every watch that reported it to the state of its ambient light sampler
+     */
+    public Map<String, String> getLightSensorStats() {
+        return new HashMap<>(mLightSensorStats);
+    }
+
+    /**
+     * @return {@link int} number of times the message wasn't acknowledged and a data item had to be used
+     */
+    public synchronized int getFallbackCount() {
+        return mFallbackCount;
+    }
+
+    /**
+     * @param dataItem
+     *         {@link DataItem} on {@link BrightnessLevel#PATH_WATCH_STATUS}, put by the watch
+     */
+    private void onWatchStatus(DataItem dataItem) {
+        DataMap dataMap = DataMapItem.fromDataItem(dataItem).getDataMap();
+        updateWatchBattery(dataItem.getUri().getHost(), dataMap, dataMap.getLong(BrightnessLevel.FIELD_STATUS_TIME,
+                System.currentTimeMillis()));
+    }
+
+    /**
+     * Keep the battery state of a watch and save it, watches that don't report it are left alone
+     *
+     * @param nodeId
+     *         {@link String} id of the watch
+     * @param dataMap
+     *         {@link DataMap} an acknowledgement or the status data item
+     * @param reportedAt
+     *         {@link long} time the watch reported the state at, in epoch millis. A state fetched after a reconnect
+     *         can be older than the one from the last acknowledgement.
+     */
+    private synchronized void updateWatchBattery(String nodeId, DataMap dataMap, long reportedAt) {
+        if (nodeId == null || !dataMap.containsKey(BrightnessLevel.FIELD_CHARGING)) {
+            return;
+        }
+        WatchBattery known = mWatchBatteries.get(nodeId);
+        if (known != null && known.mReportedAt > reportedAt) {
+            return;
+        }
+        WatchBattery battery = new WatchBattery(dataMap.getInt(BrightnessLevel.FIELD_BATTERY_PERCENT,
+                BrightnessContext.UNKNOWN_BATTERY), dataMap.getBoolean(BrightnessLevel.FIELD_CHARGING)
+                ? PolicyInput.CHARGING_YES : PolicyInput.CHARGING_NO, reportedAt);
+        mWatchBatteries.put(nodeId, battery);
+        SharedPreferences preferences = mPreferences;
+        if (preferences != null) {
+            preferences.edit().putString(KEY_BATTERY_PREFIX + nodeId, battery.mPercent + "," + battery.mCharging
+                    + "," + battery.mReportedAt).apply();
+        }
+    }
+
+    /**
+     * With several watches the one that reported last is the one being worn, the others are likely charging or out of
+     * range
+     *
+     * @return {@link WatchBattery} reported last, or null if no watch reported its battery
+     */
+    private WatchBattery getLatestWatchBattery() {
+        WatchBattery latest = null;
+        for (WatchBattery battery : mWatchBatteries.values()) {
+            if (latest == null || battery.mReportedAt > latest.mReportedAt) {
+                latest = battery;
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Pick the {@link NodeDeliveryTracker.LevelMapping} of a watch from the newest payload version it understands
+     *
+     * @param nodeId
+     *         {@link String} id of the watch
+     * @param payloadVersion
+     *         {@link int} from the acknowledgement, 0 if the watch didn't say
+     */
+    private void updateMapping(String nodeId, int payloadVersion) {
+        if (payloadVersion <= 0) {
+            // Older watches only know the coarse levels
+            return;
+        }
+        mDeliveryTracker.setMapping(nodeId, payloadVersion >= BrightnessPayload.VERSION_FINE_LEVEL
+                ? NodeDeliveryTracker.FINE : NodeDeliveryTracker.COARSE);
+    }
+
+    /**
+     * Record the watch stages of a trace reported by a watch, the phone stages were recorded when the level was sent
+     *
+     * @param messageEvent
+     *         {@link MessageEvent} on {@link BrightnessLevel#PATH_BRIGHTNESS_TRACE}
+     */
+    private void onTraceReceived(MessageEvent messageEvent) {
+        DataMap dataMap = DataMap.fromByteArray(messageEvent.getData());
+        LatencyTrace trace = new LatencyTrace();
+        trace.fromArray(dataMap.getLongArray(BrightnessLevel.FIELD_TRACE));
+        mTraceStats.record(trace, LatencyTrace.STAGE_WATCH_RECEIVED);
+        Log.d(LOG_TAG, "Trace from " + messageEvent.getSourceNodeId() + " for sequence "
+                + dataMap.getLong(BrightnessLevel.FIELD_SEQUENCE, -1) + ": " + trace);
+    }
+
+    /**
+     * Called on the main thread when the ack timeout for a pending send expires
+     *
+     * @param pendingSend
+     *         {@link PendingSend}
+     */
+    private void onAckTimeout(PendingSend pendingSend) {
+        boolean dataItem;
+        synchronized (mPendingSends) {
+            if (mPendingSends.get(pendingSend.mSequence) != pendingSend) {
+                return;
+            }
+            dataItem = pendingSend.mTransport == BrightnessLevel.TRANSPORT_DATA_ITEM;
+            if (dataItem) {
+                // Nobody acknowledged the data item in time, stop tracking it
+                mPendingSends.remove(pendingSend.mSequence);
+            }
+        }
+        if (dataItem) {
+            complete(pendingSend);
+        } else {
+            fallBackToDataItem(pendingSend);
+        }
+    }
+
+    /**
+     * Notify the callback that the send is complete, only the first time
+     *
+     * @param pendingSend
+     *         {@link PendingSend}
+     */
+    private void complete(PendingSend pendingSend) {
+        synchronized (mPendingSends) {
+            if (pendingSend.mCompleted) {
+                return;
+            }
+            pendingSend.mCompleted = true;
+        }
+        if (pendingSend.mCallback != null) {
+            pendingSend.mCallback.onCompleted();
+        }
+    }
+
+    /**
+     * Send the level as a data item because the message wasn't acknowledged or couldn't be sent, only once per send
+     *
+     * @param pendingSend
+     *         {@link PendingSend}
+     */
+    private void fallBackToDataItem(PendingSend pendingSend) {
+        synchronized (mPendingSends) {
+            if (mPendingSends.get(pendingSend.mSequence) != pendingSend
+                    || pendingSend.mTransport != BrightnessLevel.TRANSPORT_MESSAGE) {
+                return;
+            }
+            pendingSend.mTransport = BrightnessLevel.TRANSPORT_DATA_ITEM;
+        }
+        mHandler.removeCallbacks(pendingSend);
+
+        synchronized (this) {
+            mFallbackCount++;
+        }
+        Log.d(LOG_TAG, "No ack for level " + pendingSend.mLevel + ", falling back to data item");
+        putDataItem(pendingSend);
+    }
+
+    /**
+     * Put the level on the data layer and wait for the acknowledgements
+     *
+     * @param pendingSend
+     *         {@link PendingSend}
+     */
+    private void putDataItem(final PendingSend pendingSend) {
+        synchronized (mPendingSends) {
+            pendingSend.mTransport = BrightnessLevel.TRANSPORT_DATA_ITEM;
+            pendingSend.mDataItemSentAt = SystemClock.elapsedRealtime();
+        }
+
+        PutDataMapRequest dataMap = PutDataMapRequest.create(BrightnessLevel.PATH_BRIGHTNESS);
+        dataMap.getDataMap().putByteArray(BrightnessLevel.FIELD_PAYLOAD, pendingSend.mPayload);
+
+        // Still understood by watches running an older version of the app
+        dataMap.getDataMap().putInt(BrightnessLevel.FIELD_NAME, pendingSend.mLevel);
+        PutDataRequest request = dataMap.asPutDataRequest();
+        Wearable.DataApi.putDataItem(pendingSend.mGoogleApiClient, request)
+                .setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
+                    @Override
+                    public void onResult(DataApi.DataItemResult dataItemResult) {
+                        if (!dataItemResult.getStatus().isSuccess()) {
+                            Log.w(LOG_TAG, "Unable to put level " + pendingSend.mLevel + ": "
+                                    + dataItemResult.getStatus());
+                        }
+                        complete(pendingSend);
+                    }
+                });
+        mHandler.postDelayed(pendingSend, DATA_ITEM_ACK_TIMEOUT_MILLIS);
+        Log.d(LOG_TAG, "Data item put for level " + pendingSend.mLevel);
+    }
+
+}
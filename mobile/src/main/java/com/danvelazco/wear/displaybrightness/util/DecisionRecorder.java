@@ -0,0 +1,112 @@
+package com.danvelazco.wear.displaybrightness.util;
+
+import android.content.Context;
+import android.util.Log;
+import com.danvelazco.wear.displaybrightness.core.BrightnessContext;
+import com.danvelazco.wear.displaybrightness.core.BrightnessDecision;
+import com.danvelazco.wear.displaybrightness.core.DecisionJournal;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Keeps every brightness decision made on the phone, sent or suppressed, in a {@link DecisionJournal} stored in the
+ * app's files, so "the watch was too dim last night" can be looked into after the fact.
+ * <p/>
+ * Recording is a few writes to mapped memory and can be done from any thread. If the journal can't be opened the
+ * recorder logs it once and does nothing from then on; the decisions are still made and sent.
+ */
+public class DecisionRecorder {
+
+    // Constants
+    private static final String LOG_TAG = "DecisionRecorder";
+    private static final String JOURNAL_FILENAME = "decisions.journal";
+
+    // Singleton
+    private static DecisionRecorder sInstance;
+
+    // Members
+    private final DecisionJournal mJournal;
+
+    /**
+     * Get the process wide instance, the journal is opened once and kept open
+     *
+     * @param context
+     *         {@link Context}
+     * @return {@link DecisionRecorder}
+     */
+    public static synchronized DecisionRecorder getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new DecisionRecorder(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param context
+     *         {@link Context}
+     */
+    private DecisionRecorder(Context context) {
+        DecisionJournal journal = null;
+        try {
+            journal = DecisionJournal.open(new File(context.getFilesDir(), JOURNAL_FILENAME),
+                    DecisionJournal.DEFAULT_CAPACITY);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Unable to open the decision journal, decisions won't be recorded", e);
+        }
+        mJournal = journal;
+    }
+
+    /**
+     * Record a decision
+     *
+     * @param context
+     *         {@link BrightnessContext} the decision was made on
+     * @param decision
+     *         {@link BrightnessDecision}
+     * @param reason
+     *         {@link int} why the level was picked, one of the payload reasons
+     * @param sent
+     *         {@link boolean} true if the level was sent, false if it was suppressed
+     */
+    public void record(BrightnessContext context, BrightnessDecision decision, int reason, boolean sent) {
+        if (mJournal != null) {
+            mJournal.append(context, decision, reason, sent);
+        }
+    }
+
+    /**
+     * Export the journal as CSV, blocks so it must not be called on the main thread
+     *
+     * @param file
+     *         {@link File} to write, overwritten if it exists
+     * @return {@link boolean} true if the file was written
+     */
+    public boolean exportCsv(File file) {
+        if (mJournal == null) {
+            return false;
+        }
+        Writer writer = null;
+        try {
+            writer = new FileWriter(file);
+            mJournal.exportCsv(writer);
+            return true;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Unable to export the decision journal to " + file, e);
+            return false;
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    // Nothing left to do
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.danvelazco.wear.displaybrightness.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+import com.danvelazco.wear.displaybrightness.BrightnessLevelsPreferenceActivity;
+import com.danvelazco.wear.displaybrightness.shared.BrightnessLevel;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.Wearable;
+
+/**
+ * Sends the ambient light sensor fusion preferences to the watches as a data item on {@link
+ * BrightnessLevel#PATH_LIGHT_SENSOR_CONFIG}. The data layer keeps the item, so watches that aren't connected get it
+ * as soon as they are.
+ */
+public class LightSensorConfigSender {
+
+    // Constants
+    private static final String LOG_TAG = "LightSensorConfig";
+
+    /**
+     * Put the current preferences on the data layer
+     *
+     * @param context
+     *         {@link Context}
+     */
+    public static void send(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(BrightnessLevelsPreferenceActivity.KEY_PREF_FILENAME,
+                Context.MODE_MULTI_PROCESS);
+        final boolean enabled = prefs.getBoolean(BrightnessLevelsPreferenceActivity.KEY_LIGHT_SENSOR_FUSION,
+                BrightnessLevelsPreferenceActivity.DEFAULT_LIGHT_SENSOR_FUSION);
+        final int batchLatencySeconds = parseInt(prefs.getString(
+                BrightnessLevelsPreferenceActivity.KEY_LIGHT_SENSOR_BATCH_LATENCY, null),
+                BrightnessLevelsPreferenceActivity.DEFAULT_LIGHT_SENSOR_BATCH_LATENCY);
+        final int sampleCount = parseInt(prefs.getString(
+                BrightnessLevelsPreferenceActivity.KEY_LIGHT_SENSOR_SAMPLES, null),
+                BrightnessLevelsPreferenceActivity.DEFAULT_LIGHT_SENSOR_SAMPLES);
+        final int sensorWeightPercent = parseInt(prefs.getString(
+                BrightnessLevelsPreferenceActivity.KEY_LIGHT_SENSOR_WEIGHT, null),
+                BrightnessLevelsPreferenceActivity.DEFAULT_LIGHT_SENSOR_WEIGHT);
+
+        WearableConnectionManager.getInstance(context).execute(new WearableConnectionManager.Task() {
+            @Override
+            public void run(GoogleApiClient googleApiClient) {
+                PutDataMapRequest request = PutDataMapRequest.create(BrightnessLevel.PATH_LIGHT_SENSOR_CONFIG);
+                request.getDataMap().putBoolean(BrightnessLevel.FIELD_LIGHT_SENSOR_ENABLED, enabled);
+                request.getDataMap().putInt(BrightnessLevel.FIELD_BATCH_LATENCY_SECONDS, batchLatencySeconds);
+                request.getDataMap().putInt(BrightnessLevel.FIELD_SAMPLE_COUNT, sampleCount);
+                request.getDataMap().putInt(BrightnessLevel.FIELD_SENSOR_WEIGHT_PERCENT, sensorWeightPercent);
+                Wearable.DataApi.putDataItem(googleApiClient, request.asPutDataRequest());
+                Log.d(LOG_TAG, "Sent (enabled=" + enabled + ", latency=" + batchLatencySeconds + "s, samples="
+                        + sampleCount + ", weight=" + sensorWeightPercent + "%)");
+            }
+        });
+    }
+
+    /**
+     * @return {@link int} parsed value, or the default value if it can't be parsed
+     */
+    private static int parseInt(String value, int defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+}
@@ -0,0 +1,127 @@
+package com.danvelazco.wear.displaybrightness.util;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.util.Log;
+import com.danvelazco.wear.displaybrightness.core.BrightnessContext;
+import com.danvelazco.wear.displaybrightness.core.BrightnessCurve;
+import com.danvelazco.wear.displaybrightness.core.BrightnessDecisionTable;
+import com.danvelazco.wear.displaybrightness.core.SolarEventCache;
+import com.danvelazco.wear.displaybrightness.receiver.SolarTransitionReceiver;
+
+/**
+ * Schedules an alarm for the next sunrise or sunset, so the day or night level is pushed to the watch as soon as it
+ * changes instead of whenever the next activity is detected.
+ * <p/>
+ * The alarm carries the last known activity and location, so the level can be re-evaluated even if the process was
+ * killed in the meantime; they are updated on every detection. The transition time only changes when the location
+ * cell or the date changes (or once the transition has passed), so the alarm itself is only replaced when the time is
+ * different from the one already scheduled.
+ * <p/>
+ * The same alarm is used for the start and end of the user's time windows, see {@link
+ * com.danvelazco.wear.displaybrightness.core.BrightnessSchedule#getNextBoundary(long)}.
+ */
+public class SolarTransitionAlarm {
+
+    // Constants
+    private static final String LOG_TAG = "SolarTransitionAlarm";
+
+    /**
+     * Extras of the alarm intent
+     */
+    public static final String EXTRA_ACTIVITY_TYPE = "activity_type";
+    public static final String EXTRA_CONFIDENCE = "confidence";
+    public static final String EXTRA_LATITUDE = "latitude";
+    public static final String EXTRA_LONGITUDE = "longitude";
+
+    /**
+     * How late the alarm is allowed to fire, a small window lets the system batch it with other alarms
+     */
+    public static final long WINDOW_MILLIS = 60 * 1000L;
+
+    /**
+     * Fire slightly after the transition, right at the transition it's still considered to be the previous state
+     */
+    private static final long TRANSITION_MARGIN_MILLIS = 1000L;
+
+    // Last transition an alarm was set for, for as long as the process lives
+    private static long sScheduledTransition = SolarEventCache.NO_EVENT;
+
+    /**
+     * Set the alarm for the transition, unless it's already set. The activity and location carried by the alarm are
+     * always updated.
+     *
+     * @param context
+     *         {@link Context}
+     * @param brightnessContext
+     *         {@link BrightnessContext} snapshot the transition was calculated for
+     * @param transitionMillis
+     *         {@link long} time of the next sunrise or sunset in epoch millis, or {@link SolarEventCache#NO_EVENT} to
+     *         cancel the alarm
+     */
+    public static synchronized void schedule(Context context, BrightnessContext brightnessContext,
+            long transitionMillis) {
+        // Updates the extras of an already scheduled alarm
+        PendingIntent pendingIntent = createPendingIntent(context, brightnessContext);
+        if (transitionMillis == sScheduledTransition) {
+            return;
+        }
+
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        if (transitionMillis == SolarEventCache.NO_EVENT) {
+            Log.d(LOG_TAG, "No upcoming transition, cancelling the alarm");
+            alarmManager.cancel(pendingIntent);
+            sScheduledTransition = transitionMillis;
+            return;
+        }
+
+        Log.d(LOG_TAG, "Next solar transition at " + transitionMillis);
+        long triggerAt = transitionMillis + TRANSITION_MARGIN_MILLIS;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            alarmManager.setWindow(AlarmManager.RTC_WAKEUP, triggerAt, WINDOW_MILLIS, pendingIntent);
+        } else {
+            alarmManager.set(AlarmManager.RTC_WAKEUP, triggerAt, pendingIntent);
+        }
+        sScheduledTransition = transitionMillis;
+    }
+
+    /**
+     * Read the snapshot stored in the alarm intent back
+     *
+     * @param intent
+     *         {@link Intent} received by the {@link SolarTransitionReceiver}
+     * @param timeMillis
+     *         {@link long} current time in epoch millis
+     * @param decisionTable
+     *         {@link BrightnessDecisionTable} current levels
+     * @param curve
+     *         {@link BrightnessCurve} current curve, or null if the continuous mode is disabled
+     * @return {@link BrightnessContext}
+     */
+    public static BrightnessContext readContext(Intent intent, long timeMillis,
+            BrightnessDecisionTable decisionTable, BrightnessCurve curve) {
+        return new BrightnessContext(
+                intent.getIntExtra(EXTRA_ACTIVITY_TYPE, BrightnessDecisionTable.UNKNOWN),
+                intent.getIntExtra(EXTRA_CONFIDENCE, 0),
+                intent.getDoubleExtra(EXTRA_LATITUDE, BrightnessContext.UNKNOWN_COORDINATE),
+                intent.getDoubleExtra(EXTRA_LONGITUDE, BrightnessContext.UNKNOWN_COORDINATE),
+                timeMillis, decisionTable, curve);
+    }
+
+    /**
+     * @return {@link PendingIntent} for the {@link SolarTransitionReceiver}, always the same one so setting a new
+     * alarm replaces the old one
+     */
+    private static PendingIntent createPendingIntent(Context context, BrightnessContext brightnessContext) {
+        Intent intent = new Intent(context, SolarTransitionReceiver.class);
+        intent.putExtra(EXTRA_ACTIVITY_TYPE, brightnessContext.getActivityType());
+        intent.putExtra(EXTRA_CONFIDENCE, brightnessContext.getConfidence());
+        intent.putExtra(EXTRA_LATITUDE, brightnessContext.getLatitude());
+        intent.putExtra(EXTRA_LONGITUDE, brightnessContext.getLongitude());
+        return PendingIntent.getBroadcast(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+}
@@ -0,0 +1,329 @@
+package com.danvelazco.wear.displaybrightness.util;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.location.ActivityRecognition;
+import com.google.android.gms.location.LocationServices;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process wide owner of the {@link GoogleApiClient} used to talk to the {@link Wearable#API}, {@link
+ * LocationServices#API} and {@link ActivityRecognition#API}.
+ * <p/>
+ * Connecting to Google Play Services is expensive, so instead of connecting and disconnecting on every activity
+ * detection, a single client is kept connected until it has been idle for {@link #getIdleTimeoutMillis()}. Work is
+ * submitted with {@link #execute(Task)}; if the client is already connected the task runs right away on the calling
+ * thread, otherwise it's queued and run on the main thread as soon as the client connects.
+ * <p/>
+ * Work that outlives a task, e.g. a send waiting for its result, holds the client with {@link #acquire(long,
+ * TimeUnit)} from a background thread and lets go of it with {@link #release()}. The idle timeout only starts once
+ * every task is done and every hold released.
+ */
+public class WearableConnectionManager implements GoogleApiClient.ConnectionCallbacks,
+        GoogleApiClient.OnConnectionFailedListener {
+
+    // Constants
+    private static final String LOG_TAG = "WearableConnectionMgr";
+
+    /**
+     * Default time the client stays connected after the last task, longer than the activity detection interval so the
+     * next detection finds the client already connected
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 15 * 60 * 1000;
+
+    /**
+     * Work that needs a connected {@link GoogleApiClient}
+     */
+    public interface Task {
+
+        /**
+         * @param googleApiClient
+         *         connected {@link GoogleApiClient}, must not be disconnected by the task
+         */
+        void run(GoogleApiClient googleApiClient);
+
+    }
+
+    // Singleton
+    private static WearableConnectionManager sInstance;
+
+    // Members
+    private final GoogleApiClient mGoogleApiClient;
+    private final Handler mHandler;
+    private final Queue<Task> mPendingTasks = new ArrayDeque<>();
+    private long mIdleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+    private int mRunningTasks = 0;
+    private int mHoldCount = 0;
+    private long mConnectStartedAt = 0;
+
+    // Statistics
+    private int mConnectCount = 0;
+    private int mConnectFailureCount = 0;
+    private int mReusedCount = 0;
+    private long mLastConnectLatencyMillis = 0;
+    private long mTotalConnectLatencyMillis = 0;
+
+    /**
+     * Disconnects the client if nothing used it during the idle timeout
+     */
+    private final Runnable mIdleDisconnectRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (WearableConnectionManager.this) {
+                if (isIdle() && mGoogleApiClient.isConnected()) {
+                    Log.d(LOG_TAG, "Idle, disconnecting");
+                    mGoogleApiClient.disconnect();
+                }
+            }
+        }
+    };
+
+    /**
+     * Get the process wide instance
+     *
+     * @param context
+     *         {@link Context}, only the application context is retained
+     * @return {@link WearableConnectionManager}
+     */
+    public static synchronized WearableConnectionManager getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WearableConnectionManager(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param context
+     *         {@link Context}
+     */
+    private WearableConnectionManager(Context context) {
+        mHandler = new Handler(Looper.getMainLooper());
+        mGoogleApiClient = new GoogleApiClient.Builder(context)
+                .addApi(Wearable.API)
+                .addApi(LocationServices.API)
+                .addApi(ActivityRecognition.API)
+                .addConnectionCallbacks(this)
+                .addOnConnectionFailedListener(this)
+                .build();
+    }
+
+    /**
+     * Run the task with a connected {@link GoogleApiClient}, connecting first if needed
+     *
+     * @param task
+     *         {@link Task}
+     */
+    public void execute(Task task) {
+        synchronized (this) {
+            mHandler.removeCallbacks(mIdleDisconnectRunnable);
+            if (!mGoogleApiClient.isConnected()) {
+                mPendingTasks.add(task);
+                if (!mGoogleApiClient.isConnecting()) {
+                    Log.d(LOG_TAG, "Connecting");
+                    mConnectStartedAt = SystemClock.elapsedRealtime();
+                    mGoogleApiClient.connect();
+                }
+                return;
+            }
+            mReusedCount++;
+            mRunningTasks++;
+        }
+        runTask(task);
+    }
+
+    /**
+     * Wait for a connected {@link GoogleApiClient} and hold it until {@link #release()} is called. Must not be called
+     * from the main thread.
+     *
+     * @param timeout
+     *         {@link long} how long to wait for the connection
+     * @param unit
+     *         {@link TimeUnit} of the timeout
+     * @return {@link GoogleApiClient} connected client, or null if it couldn't connect in time, in which case nothing
+     * is held
+     */
+    public GoogleApiClient acquire(long timeout, TimeUnit unit) {
+        final CountDownLatch connected = new CountDownLatch(1);
+        Task task = new Task() {
+            @Override
+            public void run(GoogleApiClient googleApiClient) {
+                connected.countDown();
+            }
+        };
+        synchronized (this) {
+            mHoldCount++;
+        }
+        execute(task);
+
+        boolean success = false;
+        try {
+            success = connected.await(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!success) {
+            synchronized (this) {
+                mPendingTasks.remove(task);
+            }
+            release();
+            return null;
+        }
+        return mGoogleApiClient;
+    }
+
+    /**
+     * Let go of a client held with {@link #acquire(long, TimeUnit)}, can be called from any thread
+     */
+    public void release() {
+        synchronized (this) {
+            mHoldCount--;
+            scheduleIdleDisconnect();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onConnected(Bundle bundle) {
+        List<Task> tasks;
+        synchronized (this) {
+            mConnectCount++;
+            mLastConnectLatencyMillis = SystemClock.elapsedRealtime() - mConnectStartedAt;
+            mTotalConnectLatencyMillis += mLastConnectLatencyMillis;
+            Log.d(LOG_TAG, "Connected in " + mLastConnectLatencyMillis + "ms (connects=" + mConnectCount
+                    + ", reused=" + mReusedCount + ")");
+
+            tasks = new ArrayList<>(mPendingTasks);
+            mPendingTasks.clear();
+            mRunningTasks += tasks.size();
+        }
+        for (Task task : tasks) {
+            runTask(task);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onConnectionSuspended(int cause) {
+        // The client reconnects on its own, pending tasks will run when it does
+        Log.d(LOG_TAG, "onConnectionSuspended(cause=" + cause + ")");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onConnectionFailed(ConnectionResult connectionResult) {
+        synchronized (this) {
+            mConnectFailureCount++;
+            Log.w(LOG_TAG, "Connection failed: " + connectionResult + ", dropping " + mPendingTasks.size()
+                    + " pending task(s)");
+            mPendingTasks.clear();
+        }
+    }
+
+    /**
+     * @param idleTimeoutMillis
+     *         {@link long} time the client stays connected after the last task finishes
+     */
+    public synchronized void setIdleTimeoutMillis(long idleTimeoutMillis) {
+        mIdleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * @return {@link long} time the client stays connected after the last task finishes
+     */
+    public synchronized long getIdleTimeoutMillis() {
+        return mIdleTimeoutMillis;
+    }
+
+    /**
+     * @return {@link int} number of times the client had to connect
+     */
+    public synchronized int getConnectCount() {
+        return mConnectCount;
+    }
+
+    /**
+     * @return {@link int} number of times the client failed to connect
+     */
+    public synchronized int getConnectFailureCount() {
+        return mConnectFailureCount;
+    }
+
+    /**
+     * @return {@link int} number of tasks that ran on an already connected client
+     */
+    public synchronized int getReusedCount() {
+        return mReusedCount;
+    }
+
+    /**
+     * @return {@link long} time the last connection took
+     */
+    public synchronized long getLastConnectLatencyMillis() {
+        return mLastConnectLatencyMillis;
+    }
+
+    /**
+     * @return {@link long} average time a connection takes
+     */
+    public synchronized long getAverageConnectLatencyMillis() {
+        return mConnectCount > 0 ? mTotalConnectLatencyMillis / mConnectCount : 0;
+    }
+
+    /**
+     * Run the task and schedule the idle disconnect once nothing else is running
+     *
+     * @param task
+     *         {@link Task}
+     */
+    private void runTask(Task task) {
+        try {
+            task.run(mGoogleApiClient);
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Task failed", e);
+        } finally {
+            synchronized (this) {
+                mRunningTasks--;
+                scheduleIdleDisconnect();
+            }
+        }
+    }
+
+    /**
+     * @return {@link boolean} true if no task is pending or running and the client isn't held
+     */
+    private boolean isIdle() {
+        return mPendingTasks.isEmpty() && mRunningTasks == 0 && mHoldCount == 0;
+    }
+
+    /**
+     * Start the idle timeout over if nothing uses the client any more, the caller synchronizes
+     */
+    private void scheduleIdleDisconnect() {
+        if (isIdle()) {
+            mHandler.removeCallbacks(mIdleDisconnectRunnable);
+            mHandler.postDelayed(mIdleDisconnectRunnable, mIdleTimeoutMillis);
+        }
+    }
+
+}
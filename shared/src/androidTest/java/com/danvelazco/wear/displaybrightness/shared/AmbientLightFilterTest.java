@@ -0,0 +1,65 @@
+package com.danvelazco.wear.displaybrightness.shared;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the {@link AmbientLightFilter}
+ */
+public class AmbientLightFilterTest extends TestCase {
+
+    // Constants
+    private static final int LOW = BrightnessLevel.getBrightnessLevel(BrightnessLevel.LOWEST);
+    private static final int HIGH = BrightnessLevel.getBrightnessLevel(BrightnessLevel.HIGHEST);
+
+    public void testAveragesLastSamples() {
+        AmbientLightFilter filter = new AmbientLightFilter(4);
+        assertEquals(0f, filter.getFilteredLux());
+        filter.addSample(100, 0);
+        filter.addSample(300, 1);
+        assertEquals(200f, filter.getFilteredLux(), 0.01f);
+
+        // A short spike is smoothed out, then replaced
+        filter.addSample(10000, 2);
+        filter.addSample(100, 3);
+        assertEquals(2625f, filter.getFilteredLux(), 0.01f);
+        for (int i = 0; i < 4; i++) {
+            filter.addSample(50, 4 + i);
+        }
+        assertEquals(50f, filter.getFilteredLux(), 0.01f);
+        assertEquals(8, filter.getTotalSamples());
+
+        // Invalid samples are ignored
+        filter.addSample(-1, 10);
+        filter.addSample(Float.NaN, 11);
+        assertEquals(50f, filter.getFilteredLux(), 0.01f);
+    }
+
+    public void testLuxBrightnessLevel() {
+        assertEquals(LOW, AmbientLightFilter.getLuxBrightnessLevel(0));
+        assertEquals(LOW, AmbientLightFilter.getLuxBrightnessLevel(1));
+        assertEquals(HIGH, AmbientLightFilter.getLuxBrightnessLevel(10000));
+        assertEquals(HIGH, AmbientLightFilter.getLuxBrightnessLevel(100000));
+        assertEquals(133, AmbientLightFilter.getLuxBrightnessLevel(100));
+    }
+
+    public void testFusesWithPhoneLevel() {
+        AmbientLightFilter filter = new AmbientLightFilter(4);
+        filter.setMaxAgeMillis(1000);
+
+        // Nothing measured yet
+        assertEquals(HIGH, filter.fuse(HIGH, 0));
+
+        filter.addSample(1, 0);
+        assertEquals((HIGH + LOW) / 2 + 1, filter.fuse(HIGH, 500));
+
+        filter.setSensorWeight(1);
+        assertEquals(LOW, filter.fuse(HIGH, 500));
+        filter.setSensorWeight(0);
+        assertEquals(HIGH, filter.fuse(HIGH, 500));
+
+        // Too old to be trusted
+        filter.setSensorWeight(1);
+        assertEquals(HIGH, filter.fuse(HIGH, 5000));
+    }
+
+}
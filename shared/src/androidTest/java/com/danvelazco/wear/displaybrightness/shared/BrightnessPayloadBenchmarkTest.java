@@ -0,0 +1,61 @@
+package com.danvelazco.wear.displaybrightness.shared;
+
+import android.os.Debug;
+import android.util.Log;
+import junit.framework.TestCase;
+
+/**
+ * Throughput and allocation microbenchmark of the {@link BrightnessPayload} codec. Results are logged, the only
+ * assertion is that encoding into a reused buffer and decoding don't allocate.
+ */
+public class BrightnessPayloadBenchmarkTest extends TestCase {
+
+    // Constants
+    private static final String LOG_TAG = "BrightnessPayloadBench";
+    private static final int WARMUP_ITERATIONS = 20000;
+    private static final int ITERATIONS = 200000;
+
+    // Members
+    private final byte[] mBuffer = new byte[BrightnessPayload.MAX_ENCODED_SIZE];
+    private final BrightnessPayload mPayload = new BrightnessPayload();
+    private final BrightnessPayload mDecoded = new BrightnessPayload();
+    private int mLength;
+
+    public void testEncodeDecode() {
+        // Warm up, also makes sure everything is loaded before counting allocations
+        run(WARMUP_ITERATIONS);
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        long start = System.nanoTime();
+        long checksum = run(ITERATIONS);
+        long elapsedNanos = System.nanoTime() - start;
+        int allocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+
+        double opsPerSecond = ITERATIONS * 1e9d / elapsedNanos;
+        Log.i(LOG_TAG, "encode+decode: " + (long) opsPerSecond + " ops/s, " + (elapsedNanos / ITERATIONS)
+                + " ns/op, " + mLength + " bytes, " + allocations + " allocations (checksum " + checksum + ")");
+
+        assertEquals(0, allocations);
+    }
+
+    /**
+     * Encode and decode the given number of payloads
+     *
+     * @return {@link long} checksum so the work can't be optimized away
+     */
+    private long run(int iterations) {
+        long checksum = 0;
+        long timestamp = 1444000000000L;
+        for (int i = 0; i < iterations; i++) {
+            mPayload.set(i % 5, timestamp + i, timestamp + i, BrightnessPayload.REASON_ACTIVITY);
+            mLength = mPayload.encode(mBuffer, 0);
+            if (mDecoded.decode(mBuffer, 0, mLength)) {
+                checksum += mDecoded.getSequence() + mDecoded.getLevel();
+            }
+        }
+        return checksum;
+    }
+
+}
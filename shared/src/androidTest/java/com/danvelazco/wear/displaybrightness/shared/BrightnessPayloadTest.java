@@ -0,0 +1,147 @@
+package com.danvelazco.wear.displaybrightness.shared;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the {@link BrightnessPayload} codec
+ */
+public class BrightnessPayloadTest extends TestCase {
+
+    public void testRoundTrip() {
+        BrightnessPayload payload = new BrightnessPayload().set(BrightnessLevel.MEDIUM_HIGH, 1444000000123L,
+                1444000000999L, BrightnessPayload.REASON_DAYLIGHT);
+
+        BrightnessPayload decoded = new BrightnessPayload();
+        assertTrue(decoded.decode(payload.toByteArray()));
+        assertEquals(BrightnessPayload.VERSION, decoded.getVersion());
+        assertEquals(BrightnessLevel.MEDIUM_HIGH, decoded.getLevel());
+        assertEquals(1444000000123L, decoded.getSequence());
+        assertEquals(1444000000999L, decoded.getTimestamp());
+        assertEquals(BrightnessPayload.REASON_DAYLIGHT, decoded.getReason());
+    }
+
+    public void testFineLevelRoundTrip() {
+        BrightnessPayload payload = new BrightnessPayload().set(BrightnessLevel.MEDIUM, 7, 1000,
+                BrightnessPayload.REASON_DAYLIGHT, 173);
+
+        BrightnessPayload decoded = new BrightnessPayload();
+        assertTrue(decoded.decode(payload.toByteArray()));
+        assertEquals(173, decoded.getFineLevel());
+        assertEquals(BrightnessLevel.MEDIUM, decoded.getLevel());
+
+        // Setting the fields without a fine level clears it
+        payload.set(BrightnessLevel.MEDIUM, 8, 1000, BrightnessPayload.REASON_ACTIVITY);
+        assertTrue(decoded.decode(payload.toByteArray()));
+        assertEquals(BrightnessPayload.NO_FINE_LEVEL, decoded.getFineLevel());
+    }
+
+    public void testVersion1PayloadHasNoFineLevel() {
+        // Level, sequence, timestamp and reason as written by the first version
+        byte[] data = {1, BrightnessLevel.HIGHEST, 7, (byte) 0xE8, 0x07, BrightnessPayload.REASON_ACTIVITY};
+
+        BrightnessPayload decoded = new BrightnessPayload();
+        decoded.set(BrightnessLevel.LOWEST, 1, 1, BrightnessPayload.REASON_MANUAL, 100);
+        assertTrue(decoded.decode(data));
+        assertEquals(1, decoded.getVersion());
+        assertEquals(BrightnessLevel.HIGHEST, decoded.getLevel());
+        assertEquals(7, decoded.getSequence());
+        assertEquals(1000, decoded.getTimestamp());
+        assertEquals(BrightnessPayload.NO_FINE_LEVEL, decoded.getFineLevel());
+    }
+
+    public void testTraceRoundTrip() {
+        LatencyTrace trace = new LatencyTrace();
+        trace.set(LatencyTrace.STAGE_INTENT_RECEIVED, 10000);
+        trace.set(LatencyTrace.STAGE_DECISION_MADE, 10450);
+        BrightnessPayload payload = new BrightnessPayload().set(BrightnessLevel.MEDIUM, 7, 10500,
+                BrightnessPayload.REASON_ACTIVITY).setTrace(trace);
+
+        BrightnessPayload decoded = new BrightnessPayload();
+        assertTrue(decoded.decode(payload.toByteArray()));
+        assertTrue(decoded.hasTrace());
+        LatencyTrace decodedTrace = new LatencyTrace();
+        decoded.getTrace(decodedTrace);
+        assertEquals(10000, decodedTrace.get(LatencyTrace.STAGE_INTENT_RECEIVED));
+        assertFalse(decodedTrace.isStamped(LatencyTrace.STAGE_CONTEXT_READY));
+        assertEquals(10450, decodedTrace.get(LatencyTrace.STAGE_DECISION_MADE));
+        assertEquals(10500, decodedTrace.get(LatencyTrace.STAGE_SEND_ISSUED));
+
+        // Without a trace only the send stage is known
+        payload.set(BrightnessLevel.MEDIUM, 8, 10500, BrightnessPayload.REASON_ACTIVITY);
+        assertTrue(decoded.decode(payload.toByteArray()));
+        assertFalse(decoded.hasTrace());
+        decoded.getTrace(decodedTrace);
+        assertFalse(decodedTrace.isStamped(LatencyTrace.STAGE_INTENT_RECEIVED));
+        assertEquals(10500, decodedTrace.get(LatencyTrace.STAGE_SEND_ISSUED));
+    }
+
+    public void testRoundTripLimits() {
+        long[] longs = {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, Long.MAX_VALUE};
+        int[] ints = {0, 1, 127, 128, 300, Integer.MAX_VALUE};
+        BrightnessPayload payload = new BrightnessPayload();
+        BrightnessPayload decoded = new BrightnessPayload();
+        for (long value : longs) {
+            for (int intValue : ints) {
+                payload.set(intValue, value, value, intValue);
+                assertTrue(decoded.decode(payload.toByteArray()));
+                assertEquals(intValue, decoded.getLevel());
+                assertEquals(value, decoded.getSequence());
+                assertEquals(value, decoded.getTimestamp());
+                assertEquals(intValue, decoded.getReason());
+            }
+        }
+    }
+
+    public void testEncodeAtOffset() {
+        byte[] buffer = new byte[4 + BrightnessPayload.MAX_ENCODED_SIZE];
+        int length = new BrightnessPayload().set(BrightnessLevel.LOWEST, 42, 1000, BrightnessPayload.REASON_MANUAL)
+                .encode(buffer, 4);
+
+        BrightnessPayload decoded = new BrightnessPayload();
+        assertTrue(decoded.decode(buffer, 4, length));
+        assertEquals(42, decoded.getSequence());
+    }
+
+    public void testCompact() {
+        byte[] data = new BrightnessPayload().set(BrightnessLevel.HIGHEST, 1444000000123L, 1444000000999L,
+                BrightnessPayload.REASON_ACTIVITY).toByteArray();
+        assertTrue(data.length <= 16);
+    }
+
+    public void testTruncatedPayloadIsRejected() {
+        byte[] data = new BrightnessPayload().set(BrightnessLevel.HIGHEST, 300, 1444000000999L,
+                BrightnessPayload.REASON_ACTIVITY).toByteArray();
+        BrightnessPayload decoded = new BrightnessPayload();
+        for (int length = 0; length < data.length; length++) {
+            assertFalse(decoded.decode(data, 0, length));
+        }
+        assertFalse(decoded.decode(null));
+    }
+
+    public void testNewerVersionIsReadAsFarAsKnown() {
+        byte[] data = new BrightnessPayload().set(BrightnessLevel.MEDIUM, 7, 1000, BrightnessPayload.REASON_RESYNC)
+                .toByteArray();
+
+        // A newer version with an extra field appended
+        byte[] newer = new byte[data.length + 2];
+        System.arraycopy(data, 0, newer, 0, data.length);
+        newer[0] = (byte) (BrightnessPayload.VERSION + 1);
+        newer[data.length] = (byte) 0x81;
+        newer[data.length + 1] = 0x01;
+
+        BrightnessPayload decoded = new BrightnessPayload();
+        assertTrue(decoded.decode(newer));
+        assertEquals(BrightnessPayload.VERSION + 1, decoded.getVersion());
+        assertEquals(BrightnessLevel.MEDIUM, decoded.getLevel());
+        assertEquals(7, decoded.getSequence());
+        assertEquals(BrightnessPayload.REASON_RESYNC, decoded.getReason());
+    }
+
+    public void testInvalidVersionIsRejected() {
+        byte[] data = new BrightnessPayload().set(BrightnessLevel.MEDIUM, 7, 1000, BrightnessPayload.REASON_ACTIVITY)
+                .toByteArray();
+        data[0] = 0;
+        assertFalse(new BrightnessPayload().decode(data));
+    }
+
+}
@@ -0,0 +1,53 @@
+package com.danvelazco.wear.displaybrightness.shared;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the {@link BrightnessProfile}
+ */
+public class BrightnessProfileTest extends TestCase {
+
+    public void testDefaultMatchesBrightnessLevel() {
+        BrightnessProfile profile = BrightnessProfile.DEFAULT;
+        for (int value = BrightnessLevel.LOWEST; value <= BrightnessLevel.HIGHEST; value++) {
+            assertEquals(BrightnessLevel.getBrightnessLevel(value), profile.getBrightnessLevel(value));
+        }
+        assertEquals(BrightnessLevel.getBrightnessLevel(-1), profile.getBrightnessLevel(-1));
+        for (int fineLevel = 0; fineLevel <= 300; fineLevel++) {
+            assertEquals(BrightnessLevel.clampBrightnessLevel(fineLevel), profile.getFineBrightnessLevel(fineLevel));
+        }
+    }
+
+    public void testUnknownModelUsesDefault() {
+        assertSame(BrightnessProfile.DEFAULT, BrightnessProfile.forModel("Unknown watch"));
+        assertSame(BrightnessProfile.DEFAULT, BrightnessProfile.forModel(null));
+        assertEquals("G Watch R", BrightnessProfile.forModel("g watch r ").getModel());
+    }
+
+    public void testGammaAndRange() {
+        BrightnessProfile profile = new BrightnessProfile("test", 5, 205, 2.0);
+        assertEquals(5, profile.getBrightnessLevel(BrightnessLevel.LOWEST));
+        assertEquals(205, profile.getBrightnessLevel(BrightnessLevel.HIGHEST));
+        assertEquals(5, profile.getFineBrightnessLevel(0));
+        assertEquals(205, profile.getFineBrightnessLevel(1000));
+
+        // Half way through the default scale is a quarter of the way with a gamma of 2
+        assertEquals(55, profile.getFineBrightnessLevel(132));
+
+        int previous = -1;
+        for (int value = BrightnessLevel.LOWEST; value <= BrightnessLevel.HIGHEST; value++) {
+            assertTrue(profile.getBrightnessLevel(value) > previous);
+            previous = profile.getBrightnessLevel(value);
+        }
+    }
+
+    public void testInvalidProfile() {
+        try {
+            new BrightnessProfile("test", 100, 50, 1.0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+}
@@ -0,0 +1,59 @@
+package com.danvelazco.wear.displaybrightness.shared;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the {@link LatencyRing} and {@link LatencyTraceStats}
+ */
+public class LatencyRingTest extends TestCase {
+
+    public void testPercentiles() {
+        LatencyRing ring = new LatencyRing("test", 100);
+        assertEquals(0, ring.getPercentile(50));
+        for (int i = 100; i >= 1; i--) {
+            ring.record(i);
+        }
+        assertEquals(50, ring.getPercentile(50));
+        assertEquals(95, ring.getPercentile(95));
+        assertEquals(99, ring.getPercentile(99));
+        assertEquals(100, ring.getPercentile(100));
+        assertEquals(1, ring.getPercentile(0));
+    }
+
+    public void testOldestSamplesAreReplaced() {
+        LatencyRing ring = new LatencyRing("test", 4);
+        for (int i = 0; i < 4; i++) {
+            ring.record(1000);
+        }
+        for (int i = 0; i < 4; i++) {
+            ring.record(10);
+        }
+        assertEquals(8, ring.getCount());
+        assertEquals(4, ring.size());
+        assertEquals(10, ring.getPercentile(99));
+    }
+
+    public void testTraceStatsRecordEachStageOnce() {
+        LatencyTrace trace = new LatencyTrace();
+        trace.set(LatencyTrace.STAGE_INTENT_RECEIVED, 1000);
+        trace.set(LatencyTrace.STAGE_CONTEXT_READY, 1100);
+        trace.set(LatencyTrace.STAGE_DECISION_MADE, 1101);
+        trace.set(LatencyTrace.STAGE_SEND_ISSUED, 1110);
+
+        LatencyTraceStats stats = new LatencyTraceStats();
+        stats.record(trace, LatencyTrace.STAGE_CONTEXT_READY);
+        assertEquals(100, stats.getStage(LatencyTrace.STAGE_CONTEXT_READY).getPercentile(50));
+        assertEquals(0, stats.getStage(LatencyTrace.STAGE_WATCH_RECEIVED).getCount());
+        assertEquals(0, stats.getEndToEnd().getCount());
+
+        // The watch reports the rest of the trace later on
+        trace.set(LatencyTrace.STAGE_WATCH_RECEIVED, 1300);
+        trace.set(LatencyTrace.STAGE_APPLIED, 2100);
+        stats.record(trace, LatencyTrace.STAGE_WATCH_RECEIVED);
+        assertEquals(1, stats.getStage(LatencyTrace.STAGE_CONTEXT_READY).getCount());
+        assertEquals(190, stats.getStage(LatencyTrace.STAGE_WATCH_RECEIVED).getPercentile(50));
+        assertEquals(800, stats.getStage(LatencyTrace.STAGE_APPLIED).getPercentile(50));
+        assertEquals(1100, stats.getEndToEnd().getPercentile(50));
+    }
+
+}
@@ -0,0 +1,162 @@
+package com.danvelazco.wear.displaybrightness.shared;
+
+import java.util.Locale;
+
+/**
+ * Low-pass filter of the ambient light sensor of the watch, and the blend of its reading with the level the phone
+ * picked.
+ * <p/>
+ * The last samples are kept in a ring of primitives and averaged, so a hand passing over the sensor or a street light
+ * going by doesn't move the brightness. The average is turned into a brightness on the default 10 to 255 scale along
+ * a logarithmic curve, the way the eye perceives light, and blended with the phone's level. Without a recent sample
+ * the phone's level is used as is.
+ * <p/>
+ * Not thread safe, the caller synchronizes.
+ */
+public class AmbientLightFilter {
+
+    // Defaults
+    public static final int DEFAULT_SAMPLE_COUNT = 16;
+    public static final long DEFAULT_MAX_AGE_MILLIS = 5 * 60 * 1000;
+    public static final float DEFAULT_SENSOR_WEIGHT = 0.5f;
+
+    // Constants
+    private static final int MIN_LEVEL = BrightnessLevel.getBrightnessLevel(BrightnessLevel.LOWEST);
+    private static final int MAX_LEVEL = BrightnessLevel.getBrightnessLevel(BrightnessLevel.HIGHEST);
+    private static final double MAX_LUX_LOG10 = 4; // 10000 lux, daylight
+
+    // Members
+    private final float[] mSamples;
+    private int mNext = 0;
+    private int mSize = 0;
+    private double mSum = 0;
+    private long mLastSampleTime = 0;
+    private long mTotalSamples = 0;
+    private long mMaxAgeMillis = DEFAULT_MAX_AGE_MILLIS;
+    private float mSensorWeight = DEFAULT_SENSOR_WEIGHT;
+
+    /**
+     * Constructor
+     *
+     * @param sampleCount
+     *         {@link int} number of samples averaged
+     */
+    public AmbientLightFilter(int sampleCount) {
+        if (sampleCount < 1) {
+            throw new IllegalArgumentException("The sample count must be at least 1");
+        }
+        mSamples = new float[sampleCount];
+    }
+
+    /**
+     * @param lux
+     *         {@link float} ambient light
+     * @param timeMillis
+     *         {@link long} monotonic time of the sample
+     */
+    public void addSample(float lux, long timeMillis) {
+        if (lux < 0 || Float.isNaN(lux)) {
+            return;
+        }
+        if (mSize == mSamples.length) {
+            mSum -= mSamples[mNext];
+        } else {
+            mSize++;
+        }
+        mSamples[mNext] = lux;
+        mSum += lux;
+        mNext = (mNext + 1) % mSamples.length;
+        mLastSampleTime = timeMillis;
+        mTotalSamples++;
+    }
+
+    /**
+     * @param nowMillis
+     *         {@link long} monotonic time, same clock as the samples
+     * @return {@link boolean} true if there is a sample recent enough to be used
+     */
+    public boolean hasReading(long nowMillis) {
+        return mSize > 0 && nowMillis - mLastSampleTime <= mMaxAgeMillis;
+    }
+
+    /**
+     * @return {@link float} average of the kept samples, 0 if there are none
+     */
+    public float getFilteredLux() {
+        return mSize > 0 ? (float) (mSum / mSize) : 0;
+    }
+
+    /**
+     * @param brightnessLevel
+     *         {@link int} level picked by the phone, on the default 10 to 255 scale
+     * @param nowMillis
+     *         {@link long} monotonic time, same clock as the samples
+     * @return {@link int} level blended with the ambient light, on the default scale
+     */
+    public int fuse(int brightnessLevel, long nowMillis) {
+        if (!hasReading(nowMillis)) {
+            return brightnessLevel;
+        }
+        double fused = (1 - mSensorWeight) * brightnessLevel + mSensorWeight * getLuxBrightnessLevel(
+                getFilteredLux());
+        return BrightnessLevel.clampBrightnessLevel((int) Math.round(fused));
+    }
+
+    /**
+     * @param lux
+     *         {@link float} ambient light
+     * @return {@link int} brightness for that light on the default scale, lowest at 1 lux and below, highest in
+     * daylight
+     */
+    public static int getLuxBrightnessLevel(float lux) {
+        double position = lux > 1 ? Math.min(1, Math.log10(lux) / MAX_LUX_LOG10) : 0;
+        return (int) Math.round(MIN_LEVEL + (MAX_LEVEL - MIN_LEVEL) * position);
+    }
+
+    /**
+     * @param sensorWeight
+     *         {@link float} share of the ambient light in the fused level, from 0 (phone only) to 1 (sensor only)
+     */
+    public void setSensorWeight(float sensorWeight) {
+        mSensorWeight = Math.max(0, Math.min(1, sensorWeight));
+    }
+
+    /**
+     * @return {@link float} share of the ambient light in the fused level
+     */
+    public float getSensorWeight() {
+        return mSensorWeight;
+    }
+
+    /**
+     * @param maxAgeMillis
+     *         {@link long} samples older than this are not used
+     */
+    public void setMaxAgeMillis(long maxAgeMillis) {
+        mMaxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * @return {@link int} number of samples averaged
+     */
+    public int getSampleCount() {
+        return mSamples.length;
+    }
+
+    /**
+     * @return {@link long} number of samples ever added
+     */
+    public long getTotalSamples() {
+        return mTotalSamples;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "AmbientLightFilter{lux=%.1f window=%d/%d samples=%d weight=%.2f}",
+                getFilteredLux(), mSize, mSamples.length, mTotalSamples, mSensorWeight);
+    }
+
+}
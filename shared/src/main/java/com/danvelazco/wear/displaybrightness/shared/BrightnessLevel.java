@@ -1,8 +1,5 @@
 package com.danvelazco.wear.displaybrightness.shared;
 
-import android.content.ContentResolver;
-import android.provider.Settings;
-
 /**
  * Brightness level constant values used for sending between phone app and watch
  */
@@ -13,6 +10,76 @@ public class BrightnessLevel {
      */
     public static final String PATH_BRIGHTNESS = "/brightness";
     public static final String FIELD_NAME = "brightness_level";
+    public static final String FIELD_PAYLOAD = "payload";
+    public static final String FIELD_SEQUENCE = "sequence";
+    public static final String FIELD_TRANSPORT = "transport";
+
+    /**
+     * Constants used for the Wear Message API fast path, the message data is a {@link BrightnessPayload}. The watch
+     * acknowledges every level it receives (over either transport) with a message on {@link #PATH_BRIGHTNESS_ACK}
+     */
+    public static final String PATH_BRIGHTNESS_MESSAGE = "/brightness_message";
+    public static final String PATH_BRIGHTNESS_ACK = "/brightness_ack";
+
+    /**
+     * Newest {@link BrightnessPayload} version the watch understands, sent with every acknowledgement so the phone
+     * knows which level the watch actually shows. Missing from the acknowledgements of older watches.
+     */
+    public static final String FIELD_PAYLOAD_VERSION = "payload_version";
+
+    /**
+     * Battery level of the watch from 0 to 100 and whether it's charging, sent with every acknowledgement for the
+     * policy rules on the phone. Missing from the acknowledgements of older watches.
+     */
+    public static final String FIELD_BATTERY_PERCENT = "battery_percent";
+    public static final String FIELD_CHARGING = "charging";
+
+    /**
+     * Battery state of the watch, a data item put by the watch whenever it changes with the same fields as the
+     * acknowledgements and the time it was put at. Levels that don't change aren't sent, so the acknowledgements alone
+     * can be hours old.
+     */
+    public static final String PATH_WATCH_STATUS = "/watch_status";
+    public static final String FIELD_STATUS_TIME = "status_time";
+
+    /**
+     * State of the ambient light sampler of the watch as a readable summary, sent with every acknowledgement so it can
+     * be looked at on the phone
+     */
+    public static final String FIELD_LIGHT_SENSOR_STATS = "light_sensor_stats";
+
+    /**
+     * Once a level is applied, the watch reports the {@link LatencyTrace} of the update on {@link
+     * #PATH_BRIGHTNESS_TRACE}, the stamps being in {@link #FIELD_TRACE} along with the {@link #FIELD_SEQUENCE}
+     */
+    public static final String PATH_BRIGHTNESS_TRACE = "/brightness_trace";
+    public static final String FIELD_TRACE = "trace";
+
+    /**
+     * Settings of the ambient light sensor fusion on the watch, a data item put by the phone whenever they change
+     */
+    public static final String PATH_LIGHT_SENSOR_CONFIG = "/light_sensor_config";
+    public static final String FIELD_LIGHT_SENSOR_ENABLED = "enabled";
+    public static final String FIELD_BATCH_LATENCY_SECONDS = "batch_latency_seconds";
+    public static final String FIELD_SAMPLE_COUNT = "sample_count";
+    public static final String FIELD_SENSOR_WEIGHT_PERCENT = "sensor_weight_percent";
+
+    /**
+     * Autonomous mode, a data item put by the phone with the level table, the current activity and a recent location
+     * so the watch switches between the day and night levels on its own
+     */
+    public static final String PATH_AUTONOMOUS_CONFIG = "/autonomous_config";
+    public static final String FIELD_AUTONOMOUS_ENABLED = "enabled";
+    public static final String FIELD_LEVEL_TABLE = "level_table";
+    public static final String FIELD_ACTIVITY_TYPE = "activity_type";
+    public static final String FIELD_LATITUDE = "latitude";
+    public static final String FIELD_LONGITUDE = "longitude";
+
+    /**
+     * Transports used to deliver a brightness level to the watch
+     */
+    public static final int TRANSPORT_DATA_ITEM = 0;
+    public static final int TRANSPORT_MESSAGE = 1;
 
     /**
      * Values used to determine brightness levels, this way we don't send the actual level we want to set and eventually
@@ -24,6 +91,25 @@ public class BrightnessLevel {
     public static final int MEDIUM_HIGH = 3;
     public static final int HIGHEST = 4;
 
+    /**
+     * Values picked for each activity during the day and the night until the user changes them, shared by the phone
+     * app and the simulator
+     */
+    public static final int DEFAULT_DRIVING = HIGHEST;
+    public static final int DEFAULT_NIGHT_DRIVING = LOWEST;
+    public static final int DEFAULT_BICYCLE = HIGHEST;
+    public static final int DEFAULT_NIGHT_BICYCLE = MEDIUM_LOW;
+    public static final int DEFAULT_WALKING = HIGHEST;
+    public static final int DEFAULT_NIGHT_WALKING = MEDIUM;
+    public static final int DEFAULT_RUNNING = HIGHEST;
+    public static final int DEFAULT_NIGHT_RUNNING = MEDIUM;
+    public static final int DEFAULT_STILL = MEDIUM;
+    public static final int DEFAULT_NIGHT_STILL = LOWEST;
+    public static final int DEFAULT_ON_FOOT = HIGHEST;
+    public static final int DEFAULT_NIGHT_ON_FOOT = MEDIUM;
+    public static final int DEFAULT_UNKNOWN = MEDIUM;
+    public static final int DEFAULT_NIGHT_UNKNOWN = MEDIUM_LOW;
+
     /**
      * Default brightness levels
      */
@@ -41,8 +127,8 @@ public class BrightnessLevel {
      *
      * @param value
      *         {@link int} like {@link #LOWEST}, {@link #MEDIUM} or {@link #HIGHEST}
-     * @return {@link int} brightness level to be set using the {@link Settings.System#putInt(ContentResolver, String,
-     * int)}
+     * @return {@link int} brightness level to be set using the {@link android.provider.Settings.System#putInt(
+     * android.content.ContentResolver, String, int)}
      */
     public static int getBrightnessLevel(int value) {
         // Map the brightness level to each value
@@ -63,4 +149,33 @@ public class BrightnessLevel {
         }
     }
 
+    /**
+     * Get the value whose brightness level is the closest to the given brightness, used to send a fine level to
+     * watches that only know about the five values
+     *
+     * @param brightnessLevel
+     *         {@link int} brightness level from 10 to 255
+     * @return {@link int} {@link #LOWEST}, {@link #MEDIUM_LOW}, {@link #MEDIUM}, {@link #MEDIUM_HIGH} or {@link
+     * #HIGHEST}
+     */
+    public static int getClosestValue(int brightnessLevel) {
+        int closest = LOWEST;
+        for (int value = MEDIUM_LOW; value <= HIGHEST; value++) {
+            if (Math.abs(getBrightnessLevel(value) - brightnessLevel)
+                    < Math.abs(getBrightnessLevel(closest) - brightnessLevel)) {
+                closest = value;
+            }
+        }
+        return closest;
+    }
+
+    /**
+     * @param brightnessLevel
+     *         {@link int} any brightness level
+     * @return {@link int} the brightness level within the range the watch supports, from 10 to 255
+     */
+    public static int clampBrightnessLevel(int brightnessLevel) {
+        return Math.max(LOW_LEVEL, Math.min(HIGHEST_LEVEL, brightnessLevel));
+    }
+
 }
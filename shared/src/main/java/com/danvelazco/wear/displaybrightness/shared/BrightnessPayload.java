@@ -0,0 +1,354 @@
+package com.danvelazco.wear.displaybrightness.shared;
+
+/**
+ * Compact binary encoding of a brightness update sent from the phone to the watch.
+ * <p/>
+ * The payload starts with a version byte followed by varint packed fields: level, sequence number, origin timestamp
+ * and reason, plus the fine level since version 2. Newer versions may only append fields, so a decoder reads the
+ * fields it knows about and ignores the rest. A typical payload is around 16 bytes.
+ * <p/>
+ * Since version 3 the phone stages of a {@link LatencyTrace} can follow, packed in a single varint holding the time
+ * from each stage until the origin timestamp (which is when the update was sent), 21 bits per stage. The trace is
+ * optional and only present if there are bytes left after the fine level, versions appending fields after it must
+ * always write it.
+ * <p/>
+ * Instances are mutable and meant to be reused, neither {@link #encode(byte[], int)} nor {@link #decode(byte[], int,
+ * int)} allocate.
+ */
+public class BrightnessPayload {
+
+    /**
+     * Current version written by {@link #encode(byte[], int)}
+     */
+    public static final int VERSION = 3;
+
+    /**
+     * First version with the fine level
+     */
+    public static final int VERSION_FINE_LEVEL = 2;
+
+    /**
+     * First version with the optional trace
+     */
+    public static final int VERSION_TRACE = 3;
+
+    /**
+     * Maximum number of bytes {@link #encode(byte[], int)} can write
+     */
+    public static final int MAX_ENCODED_SIZE = 1 + 5 + 10 + 10 + 5 + 5 + 10;
+
+    /**
+     * Fine level of payloads that only carry one of the five {@link BrightnessLevel} values
+     */
+    public static final int NO_FINE_LEVEL = 0;
+
+    /**
+     * Why the update was sent
+     */
+    public static final int REASON_ACTIVITY = 0;
+    public static final int REASON_DAYLIGHT = 1;
+    public static final int REASON_MANUAL = 2;
+    public static final int REASON_RESYNC = 3;
+
+    // Stages of the trace sent before the origin timestamp, which is the send stage itself
+    private static final int TRACED_STAGES = LatencyTrace.STAGE_SEND_ISSUED;
+
+    // Longer offsets (over half an hour) are clamped
+    private static final int TRACE_OFFSET_BITS = 21;
+    private static final long TRACE_OFFSET_MASK = (1L << TRACE_OFFSET_BITS) - 1;
+
+    // Fields
+    private int mVersion = VERSION;
+    private int mLevel;
+    private long mSequence;
+    private long mTimestamp;
+    private int mReason;
+    private int mFineLevel = NO_FINE_LEVEL;
+    private boolean mHasTrace = false;
+
+    // Time from each traced stage until the origin timestamp plus one, 0 if the stage wasn't stamped
+    private long mTrace;
+
+    // Reused by decode() so decoding doesn't allocate
+    private final Reader mReader = new Reader();
+
+    /**
+     * Set every field at once
+     *
+     * @param level
+     *         {@link int} the {@link BrightnessLevel}, must not be negative
+     * @param sequence
+     *         {@link long} monotonic sequence number, must not be negative
+     * @param timestamp
+     *         {@link long} origin time in epoch millis, must not be negative
+     * @param reason
+     *         {@link int} one of the REASON_ constants
+     * @return {@link BrightnessPayload} this instance
+     */
+    public BrightnessPayload set(int level, long sequence, long timestamp, int reason) {
+        return set(level, sequence, timestamp, reason, NO_FINE_LEVEL);
+    }
+
+    /**
+     * Set every field at once
+     *
+     * @param level
+     *         {@link int} the {@link BrightnessLevel}, must not be negative
+     * @param sequence
+     *         {@link long} monotonic sequence number, must not be negative
+     * @param timestamp
+     *         {@link long} origin time in epoch millis, must not be negative
+     * @param reason
+     *         {@link int} one of the REASON_ constants
+     * @param fineLevel
+     *         {@link int} exact display brightness from 10 to 255 for the continuous mode, or {@link #NO_FINE_LEVEL}.
+     *         Watches that don't know about it use the level instead.
+     * @return {@link BrightnessPayload} this instance
+     */
+    public BrightnessPayload set(int level, long sequence, long timestamp, int reason, int fineLevel) {
+        mVersion = VERSION;
+        mLevel = level;
+        mSequence = sequence;
+        mTimestamp = timestamp;
+        mReason = reason;
+        mFineLevel = fineLevel;
+        mHasTrace = false;
+        return this;
+    }
+
+    /**
+     * Attach the phone stages of a trace, must be called after the set method since it clears the trace
+     *
+     * @param trace
+     *         {@link LatencyTrace} stamped up to the decision, the send stage is the origin timestamp
+     * @return {@link BrightnessPayload} this instance
+     */
+    public BrightnessPayload setTrace(LatencyTrace trace) {
+        mHasTrace = true;
+        mTrace = 0;
+        for (int stage = 0; stage < TRACED_STAGES; stage++) {
+            if (trace.isStamped(stage)) {
+                // Clocks can go backwards, such a stage is recorded as taking no time
+                long offset = Math.min(Math.max(0, mTimestamp - trace.get(stage)) + 1, TRACE_OFFSET_MASK);
+                mTrace |= offset << (stage * TRACE_OFFSET_BITS);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return {@link boolean} true if the payload carries a trace
+     */
+    public boolean hasTrace() {
+        return mHasTrace;
+    }
+
+    /**
+     * Fill the trace with the phone stages, the send stage being the origin timestamp. Stages that weren't traced, or
+     * all of them if the payload has no trace, are cleared.
+     *
+     * @param trace
+     *         {@link LatencyTrace} to fill
+     */
+    public void getTrace(LatencyTrace trace) {
+        for (int stage = 0; stage < TRACED_STAGES; stage++) {
+            long offset = mHasTrace ? (mTrace >>> (stage * TRACE_OFFSET_BITS)) & TRACE_OFFSET_MASK : 0;
+            trace.set(stage, offset != 0 ? mTimestamp - (offset - 1) : LatencyTrace.NOT_STAMPED);
+        }
+        trace.set(LatencyTrace.STAGE_SEND_ISSUED, mTimestamp);
+    }
+
+    /**
+     * Encode the payload into the buffer
+     *
+     * @param buffer
+     *         {@link byte[]} with at least {@link #MAX_ENCODED_SIZE} bytes available after the offset
+     * @param offset
+     *         {@link int} where to start writing
+     * @return {@link int} number of bytes written
+     */
+    public int encode(byte[] buffer, int offset) {
+        int position = offset;
+        buffer[position++] = (byte) VERSION;
+        position = writeVarint(buffer, position, mLevel & 0xFFFFFFFFL);
+        position = writeVarint(buffer, position, mSequence);
+        position = writeVarint(buffer, position, mTimestamp);
+        position = writeVarint(buffer, position, mReason & 0xFFFFFFFFL);
+        position = writeVarint(buffer, position, mFineLevel & 0xFFFFFFFFL);
+        if (mHasTrace) {
+            position = writeVarint(buffer, position, mTrace);
+        }
+        return position - offset;
+    }
+
+    /**
+     * @return {@link byte[]} new array holding the encoded payload
+     */
+    public byte[] toByteArray() {
+        byte[] buffer = new byte[MAX_ENCODED_SIZE];
+        int length = encode(buffer, 0);
+        byte[] result = new byte[length];
+        System.arraycopy(buffer, 0, result, 0, length);
+        return result;
+    }
+
+    /**
+     * Decode a whole array, see {@link #decode(byte[], int, int)}
+     *
+     * @param data
+     *         {@link byte[]}
+     * @return {@link boolean} true if the payload was valid
+     */
+    public boolean decode(byte[] data) {
+        return data != null && decode(data, 0, data.length);
+    }
+
+    /**
+     * Decode a payload into this instance. On failure the fields are left in an undefined state.
+     *
+     * @param data
+     *         {@link byte[]}
+     * @param offset
+     *         {@link int} where the payload starts
+     * @param length
+     *         {@link int} length of the payload
+     * @return {@link boolean} true if the payload was valid
+     */
+    public boolean decode(byte[] data, int offset, int length) {
+        if (length < 1 || offset < 0 || offset + length > data.length) {
+            return false;
+        }
+        int end = offset + length;
+        int version = data[offset] & 0xFF;
+        if (version < 1) {
+            return false;
+        }
+
+        // Fields added by newer versions are appended, anything after the fields we know about is ignored
+        Reader reader = mReader;
+        reader.mData = data;
+        reader.mPosition = offset + 1;
+        reader.mEnd = end;
+        long level = reader.readVarint();
+        long sequence = reader.readVarint();
+        long timestamp = reader.readVarint();
+        long reason = reader.readVarint();
+        long fineLevel = version >= VERSION_FINE_LEVEL ? reader.readVarint() : NO_FINE_LEVEL;
+        boolean hasTrace = version >= VERSION_TRACE && reader.mPosition < end;
+        long trace = hasTrace ? reader.readVarint() : 0;
+        reader.mData = null;
+        if (reader.mFailed || level > Integer.MAX_VALUE || reason > Integer.MAX_VALUE
+                || fineLevel > Integer.MAX_VALUE) {
+            reader.mFailed = false;
+            return false;
+        }
+
+        mVersion = version;
+        mLevel = (int) level;
+        mSequence = sequence;
+        mTimestamp = timestamp;
+        mReason = (int) reason;
+        mFineLevel = (int) fineLevel;
+        mHasTrace = hasTrace;
+        mTrace = trace;
+        return true;
+    }
+
+    /**
+     * @return {@link int} version of the last decoded payload, or {@link #VERSION}
+     */
+    public int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @return {@link int} the {@link BrightnessLevel}
+     */
+    public int getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * @return {@link long} monotonic sequence number assigned by the phone
+     */
+    public long getSequence() {
+        return mSequence;
+    }
+
+    /**
+     * @return {@link long} time the update was created on the phone, in epoch millis
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * @return {@link int} one of the REASON_ constants
+     */
+    public int getReason() {
+        return mReason;
+    }
+
+    /**
+     * @return {@link int} exact display brightness for the continuous mode, or {@link #NO_FINE_LEVEL}
+     */
+    public int getFineLevel() {
+        return mFineLevel;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "BrightnessPayload{v" + mVersion + " level=" + mLevel + " seq=" + mSequence + " ts=" + mTimestamp
+                + " reason=" + mReason + " fine=" + mFineLevel + " traced=" + mHasTrace + "}";
+    }
+
+    /**
+     * Cursor over the data being decoded
+     */
+    private static class Reader {
+
+        byte[] mData;
+        int mPosition;
+        int mEnd;
+        boolean mFailed;
+
+        /**
+         * @return {@link long} unsigned varint, 0 and {@link #mFailed} set if the data is truncated or malformed
+         */
+        long readVarint() {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (mPosition >= mEnd) {
+                    mFailed = true;
+                    return 0;
+                }
+                byte b = mData[mPosition++];
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            mFailed = true;
+            return 0;
+        }
+
+    }
+
+    /**
+     * Write an unsigned varint, 7 bits per byte, least significant group first
+     *
+     * @return {@link int} position after the varint
+     */
+    private static int writeVarint(byte[] buffer, int position, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+
+}
@@ -0,0 +1,131 @@
+package com.danvelazco.wear.displaybrightness.shared;
+
+import java.util.Locale;
+
+/**
+ * Calibration of a watch display: the range of raw brightness values worth using and the gamma of the panel.
+ * <p/>
+ * The phone decides in terms of the five {@link BrightnessLevel} values or a fine level on the default 10 to 255
+ * scale. A profile turns those into the raw values of a given display, spreading them between its minimum and maximum
+ * along its gamma curve; OLED panels for instance are far brighter at low values than LCDs and need more room at the
+ * dim end. Everything is computed once, when the profile is created, mapping a level is a table lookup.
+ * <p/>
+ * Profiles are picked with {@link #forModel(String)}. Models without a calibration use {@link #DEFAULT}, which maps
+ * every level to the same value as {@link BrightnessLevel#getBrightnessLevel(int)}.
+ */
+public class BrightnessProfile {
+
+    // Constants
+    private static final int DEFAULT_MIN = BrightnessLevel.getBrightnessLevel(BrightnessLevel.LOWEST);
+    private static final int DEFAULT_MAX = BrightnessLevel.getBrightnessLevel(BrightnessLevel.HIGHEST);
+
+    /**
+     * Profile used for every display without a calibration of its own
+     */
+    public static final BrightnessProfile DEFAULT = new BrightnessProfile("default", DEFAULT_MIN, DEFAULT_MAX, 1.0);
+
+    /**
+     * Known displays, matched on {@code Build.MODEL}. The values were tuned by eye against the default profile on the
+     * watches themselves.
+     */
+    private static final BrightnessProfile[] KNOWN_PROFILES = {
+            new BrightnessProfile("G Watch R", 5, 255, 1.6),
+            new BrightnessProfile("Gear Live", 5, 255, 1.5),
+            new BrightnessProfile("Moto 360", 20, 255, 0.8),
+    };
+
+    // Members
+    private final String mModel;
+    private final int mMinLevel;
+    private final int mMaxLevel;
+    private final double mGamma;
+    private final int[] mValueTable = new int[BrightnessLevel.HIGHEST + 1];
+    private final int[] mFineTable = new int[DEFAULT_MAX + 1];
+
+    /**
+     * Constructor
+     *
+     * @param model
+     *         {@link String} model of the watch
+     * @param minLevel
+     *         {@link int} raw brightness used for the lowest level
+     * @param maxLevel
+     *         {@link int} raw brightness used for the highest level
+     * @param gamma
+     *         {@link double} above 1 keeps more of the range for dim levels, below 1 for bright levels
+     */
+    public BrightnessProfile(String model, int minLevel, int maxLevel, double gamma) {
+        if (minLevel < 0 || maxLevel > DEFAULT_MAX || minLevel > maxLevel || gamma <= 0) {
+            throw new IllegalArgumentException("Invalid profile for " + model);
+        }
+        mModel = model;
+        mMinLevel = minLevel;
+        mMaxLevel = maxLevel;
+        mGamma = gamma;
+
+        for (int brightnessLevel = 0; brightnessLevel < mFineTable.length; brightnessLevel++) {
+            double position = (double) (BrightnessLevel.clampBrightnessLevel(brightnessLevel) - DEFAULT_MIN)
+                    / (DEFAULT_MAX - DEFAULT_MIN);
+            mFineTable[brightnessLevel] = (int) Math.round(minLevel + (maxLevel - minLevel)
+                    * Math.pow(position, gamma));
+        }
+        for (int value = BrightnessLevel.LOWEST; value <= BrightnessLevel.HIGHEST; value++) {
+            mValueTable[value] = mFineTable[BrightnessLevel.getBrightnessLevel(value)];
+        }
+    }
+
+    /**
+     * @param model
+     *         {@link String} model of the watch, {@code Build.MODEL}
+     * @return {@link BrightnessProfile} of the model, {@link #DEFAULT} if it has no calibration
+     */
+    public static BrightnessProfile forModel(String model) {
+        if (model != null) {
+            for (BrightnessProfile profile : KNOWN_PROFILES) {
+                if (profile.mModel.equalsIgnoreCase(model.trim())) {
+                    return profile;
+                }
+            }
+        }
+        return DEFAULT;
+    }
+
+    /**
+     * @param value
+     *         {@link int} like {@link BrightnessLevel#LOWEST}, {@link BrightnessLevel#MEDIUM} or {@link
+     *         BrightnessLevel#HIGHEST}, unknown values are treated as {@link BrightnessLevel#MEDIUM}
+     * @return {@link int} raw brightness of the display
+     */
+    public int getBrightnessLevel(int value) {
+        if (value < BrightnessLevel.LOWEST || value > BrightnessLevel.HIGHEST) {
+            value = BrightnessLevel.MEDIUM;
+        }
+        return mValueTable[value];
+    }
+
+    /**
+     * @param fineLevel
+     *         {@link int} brightness on the default 10 to 255 scale, clamped to it
+     * @return {@link int} raw brightness of the display
+     */
+    public int getFineBrightnessLevel(int fineLevel) {
+        return mFineTable[BrightnessLevel.clampBrightnessLevel(fineLevel)];
+    }
+
+    /**
+     * @return {@link String} model of the watch the profile was made for
+     */
+    public String getModel() {
+        return mModel;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "BrightnessProfile{%s min=%d max=%d gamma=%.2f}", mModel, mMinLevel,
+                mMaxLevel, mGamma);
+    }
+
+}
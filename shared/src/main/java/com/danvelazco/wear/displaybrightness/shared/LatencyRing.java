@@ -0,0 +1,102 @@
+package com.danvelazco.wear.displaybrightness.shared;
+
+import java.util.Arrays;
+
+/**
+ * Fixed size ring buffer of the most recent latency samples, used to work out percentiles.
+ * <p/>
+ * Unlike {@link LatencyStats}, which only keeps running totals, the samples themselves are kept so the tail latencies
+ * (p95, p99) can be looked at. Once full, every new sample replaces the oldest one, so memory use is bounded and the
+ * percentiles follow recent behaviour.
+ */
+public class LatencyRing {
+
+    // Defaults
+    public static final int DEFAULT_CAPACITY = 256;
+
+    // Members
+    private final String mName;
+    private final long[] mSamples;
+    private final long[] mSorted;
+    private long mCount = 0;
+
+    /**
+     * Constructor
+     *
+     * @param name
+     *         {@link String} used by {@link #toString()}
+     */
+    public LatencyRing(String name) {
+        this(name, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param name
+     *         {@link String} used by {@link #toString()}
+     * @param capacity
+     *         {@link int} number of samples kept
+     */
+    public LatencyRing(String name, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be at least 1");
+        }
+        mName = name;
+        mSamples = new long[capacity];
+        mSorted = new long[capacity];
+    }
+
+    /**
+     * Record a new latency sample, replacing the oldest one once the ring is full
+     *
+     * @param latencyMillis
+     *         {@link long}
+     */
+    public synchronized void record(long latencyMillis) {
+        mSamples[(int) (mCount % mSamples.length)] = latencyMillis;
+        mCount++;
+    }
+
+    /**
+     * @return {@link long} number of samples recorded since the ring was created, including the ones already replaced
+     */
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return {@link int} number of samples currently in the ring
+     */
+    public synchronized int size() {
+        return (int) Math.min(mCount, mSamples.length);
+    }
+
+    /**
+     * Get a percentile of the samples in the ring, using the nearest rank
+     *
+     * @param percentile
+     *         {@link double} from 0 to 100
+     * @return {@link long} latency below or at which the given percentage of samples are, 0 if the ring is empty
+     */
+    public synchronized long getPercentile(double percentile) {
+        int size = size();
+        if (size == 0) {
+            return 0;
+        }
+        System.arraycopy(mSamples, 0, mSorted, 0, size);
+        Arrays.sort(mSorted, 0, size);
+        int rank = (int) Math.ceil(percentile / 100d * size);
+        return mSorted[Math.min(size, Math.max(1, rank)) - 1];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized String toString() {
+        return mName + ": n=" + mCount + " p50=" + getPercentile(50) + "ms p95=" + getPercentile(95) + "ms p99="
+                + getPercentile(99) + "ms";
+    }
+
+}
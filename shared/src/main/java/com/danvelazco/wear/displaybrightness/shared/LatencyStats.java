@@ -0,0 +1,89 @@
+package com.danvelazco.wear.displaybrightness.shared;
+
+/**
+ * Simple running statistics (count, min, max, mean and last value) of delivery latencies, used by both the phone and
+ * the watch to compare the different transports.
+ */
+public class LatencyStats {
+
+    // Members
+    private final String mName;
+    private long mCount = 0;
+    private long mTotalMillis = 0;
+    private long mMinMillis = Long.MAX_VALUE;
+    private long mMaxMillis = Long.MIN_VALUE;
+    private long mLastMillis = 0;
+
+    /**
+     * Constructor
+     *
+     * @param name
+     *         {@link String} used by {@link #toString()}
+     */
+    public LatencyStats(String name) {
+        mName = name;
+    }
+
+    /**
+     * Record a new latency sample
+     *
+     * @param latencyMillis
+     *         {@link long}
+     */
+    public synchronized void record(long latencyMillis) {
+        mCount++;
+        mTotalMillis += latencyMillis;
+        mLastMillis = latencyMillis;
+        if (latencyMillis < mMinMillis) {
+            mMinMillis = latencyMillis;
+        }
+        if (latencyMillis > mMaxMillis) {
+            mMaxMillis = latencyMillis;
+        }
+    }
+
+    /**
+     * @return {@link long} number of samples recorded
+     */
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return {@link long} mean latency, 0 if nothing was recorded
+     */
+    public synchronized long getMeanMillis() {
+        return mCount > 0 ? mTotalMillis / mCount : 0;
+    }
+
+    /**
+     * @return {@link long} lowest latency, 0 if nothing was recorded
+     */
+    public synchronized long getMinMillis() {
+        return mCount > 0 ? mMinMillis : 0;
+    }
+
+    /**
+     * @return {@link long} highest latency, 0 if nothing was recorded
+     */
+    public synchronized long getMaxMillis() {
+        return mCount > 0 ? mMaxMillis : 0;
+    }
+
+    /**
+     * @return {@link long} latest latency recorded
+     */
+    public synchronized long getLastMillis() {
+        return mLastMillis;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized String toString() {
+        return mName + ": n=" + mCount + " last=" + mLastMillis + "ms mean=" + getMeanMillis() + "ms min="
+                + getMinMillis() + "ms max=" + getMaxMillis() + "ms";
+    }
+
+}
@@ -0,0 +1,126 @@
+package com.danvelazco.wear.displaybrightness.shared;
+
+import java.util.Arrays;
+
+/**
+ * Time stamps of a single brightness update at every stage, from the activity detection on the phone until the level
+ * is applied on the watch.
+ * <p/>
+ * Stamps are in epoch millis so they can be compared across devices, both clocks are network synced which is good
+ * enough for latencies in the tens of milliseconds and up. The phone stamps travel to the watch in the {@link
+ * BrightnessPayload}, the watch adds its own and reports the whole trace back.
+ */
+public class LatencyTrace {
+
+    /**
+     * Stages of an update, in order
+     */
+    public static final int STAGE_INTENT_RECEIVED = 0;
+    public static final int STAGE_CONTEXT_READY = 1;
+    public static final int STAGE_DECISION_MADE = 2;
+    public static final int STAGE_SEND_ISSUED = 3;
+    public static final int STAGE_WATCH_RECEIVED = 4;
+    public static final int STAGE_APPLIED = 5;
+    public static final int STAGE_COUNT = 6;
+
+    /**
+     * Value of the stages that weren't reached or not traced
+     */
+    public static final long NOT_STAMPED = 0;
+
+    // Constants
+    private static final String[] STAGE_NAMES = {"intent", "context", "decision", "send", "received", "applied"};
+
+    // Members
+    private final long[] mStamps = new long[STAGE_COUNT];
+
+    /**
+     * Stamp a stage with the current time
+     *
+     * @param stage
+     *         {@link int} one of the STAGE_ constants
+     */
+    public void stamp(int stage) {
+        mStamps[stage] = System.currentTimeMillis();
+    }
+
+    /**
+     * @param stage
+     *         {@link int} one of the STAGE_ constants
+     * @param timeMillis
+     *         {@link long} time the stage was reached in epoch millis, or {@link #NOT_STAMPED}
+     */
+    public void set(int stage, long timeMillis) {
+        mStamps[stage] = timeMillis;
+    }
+
+    /**
+     * @param stage
+     *         {@link int} one of the STAGE_ constants
+     * @return {@link long} time the stage was reached in epoch millis, or {@link #NOT_STAMPED}
+     */
+    public long get(int stage) {
+        return mStamps[stage];
+    }
+
+    /**
+     * @param stage
+     *         {@link int} one of the STAGE_ constants
+     * @return {@link boolean} true if the stage was stamped
+     */
+    public boolean isStamped(int stage) {
+        return mStamps[stage] != NOT_STAMPED;
+    }
+
+    /**
+     * @return {@link long[]} copy of every stamp, indexed by stage
+     */
+    public long[] toArray() {
+        return mStamps.clone();
+    }
+
+    /**
+     * Replace the stamps with the ones of an array written by {@link #toArray()}, stages missing from the array are
+     * cleared
+     *
+     * @param stamps
+     *         {@link long[]} stamps indexed by stage, may be null
+     */
+    public void fromArray(long[] stamps) {
+        Arrays.fill(mStamps, NOT_STAMPED);
+        if (stamps != null) {
+            System.arraycopy(stamps, 0, mStamps, 0, Math.min(stamps.length, STAGE_COUNT));
+        }
+    }
+
+    /**
+     * @param stage
+     *         {@link int} one of the STAGE_ constants
+     * @return {@link String} short name of the stage
+     */
+    public static String getStageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("LatencyTrace{");
+        long previous = NOT_STAMPED;
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            if (mStamps[stage] == NOT_STAMPED) {
+                continue;
+            }
+            builder.append(STAGE_NAMES[stage]);
+            if (previous != NOT_STAMPED) {
+                builder.append("+").append(mStamps[stage] - previous).append("ms");
+            }
+            builder.append(' ');
+            previous = mStamps[stage];
+        }
+        return builder.append('}').toString();
+    }
+
+}
@@ -0,0 +1,74 @@
+package com.danvelazco.wear.displaybrightness.shared;
+
+/**
+ * Percentiles of the time spent in every stage of the {@link LatencyTrace}s recorded, plus the end to end latency from
+ * the activity detection until the level is applied on the watch.
+ * <p/>
+ * Each stage has a {@link LatencyRing} holding the time from the previous stage; a stage is only recorded if both
+ * stamps are known.
+ */
+public class LatencyTraceStats {
+
+    // Members
+    private final LatencyRing[] mStages = new LatencyRing[LatencyTrace.STAGE_COUNT];
+    private final LatencyRing mEndToEnd = new LatencyRing("end to end");
+
+    /**
+     * Constructor
+     */
+    public LatencyTraceStats() {
+        for (int stage = 1; stage < LatencyTrace.STAGE_COUNT; stage++) {
+            mStages[stage] = new LatencyRing(LatencyTrace.getStageName(stage - 1) + " -> "
+                    + LatencyTrace.getStageName(stage));
+        }
+    }
+
+    /**
+     * Record the stages of a trace from the given stage on, so a trace recorded in pieces as it gets stamped isn't
+     * counted twice. The end to end latency is recorded once the trace reached {@link LatencyTrace#STAGE_APPLIED}.
+     *
+     * @param trace
+     *         {@link LatencyTrace}
+     * @param fromStage
+     *         {@link int} first stage to record, the time from the previous stage is recorded
+     */
+    public void record(LatencyTrace trace, int fromStage) {
+        for (int stage = Math.max(1, fromStage); stage < LatencyTrace.STAGE_COUNT; stage++) {
+            if (trace.isStamped(stage - 1) && trace.isStamped(stage)) {
+                mStages[stage].record(trace.get(stage) - trace.get(stage - 1));
+            }
+        }
+        if (trace.isStamped(LatencyTrace.STAGE_INTENT_RECEIVED) && trace.isStamped(LatencyTrace.STAGE_APPLIED)) {
+            mEndToEnd.record(trace.get(LatencyTrace.STAGE_APPLIED) - trace.get(LatencyTrace.STAGE_INTENT_RECEIVED));
+        }
+    }
+
+    /**
+     * @param stage
+     *         {@link int} one of the {@link LatencyTrace} stages, except the first one
+     * @return {@link LatencyRing} of the time from the previous stage
+     */
+    public LatencyRing getStage(int stage) {
+        return mStages[stage];
+    }
+
+    /**
+     * @return {@link LatencyRing} of the time from the activity detection until the level is applied
+     */
+    public LatencyRing getEndToEnd() {
+        return mEndToEnd;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int stage = 1; stage < LatencyTrace.STAGE_COUNT; stage++) {
+            builder.append(mStages[stage]).append('\n');
+        }
+        return builder.append(mEndToEnd).toString();
+    }
+
+}
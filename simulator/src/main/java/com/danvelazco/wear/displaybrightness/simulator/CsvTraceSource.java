@@ -0,0 +1,115 @@
+package com.danvelazco.wear.displaybrightness.simulator;
+
+import com.danvelazco.wear.displaybrightness.core.BrightnessContext;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads a recorded trace, one detection per line:
+ * <pre>
+ * # time millis,latitude,longitude,activity:confidence;activity:confidence...
+ * 1430000000000,40.7128,-74.0060,3:62;0:30;4:8
+ * 1430000120000,,,7:90
+ * </pre>
+ * Activities are the {@link com.danvelazco.wear.displaybrightness.core.BrightnessDecisionTable} activity types, an
+ * empty latitude or longitude means the location was unknown. Blank lines and lines starting with {@code #} are
+ * skipped. The trace is streamed, only the current line is held in memory.
+ */
+public class CsvTraceSource implements TraceSource {
+
+    // Constants
+    private static final char COMMENT = '#';
+    private static final char FIELD_SEPARATOR = ',';
+    private static final char ACTIVITY_SEPARATOR = ';';
+    private static final char CONFIDENCE_SEPARATOR = ':';
+
+    // Members
+    private final BufferedReader mReader;
+    private long mLineNumber = 0;
+
+    /**
+     * Constructor
+     *
+     * @param reader
+     *         {@link Reader} of the trace, closed with the source
+     */
+    public CsvTraceSource(Reader reader) {
+        mReader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean next(TraceEvent event) throws IOException {
+        String line;
+        while ((line = mReader.readLine()) != null) {
+            mLineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.charAt(0) == COMMENT) {
+                continue;
+            }
+            try {
+                parse(line, event);
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                throw new IOException("Invalid trace line " + mLineNumber + ": " + line, e);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        mReader.close();
+    }
+
+    /**
+     * @param line
+     *         {@link String} line of the trace, neither blank nor a comment
+     * @param event
+     *         {@link TraceEvent} filled with the line
+     */
+    private static void parse(String line, TraceEvent event) {
+        int timeEnd = line.indexOf(FIELD_SEPARATOR);
+        int latitudeEnd = line.indexOf(FIELD_SEPARATOR, timeEnd + 1);
+        int longitudeEnd = line.indexOf(FIELD_SEPARATOR, latitudeEnd + 1);
+        if (timeEnd < 0 || latitudeEnd < 0 || longitudeEnd < 0) {
+            throw new IndexOutOfBoundsException("Missing field");
+        }
+        event.reset(Long.parseLong(line.substring(0, timeEnd)),
+                parseCoordinate(line.substring(timeEnd + 1, latitudeEnd)),
+                parseCoordinate(line.substring(latitudeEnd + 1, longitudeEnd)));
+
+        int start = longitudeEnd + 1;
+        while (start < line.length()) {
+            int end = line.indexOf(ACTIVITY_SEPARATOR, start);
+            if (end < 0) {
+                end = line.length();
+            }
+            int separator = line.indexOf(CONFIDENCE_SEPARATOR, start);
+            if (separator < 0 || separator > end) {
+                throw new IndexOutOfBoundsException("Missing confidence");
+            }
+            event.addActivity(Integer.parseInt(line.substring(start, separator).trim()),
+                    Integer.parseInt(line.substring(separator + 1, end).trim()));
+            start = end + 1;
+        }
+    }
+
+    /**
+     * @param value
+     *         {@link String} coordinate, may be empty
+     * @return {@link double} the coordinate, or {@link BrightnessContext#UNKNOWN_COORDINATE} if empty
+     */
+    private static double parseCoordinate(String value) {
+        value = value.trim();
+        return value.isEmpty() ? BrightnessContext.UNKNOWN_COORDINATE : Double.parseDouble(value);
+    }
+
+}
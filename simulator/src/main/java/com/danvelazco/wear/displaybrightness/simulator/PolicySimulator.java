@@ -0,0 +1,228 @@
+package com.danvelazco.wear.displaybrightness.simulator;
+
+import com.danvelazco.wear.displaybrightness.core.ActivitySmoother;
+import com.danvelazco.wear.displaybrightness.core.BrightnessContext;
+import com.danvelazco.wear.displaybrightness.core.BrightnessCurve;
+import com.danvelazco.wear.displaybrightness.core.BrightnessDecision;
+import com.danvelazco.wear.displaybrightness.core.BrightnessDecisionTable;
+import com.danvelazco.wear.displaybrightness.core.BrightnessPipeline;
+import com.danvelazco.wear.displaybrightness.core.BrightnessSchedule;
+import com.danvelazco.wear.displaybrightness.core.BrightnessSendGate;
+import com.danvelazco.wear.displaybrightness.core.PolicyInput;
+import com.danvelazco.wear.displaybrightness.core.PolicyRuleSet;
+import com.danvelazco.wear.displaybrightness.shared.BrightnessLevel;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Replays a trace through the brightness policy of the phone app, to evaluate a change without wearing the watch.
+ * <p/>
+ * Every {@link TraceEvent} goes through the same stages as an activity detection in {@code
+ * ActivityRecognitionIntentService}: the {@link ActivitySmoother}, the {@link BrightnessPipeline} with the policy
+ * rules and time windows if any, and the {@link BrightnessSendGate} of a single watch that shows fine levels. The
+ * battery of the watch and the charging state of the phone aren't in the traces, rules about them see them as
+ * unknown. Levels that pass the gate are delivered at once, the data layer isn't simulated, and neither are the
+ * sunrise, sunset and time window alarms: a new level only shows up with the next detection.
+ * <p/>
+ * The simulator counts the sends, the activity and level changes and the time spent at each level, and can write the
+ * timeline of the levels the watch showed.
+ */
+public class PolicySimulator {
+
+    // Constants
+    private static final String NODE_ID = "simulated";
+    private static final int NO_LEVEL = -1;
+
+    // Members
+    private final BrightnessPipeline mPipeline;
+    private final BrightnessDecisionTable mDecisionTable;
+    private final BrightnessCurve mCurve;
+    private final ActivitySmoother mSmoother;
+    private final BrightnessSendGate mSendGate;
+    private final PolicyInput mPolicyInput = new PolicyInput();
+    private PolicyRuleSet mPolicy;
+    private BrightnessSchedule mSchedule;
+    private Writer mTimeline;
+
+    // State
+    private int mShownLevel = NO_LEVEL;
+    private int mShownValue = NO_LEVEL;
+    private long mLastEventMillis = 0;
+
+    // Statistics
+    private long mEventCount = 0;
+    private long mLevelChangeCount = 0;
+    private long mFirstEventMillis = 0;
+    private final long[] mMillisAtValue = new long[BrightnessLevel.HIGHEST + 1];
+
+    /**
+     * Constructor
+     *
+     * @param pipeline
+     *         {@link BrightnessPipeline} making the decisions
+     * @param decisionTable
+     *         {@link BrightnessDecisionTable} levels picked by the user
+     * @param curve
+     *         {@link BrightnessCurve} for the continuous mode, or null to only use the levels
+     * @param smoother
+     *         {@link ActivitySmoother} the detections go through
+     * @param sendGate
+     *         {@link BrightnessSendGate} deciding which levels reach the watch
+     */
+    public PolicySimulator(BrightnessPipeline pipeline, BrightnessDecisionTable decisionTable, BrightnessCurve curve,
+            ActivitySmoother smoother, BrightnessSendGate sendGate) {
+        mPipeline = pipeline;
+        mDecisionTable = decisionTable;
+        mCurve = curve;
+        mSmoother = smoother;
+        mSendGate = sendGate;
+    }
+
+    /**
+     * @param policy
+     *         {@link PolicyRuleSet} rules picking another level than the decision table, or null
+     */
+    public void setPolicy(PolicyRuleSet policy) {
+        mPolicy = policy;
+    }
+
+    /**
+     * @param schedule
+     *         {@link BrightnessSchedule} time windows overriding or capping the level, or null
+     */
+    public void setSchedule(BrightnessSchedule schedule) {
+        mSchedule = schedule;
+    }
+
+    /**
+     * @param timeline
+     *         {@link Writer} every level the watch shows is written to, as {@code time millis,activity,level} lines,
+     *         or null to not keep the timeline
+     */
+    public void setTimeline(Writer timeline) {
+        mTimeline = timeline;
+    }
+
+    /**
+     * Replay a whole trace
+     *
+     * @param source
+     *         {@link TraceSource} of the events, not closed
+     * @throws IOException
+     *         if the trace can't be read or the timeline can't be written
+     */
+    public void run(TraceSource source) throws IOException {
+        TraceEvent event = new TraceEvent();
+        while (source.next(event)) {
+            process(event);
+        }
+        if (mTimeline != null) {
+            mTimeline.flush();
+        }
+    }
+
+    /**
+     * Replay a single detection, events must be given in chronological order
+     *
+     * @param event
+     *         {@link TraceEvent}
+     * @throws IOException
+     *         if the timeline can't be written
+     */
+    public void process(TraceEvent event) throws IOException {
+        long now = event.getTimeMillis();
+        if (mEventCount == 0) {
+            mFirstEventMillis = now;
+        } else if (mShownValue != NO_LEVEL) {
+            mMillisAtValue[mShownValue] += Math.max(0, now - mLastEventMillis);
+        }
+        mLastEventMillis = now;
+        mEventCount++;
+        if (event.getCount() == 0) {
+            return;
+        }
+
+        int activityType = mSmoother.onDetection(event.getActivityTypes(), event.getConfidences(), event.getCount(),
+                now);
+        BrightnessDecision decision = mPipeline.decide(new BrightnessContext(activityType,
+                mSmoother.getConfidence(), event.getLatitude(), event.getLongitude(), now, mDecisionTable, mCurve),
+                mPolicy, mSchedule, mPolicyInput);
+
+        // Same as the phone, the watch shows the fine level when there is one
+        int level = decision.hasFineLevel() ? decision.getFineLevel() : decision.getLevel();
+        if (mSendGate.evaluate(NODE_ID, level, now, false, decision.hasFineLevel()) != BrightnessSendGate.SEND) {
+            return;
+        }
+        mSendGate.markSent();
+        mSendGate.markDelivered(NODE_ID, level, now);
+        if (mShownLevel != NO_LEVEL && level != mShownLevel) {
+            mLevelChangeCount++;
+        }
+        mShownLevel = level;
+        mShownValue = decision.hasFineLevel() ? BrightnessLevel.getClosestValue(level) : level;
+        if (mTimeline != null) {
+            mTimeline.write(now + "," + activityType + "," + level + "\n");
+        }
+    }
+
+    /**
+     * @return {@link long} number of detections replayed
+     */
+    public long getEventCount() {
+        return mEventCount;
+    }
+
+    /**
+     * @return {@link long} time between the first and the last detection
+     */
+    public long getDurationMillis() {
+        return mLastEventMillis - mFirstEventMillis;
+    }
+
+    /**
+     * @return {@link int} number of levels sent to the watch
+     */
+    public int getSendCount() {
+        return mSendGate.getSendCount();
+    }
+
+    /**
+     * @return {@link int} number of levels the gate held back
+     */
+    public int getSuppressedCount() {
+        return mSendGate.getSuppressedCount();
+    }
+
+    /**
+     * @return {@link long} number of times the level shown on the watch changed
+     */
+    public long getLevelChangeCount() {
+        return mLevelChangeCount;
+    }
+
+    /**
+     * @return {@link int} number of times the smoothed activity, and so the profile, changed
+     */
+    public int getActivityFlipCount() {
+        return mSmoother.getFlipCount();
+    }
+
+    /**
+     * @return {@link int} number of times the most probable activity changed
+     */
+    public int getRawActivityFlipCount() {
+        return mSmoother.getRawFlipCount();
+    }
+
+    /**
+     * @param value
+     *         {@link int} like {@link BrightnessLevel#LOWEST} or {@link BrightnessLevel#HIGHEST}, fine levels count
+     *         towards the closest value
+     * @return {@link long} time the watch spent at that level
+     */
+    public long getMillisAtLevel(int value) {
+        return mMillisAtValue[value];
+    }
+
+}
@@ -0,0 +1,390 @@
+package com.danvelazco.wear.displaybrightness.simulator;
+
+import com.danvelazco.wear.displaybrightness.core.ActivitySmoother;
+import com.danvelazco.wear.displaybrightness.core.BrightnessCurve;
+import com.danvelazco.wear.displaybrightness.core.BrightnessDecisionTable;
+import com.danvelazco.wear.displaybrightness.core.BrightnessEngine;
+import com.danvelazco.wear.displaybrightness.core.BrightnessPipeline;
+import com.danvelazco.wear.displaybrightness.core.BrightnessSchedule;
+import com.danvelazco.wear.displaybrightness.core.BrightnessSendGate;
+import com.danvelazco.wear.displaybrightness.core.PolicyRule;
+import com.danvelazco.wear.displaybrightness.core.PolicyRuleSet;
+import com.danvelazco.wear.displaybrightness.core.ScheduleRule;
+import com.danvelazco.wear.displaybrightness.core.SolarEventCache;
+import com.danvelazco.wear.displaybrightness.shared.BrightnessLevel;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Command line entry point of the simulator, see {@link #printUsage(PrintStream)} for the options.
+ * <p/>
+ * Without {@code --trace} a synthetic trace is generated. The policy starts from the defaults of the phone app, the
+ * options change one part of it at a time so runs can be compared. Time windows and policy rules are read from files
+ * with one rule per line, written like in the phone app, lines starting with {@code #} are comments.
+ */
+public class SimulatorMain {
+
+    // Constants
+    private static final long MINUTE_MILLIS = 60 * 1000L;
+    private static final long HOUR_MILLIS = 60 * MINUTE_MILLIS;
+    private static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String STDIN = "-";
+    private static final String COMMENT = "#";
+    private static final int EXIT_USAGE = 2;
+    private static final int EXIT_ERROR = 1;
+    private static final int SOLAR_CACHE_CAPACITY = 8;
+    private static final double CURVE_NIGHT_ELEVATION = -6; // End of civil twilight, same as the phone app
+    private static final double CURVE_DAY_ELEVATION = 10;
+    private static final String[] LEVEL_NAMES = {"Lowest", "Medium low", "Medium", "Medium high", "Highest"};
+
+    // Defaults
+    private static final long DEFAULT_EVENTS = 1000000;
+    private static final long DEFAULT_SEED = 1;
+    private static final long DEFAULT_START_MILLIS = 1430438400000L; // May 1st 2015, UTC
+    private static final long DEFAULT_INTERVAL_MINUTES = 2;
+    private static final double DEFAULT_LATITUDE = 40.7128;
+    private static final double DEFAULT_LONGITUDE = -74.0060;
+
+    /**
+     * Options of a run
+     */
+    private static class Options {
+        String mTracePath;
+        String mTimelinePath;
+        String mSchedulePath;
+        String mPolicyPath;
+        long mEvents = DEFAULT_EVENTS;
+        long mSeed = DEFAULT_SEED;
+        long mStartMillis = DEFAULT_START_MILLIS;
+        long mIntervalMillis = DEFAULT_INTERVAL_MINUTES * MINUTE_MILLIS;
+        double mLatitude = DEFAULT_LATITUDE;
+        double mLongitude = DEFAULT_LONGITUDE;
+        TimeZone mTimeZone = TimeZone.getDefault();
+        float mMargin = ActivitySmoother.DEFAULT_MARGIN;
+        long mHalfLifeMillis = ActivitySmoother.DEFAULT_HALF_LIFE_MILLIS;
+        int mConfirmations = BrightnessSendGate.DEFAULT_REQUIRED_CONFIRMATIONS;
+        long mDwellMillis = BrightnessSendGate.DEFAULT_MIN_DWELL_MILLIS;
+        int mMinConfidence = 0;
+        int[] mCurve;
+    }
+
+    /**
+     * @param args
+     *         {@link String[]} command line options
+     */
+    public static void main(String[] args) {
+        Options options;
+        try {
+            options = parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage(System.err);
+            System.exit(EXIT_USAGE);
+            return;
+        }
+        if (options == null) {
+            printUsage(System.out);
+            return;
+        }
+
+        try {
+            run(options, System.out);
+        } catch (IOException e) {
+            System.err.println("Simulation failed: " + e.getMessage());
+            System.exit(EXIT_ERROR);
+        } catch (IllegalArgumentException e) {
+            // A time window or policy rule that can't be parsed
+            System.err.println(e.getMessage());
+            System.exit(EXIT_USAGE);
+        }
+    }
+
+    /**
+     * Replay the trace and print the statistics
+     *
+     * @param options
+     *         {@link Options}
+     * @param out
+     *         {@link PrintStream} the statistics are printed to
+     * @throws IOException
+     *         if the trace can't be read or the timeline can't be written
+     * @throws IllegalArgumentException
+     *         if a time window or a policy rule can't be parsed
+     */
+    private static void run(Options options, PrintStream out) throws IOException {
+        BrightnessEngine engine = new BrightnessEngine(new SolarEventCache(SolarEventCache.DEFAULT_CALCULATOR,
+                options.mTimeZone, SOLAR_CACHE_CAPACITY));
+        engine.setMinConfidence(options.mMinConfidence);
+        ActivitySmoother smoother = new ActivitySmoother();
+        smoother.setMargin(options.mMargin);
+        smoother.setHalfLifeMillis(options.mHalfLifeMillis);
+        BrightnessSendGate sendGate = new BrightnessSendGate();
+        sendGate.setRequiredConfirmations(options.mConfirmations);
+        sendGate.setMinDwellMillis(options.mDwellMillis);
+
+        BrightnessCurve curve = null;
+        if (options.mCurve != null) {
+            curve = new BrightnessCurve(new double[]{CURVE_NIGHT_ELEVATION, CURVE_DAY_ELEVATION},
+                    new int[]{BrightnessLevel.getBrightnessLevel(options.mCurve[0]),
+                            BrightnessLevel.getBrightnessLevel(options.mCurve[1])});
+        }
+        PolicySimulator simulator = new PolicySimulator(new BrightnessPipeline(engine), createDefaultTable(), curve,
+                smoother, sendGate);
+        if (options.mSchedulePath != null) {
+            List<ScheduleRule> rules = new ArrayList<>();
+            for (String line : readRules(options.mSchedulePath)) {
+                rules.add(ScheduleRule.parse(line));
+            }
+            simulator.setSchedule(new BrightnessSchedule(rules, options.mTimeZone));
+        }
+        if (options.mPolicyPath != null) {
+            List<PolicyRule> rules = new ArrayList<>();
+            for (String line : readRules(options.mPolicyPath)) {
+                rules.add(PolicyRule.parse(line));
+            }
+            simulator.setPolicy(new PolicyRuleSet(rules, options.mTimeZone));
+        }
+
+        TraceSource source = null;
+        Writer timeline = null;
+        long startNanos = System.nanoTime();
+        try {
+            if (options.mTracePath == null) {
+                source = new SyntheticTraceSource(options.mSeed, options.mEvents, options.mStartMillis,
+                        options.mIntervalMillis, options.mLatitude, options.mLongitude);
+            } else {
+                InputStream in = STDIN.equals(options.mTracePath) ? System.in
+                        : new FileInputStream(options.mTracePath);
+                source = new CsvTraceSource(new InputStreamReader(in, UTF_8));
+            }
+            if (options.mTimelinePath != null) {
+                timeline = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(options.mTimelinePath),
+                        UTF_8));
+                simulator.setTimeline(timeline);
+            }
+            simulator.run(source);
+        } finally {
+            if (source != null) {
+                source.close();
+            }
+            if (timeline != null) {
+                timeline.close();
+            }
+        }
+        printStatistics(simulator, System.nanoTime() - startNanos, out);
+    }
+
+    /**
+     * @return {@link BrightnessDecisionTable} with the default levels of the phone app, tilting is treated as being on
+     * foot like the phone app does
+     */
+    private static BrightnessDecisionTable createDefaultTable() {
+        return new BrightnessDecisionTable(BrightnessLevel.DEFAULT_UNKNOWN, BrightnessLevel.DEFAULT_NIGHT_UNKNOWN)
+                .put(BrightnessDecisionTable.IN_VEHICLE, BrightnessLevel.DEFAULT_DRIVING,
+                        BrightnessLevel.DEFAULT_NIGHT_DRIVING)
+                .put(BrightnessDecisionTable.ON_BICYCLE, BrightnessLevel.DEFAULT_BICYCLE,
+                        BrightnessLevel.DEFAULT_NIGHT_BICYCLE)
+                .put(BrightnessDecisionTable.WALKING, BrightnessLevel.DEFAULT_WALKING,
+                        BrightnessLevel.DEFAULT_NIGHT_WALKING)
+                .put(BrightnessDecisionTable.RUNNING, BrightnessLevel.DEFAULT_RUNNING,
+                        BrightnessLevel.DEFAULT_NIGHT_RUNNING)
+                .put(BrightnessDecisionTable.STILL, BrightnessLevel.DEFAULT_STILL, BrightnessLevel.DEFAULT_NIGHT_STILL)
+                .put(BrightnessDecisionTable.ON_FOOT, BrightnessLevel.DEFAULT_ON_FOOT,
+                        BrightnessLevel.DEFAULT_NIGHT_ON_FOOT)
+                .put(BrightnessDecisionTable.TILTING, BrightnessLevel.DEFAULT_ON_FOOT,
+                        BrightnessLevel.DEFAULT_NIGHT_ON_FOOT);
+    }
+
+    /**
+     * @param path
+     *         {@link String} file with one rule per line
+     * @return {@link List} of the rules, without the empty lines and the comments
+     * @throws IOException
+     *         if the file can't be read
+     */
+    private static List<String> readRules(String path) throws IOException {
+        List<String> rules = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(path), UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty() && !line.trim().startsWith(COMMENT)) {
+                    rules.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return rules;
+    }
+
+    /**
+     * @param simulator
+     *         {@link PolicySimulator} done replaying
+     * @param elapsedNanos
+     *         {@link long} time the replay took
+     * @param out
+     *         {@link PrintStream}
+     */
+    private static void printStatistics(PolicySimulator simulator, long elapsedNanos, PrintStream out) {
+        long duration = simulator.getDurationMillis();
+        double days = Math.max(1, duration) / (double) DAY_MILLIS;
+        out.printf(Locale.US, "Events:           %d over %.1f days, replayed at %.0f events/s%n",
+                simulator.getEventCount(), days, simulator.getEventCount() * 1e9 / Math.max(1, elapsedNanos));
+        out.printf(Locale.US, "Sends:            %d (%.1f/day), %d suppressed%n", simulator.getSendCount(),
+                simulator.getSendCount() / days, simulator.getSuppressedCount());
+        out.printf(Locale.US, "Profile flips:    %d (%.1f/day), %d unsmoothed (%.1f/day)%n",
+                simulator.getActivityFlipCount(), simulator.getActivityFlipCount() / days,
+                simulator.getRawActivityFlipCount(), simulator.getRawActivityFlipCount() / days);
+        out.printf(Locale.US, "Level changes:    %d (%.1f/day)%n", simulator.getLevelChangeCount(),
+                simulator.getLevelChangeCount() / days);
+        out.println("Time at level:");
+        for (int value = BrightnessLevel.LOWEST; value <= BrightnessLevel.HIGHEST; value++) {
+            long millis = simulator.getMillisAtLevel(value);
+            out.printf(Locale.US, "  %-12s %5.1f%% %10.1fh%n", LEVEL_NAMES[value],
+                    duration > 0 ? 100d * millis / duration : 0, millis / (double) HOUR_MILLIS);
+        }
+    }
+
+    /**
+     * @param args
+     *         {@link String[]} command line options
+     * @return {@link Options} or null if the usage was asked for
+     * @throws IllegalArgumentException
+     *         if an option is unknown or invalid
+     */
+    private static Options parse(String[] args) {
+        Options options = new Options();
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if ("--help".equals(option) || "-h".equals(option)) {
+                return null;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            String value = args[++i];
+            try {
+                switch (option) {
+                    case "--trace":
+                        options.mTracePath = value;
+                        break;
+                    case "--schedule":
+                        options.mSchedulePath = value;
+                        break;
+                    case "--rules":
+                        options.mPolicyPath = value;
+                        break;
+                    case "--timeline":
+                        options.mTimelinePath = value;
+                        break;
+                    case "--synthetic":
+                        options.mEvents = Long.parseLong(value);
+                        break;
+                    case "--seed":
+                        options.mSeed = Long.parseLong(value);
+                        break;
+                    case "--start":
+                        options.mStartMillis = Long.parseLong(value);
+                        break;
+                    case "--interval":
+                        options.mIntervalMillis = Long.parseLong(value) * MINUTE_MILLIS;
+                        break;
+                    case "--lat":
+                        options.mLatitude = Double.parseDouble(value);
+                        break;
+                    case "--lon":
+                        options.mLongitude = Double.parseDouble(value);
+                        break;
+                    case "--timezone":
+                        options.mTimeZone = TimeZone.getTimeZone(value);
+                        break;
+                    case "--margin":
+                        options.mMargin = Float.parseFloat(value);
+                        break;
+                    case "--half-life":
+                        options.mHalfLifeMillis = Long.parseLong(value) * MINUTE_MILLIS;
+                        break;
+                    case "--confirmations":
+                        options.mConfirmations = Integer.parseInt(value);
+                        break;
+                    case "--dwell":
+                        options.mDwellMillis = Long.parseLong(value) * MINUTE_MILLIS;
+                        break;
+                    case "--min-confidence":
+                        options.mMinConfidence = Integer.parseInt(value);
+                        break;
+                    case "--curve":
+                        String[] levels = value.split(",");
+                        if (levels.length != 2) {
+                            throw new IllegalArgumentException("--curve takes the night and day levels, e.g. 0,4");
+                        }
+                        options.mCurve = new int[]{Integer.parseInt(levels[0].trim()),
+                                Integer.parseInt(levels[1].trim())};
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + option);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value for " + option + ": " + value);
+            }
+        }
+        if (options.mIntervalMillis <= 0 || options.mHalfLifeMillis <= 0) {
+            throw new IllegalArgumentException("The interval and half life must be at least a minute");
+        }
+        return options;
+    }
+
+    /**
+     * @param out
+     *         {@link PrintStream}
+     */
+    private static void printUsage(PrintStream out) {
+        out.println("Replays a trace of activity detections through the brightness policy.");
+        out.println();
+        out.println("Trace:");
+        out.println("  --trace <file>          recorded trace, - for stdin, lines of");
+        out.println("                          time millis,latitude,longitude,activity:confidence;...");
+        out.println("  --synthetic <events>    events of the synthetic trace when there is no --trace ("
+                + DEFAULT_EVENTS + ")");
+        out.println("  --seed <seed>           seed of the synthetic trace (" + DEFAULT_SEED + ")");
+        out.println("  --start <millis>        first event of the synthetic trace (" + DEFAULT_START_MILLIS + ")");
+        out.println("  --interval <minutes>    time between synthetic events (" + DEFAULT_INTERVAL_MINUTES + ")");
+        out.println("  --lat <degrees>         latitude of the synthetic trace (" + DEFAULT_LATITUDE + ")");
+        out.println("  --lon <degrees>         longitude of the synthetic trace (" + DEFAULT_LONGITUDE + ")");
+        out.println("  --timezone <id>         time zone of the user (the JVM's)");
+        out.println();
+        out.println("Policy:");
+        out.println("  --margin <points>       activity smoothing margin (" + ActivitySmoother.DEFAULT_MARGIN + ")");
+        out.println("  --half-life <minutes>   activity smoothing half life ("
+                + ActivitySmoother.DEFAULT_HALF_LIFE_MILLIS / MINUTE_MILLIS + ")");
+        out.println("  --confirmations <n>     detections confirming a new level ("
+                + BrightnessSendGate.DEFAULT_REQUIRED_CONFIRMATIONS + ")");
+        out.println("  --dwell <minutes>       minimum time between level changes ("
+                + BrightnessSendGate.DEFAULT_MIN_DWELL_MILLIS / MINUTE_MILLIS + ")");
+        out.println("  --min-confidence <n>    confidence below which the activity is unknown (0)");
+        out.println("  --curve <night>,<day>   continuous mode between two levels from 0 (lowest) to 4 (highest)");
+        out.println("  --schedule <file>       time windows, one per line, e.g. daily 23:00-07:00 cap 0 bedtime");
+        out.println("  --rules <file>          policy rules in order of precedence, one per line, e.g.");
+        out.println("                          activity=still phase=night level=0");
+        out.println();
+        out.println("Output:");
+        out.println("  --timeline <file>       write every level shown as time millis,activity,level");
+    }
+
+}
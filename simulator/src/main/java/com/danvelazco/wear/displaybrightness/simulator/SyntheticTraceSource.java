@@ -0,0 +1,148 @@
+package com.danvelazco.wear.displaybrightness.simulator;
+
+import com.danvelazco.wear.displaybrightness.core.BrightnessDecisionTable;
+
+import java.util.Random;
+
+/**
+ * Generates a trace of a made up user, for trying a policy out when there is no recording at hand.
+ * <p/>
+ * The user moves between activities following a Markov chain: most detections see the same activity as the last one,
+ * and the nights, in local solar time, are spent still. Every detection reports the actual activity with a noisy
+ * confidence, a competing activity and whatever is left as unknown, which is the kind of distribution that makes
+ * the most probable activity flip. The user wanders around the given location.
+ * <p/>
+ * The same seed always gives the same trace. Events are generated on demand, a trace of any length takes no memory.
+ */
+public class SyntheticTraceSource implements TraceSource {
+
+    // Constants
+    private static final long HOUR_MILLIS = 60 * 60 * 1000L;
+    private static final double STAY_PROBABILITY = 0.85;
+    private static final double NIGHT_STAY_PROBABILITY = 0.98;
+    private static final int NIGHT_START_HOUR = 23;
+    private static final int NIGHT_END_HOUR = 7;
+    private static final double WANDER_DEGREES = 0.01;
+    private static final int MIN_CONFIDENCE = 35;
+
+    /**
+     * Activities the user takes up when changing, with their weights
+     */
+    private static final int[] ACTIVITIES = {
+            BrightnessDecisionTable.STILL,
+            BrightnessDecisionTable.WALKING,
+            BrightnessDecisionTable.IN_VEHICLE,
+            BrightnessDecisionTable.ON_BICYCLE,
+            BrightnessDecisionTable.RUNNING,
+    };
+    private static final int[] WEIGHTS = {50, 30, 12, 4, 4};
+    private static final int TOTAL_WEIGHT = 100;
+
+    // Members
+    private final Random mRandom;
+    private final long mEventCount;
+    private final long mIntervalMillis;
+    private final double mLatitude;
+    private final double mLongitude;
+    private long mGenerated = 0;
+    private long mTimeMillis;
+    private int mActivity = BrightnessDecisionTable.STILL;
+
+    /**
+     * Constructor
+     *
+     * @param seed
+     *         {@link long} seed of the random generator
+     * @param eventCount
+     *         {@link long} number of detections to generate
+     * @param startMillis
+     *         {@link long} instant of the first detection, in epoch millis
+     * @param intervalMillis
+     *         {@link long} average time between detections
+     * @param latitude
+     *         {@link double} latitude the user lives at
+     * @param longitude
+     *         {@link double} longitude the user lives at
+     */
+    public SyntheticTraceSource(long seed, long eventCount, long startMillis, long intervalMillis, double latitude,
+            double longitude) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("Invalid interval: " + intervalMillis);
+        }
+        mRandom = new Random(seed);
+        mEventCount = eventCount;
+        mTimeMillis = startMillis;
+        mIntervalMillis = intervalMillis;
+        mLatitude = latitude;
+        mLongitude = longitude;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean next(TraceEvent event) {
+        if (mGenerated >= mEventCount) {
+            return false;
+        }
+        if (mGenerated > 0) {
+            // Detections drift around the interval, +/- 10%
+            mTimeMillis += mIntervalMillis + (long) ((mRandom.nextDouble() - 0.5) * mIntervalMillis / 5);
+        }
+        mGenerated++;
+
+        double stayProbability = isNight() ? NIGHT_STAY_PROBABILITY : STAY_PROBABILITY;
+        if (mRandom.nextDouble() >= stayProbability) {
+            mActivity = isNight() ? BrightnessDecisionTable.STILL : pickActivity();
+        }
+
+        event.reset(mTimeMillis, mLatitude + (mRandom.nextDouble() - 0.5) * WANDER_DEGREES,
+                mLongitude + (mRandom.nextDouble() - 0.5) * WANDER_DEGREES);
+        int confidence = MIN_CONFIDENCE + mRandom.nextInt(100 - MIN_CONFIDENCE + 1);
+        event.addActivity(mActivity, confidence);
+
+        int remaining = 100 - confidence;
+        int competitor = pickActivity();
+        if (remaining > 0 && competitor != mActivity) {
+            int competitorConfidence = mRandom.nextInt(remaining + 1);
+            event.addActivity(competitor, competitorConfidence);
+            remaining -= competitorConfidence;
+        }
+        if (remaining > 0) {
+            event.addActivity(BrightnessDecisionTable.UNKNOWN, remaining);
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+        // Nothing to release
+    }
+
+    /**
+     * @return {@link int} activity picked according to the weights
+     */
+    private int pickActivity() {
+        int value = mRandom.nextInt(TOTAL_WEIGHT);
+        for (int i = 0; i < ACTIVITIES.length; i++) {
+            value -= WEIGHTS[i];
+            if (value < 0) {
+                return ACTIVITIES[i];
+            }
+        }
+        return ACTIVITIES[0];
+    }
+
+    /**
+     * @return {@link boolean} true if it's night in local solar time at the user's longitude
+     */
+    private boolean isNight() {
+        long solarMillis = mTimeMillis + (long) (mLongitude / 15 * HOUR_MILLIS);
+        long hour = ((solarMillis / HOUR_MILLIS) % 24 + 24) % 24;
+        return hour >= NIGHT_START_HOUR || hour < NIGHT_END_HOUR;
+    }
+
+}
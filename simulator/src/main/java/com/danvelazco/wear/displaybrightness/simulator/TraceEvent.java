@@ -0,0 +1,98 @@
+package com.danvelazco.wear.displaybrightness.simulator;
+
+import com.danvelazco.wear.displaybrightness.core.BrightnessContext;
+import com.danvelazco.wear.displaybrightness.core.BrightnessDecisionTable;
+
+/**
+ * A single activity detection of a trace: when it happened, where the user was and the confidence of every probable
+ * activity, the same data the phone gets from Play Services.
+ * <p/>
+ * Events are mutable and meant to be reused, a {@link TraceSource} fills the same instance over and over so replaying
+ * a trace doesn't allocate per event.
+ */
+public class TraceEvent {
+
+    // Members
+    private final int[] mActivityTypes = new int[BrightnessDecisionTable.ACTIVITY_TYPE_COUNT];
+    private final int[] mConfidences = new int[BrightnessDecisionTable.ACTIVITY_TYPE_COUNT];
+    private int mCount = 0;
+    private long mTimeMillis = 0;
+    private double mLatitude = BrightnessContext.UNKNOWN_COORDINATE;
+    private double mLongitude = BrightnessContext.UNKNOWN_COORDINATE;
+
+    /**
+     * Start a new event, without any probable activity
+     *
+     * @param timeMillis
+     *         {@link long} instant of the detection, in epoch millis
+     * @param latitude
+     *         {@link double} latitude of the user, or {@link BrightnessContext#UNKNOWN_COORDINATE}
+     * @param longitude
+     *         {@link double} longitude of the user, or {@link BrightnessContext#UNKNOWN_COORDINATE}
+     */
+    public void reset(long timeMillis, double latitude, double longitude) {
+        mTimeMillis = timeMillis;
+        mLatitude = latitude;
+        mLongitude = longitude;
+        mCount = 0;
+    }
+
+    /**
+     * Add a probable activity, ignored once every activity type has one
+     *
+     * @param activityType
+     *         {@link int} one of the {@link BrightnessDecisionTable} activity types
+     * @param confidence
+     *         {@link int} confidence of the activity, from 0 to 100
+     */
+    public void addActivity(int activityType, int confidence) {
+        if (mCount < mActivityTypes.length) {
+            mActivityTypes[mCount] = activityType;
+            mConfidences[mCount] = confidence;
+            mCount++;
+        }
+    }
+
+    /**
+     * @return {@link long} instant of the detection, in epoch millis
+     */
+    public long getTimeMillis() {
+        return mTimeMillis;
+    }
+
+    /**
+     * @return {@link double} latitude of the user, or {@link BrightnessContext#UNKNOWN_COORDINATE}
+     */
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    /**
+     * @return {@link double} longitude of the user, or {@link BrightnessContext#UNKNOWN_COORDINATE}
+     */
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    /**
+     * @return {@link int[]} probable activity types, only the first {@link #getCount()} are set
+     */
+    public int[] getActivityTypes() {
+        return mActivityTypes;
+    }
+
+    /**
+     * @return {@link int[]} confidence of each probable activity, only the first {@link #getCount()} are set
+     */
+    public int[] getConfidences() {
+        return mConfidences;
+    }
+
+    /**
+     * @return {@link int} number of probable activities
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+}
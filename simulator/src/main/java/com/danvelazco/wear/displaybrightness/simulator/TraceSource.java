@@ -0,0 +1,23 @@
+package com.danvelazco.wear.displaybrightness.simulator;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Stream of {@link TraceEvent}s, in chronological order. Events are read one at a time so traces of any length can be
+ * replayed without holding them in memory.
+ */
+public interface TraceSource extends Closeable {
+
+    /**
+     * Read the next event
+     *
+     * @param event
+     *         {@link TraceEvent} filled with the next event
+     * @return {@link boolean} false once the trace is over, the event is left untouched
+     * @throws IOException
+     *         if the trace can't be read
+     */
+    boolean next(TraceEvent event) throws IOException;
+
+}
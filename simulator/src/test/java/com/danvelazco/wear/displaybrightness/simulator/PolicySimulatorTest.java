@@ -0,0 +1,148 @@
+package com.danvelazco.wear.displaybrightness.simulator;
+
+import com.danvelazco.wear.displaybrightness.core.ActivitySmoother;
+import com.danvelazco.wear.displaybrightness.core.BrightnessDecisionTable;
+import com.danvelazco.wear.displaybrightness.core.BrightnessEngine;
+import com.danvelazco.wear.displaybrightness.core.BrightnessPipeline;
+import com.danvelazco.wear.displaybrightness.core.BrightnessSchedule;
+import com.danvelazco.wear.displaybrightness.core.BrightnessSendGate;
+import com.danvelazco.wear.displaybrightness.core.PolicyRule;
+import com.danvelazco.wear.displaybrightness.core.PolicyRuleSet;
+import com.danvelazco.wear.displaybrightness.core.ScheduleRule;
+import com.danvelazco.wear.displaybrightness.core.SolarEventCache;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.TimeZone;
+
+/**
+ * Tests for the {@link PolicySimulator} and its trace sources
+ */
+public class PolicySimulatorTest extends TestCase {
+
+    // Constants
+    private static final long MINUTE = 60 * 1000L;
+    private static final long START = 1430438400000L;
+    private static final int EVENTS = 20000;
+    private static final TimeZone TIME_ZONE = TimeZone.getTimeZone("America/New_York");
+
+    public void testSyntheticTraceIsDeterministic() throws Exception {
+        PolicySimulator first = simulate(new SyntheticTraceSource(7, EVENTS, START, 2 * MINUTE, 40.7, -74.0),
+                ActivitySmoother.DEFAULT_MARGIN);
+        PolicySimulator second = simulate(new SyntheticTraceSource(7, EVENTS, START, 2 * MINUTE, 40.7, -74.0),
+                ActivitySmoother.DEFAULT_MARGIN);
+
+        assertEquals(EVENTS, first.getEventCount());
+        assertTrue(first.getSendCount() > 0);
+        assertEquals(first.getSendCount(), second.getSendCount());
+        assertEquals(first.getActivityFlipCount(), second.getActivityFlipCount());
+        assertEquals(first.getLevelChangeCount(), second.getLevelChangeCount());
+    }
+
+    public void testMarginReducesFlips() throws Exception {
+        PolicySimulator raw = simulate(new SyntheticTraceSource(7, EVENTS, START, 2 * MINUTE, 40.7, -74.0), 0);
+        PolicySimulator smoothed = simulate(new SyntheticTraceSource(7, EVENTS, START, 2 * MINUTE, 40.7, -74.0),
+                25);
+
+        assertTrue(smoothed.getActivityFlipCount() < raw.getActivityFlipCount());
+        assertEquals(raw.getRawActivityFlipCount(), smoothed.getRawActivityFlipCount());
+    }
+
+    public void testTimeAtLevelCoversTheTrace() throws Exception {
+        PolicySimulator simulator = simulate(new SyntheticTraceSource(3, EVENTS, START, 2 * MINUTE, 40.7, -74.0),
+                ActivitySmoother.DEFAULT_MARGIN);
+
+        long total = 0;
+        for (int value = 0; value < 5; value++) {
+            total += simulator.getMillisAtLevel(value);
+        }
+        // Only the time before the first level reached the watch is missing
+        assertTrue(total <= simulator.getDurationMillis());
+        assertTrue(total >= simulator.getDurationMillis() - 10 * MINUTE);
+    }
+
+    public void testCsvTrace() throws Exception {
+        String trace = "# time,lat,lon,activities\n"
+                + "\n"
+                + (START + 12 * 60 * MINUTE) + ",40.7,-74.0,3:90;4:10\n"
+                + (START + 12 * 60 * MINUTE + 2 * MINUTE) + ",,,3:95\n";
+        CsvTraceSource source = new CsvTraceSource(new StringReader(trace));
+        TraceEvent event = new TraceEvent();
+
+        assertTrue(source.next(event));
+        assertEquals(2, event.getCount());
+        assertEquals(BrightnessDecisionTable.STILL, event.getActivityTypes()[0]);
+        assertEquals(10, event.getConfidences()[1]);
+        assertEquals(40.7, event.getLatitude(), 0);
+
+        assertTrue(source.next(event));
+        assertEquals(1, event.getCount());
+        assertTrue(Double.isNaN(event.getLatitude()));
+        assertFalse(source.next(event));
+    }
+
+    public void testCsvTraceRejectsInvalidLines() throws Exception {
+        CsvTraceSource source = new CsvTraceSource(new StringReader("1430438400000,40.7,-74.0,3\n"));
+        try {
+            source.next(new TraceEvent());
+            fail("Expected the line to be rejected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("line 1"));
+        }
+    }
+
+    public void testTimelineListsEveryLevelShown() throws Exception {
+        PolicySimulator simulator = createSimulator(ActivitySmoother.DEFAULT_MARGIN);
+        StringWriter timeline = new StringWriter();
+        simulator.setTimeline(timeline);
+        simulator.run(new SyntheticTraceSource(5, EVENTS, START, 2 * MINUTE, 40.7, -74.0));
+
+        String[] lines = timeline.toString().split("\n");
+        assertEquals(simulator.getSendCount(), lines.length);
+        assertEquals(3, lines[0].split(",").length);
+    }
+
+    public void testPolicyRulesAndSchedule() throws Exception {
+        PolicySimulator simulator = createSimulator(ActivitySmoother.DEFAULT_MARGIN);
+        simulator.setPolicy(new PolicyRuleSet(Arrays.asList(PolicyRule.parse("activity=still level=3"),
+                PolicyRule.parse("level=1")), TIME_ZONE));
+        simulator.run(new SyntheticTraceSource(5, EVENTS, START, 2 * MINUTE, 40.7, -74.0));
+        assertEquals(0, simulator.getMillisAtLevel(0));
+        assertTrue(simulator.getMillisAtLevel(3) > 0);
+        assertTrue(simulator.getMillisAtLevel(1) > 0);
+
+        // The time windows apply on top of the rules
+        simulator = createSimulator(ActivitySmoother.DEFAULT_MARGIN);
+        simulator.setPolicy(new PolicyRuleSet(Arrays.asList(PolicyRule.parse("level=3")), TIME_ZONE));
+        simulator.setSchedule(new BrightnessSchedule(Arrays.asList(ScheduleRule.parse("daily 00:00-00:00 cap 2")),
+                TIME_ZONE));
+        simulator.run(new SyntheticTraceSource(5, EVENTS, START, 2 * MINUTE, 40.7, -74.0));
+        assertEquals(1, simulator.getSendCount());
+        assertTrue(simulator.getMillisAtLevel(2) > 0);
+    }
+
+    /**
+     * Replay the trace with the default policy and the given smoothing margin
+     */
+    private static PolicySimulator simulate(TraceSource source, float margin) throws Exception {
+        PolicySimulator simulator = createSimulator(margin);
+        simulator.run(source);
+        return simulator;
+    }
+
+    private static PolicySimulator createSimulator(float margin) {
+        ActivitySmoother smoother = new ActivitySmoother();
+        smoother.setMargin(margin);
+        BrightnessDecisionTable table = new BrightnessDecisionTable(2, 1)
+                .put(BrightnessDecisionTable.IN_VEHICLE, 4, 0)
+                .put(BrightnessDecisionTable.WALKING, 4, 2)
+                .put(BrightnessDecisionTable.STILL, 2, 0);
+        BrightnessEngine engine = new BrightnessEngine(new SolarEventCache(SolarEventCache.DEFAULT_CALCULATOR,
+                TIME_ZONE, 8));
+        return new PolicySimulator(new BrightnessPipeline(engine), table, null, smoother, new BrightnessSendGate());
+    }
+
+}
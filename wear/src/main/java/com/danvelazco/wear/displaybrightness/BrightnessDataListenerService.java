@@ -1,59 +1,290 @@
 package com.danvelazco.wear.displaybrightness;
 
-import android.net.Uri;
 import android.util.Log;
+import com.danvelazco.wear.displaybrightness.shared.AmbientLightFilter;
 import com.danvelazco.wear.displaybrightness.shared.BrightnessLevel;
-import com.danvelazco.wear.displaybrightness.util.BrightnessUtil;
-import com.google.android.gms.common.data.FreezableUtils;
+import com.danvelazco.wear.displaybrightness.shared.BrightnessPayload;
+import com.danvelazco.wear.displaybrightness.shared.LatencyStats;
+import com.danvelazco.wear.displaybrightness.shared.LatencyTrace;
+import com.danvelazco.wear.displaybrightness.util.AmbientLightSampler;
+import com.danvelazco.wear.displaybrightness.util.AutonomousScheduler;
+import com.danvelazco.wear.displaybrightness.util.BrightnessApplier;
+import com.danvelazco.wear.displaybrightness.util.BrightnessUpdateFilter;
+import com.danvelazco.wear.displaybrightness.util.DisplayCalibration;
+import com.danvelazco.wear.displaybrightness.util.TraceReporter;
+import com.danvelazco.wear.displaybrightness.util.WatchStatusReporter;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.wearable.DataEvent;
 import com.google.android.gms.wearable.DataEventBuffer;
 import com.google.android.gms.wearable.DataMap;
 import com.google.android.gms.wearable.DataMapItem;
+import com.google.android.gms.wearable.MessageEvent;
+import com.google.android.gms.wearable.Wearable;
 import com.google.android.gms.wearable.WearableListenerService;
 
-import java.util.List;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Service used to listen for data changes on the Wear Data API layer and change the display brightness based on the
  * {@link BrightnessLevel} the phone sends.
+ * <p/>
+ * The phone can also send levels as messages on {@link BrightnessLevel#PATH_BRIGHTNESS_MESSAGE}; every level received
+ * through either transport is acknowledged with a message on {@link BrightnessLevel#PATH_BRIGHTNESS_ACK}.
+ * <p/>
+ * Once a level is on the display its {@link LatencyTrace} is completed and reported back through the {@link
+ * TraceReporter}.
+ * <p/>
+ * Levels are turned into raw brightness values by the {@link DisplayCalibration} of this watch's display. When the
+ * phone enables the ambient light fusion, see {@link BrightnessLevel#PATH_LIGHT_SENSOR_CONFIG}, they are first blended
+ * with the light measured by the watch through the {@link AmbientLightSampler}.
+ * <p/>
+ * In the autonomous mode, see {@link BrightnessLevel#PATH_AUTONOMOUS_CONFIG}, the phone only syncs its levels, the
+ * activity and a location, and the {@link AutonomousScheduler} switches between the day and night levels itself.
+ * <p/>
+ * Whenever the phone sends something, the {@link WatchStatusReporter} also lets it know if the battery state changed.
  */
 public class BrightnessDataListenerService extends WearableListenerService {
 
     // Constants
     private static final String LOG_TAG = "BrightnessDataListener";
+    private static final long CONNECTION_TIMEOUT_SECONDS = 10;
+
+    // Delivery latency (phone timestamp until received) of each transport, kept for the lifetime of the process
+    private static final LatencyStats sMessageLatency = new LatencyStats("message");
+    private static final LatencyStats sDataItemLatency = new LatencyStats("data item");
+
+    // Last update applied from each phone
+    private static final BrightnessUpdateFilter sUpdateFilter = new BrightnessUpdateFilter();
+
+    // Members
+    private GoogleApiClient mGoogleApiClient;
+    private AmbientLightSampler mLightSampler;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mLightSampler = AmbientLightSampler.getInstance(this);
+
+        mGoogleApiClient = new GoogleApiClient.Builder(this)
+                .addApi(Wearable.API)
+                .build();
+    }
 
     /**
-     * Listen for data changes on the {@link BrightnessLevel#PATH_BRIGHTNESS}
+     * {@inheritDoc}
+     */
+    @Override
+    public void onDestroy() {
+        if (mGoogleApiClient != null && mGoogleApiClient.isConnected()) {
+            mGoogleApiClient.disconnect();
+        }
+        super.onDestroy();
+    }
+
+    /**
+     * Listen for data changes on the {@link BrightnessLevel#PATH_BRIGHTNESS}, and for new settings from the phone
+     * <p/>
+     * When the watch reconnects after being out of range, the buffer can contain a backlog of changes for the same
+     * path, so only the newest event of each path is handled.
      * <p/>
      * {@inheritDoc}
      */
     @Override
     public void onDataChanged(DataEventBuffer dataEvents) {
-        final List<DataEvent> events = FreezableUtils.freezeIterable(dataEvents);
-        for (DataEvent event : events) {
-            Uri uri = event.getDataItem().getUri();
-            if (BrightnessLevel.PATH_BRIGHTNESS.equals(uri.getPath())) {
-                if (event.getType() == DataEvent.TYPE_CHANGED) {
-                    Log.d(LOG_TAG, BrightnessLevel.PATH_BRIGHTNESS + " data TYPE_CHANGED");
-                    DataMap dataMap = DataMapItem.fromDataItem(event.getDataItem()).getDataMap();
-                    int brightnessLevel = dataMap.getInt(BrightnessLevel.FIELD_NAME, BrightnessLevel.MEDIUM);
-                    setBrightness(brightnessLevel);
+        WatchStatusReporter.getInstance(this).report(WatchStatusReporter.CHARGING_FROM_BATTERY, null);
+        Map<String, DataEvent> latestEvents = new HashMap<>();
+        for (DataEvent event : dataEvents) {
+            latestEvents.put(event.getDataItem().getUri().getPath(), event);
+        }
+        if (dataEvents.getCount() > latestEvents.size()) {
+            Log.d(LOG_TAG, "Coalesced " + dataEvents.getCount() + " events into " + latestEvents.size());
+        }
+
+        // The buffer is released once we return, so read everything we need now
+        DataEvent configEvent = latestEvents.get(BrightnessLevel.PATH_LIGHT_SENSOR_CONFIG);
+        if (configEvent != null && configEvent.getType() == DataEvent.TYPE_CHANGED) {
+            DataMap dataMap = DataMapItem.fromDataItem(configEvent.getDataItem()).getDataMap();
+            mLightSampler.update(dataMap.getBoolean(BrightnessLevel.FIELD_LIGHT_SENSOR_ENABLED),
+                    dataMap.getInt(BrightnessLevel.FIELD_BATCH_LATENCY_SECONDS,
+                            AmbientLightSampler.DEFAULT_BATCH_LATENCY_SECONDS),
+                    dataMap.getInt(BrightnessLevel.FIELD_SAMPLE_COUNT, AmbientLightFilter.DEFAULT_SAMPLE_COUNT),
+                    dataMap.getInt(BrightnessLevel.FIELD_SENSOR_WEIGHT_PERCENT,
+                            AmbientLightSampler.DEFAULT_SENSOR_WEIGHT_PERCENT));
+        }
+
+        DataEvent autonomousEvent = latestEvents.get(BrightnessLevel.PATH_AUTONOMOUS_CONFIG);
+        if (autonomousEvent != null && autonomousEvent.getType() == DataEvent.TYPE_CHANGED) {
+            DataMap dataMap = DataMapItem.fromDataItem(autonomousEvent.getDataItem()).getDataMap();
+            ArrayList<Integer> levels = dataMap.getIntegerArrayList(BrightnessLevel.FIELD_LEVEL_TABLE);
+            int[] table = null;
+            if (levels != null) {
+                table = new int[levels.size()];
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = levels.get(i);
                 }
             }
+            try {
+                AutonomousScheduler.getInstance(this).update(
+                        dataMap.getBoolean(BrightnessLevel.FIELD_AUTONOMOUS_ENABLED), table,
+                        dataMap.getInt(BrightnessLevel.FIELD_ACTIVITY_TYPE),
+                        dataMap.getDouble(BrightnessLevel.FIELD_LATITUDE, Double.NaN),
+                        dataMap.getDouble(BrightnessLevel.FIELD_LONGITUDE, Double.NaN));
+            } catch (IllegalArgumentException e) {
+                // Sent by a phone app with a different table layout
+                Log.w(LOG_TAG, "Invalid autonomous config: " + e.getMessage());
+            }
+        }
+
+        DataEvent event = latestEvents.get(BrightnessLevel.PATH_BRIGHTNESS);
+        if (event != null && event.getType() == DataEvent.TYPE_CHANGED) {
+            Log.d(LOG_TAG, BrightnessLevel.PATH_BRIGHTNESS + " data TYPE_CHANGED");
+            DataMap dataMap = DataMapItem.fromDataItem(event.getDataItem()).getDataMap();
+            String sourceNodeId = event.getDataItem().getUri().getHost();
+            byte[] payload = dataMap.getByteArray(BrightnessLevel.FIELD_PAYLOAD);
+            if (payload != null) {
+                onBrightnessPayloadReceived(payload, sourceNodeId, BrightnessLevel.TRANSPORT_DATA_ITEM);
+            } else {
+                // Sent by an older version of the phone app
+                setBrightness(dataMap.getInt(BrightnessLevel.FIELD_NAME, BrightnessLevel.MEDIUM), null);
+            }
         }
     }
 
     /**
-     * Set the brightness based on the value set.
+     * Listen for brightness levels sent through the fast path on {@link BrightnessLevel#PATH_BRIGHTNESS_MESSAGE}
+     * <p/>
+     * {@inheritDoc}
+     */
+    @Override
+    public void onMessageReceived(MessageEvent messageEvent) {
+        WatchStatusReporter.getInstance(this).report(WatchStatusReporter.CHARGING_FROM_BATTERY, null);
+        if (BrightnessLevel.PATH_BRIGHTNESS_MESSAGE.equals(messageEvent.getPath())) {
+            Log.d(LOG_TAG, BrightnessLevel.PATH_BRIGHTNESS_MESSAGE + " message received");
+            onBrightnessPayloadReceived(messageEvent.getData(), messageEvent.getSourceNodeId(),
+                    BrightnessLevel.TRANSPORT_MESSAGE);
+        }
+    }
+
+    /**
+     * Decode the {@link BrightnessPayload}, apply the level unless it's stale or out of order, record how long it took
+     * to get here and acknowledge it. Out of order and stale updates are not acknowledged, the phone will send a newer
+     * level.
+     *
+     * @param data
+     *         {@link byte[]} encoded {@link BrightnessPayload}
+     * @param sourceNodeId
+     *         {@link String} node that sent the level
+     * @param transport
+     *         {@link int} {@link BrightnessLevel#TRANSPORT_MESSAGE} or {@link BrightnessLevel#TRANSPORT_DATA_ITEM}
+     */
+    private void onBrightnessPayloadReceived(byte[] data, final String sourceNodeId, int transport) {
+        final LatencyTrace trace = new LatencyTrace();
+        trace.stamp(LatencyTrace.STAGE_WATCH_RECEIVED);
+        final BrightnessPayload payload = new BrightnessPayload();
+        if (!payload.decode(data)) {
+            Log.w(LOG_TAG, "Invalid brightness payload");
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        int result = sUpdateFilter.filter(sourceNodeId, payload, now);
+        if (result == BrightnessUpdateFilter.ACCEPT) {
+            payload.getTrace(trace);
+            BrightnessApplier.OnAppliedListener listener = new BrightnessApplier.OnAppliedListener() {
+                @Override
+                public void onApplied(int brightnessLevel) {
+                    trace.stamp(LatencyTrace.STAGE_APPLIED);
+                    TraceReporter.getInstance(getApplicationContext()).report(sourceNodeId, payload.getSequence(),
+                            trace);
+                }
+            };
+            if (payload.getFineLevel() != BrightnessPayload.NO_FINE_LEVEL) {
+                setFineBrightness(payload.getFineLevel(), listener);
+            } else {
+                setBrightness(payload.getLevel(), listener);
+            }
+
+            // Both clocks are network synced, good enough to compare the transports
+            LatencyStats stats = transport == BrightnessLevel.TRANSPORT_MESSAGE ? sMessageLatency : sDataItemLatency;
+            stats.record(now - payload.getTimestamp());
+            Log.d(LOG_TAG, stats.toString());
+        } else {
+            Log.d(LOG_TAG, "Discarded " + payload + " (result=" + result + ", discarded="
+                    + sUpdateFilter.getDiscardedCount() + ")");
+        }
+
+        if ((result == BrightnessUpdateFilter.ACCEPT || result == BrightnessUpdateFilter.DUPLICATE)
+                && sourceNodeId != null) {
+            sendAck(sourceNodeId, payload.getSequence(), transport);
+        }
+    }
+
+    /**
+     * Acknowledge a level to the phone along with the battery state of the watch and the state of the light sampler.
+     * Listener callbacks run on a background thread, so blocking here is fine.
+     *
+     * @param nodeId
+     *         {@link String} node to acknowledge to
+     * @param sequence
+     *         {@link long} sequence number of the level
+     * @param transport
+     *         {@link int} transport the level was received through
+     */
+    private void sendAck(String nodeId, long sequence, int transport) {
+        if (!mGoogleApiClient.isConnected()) {
+            ConnectionResult connectionResult = mGoogleApiClient.blockingConnect(CONNECTION_TIMEOUT_SECONDS,
+                    TimeUnit.SECONDS);
+            if (!connectionResult.isSuccess()) {
+                Log.w(LOG_TAG, "Unable to connect to acknowledge level: " + connectionResult);
+                return;
+            }
+        }
+
+        DataMap ack = new DataMap();
+        ack.putLong(BrightnessLevel.FIELD_SEQUENCE, sequence);
+        ack.putInt(BrightnessLevel.FIELD_TRANSPORT, transport);
+        ack.putInt(BrightnessLevel.FIELD_PAYLOAD_VERSION, BrightnessPayload.VERSION);
+        ack.putString(BrightnessLevel.FIELD_LIGHT_SENSOR_STATS, mLightSampler.toString());
+        WatchStatusReporter.putBatteryState(this, ack);
+        Wearable.MessageApi.sendMessage(mGoogleApiClient, nodeId, BrightnessLevel.PATH_BRIGHTNESS_ACK,
+                ack.toByteArray());
+    }
+
+    /**
+     * Set the brightness based on the value set. The level is handed over to the {@link BrightnessApplier}, which
+     * applies it in the background and drops it if a newer level arrives first.
      *
      * @param value
      *         {@link int} values must be: {@link BrightnessLevel#LOWEST}, {@link BrightnessLevel#MEDIUM} or {@link
      *         BrightnessLevel#HIGHEST}
+     * @param listener
+     *         {@link BrightnessApplier.OnAppliedListener} notified once the level is applied, may be null
      */
-    private void setBrightness(int value) {
-        int brightnessLevel = BrightnessLevel.getBrightnessLevel(value);
+    private void setBrightness(int value, BrightnessApplier.OnAppliedListener listener) {
+        int brightnessLevel = DisplayCalibration.getDisplayLevel(this, BrightnessLevel.getBrightnessLevel(value));
         Log.d(LOG_TAG, "\tBrightness value: " + value + " (level=" + brightnessLevel + ")");
-        BrightnessUtil.setSystemBrightnessLevel(this, brightnessLevel);
+        BrightnessApplier.getInstance(this).applyLevel(brightnessLevel, listener);
+    }
+
+    /**
+     * Set the exact brightness picked by the continuous mode on the phone
+     *
+     * @param fineLevel
+     *         {@link int} brightness level on the default scale, mapped to the range the watch supports
+     * @param listener
+     *         {@link BrightnessApplier.OnAppliedListener} notified once the level is applied, may be null
+     */
+    private void setFineBrightness(int fineLevel, BrightnessApplier.OnAppliedListener listener) {
+        int brightnessLevel = DisplayCalibration.getDisplayLevel(this, fineLevel);
+        Log.d(LOG_TAG, "\tFine brightness level: " + brightnessLevel);
+        BrightnessApplier.getInstance(this).applyLevel(brightnessLevel, listener);
     }
 
 }
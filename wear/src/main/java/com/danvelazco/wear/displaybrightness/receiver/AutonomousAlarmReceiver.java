@@ -0,0 +1,53 @@
+package com.danvelazco.wear.displaybrightness.receiver;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import com.danvelazco.wear.displaybrightness.util.AutonomousScheduler;
+import com.danvelazco.wear.displaybrightness.util.BrightnessApplier;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Broadcast receiver for the sunrise and sunset alarms of the {@link AutonomousScheduler}, also sets the alarm again
+ * once the watch boots. The broadcast is kept alive until the level is on the display, so the watch doesn't go back
+ * to sleep in the middle of the ramp.
+ */
+public class AutonomousAlarmReceiver extends BroadcastReceiver {
+
+    /**
+     * The applier doesn't report levels it ignores or replaces, don't wait for those forever
+     */
+    private static final long APPLY_TIMEOUT_MILLIS = 5 * 1000L;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        final PendingResult result = goAsync();
+        final AtomicBoolean finished = new AtomicBoolean(false);
+        final Runnable finish = new Runnable() {
+            @Override
+            public void run() {
+                if (finished.compareAndSet(false, true)) {
+                    result.finish();
+                }
+            }
+        };
+
+        boolean applying = AutonomousScheduler.getInstance(context).onAlarm(new BrightnessApplier.OnAppliedListener() {
+            @Override
+            public void onApplied(int brightnessLevel) {
+                finish.run();
+            }
+        });
+        if (applying) {
+            new Handler().postDelayed(finish, APPLY_TIMEOUT_MILLIS);
+        } else {
+            finish.run();
+        }
+    }
+
+}
@@ -0,0 +1,36 @@
+package com.danvelazco.wear.displaybrightness.receiver;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import com.danvelazco.wear.displaybrightness.util.WatchStatusReporter;
+
+/**
+ * Broadcast receiver for the battery getting low or okay again and for the charger being plugged in or out, reports
+ * the new battery state to the phone through the {@link WatchStatusReporter}. The broadcast is kept alive until the
+ * report is sent.
+ */
+public class BatteryStatusReceiver extends BroadcastReceiver {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        int charging = WatchStatusReporter.CHARGING_FROM_BATTERY;
+        if (Intent.ACTION_POWER_CONNECTED.equals(intent.getAction())) {
+            charging = 1;
+        } else if (Intent.ACTION_POWER_DISCONNECTED.equals(intent.getAction())) {
+            charging = 0;
+        }
+
+        final PendingResult result = goAsync();
+        WatchStatusReporter.getInstance(context).report(charging, new Runnable() {
+            @Override
+            public void run() {
+                result.finish();
+            }
+        });
+    }
+
+}
@@ -0,0 +1,245 @@
+package com.danvelazco.wear.displaybrightness.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import com.danvelazco.wear.displaybrightness.shared.AmbientLightFilter;
+import com.danvelazco.wear.displaybrightness.shared.BrightnessLevel;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the ambient light sensor of the watch, when it has one and the fusion mode is enabled on the phone, and
+ * blends the filtered light with the levels the phone sends, see {@link AmbientLightFilter}.
+ * <p/>
+ * The sensor is batched: samples are queued in the sensor hub's FIFO and handed over all at once when the batch
+ * latency expires, so the CPU wakes up once per batch rather than once per sample. Sensors without a FIFO simply
+ * report every sample. The batch latency, the number of samples averaged and the weight of the sensor come from the
+ * phone and are kept in {@link SharedPreferences}, so sampling starts again with the same settings when the process is
+ * restarted.
+ * <p/>
+ * The last level from the phone is kept so the light is followed between levels: once a batch has been delivered the
+ * level is fused again and applied if the result changed. When the phone sends a level the FIFO is flushed, the level
+ * is fused with what was measured so far right away and again as soon as the flushed samples are in.
+ */
+public class AmbientLightSampler implements SensorEventListener {
+
+    // Constants
+    private static final String LOG_TAG = "AmbientLightSampler";
+    private static final String KEY_PREF_FILENAME = "pref_light_sensor";
+    private static final int SAMPLING_PERIOD_MICROS = (int) TimeUnit.SECONDS.toMicros(1);
+
+    /**
+     * Samples closer than this to the previous one are part of the same batch
+     */
+    private static final long BATCH_GAP_MILLIS = 200;
+    private static final long BATCH_GAP_NANOS = TimeUnit.MILLISECONDS.toNanos(BATCH_GAP_MILLIS);
+    private static final int NO_LEVEL = -1;
+
+    // Defaults
+    public static final int DEFAULT_BATCH_LATENCY_SECONDS = 30;
+    public static final int DEFAULT_SENSOR_WEIGHT_PERCENT = Math.round(AmbientLightFilter.DEFAULT_SENSOR_WEIGHT * 100);
+
+    // Singleton
+    private static AmbientLightSampler sInstance;
+
+    // Members
+    private final Context mContext;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final SensorManager mSensorManager;
+    private final Sensor mLightSensor;
+    private final SharedPreferences mSharedPreferences;
+    private AmbientLightFilter mFilter = new AmbientLightFilter(AmbientLightFilter.DEFAULT_SAMPLE_COUNT);
+    private boolean mEnabled = false;
+    private boolean mRegistered = false;
+    private int mBatchLatencySeconds = DEFAULT_BATCH_LATENCY_SECONDS;
+    private int mPhoneLevel = NO_LEVEL;
+    private int mFusedLevel = NO_LEVEL;
+
+    // Statistics
+    private long mLastDeliveryNanos = 0;
+    private int mBatchCount = 0;
+    private int mFusedCount = 0;
+    private int mFlushCount = 0;
+    private int mReappliedCount = 0;
+
+    /**
+     * Runs once the samples of a batch stop coming in
+     */
+    private final Runnable mBatchDelivered = new Runnable() {
+        @Override
+        public void run() {
+            onBatchDelivered();
+        }
+    };
+
+    /**
+     * Get the process wide instance, sampling starts right away if the fusion mode is enabled
+     *
+     * @param context
+     *         {@link Context}
+     * @return {@link AmbientLightSampler}
+     */
+    public static synchronized AmbientLightSampler getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AmbientLightSampler(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param context
+     *         {@link Context}
+     */
+    private AmbientLightSampler(Context context) {
+        mContext = context;
+        mSensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        mLightSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_LIGHT);
+        mSharedPreferences = context.getSharedPreferences(KEY_PREF_FILENAME, Context.MODE_PRIVATE);
+        configure(mSharedPreferences.getBoolean(BrightnessLevel.FIELD_LIGHT_SENSOR_ENABLED, false),
+                mSharedPreferences.getInt(BrightnessLevel.FIELD_BATCH_LATENCY_SECONDS, DEFAULT_BATCH_LATENCY_SECONDS),
+                mSharedPreferences.getInt(BrightnessLevel.FIELD_SAMPLE_COUNT, AmbientLightFilter.DEFAULT_SAMPLE_COUNT),
+                mSharedPreferences.getInt(BrightnessLevel.FIELD_SENSOR_WEIGHT_PERCENT, DEFAULT_SENSOR_WEIGHT_PERCENT));
+    }
+
+    /**
+     * Apply and keep new settings from the phone
+     *
+     * @param enabled
+     *         {@link boolean} whether the fusion mode is enabled
+     * @param batchLatencySeconds
+     *         {@link int} how long samples may wait in the FIFO
+     * @param sampleCount
+     *         {@link int} number of samples averaged
+     * @param sensorWeightPercent
+     *         {@link int} share of the ambient light in the fused level, from 0 to 100
+     */
+    public void update(boolean enabled, int batchLatencySeconds, int sampleCount, int sensorWeightPercent) {
+        mSharedPreferences.edit()
+                .putBoolean(BrightnessLevel.FIELD_LIGHT_SENSOR_ENABLED, enabled)
+                .putInt(BrightnessLevel.FIELD_BATCH_LATENCY_SECONDS, batchLatencySeconds)
+                .putInt(BrightnessLevel.FIELD_SAMPLE_COUNT, sampleCount)
+                .putInt(BrightnessLevel.FIELD_SENSOR_WEIGHT_PERCENT, sensorWeightPercent)
+                .apply();
+        configure(enabled, batchLatencySeconds, sampleCount, sensorWeightPercent);
+    }
+
+    /**
+     * Blend a level from the phone with the ambient light, and flush the samples waiting in the FIFO so the level is
+     * fused again with them once they are delivered
+     *
+     * @param brightnessLevel
+     *         {@link int} level from the phone on the default 10 to 255 scale
+     * @return {@link int} level to show on the default scale, the same level if the fusion mode is disabled or there
+     * is no recent sample
+     */
+    public synchronized int fuse(int brightnessLevel) {
+        mPhoneLevel = brightnessLevel;
+        if (!mEnabled) {
+            mFusedLevel = brightnessLevel;
+            return brightnessLevel;
+        }
+        if (mRegistered && mSensorManager.flush(this)) {
+            mFlushCount++;
+        }
+        mFusedLevel = mFilter.fuse(brightnessLevel, SystemClock.elapsedRealtime());
+        mFusedCount++;
+        Log.d(LOG_TAG, "Fused " + brightnessLevel + " -> " + mFusedLevel + " " + this);
+        return mFusedLevel;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void onSensorChanged(SensorEvent event) {
+        // Batched samples are delivered in a burst, the time of the delivery tells the batches apart
+        long now = SystemClock.elapsedRealtimeNanos();
+        if (now - mLastDeliveryNanos > BATCH_GAP_NANOS) {
+            mBatchCount++;
+        }
+        mLastDeliveryNanos = now;
+        // The sample may have waited in the FIFO for a whole batch, its age comes from when it was measured
+        mFilter.addSample(event.values[0], TimeUnit.NANOSECONDS.toMillis(event.timestamp));
+
+        mHandler.removeCallbacks(mBatchDelivered);
+        mHandler.postDelayed(mBatchDelivered, BATCH_GAP_MILLIS);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        // Not needed
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "AmbientLightSampler{enabled=%b sensor=%b fifo=%d latency=%ds batches=%d "
+                        + "fused=%d flushes=%d reapplied=%d %s}", mEnabled, mLightSensor != null,
+                mLightSensor != null ? mLightSensor.getFifoMaxEventCount() : 0, mBatchLatencySeconds, mBatchCount,
+                mFusedCount, mFlushCount, mReappliedCount, mFilter);
+    }
+
+    /**
+     * Fuse the last level from the phone with the new samples, and apply it if the result changed
+     */
+    private void onBatchDelivered() {
+        int fused;
+        synchronized (this) {
+            if (!mEnabled || mPhoneLevel == NO_LEVEL) {
+                return;
+            }
+            fused = mFilter.fuse(mPhoneLevel, SystemClock.elapsedRealtime());
+            if (fused == mFusedLevel) {
+                return;
+            }
+            Log.d(LOG_TAG, "Batch moved " + mPhoneLevel + " from " + mFusedLevel + " to " + fused + " " + this);
+            mFusedLevel = fused;
+            mReappliedCount++;
+        }
+        int displayLevel = DisplayCalibration.getProfile().getFineBrightnessLevel(fused);
+        BrightnessApplier.getInstance(mContext).applyLevel(displayLevel);
+    }
+
+    /**
+     * (Re)register the sensor listener with the settings
+     */
+    private synchronized void configure(boolean enabled, int batchLatencySeconds, int sampleCount,
+            int sensorWeightPercent) {
+        if (mRegistered) {
+            mSensorManager.unregisterListener(this);
+            mRegistered = false;
+        }
+        mEnabled = enabled && mLightSensor != null;
+        mBatchLatencySeconds = Math.max(0, batchLatencySeconds);
+        if (sampleCount != mFilter.getSampleCount()) {
+            mFilter = new AmbientLightFilter(Math.max(1, sampleCount));
+        }
+        mFilter.setSensorWeight(sensorWeightPercent / 100f);
+        // The samples must still be fresh after waiting in the FIFO for a whole batch
+        mFilter.setMaxAgeMillis(Math.max(AmbientLightFilter.DEFAULT_MAX_AGE_MILLIS,
+                2 * TimeUnit.SECONDS.toMillis(mBatchLatencySeconds)));
+
+        if (mEnabled) {
+            mRegistered = mSensorManager.registerListener(this, mLightSensor, SAMPLING_PERIOD_MICROS,
+                    (int) TimeUnit.SECONDS.toMicros(mBatchLatencySeconds));
+        }
+        Log.d(LOG_TAG, "configure() " + this);
+    }
+
+}
@@ -0,0 +1,231 @@
+package com.danvelazco.wear.displaybrightness.util;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.text.TextUtils;
+import android.util.Log;
+import com.danvelazco.wear.displaybrightness.core.BrightnessContext;
+import com.danvelazco.wear.displaybrightness.core.BrightnessDecision;
+import com.danvelazco.wear.displaybrightness.core.BrightnessDecisionTable;
+import com.danvelazco.wear.displaybrightness.core.BrightnessEngine;
+import com.danvelazco.wear.displaybrightness.core.SolarEventCache;
+import com.danvelazco.wear.displaybrightness.receiver.AutonomousAlarmReceiver;
+import com.danvelazco.wear.displaybrightness.shared.BrightnessLevel;
+
+/**
+ * Switches between the day and night levels on the watch itself, for the autonomous mode, see {@link
+ * BrightnessLevel#PATH_AUTONOMOUS_CONFIG}.
+ * <p/>
+ * The phone syncs its {@link BrightnessDecisionTable}, the current activity and a recent location; the level is picked
+ * by the same {@link BrightnessEngine} the phone uses and an alarm is set for the next sunrise or sunset, when the
+ * {@link AutonomousAlarmReceiver} asks for the level again. The phone only needs to be around when the activity
+ * changes.
+ * <p/>
+ * The settings are kept in {@link SharedPreferences}, so the alarm can be set again after the watch reboots.
+ */
+public class AutonomousScheduler {
+
+    // Constants
+    private static final String LOG_TAG = "AutonomousScheduler";
+    private static final String KEY_PREF_FILENAME = "pref_autonomous";
+    private static final String TABLE_SEPARATOR = ",";
+
+    /**
+     * The phone already dropped the activities it wasn't confident about
+     */
+    private static final int SYNCED_CONFIDENCE = 100;
+
+    /**
+     * How late the alarm is allowed to fire, a small window lets the system batch it with other alarms
+     */
+    private static final long WINDOW_MILLIS = 60 * 1000L;
+
+    /**
+     * Fire slightly after the transition, right at the transition it's still considered to be the previous state
+     */
+    private static final long TRANSITION_MARGIN_MILLIS = 1000L;
+
+    // Singleton
+    private static AutonomousScheduler sInstance;
+
+    // Members
+    private final Context mContext;
+    private final SharedPreferences mSharedPreferences;
+    private final BrightnessEngine mEngine = new BrightnessEngine();
+    private boolean mEnabled;
+    private BrightnessDecisionTable mDecisionTable;
+    private int mActivityType;
+    private double mLatitude;
+    private double mLongitude;
+
+    /**
+     * Get the process wide instance
+     *
+     * @param context
+     *         {@link Context}
+     * @return {@link AutonomousScheduler}
+     */
+    public static synchronized AutonomousScheduler getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AutonomousScheduler(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param context
+     *         {@link Context}
+     */
+    private AutonomousScheduler(Context context) {
+        mContext = context;
+        mSharedPreferences = context.getSharedPreferences(KEY_PREF_FILENAME, Context.MODE_PRIVATE);
+        mEnabled = mSharedPreferences.getBoolean(BrightnessLevel.FIELD_AUTONOMOUS_ENABLED, false);
+        mDecisionTable = readTable(mSharedPreferences.getString(BrightnessLevel.FIELD_LEVEL_TABLE, null));
+        mActivityType = mSharedPreferences.getInt(BrightnessLevel.FIELD_ACTIVITY_TYPE,
+                BrightnessDecisionTable.UNKNOWN);
+        mLatitude = Double.longBitsToDouble(mSharedPreferences.getLong(BrightnessLevel.FIELD_LATITUDE,
+                Double.doubleToLongBits(BrightnessContext.UNKNOWN_COORDINATE)));
+        mLongitude = Double.longBitsToDouble(mSharedPreferences.getLong(BrightnessLevel.FIELD_LONGITUDE,
+                Double.doubleToLongBits(BrightnessContext.UNKNOWN_COORDINATE)));
+    }
+
+    /**
+     * Apply and keep new settings from the phone, the level is applied right away
+     *
+     * @param enabled
+     *         {@link boolean} whether the autonomous mode is enabled, the other settings are ignored if it isn't
+     * @param table
+     *         {@link int[]} levels picked on the phone, see {@link BrightnessDecisionTable#toArray()}
+     * @param activityType
+     *         {@link int} current activity, one of the {@link BrightnessDecisionTable} activity types
+     * @param latitude
+     *         {@link double} recent latitude of the user, or {@link BrightnessContext#UNKNOWN_COORDINATE}
+     * @param longitude
+     *         {@link double} recent longitude of the user, or {@link BrightnessContext#UNKNOWN_COORDINATE}
+     */
+    public synchronized void update(boolean enabled, int[] table, int activityType, double latitude,
+            double longitude) {
+        mEnabled = enabled && table != null;
+        SharedPreferences.Editor editor = mSharedPreferences.edit()
+                .putBoolean(BrightnessLevel.FIELD_AUTONOMOUS_ENABLED, mEnabled);
+        if (mEnabled) {
+            mDecisionTable = BrightnessDecisionTable.fromArray(table);
+            mActivityType = activityType;
+            mLatitude = latitude;
+            mLongitude = longitude;
+            editor.putString(BrightnessLevel.FIELD_LEVEL_TABLE, writeTable(table))
+                    .putInt(BrightnessLevel.FIELD_ACTIVITY_TYPE, activityType)
+                    .putLong(BrightnessLevel.FIELD_LATITUDE, Double.doubleToLongBits(latitude))
+                    .putLong(BrightnessLevel.FIELD_LONGITUDE, Double.doubleToLongBits(longitude));
+        }
+        editor.apply();
+        Log.d(LOG_TAG, "Updated (enabled=" + mEnabled + ", activity=" + activityType + ")");
+        evaluate(null);
+    }
+
+    /**
+     * Apply the level for the current time and set the alarm for the next transition, called when the alarm fires or
+     * the watch boots
+     *
+     * @param listener
+     *         {@link BrightnessApplier.OnAppliedListener} notified once the level is applied, may be null
+     * @return {@link boolean} true if a level is being applied, false if the autonomous mode is disabled
+     */
+    public synchronized boolean onAlarm(BrightnessApplier.OnAppliedListener listener) {
+        return evaluate(listener);
+    }
+
+    /**
+     * @return {@link boolean} true if the watch switches between the day and night levels on its own
+     */
+    public synchronized boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Apply the level for the current time and set the alarm for the next transition, or cancel the alarm if the
+     * autonomous mode is disabled
+     *
+     * @param listener
+     *         {@link BrightnessApplier.OnAppliedListener} notified once the level is applied, may be null
+     * @return {@link boolean} true if a level is being applied
+     */
+    private boolean evaluate(BrightnessApplier.OnAppliedListener listener) {
+        if (!mEnabled || mDecisionTable == null) {
+            schedule(SolarEventCache.NO_EVENT);
+            return false;
+        }
+
+        BrightnessContext context = new BrightnessContext(mActivityType, SYNCED_CONFIDENCE, mLatitude, mLongitude,
+                System.currentTimeMillis(), mDecisionTable);
+        BrightnessDecision decision = mEngine.decide(context);
+        int brightnessLevel = DisplayCalibration.getDisplayLevel(mContext,
+                BrightnessLevel.getBrightnessLevel(decision.getLevel()));
+        Log.d(LOG_TAG, decision + " (level=" + brightnessLevel + ")");
+        BrightnessApplier.getInstance(mContext).applyLevel(brightnessLevel, listener);
+        schedule(mEngine.getNextSolarTransition(context));
+        return true;
+    }
+
+    /**
+     * @param transitionMillis
+     *         {@link long} time of the next sunrise or sunset in epoch millis, or {@link SolarEventCache#NO_EVENT} to
+     *         cancel the alarm
+     */
+    private void schedule(long transitionMillis) {
+        AlarmManager alarmManager = (AlarmManager) mContext.getSystemService(Context.ALARM_SERVICE);
+        PendingIntent pendingIntent = PendingIntent.getBroadcast(mContext, 0,
+                new Intent(mContext, AutonomousAlarmReceiver.class), PendingIntent.FLAG_UPDATE_CURRENT);
+        if (transitionMillis == SolarEventCache.NO_EVENT) {
+            alarmManager.cancel(pendingIntent);
+            return;
+        }
+        Log.d(LOG_TAG, "Next solar transition at " + transitionMillis);
+        alarmManager.setWindow(AlarmManager.RTC_WAKEUP, transitionMillis + TRANSITION_MARGIN_MILLIS, WINDOW_MILLIS,
+                pendingIntent);
+    }
+
+    /**
+     * @param table
+     *         {@link int[]} levels of a {@link BrightnessDecisionTable}
+     * @return {@link String} levels as stored in the preferences
+     */
+    private static String writeTable(int[] table) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < table.length; i++) {
+            if (i > 0) {
+                builder.append(TABLE_SEPARATOR);
+            }
+            builder.append(table[i]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @param value
+     *         {@link String} levels as stored in the preferences, may be null
+     * @return {@link BrightnessDecisionTable} or null if nothing valid was stored
+     */
+    private static BrightnessDecisionTable readTable(String value) {
+        if (TextUtils.isEmpty(value)) {
+            return null;
+        }
+        String[] parts = value.split(TABLE_SEPARATOR);
+        int[] table = new int[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                table[i] = Integer.parseInt(parts[i]);
+            }
+            return BrightnessDecisionTable.fromArray(table);
+        } catch (IllegalArgumentException e) {
+            Log.w(LOG_TAG, "Invalid level table: " + value);
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,375 @@
+package com.danvelazco.wear.displaybrightness.util;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.provider.Settings;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Applies brightness levels on the watch, smoothly ramping from the current level to the new one.
+ * <p/>
+ * Every {@link Settings.System} write goes through the settings provider and notifies every content observer, so the
+ * current mode and level are cached and writes that wouldn't change anything are skipped. The cache is invalidated
+ * whenever the settings change behind our back (e.g. the user changing the brightness on the watch), the observer
+ * also hears about our own writes and ignores them when the setting still holds the cached value.
+ * <p/>
+ * All the work happens on a dedicated {@link HandlerThread} fed through a {@link LatestValueMailbox}, so callers
+ * return immediately and levels that are already stale by the time the worker gets to them are never applied. If a
+ * new level arrives while a ramp is still running, the old ramp is cancelled and a new one starts from wherever the
+ * old one got to.
+ * <p/>
+ * Callers can be told when their level has been fully applied with an {@link OnAppliedListener}, only the listener of
+ * the latest level is kept.
+ */
+public class BrightnessApplier {
+
+    // Constants
+    private static final String LOG_TAG = "BrightnessApplier";
+    private static final int UNKNOWN = -1;
+
+    // Defaults
+    public static final long DEFAULT_RAMP_DURATION_MILLIS = 800;
+    public static final int DEFAULT_MAX_RAMP_STEPS = 8;
+
+    /**
+     * Notified on the applier's thread once a level is on the display
+     */
+    public interface OnAppliedListener {
+
+        /**
+         * @param brightnessLevel
+         *         {@link int} brightness level that was applied
+         */
+        void onApplied(int brightnessLevel);
+
+    }
+
+    /**
+     * Listener waiting for a level
+     */
+    private static class PendingListener {
+
+        final int mLevel;
+        final OnAppliedListener mListener;
+
+        PendingListener(int level, OnAppliedListener listener) {
+            mLevel = level;
+            mListener = listener;
+        }
+
+    }
+
+    // Singleton
+    private static BrightnessApplier sInstance;
+
+    // Members
+    private final ContentResolver mContentResolver;
+    private final Uri mLevelUri = Settings.System.getUriFor(Settings.System.SCREEN_BRIGHTNESS);
+    private final Uri mModeUri = Settings.System.getUriFor(Settings.System.SCREEN_BRIGHTNESS_MODE);
+    private final Handler mHandler;
+    private final LatestValueMailbox mMailbox = new LatestValueMailbox();
+    private final AtomicReference<PendingListener> mPendingListener = new AtomicReference<>();
+    private volatile long mRampDurationMillis = DEFAULT_RAMP_DURATION_MILLIS;
+    private volatile int mMaxRampSteps = DEFAULT_MAX_RAMP_STEPS;
+
+    // Only accessed from the handler thread
+    private boolean mCacheValid = false;
+    private int mCurrentMode = UNKNOWN;
+    private int mCurrentLevel = UNKNOWN;
+    private int mRampFrom;
+    private int mRampTarget = UNKNOWN;
+    private int mRampStep;
+    private int mRampSteps;
+    private long mRampStepDelayMillis;
+
+    // Statistics
+    private volatile int mWriteCount = 0;
+    private volatile int mSkippedCount = 0;
+    private volatile int mRetargetCount = 0;
+    private volatile int mEchoCount = 0;
+
+    /**
+     * Marks the cached values as stale when the brightness settings change
+     */
+    private final ContentObserver mSettingsObserver;
+
+    /**
+     * Takes the latest level out of the mailbox and ramps to it
+     */
+    private final Runnable mDrainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            int level = mMailbox.take();
+            if (level != LatestValueMailbox.EMPTY) {
+                startRamp(level);
+            }
+        }
+    };
+
+    /**
+     * Writes the next step of the current ramp
+     */
+    private final Runnable mRampStepRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mRampStep++;
+            int level = mRampFrom + ((mRampTarget - mRampFrom) * mRampStep) / mRampSteps;
+            writeLevel(level);
+            if (mRampStep < mRampSteps) {
+                mHandler.postDelayed(this, mRampStepDelayMillis);
+            } else {
+                mRampTarget = UNKNOWN;
+                notifyApplied(level);
+            }
+        }
+    };
+
+    /**
+     * Get the process wide instance
+     *
+     * @param context
+     *         {@link Context}
+     * @return {@link BrightnessApplier}
+     */
+    public static synchronized BrightnessApplier getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BrightnessApplier(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param context
+     *         {@link Context}
+     */
+    private BrightnessApplier(Context context) {
+        mContentResolver = context.getContentResolver();
+
+        HandlerThread thread = new HandlerThread(LOG_TAG);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+
+        mSettingsObserver = new ContentObserver(mHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                onChange(selfChange, null);
+            }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                if (mCacheValid && isEcho(uri)) {
+                    mEchoCount++;
+                    return;
+                }
+                mCacheValid = false;
+            }
+        };
+        registerObserver(mLevelUri);
+        registerObserver(mModeUri);
+    }
+
+    /**
+     * Ramp the display brightness to the given level. Returns immediately, the writes happen in the background.
+     *
+     * @param brightnessLevel
+     *         {@link int} brightness level from 10 to 255
+     */
+    public void applyLevel(int brightnessLevel) {
+        applyLevel(brightnessLevel, null);
+    }
+
+    /**
+     * Ramp the display brightness to the given level. Returns immediately, the writes happen in the background.
+     *
+     * @param brightnessLevel
+     *         {@link int} brightness level from 10 to 255
+     * @param listener
+     *         {@link OnAppliedListener} notified once the level is on the display, may be null. Not notified if the
+     *         level is replaced by a different one first or ignored because automatic brightness is on.
+     */
+    public void applyLevel(int brightnessLevel, OnAppliedListener listener) {
+        mPendingListener.set(listener != null ? new PendingListener(brightnessLevel, listener) : null);
+        if (mMailbox.offer(brightnessLevel)) {
+            mHandler.post(mDrainRunnable);
+        }
+    }
+
+    /**
+     * @param rampDurationMillis
+     *         {@link long} how long it takes to go from one level to another, 0 to jump straight to the new level
+     */
+    public void setRampDurationMillis(long rampDurationMillis) {
+        mRampDurationMillis = Math.max(0, rampDurationMillis);
+    }
+
+    /**
+     * @param maxRampSteps
+     *         {@link int} maximum number of writes used for a single ramp
+     */
+    public void setMaxRampSteps(int maxRampSteps) {
+        mMaxRampSteps = Math.max(1, maxRampSteps);
+    }
+
+    /**
+     * @return {@link int} number of brightness writes done
+     */
+    public int getWriteCount() {
+        return mWriteCount;
+    }
+
+    /**
+     * @return {@link int} number of levels that didn't need any write
+     */
+    public int getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    /**
+     * @return {@link int} number of levels dropped because a newer one arrived before they were applied
+     */
+    public int getDroppedCount() {
+        return mMailbox.getDroppedCount();
+    }
+
+    /**
+     * @return {@link int} number of ramps cancelled by a newer level
+     */
+    public int getRetargetCount() {
+        return mRetargetCount;
+    }
+
+    /**
+     * @return {@link int} number of settings changes ignored because they were our own writes
+     */
+    public int getEchoCount() {
+        return mEchoCount;
+    }
+
+    /**
+     * Start ramping to the target level, cancelling any running ramp. Must run on the handler thread.
+     *
+     * @param target
+     *         {@link int} brightness level from 10 to 255
+     */
+    private void startRamp(int target) {
+        refreshCacheIfNeeded();
+
+        if (mCurrentMode == Settings.System.SCREEN_BRIGHTNESS_MODE_AUTOMATIC) {
+            // Only change system brightness levels if the current mode is not in auto
+            Log.d(LOG_TAG, "Automatic brightness is on, ignoring level " + target);
+            return;
+        }
+
+        if (mRampTarget != UNKNOWN) {
+            if (mRampTarget == target) {
+                // Already on its way there
+                mSkippedCount++;
+                return;
+            }
+            mHandler.removeCallbacks(mRampStepRunnable);
+            mRampTarget = UNKNOWN;
+            mRetargetCount++;
+        }
+
+        if (mCurrentMode != Settings.System.SCREEN_BRIGHTNESS_MODE_MANUAL) {
+            BrightnessUtil.putSystemBrightnessMode(mContentResolver, Settings.System.SCREEN_BRIGHTNESS_MODE_MANUAL);
+            mCurrentMode = Settings.System.SCREEN_BRIGHTNESS_MODE_MANUAL;
+            mWriteCount++;
+        }
+
+        if (mCurrentLevel == target) {
+            mSkippedCount++;
+            notifyApplied(target);
+            return;
+        }
+
+        int distance = mCurrentLevel == UNKNOWN ? 0 : Math.abs(target - mCurrentLevel);
+        int steps = Math.min(mMaxRampSteps, distance);
+        if (steps <= 1 || mRampDurationMillis == 0) {
+            writeLevel(target);
+            notifyApplied(target);
+            return;
+        }
+
+        mRampFrom = mCurrentLevel;
+        mRampTarget = target;
+        mRampStep = 0;
+        mRampSteps = steps;
+        mRampStepDelayMillis = mRampDurationMillis / steps;
+        mRampStepRunnable.run();
+    }
+
+    /**
+     * Write the brightness level unless it's already set. Must run on the handler thread.
+     *
+     * @param level
+     *         {@link int} brightness level from 10 to 255
+     */
+    private void writeLevel(int level) {
+        if (level != mCurrentLevel) {
+            BrightnessUtil.putSystemBrightnessLevel(mContentResolver, level);
+            mCurrentLevel = level;
+            mWriteCount++;
+        }
+    }
+
+    /**
+     * Notify the listener waiting for the level, if any. Must run on the handler thread.
+     *
+     * @param level
+     *         {@link int} brightness level that was applied
+     */
+    private void notifyApplied(int level) {
+        PendingListener pending = mPendingListener.get();
+        if (pending != null && pending.mLevel == level && mPendingListener.compareAndSet(pending, null)) {
+            pending.mListener.onApplied(level);
+        }
+    }
+
+    /**
+     * Read the brightness mode and level if the cached values are no longer valid. Must run on the handler thread.
+     */
+    private void refreshCacheIfNeeded() {
+        if (!mCacheValid) {
+            // Mark as valid before reading, a change during the read invalidates it again
+            mCacheValid = true;
+            mCurrentMode = BrightnessUtil.getSystemBrightnessMode(mContentResolver);
+            mCurrentLevel = BrightnessUtil.getSystemBrightnessLevel(mContentResolver);
+        }
+    }
+
+    /**
+     * Whether a settings change is the echo of one of our writes, the setting then still holds the cached value. Must
+     * run on the handler thread, where the writes happen.
+     *
+     * @param uri
+     *         {@link Uri} of the setting that changed, null if unknown
+     * @return {@link boolean} true if the cached value is still right
+     */
+    private boolean isEcho(Uri uri) {
+        if (mLevelUri.equals(uri)) {
+            return BrightnessUtil.getSystemBrightnessLevel(mContentResolver) == mCurrentLevel;
+        }
+        if (mModeUri.equals(uri)) {
+            return BrightnessUtil.getSystemBrightnessMode(mContentResolver) == mCurrentMode;
+        }
+        return false;
+    }
+
+    /**
+     * @param uri
+     *         {@link Uri} of the setting to observe
+     */
+    private void registerObserver(Uri uri) {
+        mContentResolver.registerContentObserver(uri, false, mSettingsObserver);
+    }
+
+}
@@ -0,0 +1,80 @@
+package com.danvelazco.wear.displaybrightness.util;
+
+import com.danvelazco.wear.displaybrightness.shared.BrightnessPayload;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Discards brightness updates that are too old or arrive out of order.
+ * <p/>
+ * The same update can arrive twice (message and then data item fallback) and after being out of range the data layer
+ * can deliver an update long after it was sent, so the last sequence number applied from each phone is remembered.
+ */
+public class BrightnessUpdateFilter {
+
+    // Results
+    public static final int ACCEPT = 0;
+    public static final int DUPLICATE = 1;
+    public static final int OUT_OF_ORDER = 2;
+    public static final int STALE = 3;
+
+    /**
+     * Updates older than this are ignored, the phone sends a fresh one on its next activity detection
+     */
+    public static final long DEFAULT_MAX_AGE_MILLIS = 30 * 60 * 1000;
+
+    // Members
+    private final Map<String, Long> mLastSequences = new HashMap<>();
+    private long mMaxAgeMillis = DEFAULT_MAX_AGE_MILLIS;
+
+    // Statistics
+    private int mDiscardedCount = 0;
+
+    /**
+     * Check whether the update should be applied, remembering its sequence number if so
+     *
+     * @param sourceNodeId
+     *         {@link String} node that sent the update
+     * @param payload
+     *         {@link BrightnessPayload} decoded update
+     * @param nowMillis
+     *         {@link long} current time in epoch millis
+     * @return {@link int} {@link #ACCEPT} or the reason it must be discarded
+     */
+    public synchronized int filter(String sourceNodeId, BrightnessPayload payload, long nowMillis) {
+        Long lastSequence = mLastSequences.get(sourceNodeId);
+        if (lastSequence != null) {
+            if (payload.getSequence() == lastSequence) {
+                mDiscardedCount++;
+                return DUPLICATE;
+            }
+            if (payload.getSequence() < lastSequence) {
+                mDiscardedCount++;
+                return OUT_OF_ORDER;
+            }
+        }
+        if (nowMillis - payload.getTimestamp() > mMaxAgeMillis) {
+            mDiscardedCount++;
+            return STALE;
+        }
+        mLastSequences.put(sourceNodeId, payload.getSequence());
+        return ACCEPT;
+    }
+
+    /**
+     * @param maxAgeMillis
+     *         {@link long} updates older than this are discarded
+     */
+    public synchronized void setMaxAgeMillis(long maxAgeMillis) {
+        mMaxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * @return {@link int} number of updates discarded
+     */
+    public synchronized int getDiscardedCount() {
+        return mDiscardedCount;
+    }
+
+}
@@ -1,6 +1,7 @@
 package com.danvelazco.wear.displaybrightness.util;
 
 import android.Manifest;
+import android.content.ContentResolver;
 import android.content.Context;
 import android.provider.Settings;
 
@@ -18,14 +19,51 @@ public class BrightnessUtil {
      * @param brightnessLevel {@link int} brightness level from 10 to 255
      */
     public static void setSystemBrightnessLevel(Context context, int brightnessLevel) {
-        int currentMode = Settings.System.getInt(context.getContentResolver(), Settings.System.SCREEN_BRIGHTNESS_MODE,
-                Settings.System.SCREEN_BRIGHTNESS_MODE_MANUAL);
+        int currentMode = getSystemBrightnessMode(context.getContentResolver());
         if (currentMode != Settings.System.SCREEN_BRIGHTNESS_MODE_AUTOMATIC) {
             // Only change system brightness levels if the current mode is not in auto
-            Settings.System.putInt(context.getContentResolver(), Settings.System.SCREEN_BRIGHTNESS_MODE,
-                    Settings.System.SCREEN_BRIGHTNESS_MODE_MANUAL);
-            Settings.System.putInt(context.getContentResolver(), Settings.System.SCREEN_BRIGHTNESS, brightnessLevel);
+            putSystemBrightnessMode(context.getContentResolver(), Settings.System.SCREEN_BRIGHTNESS_MODE_MANUAL);
+            putSystemBrightnessLevel(context.getContentResolver(), brightnessLevel);
         }
     }
 
+    /**
+     * @param contentResolver {@link ContentResolver}
+     * @return {@link int} {@link Settings.System#SCREEN_BRIGHTNESS_MODE_MANUAL} or {@link
+     * Settings.System#SCREEN_BRIGHTNESS_MODE_AUTOMATIC}
+     */
+    public static int getSystemBrightnessMode(ContentResolver contentResolver) {
+        return Settings.System.getInt(contentResolver, Settings.System.SCREEN_BRIGHTNESS_MODE,
+                Settings.System.SCREEN_BRIGHTNESS_MODE_MANUAL);
+    }
+
+    /**
+     * @param contentResolver {@link ContentResolver}
+     * @return {@link int} current brightness level from 0 to 255, or -1 if unknown
+     */
+    public static int getSystemBrightnessLevel(ContentResolver contentResolver) {
+        return Settings.System.getInt(contentResolver, Settings.System.SCREEN_BRIGHTNESS, -1);
+    }
+
+    /**
+     * Requires permission {@link Manifest.permission#WRITE_SETTINGS}
+     *
+     * @param contentResolver {@link ContentResolver}
+     * @param mode {@link int} {@link Settings.System#SCREEN_BRIGHTNESS_MODE_MANUAL} or {@link
+     * Settings.System#SCREEN_BRIGHTNESS_MODE_AUTOMATIC}
+     */
+    public static void putSystemBrightnessMode(ContentResolver contentResolver, int mode) {
+        Settings.System.putInt(contentResolver, Settings.System.SCREEN_BRIGHTNESS_MODE, mode);
+    }
+
+    /**
+     * Requires permission {@link Manifest.permission#WRITE_SETTINGS}
+     *
+     * @param contentResolver {@link ContentResolver}
+     * @param brightnessLevel {@link int} brightness level from 10 to 255
+     */
+    public static void putSystemBrightnessLevel(ContentResolver contentResolver, int brightnessLevel) {
+        Settings.System.putInt(contentResolver, Settings.System.SCREEN_BRIGHTNESS, brightnessLevel);
+    }
+
 }
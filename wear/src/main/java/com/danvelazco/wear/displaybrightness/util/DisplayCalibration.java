@@ -0,0 +1,43 @@
+package com.danvelazco.wear.displaybrightness.util;
+
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+import com.danvelazco.wear.displaybrightness.shared.BrightnessProfile;
+
+/**
+ * Turns levels on the default 10 to 255 scale into what this watch's display should be set to: the level is blended
+ * with the ambient light by the {@link AmbientLightSampler}, then mapped through the {@link BrightnessProfile} of the
+ * display.
+ */
+public class DisplayCalibration {
+
+    // Constants
+    private static final String LOG_TAG = "DisplayCalibration";
+
+    // Calibration of this watch's display, its tables are computed once per process
+    private static BrightnessProfile sProfile;
+
+    /**
+     * @return {@link BrightnessProfile} of this watch's display
+     */
+    public static synchronized BrightnessProfile getProfile() {
+        if (sProfile == null) {
+            sProfile = BrightnessProfile.forModel(Build.MODEL);
+            Log.d(LOG_TAG, "Using " + sProfile + " for " + Build.MODEL);
+        }
+        return sProfile;
+    }
+
+    /**
+     * @param context
+     *         {@link Context}
+     * @param brightnessLevel
+     *         {@link int} level on the default 10 to 255 scale
+     * @return {@link int} brightness level to write to the display settings
+     */
+    public static int getDisplayLevel(Context context, int brightnessLevel) {
+        return getProfile().getFineBrightnessLevel(AmbientLightSampler.getInstance(context).fuse(brightnessLevel));
+    }
+
+}
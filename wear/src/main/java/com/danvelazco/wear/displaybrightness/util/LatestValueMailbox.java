@@ -0,0 +1,57 @@
+package com.danvelazco.wear.displaybrightness.util;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free single slot mailbox where the newest value always wins.
+ * <p/>
+ * Producers call {@link #offer(int)} from any thread, replacing whatever value was still waiting, and schedule a
+ * drain on the consumer's worker when told to. The worker calls {@link #take()} and only ever sees the latest value,
+ * intermediate values are dropped.
+ */
+public class LatestValueMailbox {
+
+    /**
+     * Returned by {@link #take()} when there is nothing waiting
+     */
+    public static final int EMPTY = Integer.MIN_VALUE;
+
+    // Members
+    private final AtomicInteger mValue = new AtomicInteger(EMPTY);
+    private final AtomicBoolean mDrainScheduled = new AtomicBoolean(false);
+    private final AtomicInteger mDroppedCount = new AtomicInteger(0);
+
+    /**
+     * Put a value in the mailbox, replacing the one still waiting, if any
+     *
+     * @param value
+     *         {@link int} anything but {@link #EMPTY}
+     * @return {@link boolean} true if the caller must schedule a drain on the worker, false if one is already pending
+     */
+    public boolean offer(int value) {
+        if (mValue.getAndSet(value) != EMPTY) {
+            mDroppedCount.incrementAndGet();
+        }
+        return mDrainScheduled.compareAndSet(false, true);
+    }
+
+    /**
+     * Take the latest value out of the mailbox, must only be called from the worker
+     *
+     * @return {@link int} the latest value or {@link #EMPTY}
+     */
+    public int take() {
+        // Clear the flag first, an offer racing with us schedules another (possibly empty) drain
+        mDrainScheduled.set(false);
+        return mValue.getAndSet(EMPTY);
+    }
+
+    /**
+     * @return {@link int} number of values replaced before the worker got to them
+     */
+    public int getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+}
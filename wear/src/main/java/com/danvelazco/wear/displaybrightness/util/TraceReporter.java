@@ -0,0 +1,110 @@
+package com.danvelazco.wear.displaybrightness.util;
+
+import android.content.Context;
+import android.util.Log;
+import com.danvelazco.wear.displaybrightness.shared.BrightnessLevel;
+import com.danvelazco.wear.displaybrightness.shared.LatencyTrace;
+import com.danvelazco.wear.displaybrightness.shared.LatencyTraceStats;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.DataMap;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the {@link LatencyTrace} of every applied level and reports it back to the phone that sent it, so the whole
+ * trip from the activity detection to the display can be looked at on the phone.
+ * <p/>
+ * Reports are sent from a single background thread with a client of its own, the listener service that received the
+ * level is usually gone by the time the level has been ramped to.
+ */
+public class TraceReporter {
+
+    // Constants
+    private static final String LOG_TAG = "TraceReporter";
+    private static final long CONNECTION_TIMEOUT_SECONDS = 10;
+
+    // Singleton
+    private static TraceReporter sInstance;
+
+    // Members
+    private final GoogleApiClient mGoogleApiClient;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final LatencyTraceStats mTraceStats = new LatencyTraceStats();
+
+    /**
+     * Get the process wide instance
+     *
+     * @param context
+     *         {@link Context}
+     * @return {@link TraceReporter}
+     */
+    public static synchronized TraceReporter getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new TraceReporter(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param context
+     *         {@link Context}
+     */
+    private TraceReporter(Context context) {
+        mGoogleApiClient = new GoogleApiClient.Builder(context)
+                .addApi(Wearable.API)
+                .build();
+    }
+
+    /**
+     * Record a trace stamped up to {@link LatencyTrace#STAGE_APPLIED} and send it to the phone in the background
+     *
+     * @param nodeId
+     *         {@link String} node that sent the level, nothing is sent if null
+     * @param sequence
+     *         {@link long} sequence number of the level
+     * @param trace
+     *         {@link LatencyTrace} not modified afterwards
+     */
+    public void report(final String nodeId, final long sequence, final LatencyTrace trace) {
+        mTraceStats.record(trace, LatencyTrace.STAGE_CONTEXT_READY);
+        Log.d(LOG_TAG, trace.toString());
+        if (nodeId == null) {
+            return;
+        }
+
+        final long[] stamps = trace.toArray();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!mGoogleApiClient.isConnected()) {
+                    ConnectionResult connectionResult = mGoogleApiClient.blockingConnect(CONNECTION_TIMEOUT_SECONDS,
+                            TimeUnit.SECONDS);
+                    if (!connectionResult.isSuccess()) {
+                        Log.w(LOG_TAG, "Unable to connect to report trace: " + connectionResult);
+                        return;
+                    }
+                }
+
+                DataMap report = new DataMap();
+                report.putLong(BrightnessLevel.FIELD_SEQUENCE, sequence);
+                report.putLongArray(BrightnessLevel.FIELD_TRACE, stamps);
+                Wearable.MessageApi.sendMessage(mGoogleApiClient, nodeId, BrightnessLevel.PATH_BRIGHTNESS_TRACE,
+                        report.toByteArray()).await(CONNECTION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            }
+        });
+    }
+
+    /**
+     * @return {@link LatencyTraceStats} of the levels applied on this watch
+     */
+    public LatencyTraceStats getTraceStats() {
+        return mTraceStats;
+    }
+
+}
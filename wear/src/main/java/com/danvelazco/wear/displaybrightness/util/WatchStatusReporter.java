@@ -0,0 +1,177 @@
+package com.danvelazco.wear.displaybrightness.util;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.util.Log;
+import com.danvelazco.wear.displaybrightness.shared.BrightnessLevel;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.DataMap;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the phone up to date with the battery state of the watch for its policy rules.
+ * <p/>
+ * The state goes with every acknowledgement, but the phone doesn't send levels that don't change, so it's also put in
+ * a data item on {@link BrightnessLevel#PATH_WATCH_STATUS} whenever it changed since the last one. That happens when
+ * the battery gets low or okay again, when the charger is plugged in or out, and whenever the phone sends something.
+ * The data layer keeps the item, a phone that's out of range gets it once it's back.
+ * <p/>
+ * Items are put from a single background thread with a client of its own, like the {@link TraceReporter}.
+ */
+public class WatchStatusReporter {
+
+    /**
+     * Used when the charging state must be read from the battery
+     */
+    public static final int CHARGING_FROM_BATTERY = -1;
+
+    // Constants
+    private static final String LOG_TAG = "WatchStatusReporter";
+    private static final long CONNECTION_TIMEOUT_SECONDS = 10;
+    private static final int UNKNOWN_PERCENT = -1;
+
+    // Singleton
+    private static WatchStatusReporter sInstance;
+
+    // Members
+    private final Context mContext;
+    private final GoogleApiClient mGoogleApiClient;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    // State, only used by the executor
+    private int mReportedPercent = UNKNOWN_PERCENT;
+    private boolean mReportedCharging = false;
+    private boolean mReported = false;
+
+    /**
+     * Get the process wide instance
+     *
+     * @param context
+     *         {@link Context}
+     * @return {@link WatchStatusReporter}
+     */
+    public static synchronized WatchStatusReporter getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WatchStatusReporter(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param context
+     *         {@link Context}
+     */
+    private WatchStatusReporter(Context context) {
+        mContext = context;
+        mGoogleApiClient = new GoogleApiClient.Builder(context)
+                .addApi(Wearable.API)
+                .build();
+    }
+
+    /**
+     * Put the battery level and charging state of the watch in the data map, nothing is put if the battery can't be
+     * read
+     *
+     * @param context
+     *         {@link Context}
+     * @param dataMap
+     *         {@link DataMap} an acknowledgement or the status data item
+     */
+    public static void putBatteryState(Context context, DataMap dataMap) {
+        putBatteryState(context, dataMap, CHARGING_FROM_BATTERY);
+    }
+
+    /**
+     * Report the battery state in the background if it changed since the last report
+     *
+     * @param charging
+     *         {@link int} 1 if a charger was just plugged in, 0 if it was just unplugged, or {@link
+     *         #CHARGING_FROM_BATTERY}. The battery may not know about it yet right after the broadcast.
+     * @param onDone
+     *         {@link Runnable} run on the background thread once the report is sent or skipped, may be null
+     */
+    public void report(final int charging, final Runnable onDone) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sendIfChanged(charging);
+                } finally {
+                    if (onDone != null) {
+                        onDone.run();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @param charging
+     *         {@link int} see {@link #report(int, Runnable)}
+     */
+    private void sendIfChanged(int charging) {
+        DataMap status = new DataMap();
+        putBatteryState(mContext, status, charging);
+        if (!status.containsKey(BrightnessLevel.FIELD_CHARGING)) {
+            return;
+        }
+        int percent = status.getInt(BrightnessLevel.FIELD_BATTERY_PERCENT, UNKNOWN_PERCENT);
+        boolean plugged = status.getBoolean(BrightnessLevel.FIELD_CHARGING);
+        if (mReported && percent == mReportedPercent && plugged == mReportedCharging) {
+            return;
+        }
+
+        if (!mGoogleApiClient.isConnected()) {
+            ConnectionResult connectionResult = mGoogleApiClient.blockingConnect(CONNECTION_TIMEOUT_SECONDS,
+                    TimeUnit.SECONDS);
+            if (!connectionResult.isSuccess()) {
+                Log.w(LOG_TAG, "Unable to connect to report the battery: " + connectionResult);
+                return;
+            }
+        }
+        PutDataMapRequest request = PutDataMapRequest.create(BrightnessLevel.PATH_WATCH_STATUS);
+        request.getDataMap().putAll(status);
+        request.getDataMap().putLong(BrightnessLevel.FIELD_STATUS_TIME, System.currentTimeMillis());
+        boolean success = Wearable.DataApi.putDataItem(mGoogleApiClient, request.asPutDataRequest())
+                .await(CONNECTION_TIMEOUT_SECONDS, TimeUnit.SECONDS).getStatus().isSuccess();
+        if (success) {
+            mReported = true;
+            mReportedPercent = percent;
+            mReportedCharging = plugged;
+        }
+        Log.d(LOG_TAG, "Battery " + percent + "% charging=" + plugged + " reported=" + success);
+    }
+
+    /**
+     * @param context
+     *         {@link Context}
+     * @param dataMap
+     *         {@link DataMap} to put the state in
+     * @param charging
+     *         {@link int} see {@link #report(int, Runnable)}
+     */
+    private static void putBatteryState(Context context, DataMap dataMap, int charging) {
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null) {
+            return;
+        }
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        if (level >= 0 && scale > 0) {
+            dataMap.putInt(BrightnessLevel.FIELD_BATTERY_PERCENT, level * 100 / scale);
+        }
+        dataMap.putBoolean(BrightnessLevel.FIELD_CHARGING, charging == CHARGING_FROM_BATTERY
+                ? battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0 : charging != 0);
+    }
+
+}